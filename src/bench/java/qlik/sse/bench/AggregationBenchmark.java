@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import qlik.sse.plugin.stats.NumericSummary;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the original SumOfColumn accumulation (a boxed Double per batch
+ * in a List, summed with plain addition in reduce()) with NumericSummary,
+ * for speed and for accuracy against the exact sum.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.AggregationBenchmark [rows] [batches] [iterations]
+ * </pre>
+ */
+public class AggregationBenchmark {
+    private static double sink;
+
+    public static void main(String[] args) {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int batchCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        // large values with small fractions: the fractions are what a naive sum loses.
+        Random random = new Random(1);
+        double[][] batches = new double[batchCount][rowCount];
+        for (double[] batch : batches) {
+            for (int r = 0; r < rowCount; r++) {
+                batch[r] = (random.nextBoolean() ? 1e9 : -1e9) + random.nextDouble();
+            }
+        }
+
+        System.out.printf("rows/batch=%d batches=%d iterations=%d%n", rowCount, batchCount, iterations);
+
+        System.out.printf("%nAccuracy of the sum%n");
+        BigDecimal exact = BigDecimal.ZERO;
+        for (double[] batch : batches) {
+            for (double value : batch) {
+                exact = exact.add(new BigDecimal(value));
+            }
+        }
+        System.out.printf("  exact                 %.6f%n", exact);
+        System.out.printf("  boxed list, naive     %.6f (error %.3g)%n",
+                naiveSum(batches), naiveSum(batches) - exact.doubleValue());
+        System.out.printf("  NumericSummary        %.6f (error %.3g)%n",
+                summarize(batches).getSum(), summarize(batches).getSum() - exact.doubleValue());
+
+        System.out.printf("%nOne stream of %d batches%n", batchCount);
+        Bench.header();
+        Bench.Result naive = Bench.run("sum, boxed list, naive (original)", iterations,
+                () -> sink += naiveSum(batches));
+        Bench.Result sum = Bench.run("NumericSummary (all statistics)", iterations,
+                () -> sink += summarize(batches).getSum());
+        Bench.speedup(naive, sum);
+        Bench.Result sumOnly = Bench.run("NumericSummary (without variance)", iterations,
+                () -> sink += summarize(batches, false).getSum());
+        Bench.speedup(naive, sumOnly);
+
+        NumericSummary whole = summarize(batches);
+        Bench.Result merged = Bench.run("NumericSummary, 4 partials + merge", iterations, () -> {
+            NumericSummary[] partials = new NumericSummary[4];
+            for (int p = 0; p < partials.length; p++) {
+                partials[p] = new NumericSummary();
+            }
+            for (int b = 0; b < batchCount; b++) {
+                partials[b % partials.length].add(batches[b]);
+            }
+            NumericSummary result = new NumericSummary();
+            for (NumericSummary partial : partials) {
+                result.merge(partial);
+            }
+            sink += result.getSum();
+        });
+        Bench.speedup(sum, merged);
+
+        NumericSummary parallel = Arrays.stream(batches).parallel()
+                .collect(NumericSummary::new, NumericSummary::add, NumericSummary::merge);
+        System.out.printf("%nmerged in parallel vs one pass (%d cpus):%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("  sum      %.6f vs %.6f%n", parallel.getSum(), whole.getSum());
+        System.out.printf("  variance %.6f vs %.6f%n", parallel.getVariance(), whole.getVariance());
+
+        BigDecimal n = BigDecimal.valueOf(whole.getCount());
+        BigDecimal squares = BigDecimal.ZERO;
+        for (double[] batch : batches) {
+            for (double value : batch) {
+                BigDecimal delta = new BigDecimal(value).multiply(n).subtract(exact);
+                squares = squares.add(delta.multiply(delta));
+            }
+        }
+        double exactVariance = squares.divide(n.multiply(n).multiply(n.subtract(BigDecimal.ONE)),
+                MathContext.DECIMAL64).doubleValue();
+        System.out.printf("  variance relative error %.3g%n", (whole.getVariance() - exactVariance) / exactVariance);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * What the original SumOfColumn did across aggregation() and reduce().
+     */
+    private static double naiveSum(double[][] batches) {
+        List<Double> results = new ArrayList<>();
+        for (double[] batch : batches) {
+            double columnSum = 0;
+            for (double value : batch) {
+                columnSum += value;
+            }
+            results.add(columnSum);
+        }
+        double sum = 0;
+        for (double d : results) {
+            sum += d;
+        }
+        return sum;
+    }
+
+    private static NumericSummary summarize(double[][] batches) {
+        return summarize(batches, true);
+    }
+
+    private static NumericSummary summarize(double[][] batches, boolean variance) {
+        NumericSummary summary = new NumericSummary(variance);
+        for (double[] batch : batches) {
+            summary.add(batch);
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A minimal single-threaded measurement harness: runs a task repeatedly after
+ * a warm-up and reports the time and heap allocation per operation, and the
+ * garbage collections that happened while it was measured.
+ */
+final class Bench {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The result of measuring one task.
+     */
+    static final class Result {
+        final String name;
+        final double nanosPerOp;
+        final double bytesPerOp;
+        final long gcCount;
+        final long gcMillis;
+
+        Result(String name, double nanosPerOp, double bytesPerOp, long gcCount, long gcMillis) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    /**
+     * Print the header for rows printed by print().
+     */
+    static void header() {
+        System.out.printf("%-44s %14s %14s %6s %8s%n", "benchmark", "us/op", "KB alloc/op", "GCs", "GC ms");
+    }
+
+    /**
+     * Measure a task and print the result.
+     *
+     * @param name the name to print.
+     * @param iterations the number of measured iterations; the same number are run first as warm-up.
+     * @param task the task.
+     * @return the result.
+     */
+    static Result run(String name, int iterations, Runnable task) {
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = allocatedBytes() - bytesBefore;
+
+        Result result = new Result(name, (double) nanos / iterations, (double) bytes / iterations,
+                gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+        System.out.printf("%-44s %14.1f %14.1f %6d %8d%n", name, result.nanosPerOp / 1000, result.bytesPerOp / 1024,
+                result.gcCount, result.gcMillis);
+        return result;
+    }
+
+    /**
+     * Print how much faster one result is than another.
+     */
+    static void speedup(Result baseline, Result candidate) {
+        System.out.printf("  -> %s is %.2fx faster than %s%n", candidate.name,
+                baseline.nanosPerOp / candidate.nanosPerOp, baseline.name);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private Bench() { }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Row;
+import qlik.sse.plugin.FunctionRegistry;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.sample.SampleCapabilities;
+import qlik.sse.plugin.sample.SampleCapabilitiesRegistry;
+import qlik.sse.plugin.sample.SumOfColumn;
+import qlik.sse.plugin.sample.SumOfRows;
+
+import java.util.Random;
+
+/**
+ * Compares the columnar SumOfRows / SumOfColumn with the original
+ * implementations that walk rows.getRowsList() and read each Dual.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.ColumnarBenchmark [rows] [iterations]
+ * </pre>
+ */
+public class ColumnarBenchmark {
+    private static double sink;
+
+    public static void main(String[] args) {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        BundledRows rows = numericRows(rowCount, 2);
+        BundledRows column = numericRows(rowCount, 1);
+        FunctionRegistry registry = new SampleCapabilitiesRegistry();
+        SumOfRows sumOfRows = (SumOfRows) registry.newFunction(SampleCapabilities.SUM_OF_ROWS);
+        SumOfColumn sumOfColumn = (SumOfColumn) registry.newFunction(SampleCapabilities.SUM_OF_COLUMN);
+        ColumnarBatch columns = ColumnarBatch.fromRows(rows, sumOfRows.getParms());
+
+        System.out.printf("rows/batch=%d columns=2 iterations=%d%n%n", rowCount, iterations);
+        Bench.header();
+
+        Bench.Result rowWise = Bench.run("SumOfRows row-wise (original)", iterations,
+                () -> sink += rowWiseSumOfRows(rows).getRowsCount());
+        Bench.Result columnar = Bench.run("SumOfRows columnar (incl. conversion)", iterations,
+                () -> sink += sumOfRows.tensor(rows).getRowsCount());
+        Bench.Result kernel = Bench.run("SumOfRows columnar kernel only", iterations,
+                () -> sink += sumOfRows.tensor(columns).getRowCount());
+        Bench.speedup(rowWise, columnar);
+        Bench.speedup(rowWise, kernel);
+        System.out.println();
+
+        Bench.Result rowWiseAgg = Bench.run("SumOfColumn row-wise (original)", iterations,
+                () -> sink += rowWiseSumOfColumn(column));
+        Bench.Result columnarAgg = Bench.run("SumOfColumn columnar (incl. conversion)", iterations,
+                () -> sumOfColumn.aggregation(column));
+        Bench.Result conversion = Bench.run("BundledRows -> ColumnarBatch only", iterations,
+                () -> sink += ColumnarBatch.fromRows(column, sumOfColumn.getParms()).getRowCount());
+        sumOfColumn.reduce();
+        Bench.speedup(rowWiseAgg, columnarAgg);
+        System.out.printf("%nconversion share of columnar SumOfColumn: %.0f%%%n",
+                100 * conversion.nanosPerOp / columnarAgg.nanosPerOp);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    static BundledRows numericRows(int rowCount, int columnCount) {
+        Random random = new Random(1);
+        BundledRows.Builder builder = BundledRows.newBuilder();
+        for (int r = 0; r < rowCount; r++) {
+            Row.Builder row = Row.newBuilder();
+            for (int c = 0; c < columnCount; c++) {
+                row.addDuals(Dual.newBuilder().setNumData(random.nextDouble() * 1000));
+            }
+            builder.addRows(row);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The original SumOfRows.tensor().
+     */
+    private static BundledRows rowWiseSumOfRows(BundledRows rows) {
+        BundledRows.Builder result = BundledRows.newBuilder();
+        Row.Builder rowBuilder;
+        Dual.Builder dualBuilder;
+        double rowSum;
+        for (Row row : rows.getRowsList()) {
+            rowBuilder = Row.newBuilder();
+            dualBuilder = Dual.newBuilder();
+            rowSum = 0;
+            for (Dual dual : row.getDualsList()) {
+                rowSum += dual.getNumData();
+            }
+            result.addRows(rowBuilder.addDuals(dualBuilder.setNumData(rowSum)));
+        }
+        return result.build();
+    }
+
+    /**
+     * The per-batch part of the original SumOfColumn.aggregation().
+     */
+    private static double rowWiseSumOfColumn(BundledRows rows) {
+        double columnSum = 0;
+        for (Row row : rows.getRowsList()) {
+            columnSum += row.getDuals(0).getNumData();
+        }
+        return columnSum;
+    }
+}
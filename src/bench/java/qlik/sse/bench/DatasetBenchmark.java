@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Parameter;
+import qlik.sse.ServerSideExtension.Row;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.staging.Dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Measures how much heap a whole-dataset function holds on to while it
+ * waits for the last batch: keeping the parsed BundledRows of every batch
+ * (what a function without staging has to do) against staging the rows in
+ * a Dataset, on the heap and spilled to memory-mapped files. Each row holds
+ * a number and a short string.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.DatasetBenchmark [rows] [batchRows]
+ * </pre>
+ */
+public class DatasetBenchmark {
+    private static final List<Parameter> PARMS = Arrays.asList(
+            Parameter.newBuilder().setName("number").setDataType(DataType.NUMERIC).build(),
+            Parameter.newBuilder().setName("string").setDataType(DataType.STRING).build());
+
+    public static void main(String[] args) {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int batchRows = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        List<byte[]> batches = new ArrayList<>();
+        for (int start = 0; start < rowCount; start += batchRows) {
+            BundledRows.Builder batch = BundledRows.newBuilder();
+            for (int r = start; r < Math.min(rowCount, start + batchRows); r++) {
+                batch.addRows(Row.newBuilder()
+                        .addDuals(Dual.newBuilder().setNumData(r * 0.5))
+                        .addDuals(Dual.newBuilder().setStrData("customer-" + r)));
+            }
+            batches.add(batch.build().toByteArray());
+        }
+        System.out.printf("rows=%d batchRows=%d%n%n", rowCount, batchRows);
+        System.out.printf("%-28s %14s %12s%n", "variant", "heap retained", "ms to stage");
+
+        report("Dataset on heap", () -> stage(batches, Integer.MAX_VALUE));
+        report("Dataset spilled (1 MB heap)", () -> stage(batches, 1 << 20));
+        report("BundledRows kept", () -> {
+            List<BundledRows> kept = new ArrayList<>();
+            for (byte[] data : batches) {
+                kept.add(InputBatch.wrap(data).getRows());
+            }
+            return kept;
+        });
+    }
+
+    private static Dataset stage(List<byte[]> batches, int spillBytes) {
+        Dataset data = new Dataset(spillBytes);
+        for (byte[] bytes : batches) {
+            data.append(InputBatch.wrap(bytes).getColumns(PARMS));
+        }
+        return data;
+    }
+
+    private static void report(String name, Supplier<Object> stage) {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Object retained = stage.get();
+        long millis = (System.nanoTime() - start) / 1000000;
+        long after = usedHeap();
+        System.out.printf("%-28s %11.1f MB %12d%n", name, (after - before) / 1e6, millis);
+        if (retained instanceof Dataset) {
+            ((Dataset) retained).close();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
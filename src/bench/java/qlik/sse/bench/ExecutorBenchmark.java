@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import qlik.sse.plugin.executor.BulkheadExecutor;
+import qlik.sse.plugin.executor.VirtualThreads;
+import qlik.sse.server.ServerProperties;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares platform-thread and virtual-thread bulkhead executors when a large
+ * number of concurrent streams run blocking-style function code.
+ *
+ * Each mode is run at the same concurrency: a pool of that many platform
+ * threads; a virtual thread per task with at most that many running, as
+ * the executors use with qlik.sse.threads=virtual; and a pool of that many
+ * virtual threads, for comparison.
+ *
+ * Each simulated stream processes its batches one at a time on a
+ * SerialExecutor, submitting the next batch only when the previous one is
+ * done, the same way FunctionStream drives a function. A batch blocks for
+ * a fixed time (standing in for disk or IPC I/O) and then does a little
+ * arithmetic.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.ExecutorBenchmark [streams] [batches] [blockMillis]
+ * </pre>
+ * Virtual threads are only measured when the jar was built and is run with Java 21+.
+ */
+public class ExecutorBenchmark {
+    private static final int BURST = Integer.parseInt(ServerProperties.PRIORITY_INTERACTIVE_BURST_DEFAULT);
+
+    public static void main(String[] args) throws Exception {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int batches = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int blockMillis = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("streams=%d batches/stream=%d block=%dms cpus=%d%n%n", streams, batches, blockMillis, cpus);
+        System.out.printf("%-32s %10s %14s %10s %10s%n", "executor", "wall ms", "batches/s", "p50 ms", "p99 ms");
+
+        // warm up the JIT on a small run of each kind of executor before measuring,
+        // so that the first one measured does not pay for it.
+        int warmup = Math.min(streams, 200);
+        run(new BulkheadExecutor("warmup", cpus, streams), warmup, 2, 1);
+        if (VirtualThreads.isSupported()) {
+            run(new BulkheadExecutor("warmup", warmup, streams, BURST, false,
+                    VirtualThreads.newThreadPerTaskExecutor("warmup")), warmup, 2, 1);
+            run(new BulkheadExecutor("warmup", warmup, streams,
+                    VirtualThreads.newThreadFactory("warmup")), warmup, 2, 1);
+        }
+
+        report("platform threads=" + cpus,
+                run(new BulkheadExecutor("platform-cpus", cpus, streams), streams, batches, blockMillis));
+        for (int concurrency : new int[] {200, streams}) {
+            report("platform threads=" + concurrency,
+                    run(new BulkheadExecutor("platform", concurrency, streams), streams, batches, blockMillis));
+            if (VirtualThreads.isSupported()) {
+                report("virtual per task, max=" + concurrency,
+                        run(new BulkheadExecutor("virtual", concurrency, streams, BURST, false,
+                                VirtualThreads.newThreadPerTaskExecutor("virtual")), streams, batches, blockMillis));
+                report("virtual pooled, threads=" + concurrency,
+                        run(new BulkheadExecutor("virtual-pool", concurrency, streams,
+                                VirtualThreads.newThreadFactory("virtual-pool")), streams, batches, blockMillis));
+            }
+        }
+        if (!VirtualThreads.isSupported()) {
+            System.out.println("virtual threads: not available (needs Java 21 and a jar built with the jdk21 profile)");
+        }
+    }
+
+    private static Result run(BulkheadExecutor executor, int streams, int batches, int blockMillis)
+            throws InterruptedException {
+        long[] latencies = new long[streams * batches];
+        AtomicInteger index = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(streams);
+
+        long start = System.nanoTime();
+        for (int s = 0; s < streams; s++) {
+            BulkheadExecutor.SerialExecutor stream = executor.newSerialExecutor();
+            submit(stream, batches, blockMillis, latencies, index, done);
+        }
+        done.await();
+        long wall = System.nanoTime() - start;
+        executor.shutdown();
+        return new Result(wall, latencies);
+    }
+
+    /**
+     * Submit one batch; when it finishes, submit the next one for the same stream.
+     */
+    private static void submit(BulkheadExecutor.SerialExecutor stream, int remaining, int blockMillis,
+                               long[] latencies, AtomicInteger index, CountDownLatch done) {
+        final long submitted = System.nanoTime();
+        stream.execute(() -> {
+            processBatch(blockMillis);
+            latencies[index.getAndIncrement()] = System.nanoTime() - submitted;
+            if (remaining > 1) {
+                submit(stream, remaining - 1, blockMillis, latencies, index, done);
+            } else {
+                done.countDown();
+            }
+        });
+    }
+
+    private static double sink;
+
+    private static void processBatch(int blockMillis) {
+        try {
+            Thread.sleep(blockMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double sum = 0;
+        for (int i = 0; i < 1000; i++) {
+            sum += i * 0.5;
+        }
+        sink += sum;
+    }
+
+    private static void report(String name, Result r) {
+        long[] sorted = r.latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-32s %10d %14.0f %10.1f %10.1f%n", name,
+                r.wallNanos / 1_000_000,
+                sorted.length / (r.wallNanos / 1e9),
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6);
+    }
+
+    private static class Result {
+        final long wallNanos;
+        final long[] latencies;
+
+        Result(long wallNanos, long[] latencies) {
+            this.wallNanos = wallNanos;
+            this.latencies = latencies;
+        }
+    }
+}
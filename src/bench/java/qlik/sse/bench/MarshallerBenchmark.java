@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Parameter;
+import qlik.sse.ServerSideExtension.Row;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.InputBatchMarshaller;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares receiving an ExecuteFunction batch with the standard protobuf
+ * marshaller against the columnar marshaller. Every variant starts from the
+ * serialized message, as it arrives from gRPC, and ends with the values of
+ * every column read.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.MarshallerBenchmark [rows] [iterations]
+ * </pre>
+ */
+public class MarshallerBenchmark {
+    private static final MethodDescriptor.Marshaller<BundledRows> PROTOBUF =
+            ProtoUtils.marshaller(BundledRows.getDefaultInstance());
+    private static final InputBatchMarshaller COLUMNAR = new InputBatchMarshaller();
+
+    private static double sink;
+
+    public static void main(String[] args) {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        List<Parameter> numeric = Arrays.asList(parameter(DataType.NUMERIC), parameter(DataType.NUMERIC));
+        List<Parameter> mixed = Arrays.asList(parameter(DataType.NUMERIC), parameter(DataType.STRING));
+        byte[] numericBytes = ColumnarBenchmark.numericRows(rowCount, 2).toByteArray();
+        byte[] mixedBytes = mixedRows(rowCount).toByteArray();
+
+        System.out.printf("rows/batch=%d iterations=%d%n", rowCount, iterations);
+        measure("2 x NUMERIC", numericBytes, numeric, rowCount, iterations, false);
+        measure("NUMERIC + STRING, strings read", mixedBytes, mixed, rowCount, iterations, true);
+        measure("NUMERIC + STRING, strings not read", mixedBytes, mixed, rowCount, iterations, false);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void measure(String title, byte[] bytes, List<Parameter> parms, int rowCount, int iterations,
+                                boolean readStrings) {
+        System.out.printf("%n%s (%d KB/batch)%n", title, bytes.length / 1024);
+        Bench.header();
+        Bench.Result rows = Bench.run("protobuf marshaller, walk rows", iterations, () -> {
+            BundledRows batch = PROTOBUF.parse(new ByteArrayInputStream(bytes));
+            for (Row row : batch.getRowsList()) {
+                sink += row.getDuals(0).getNumData();
+                if (readStrings) {
+                    sink += row.getDuals(1).getStrData().length();
+                } else {
+                    sink += row.getDuals(1).getNumData();
+                }
+            }
+        });
+        Bench.Result converted = Bench.run("protobuf marshaller + fromRows", iterations,
+                () -> read(ColumnarBatch.fromRows(PROTOBUF.parse(new ByteArrayInputStream(bytes)), parms), readStrings));
+        Bench.Result columnar = Bench.run("columnar marshaller", iterations,
+                () -> read(COLUMNAR.parse(new ByteArrayInputStream(bytes)).getColumns(parms), readStrings));
+        Bench.speedup(rows, columnar);
+        Bench.speedup(converted, columnar);
+        System.out.printf("  -> columnar marshaller throughput: %.1f M rows/s, %.0f MB/s%n",
+                rowCount / columnar.nanosPerOp * 1000, bytes.length / columnar.nanosPerOp * 1000);
+    }
+
+    private static void read(ColumnarBatch batch, boolean readStrings) {
+        double[] first = batch.getDoubleColumn(0).values();
+        for (double value : first) {
+            sink += value;
+        }
+        if (batch.getColumn(1).getDataType() == DataType.STRING) {
+            if (readStrings) {
+                for (int r = 0; r < batch.getRowCount(); r++) {
+                    sink += batch.getStringColumn(1).get(r).length();
+                }
+            }
+        } else {
+            for (double value : batch.getDoubleColumn(1).values()) {
+                sink += value;
+            }
+        }
+    }
+
+    private static Parameter parameter(DataType dataType) {
+        return Parameter.newBuilder().setDataType(dataType).build();
+    }
+
+    private static BundledRows mixedRows(int rowCount) {
+        Random random = new Random(1);
+        BundledRows.Builder builder = BundledRows.newBuilder();
+        for (int r = 0; r < rowCount; r++) {
+            builder.addRows(Row.newBuilder()
+                    .addDuals(Dual.newBuilder().setNumData(random.nextDouble() * 1000))
+                    .addDuals(Dual.newBuilder().setStrData("customer-" + random.nextInt(100000))));
+        }
+        return builder.build();
+    }
+}
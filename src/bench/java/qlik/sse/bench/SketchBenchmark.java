@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import qlik.sse.plugin.stats.HeavyHitters;
+import qlik.sse.plugin.stats.HyperLogLog;
+import qlik.sse.plugin.stats.KllSketch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares the sketches behind ApproxDistinctCount, ApproxPercentile and
+ * ApproxTopValues with exact computation: HashSet for distinct counts,
+ * sorting for percentiles and HashMap for value counts. Prints the error of
+ * each sketch, then the time and allocation of both approaches for one
+ * stream of values. The exact versions are given the values as Strings;
+ * the sketches work on the UTF-8 bytes, as they do in the functions.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.SketchBenchmark [values] [iterations]
+ * </pre>
+ */
+public class SketchBenchmark {
+    private static long sink;
+
+    public static void main(String[] args) {
+        int valueCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // skewed keys: a few very frequent values and a long tail.
+        Random random = new Random(1);
+        String[] strings = new String[valueCount];
+        double[] numbers = new double[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            int key = (int) Math.floor(Math.pow(valueCount, random.nextDouble()));
+            strings[i] = "customer-" + key;
+            numbers[i] = Math.exp(random.nextGaussian());
+        }
+        byte[] utf8 = String.join("", strings).getBytes(StandardCharsets.UTF_8);
+        int[] offsets = new int[valueCount];
+        int[] lengths = new int[valueCount];
+        for (int i = 0, offset = 0; i < valueCount; i++) {
+            offsets[i] = offset;
+            lengths[i] = strings[i].length();
+            offset += lengths[i];
+        }
+
+        System.out.printf("values=%d iterations=%d%n", valueCount, iterations);
+
+        System.out.printf("%nDistinct count (HyperLogLog, precision %d)%n", HyperLogLog.DEFAULT_PRECISION);
+        for (int cardinality : new int[] {100, 10_000, 1_000_000, 10_000_000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < cardinality; i++) {
+                sketch.add("value-" + i);
+            }
+            System.out.printf("  exact %,11d  estimate %,11d  error %+.2f%%%n", cardinality, sketch.cardinality(),
+                    100.0 * (sketch.cardinality() - cardinality) / cardinality);
+        }
+        Set<String> distinct = new HashSet<>(Arrays.asList(strings));
+        HyperLogLog whole = new HyperLogLog();
+        HyperLogLog[] parts = {new HyperLogLog(), new HyperLogLog(), new HyperLogLog(), new HyperLogLog()};
+        for (int i = 0; i < valueCount; i++) {
+            whole.add(utf8, offsets[i], lengths[i]);
+            parts[i % parts.length].add(utf8, offsets[i], lengths[i]);
+        }
+        HyperLogLog merged = new HyperLogLog();
+        for (HyperLogLog part : parts) {
+            merged.merge(part);
+        }
+        System.out.printf("  skewed data: exact %,d  estimate %,d  merged from 4 parts %,d%n",
+                distinct.size(), whole.cardinality(), merged.cardinality());
+
+        System.out.printf("%nPercentiles (KLL, k=%d)%n", KllSketch.DEFAULT_K);
+        double[] sorted = numbers.clone();
+        Arrays.sort(sorted);
+        KllSketch kll = new KllSketch();
+        KllSketch[] kllParts = {new KllSketch(), new KllSketch(), new KllSketch(), new KllSketch()};
+        for (int i = 0; i < valueCount; i++) {
+            kll.add(numbers[i]);
+            kllParts[i % kllParts.length].add(numbers[i]);
+        }
+        KllSketch kllMerged = new KllSketch();
+        for (KllSketch part : kllParts) {
+            kllMerged.merge(part);
+        }
+        System.out.printf("  retained %d of %d values%n", kll.getRetained(), kll.getCount());
+        for (double fraction : new double[] {0.01, 0.25, 0.5, 0.9, 0.99}) {
+            double exact = sorted[(int) Math.ceil(fraction * valueCount) - 1];
+            double estimate = kll.quantile(fraction);
+            System.out.printf("  p%-4s exact %.5f  estimate %.5f  rank error %+.3f%%  merged rank error %+.3f%%%n",
+                    fraction * 100, exact, estimate,
+                    100 * (rankOf(sorted, estimate) - fraction),
+                    100 * (rankOf(sorted, kllMerged.quantile(fraction)) - fraction));
+        }
+
+        System.out.printf("%nTop %d values (count-min sketch)%n", HeavyHitters.DEFAULT_CAPACITY);
+        Map<String, Long> exactCounts = new HashMap<>();
+        for (String s : strings) {
+            exactCounts.merge(s, 1L, Long::sum);
+        }
+        List<Map.Entry<String, Long>> exactTop = new ArrayList<>(exactCounts.entrySet());
+        exactTop.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        HeavyHitters hitters = new HeavyHitters();
+        for (int i = 0; i < valueCount; i++) {
+            hitters.add(utf8, offsets[i], lengths[i]);
+        }
+        List<Map.Entry<String, Long>> approxTop = hitters.top();
+        for (int i = 0; i < approxTop.size(); i++) {
+            Map.Entry<String, Long> approx = approxTop.get(i);
+            Map.Entry<String, Long> exact = exactTop.get(i);
+            System.out.printf("  %-16s %,9d   %-16s %,9d (exact %,d)%n", exact.getKey(), exact.getValue(),
+                    approx.getKey(), approx.getValue(), exactCounts.get(approx.getKey()));
+        }
+
+        System.out.printf("%nThroughput, one stream of %,d values%n", valueCount);
+        Bench.header();
+        Bench.Result exactDistinct = Bench.run("distinct count, HashSet", iterations, () -> {
+            Set<String> set = new HashSet<>();
+            for (String s : strings) {
+                set.add(s);
+            }
+            sink += set.size();
+        });
+        Bench.Result hll = Bench.run("distinct count, HyperLogLog", iterations, () -> {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < valueCount; i++) {
+                sketch.add(utf8, offsets[i], lengths[i]);
+            }
+            sink += sketch.cardinality();
+        });
+        Bench.speedup(exactDistinct, hll);
+        Bench.Result exactPercentile = Bench.run("median, sort", iterations, () -> {
+            double[] copy = numbers.clone();
+            Arrays.sort(copy);
+            sink += (long) copy[valueCount / 2];
+        });
+        Bench.Result kllRun = Bench.run("median, KLL", iterations, () -> {
+            KllSketch sketch = new KllSketch();
+            sketch.add(numbers, 0, valueCount);
+            sink += (long) sketch.quantile(0.5);
+        });
+        Bench.speedup(exactPercentile, kllRun);
+        Bench.Result exactHitters = Bench.run("top values, HashMap", iterations, () -> {
+            Map<String, Long> counts = new HashMap<>();
+            for (String s : strings) {
+                counts.merge(s, 1L, Long::sum);
+            }
+            List<Map.Entry<String, Long>> top = new ArrayList<>(counts.entrySet());
+            top.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+            sink += top.get(0).getValue();
+        });
+        Bench.Result cms = Bench.run("top values, count-min", iterations, () -> {
+            HeavyHitters sketch = new HeavyHitters();
+            for (int i = 0; i < valueCount; i++) {
+                sketch.add(utf8, offsets[i], lengths[i]);
+            }
+            sink += sketch.top().get(0).getValue();
+        });
+        Bench.speedup(exactHitters, cms);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * The fraction of the sorted values that are less than or equal to the value.
+     */
+    private static double rankOf(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (double) low / sorted.length;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import qlik.sse.ConnectorGrpc;
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Empty;
+import qlik.sse.ServerSideExtension.FunctionRequestHeader;
+import qlik.sse.ServerSideExtension.Row;
+import qlik.sse.plugin.JavaPlugin;
+import qlik.sse.server.PluginServer;
+import qlik.sse.server.PluginServerInterceptor;
+import qlik.sse.server.ServerProperties;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a plugin takes to start with each of the sample
+ * capability sets, and each setting of qlik.sse.function.init: the time
+ * until it has answered GetCapabilities, and until it has answered the
+ * first call to function 1 (which, with lazy initialization, pays for
+ * creating that function).
+ *
+ * Every measurement is made in a new JVM, since most of the cost of
+ * starting is loading and initializing classes, and the median of the
+ * runs is reported.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.StartupBenchmark [runs]
+ * </pre>
+ */
+public class StartupBenchmark {
+    private static final String[] CAPABILITIES = {
+            "qlik.sse.plugin.sample.SampleCapabilities",
+            "qlik.sse.plugin.aesencryption.AESCapabilities",
+            "qlik.sse.plugin.secsse.SecSSECapabilities"};
+    private static final String[] MODES = {
+            ServerProperties.FUNCTION_INIT_EAGER,
+            ServerProperties.FUNCTION_INIT_DEFAULT,
+            ServerProperties.FUNCTION_INIT_LAZY};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("child")) {
+            child(args[1], args[2]);
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+
+        System.out.printf("runs=%d cpus=%d%n%n", runs, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-46s %-11s %16s %16s%n", "capabilities", "init", "capabilities ms", "first call ms");
+        for (String capabilities : CAPABILITIES) {
+            for (String mode : MODES) {
+                List<Double> ready = new ArrayList<>();
+                List<Double> firstCall = new ArrayList<>();
+                for (int run = 0; run < runs; run++) {
+                    Process process = new ProcessBuilder(java, "-cp", classPath,
+                            StartupBenchmark.class.getName(), "child", capabilities, mode)
+                            .redirectErrorStream(true).start();
+                    String result = null;
+                    try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                        for (String line; (line = out.readLine()) != null; ) {
+                            if (line.startsWith("startup ")) {
+                                result = line;
+                            }
+                        }
+                    }
+                    if (process.waitFor() != 0 || result == null) {
+                        throw new IllegalStateException("Run for " + capabilities + " " + mode + " failed.");
+                    }
+                    String[] fields = result.split(" ");
+                    ready.add(Double.parseDouble(fields[1]));
+                    firstCall.add(Double.parseDouble(fields[2]));
+                }
+                System.out.printf("%-46s %-11s %16.1f %16.1f%n", capabilities, mode, median(ready), median(firstCall));
+            }
+        }
+    }
+
+    /**
+     * Start a plugin in process, as PluginServer would, and time it.
+     */
+    private static void child(String capabilities, String mode) throws Exception {
+        long start = System.nanoTime();
+        Properties props = new Properties(ServerProperties.getDefaultProperties());
+        props.setProperty(ServerProperties.CAPABILITIES, capabilities);
+        props.setProperty(ServerProperties.FUNCTION_INIT, mode);
+        JavaPlugin plugin = PluginServer.withProperties(props, JavaPlugin::new);
+        Server server = InProcessServerBuilder.forName("startup")
+                .addService(plugin.getServiceDefinition())
+                .intercept(new PluginServerInterceptor(plugin))
+                .build().start();
+        ManagedChannel channel = InProcessChannelBuilder.forName("startup").build();
+
+        ConnectorGrpc.newBlockingStub(channel).getCapabilities(Empty.getDefaultInstance());
+        double ready = (System.nanoTime() - start) / 1e6;
+
+        Metadata headers = new Metadata();
+        headers.put(Metadata.Key.of("qlik-functionrequestheader-bin", Metadata.BINARY_BYTE_MARSHALLER),
+                FunctionRequestHeader.newBuilder().setFunctionId(1).build().toByteArray());
+        CountDownLatch done = new CountDownLatch(1);
+        StreamObserver<BundledRows> request = MetadataUtils.attachHeaders(ConnectorGrpc.newStub(channel), headers)
+                .executeFunction(new StreamObserver<BundledRows>() {
+                    @Override
+                    public void onNext(BundledRows rows) { }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        t.printStackTrace();
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        done.countDown();
+                    }
+                });
+        Dual dual = Dual.newBuilder().setNumData(1).setStrData("value").build();
+        request.onNext(BundledRows.newBuilder().addRows(Row.newBuilder().addDuals(dual).addDuals(dual)).build());
+        request.onCompleted();
+        if (!done.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("The first call did not complete.");
+        }
+        double firstCall = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("startup %.1f %.1f%n", ready, firstCall);
+        channel.shutdownNow();
+        server.shutdownNow();
+        System.exit(0);
+    }
+
+    private static double median(List<Double> values) {
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+}
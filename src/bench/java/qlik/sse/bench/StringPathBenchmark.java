@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Row;
+import qlik.sse.plugin.FunctionRegistry;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.secsse.AESEncryptData;
+import qlik.sse.plugin.secsse.AESEncryption;
+import qlik.sse.plugin.secsse.SHA256HashData;
+import qlik.sse.plugin.secsse.SecSSECapabilities;
+import qlik.sse.plugin.secsse.SecSSECapabilitiesRegistry;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Compares the String path of the string functions (parse the request into
+ * Row / Dual messages, decode each value to a String, call the function and
+ * encode the result again) against the byte path (wrap the request, hand the
+ * function the UTF-8 bytes of each value and write the result bytes back).
+ * Both variants start from the serialized request, as received from gRPC.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.StringPathBenchmark [rows] [iterations]
+ * </pre>
+ */
+public class StringPathBenchmark {
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        BundledRows.Builder request = BundledRows.newBuilder();
+        for (int r = 0; r < rowCount; r++) {
+            request.addRows(Row.newBuilder().addDuals(Dual.newBuilder().setStrData("customer-" + r + "@example.com")));
+        }
+        byte[] data = request.build().toByteArray();
+
+        FunctionRegistry registry = new SecSSECapabilitiesRegistry();
+        SHA256HashData sha = (SHA256HashData) registry.newFunction(SecSSECapabilities.SHA256_HASH_DATA);
+        AESEncryption aes = new AESEncryption();
+        AESEncryptData encrypt = (AESEncryptData) registry.newFunction(SecSSECapabilities.AES_ENCRYPT_DATA);
+        ResultWriter out = new ResultWriter();
+
+        System.out.printf("rows/batch=%d iterations=%d%n", rowCount, iterations);
+
+        System.out.printf("%nSHA-256 hash%n");
+        Bench.header();
+        Bench.Result strings = Bench.run("String path", iterations, () -> {
+            for (Row row : parse(data).getRowsList()) {
+                out.addRow(sha.getSHA(row.getDuals(0).getStrData()));
+            }
+            finish(out);
+        });
+        Bench.Result bytes = Bench.run("byte path", iterations, () -> {
+            sha.tensor(InputBatch.wrap(data), out);
+            finish(out);
+        });
+        Bench.speedup(strings, bytes);
+
+        System.out.printf("%nAES encrypt%n");
+        Bench.header();
+        strings = Bench.run("String path", iterations, () -> {
+            for (Row row : parse(data).getRowsList()) {
+                out.addRow(aes.encrypt(row.getDuals(0).getStrData()));
+            }
+            finish(out);
+        });
+        bytes = Bench.run("byte path", iterations, () -> {
+            encrypt.tensor(InputBatch.wrap(data), out);
+            finish(out);
+        });
+        Bench.speedup(strings, bytes);
+    }
+
+    /**
+     * Hand the finished batch over and close its stream so that the buffer
+     * goes back to the pool, as it does once gRPC has sent it.
+     */
+    private static void finish(ResultWriter out) {
+        try (InputStream stream = out.toBatch().toInputStream()) {
+            sink += stream.available();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BundledRows parse(byte[] data) {
+        try {
+            return BundledRows.parseFrom(data);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
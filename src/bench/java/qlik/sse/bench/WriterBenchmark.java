@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.bench;
+
+import io.grpc.Drainable;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Row;
+import qlik.sse.plugin.columnar.OutputBatchMarshaller;
+import qlik.sse.plugin.columnar.ResultWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Compares producing a batch of results with Row / Dual builders and the
+ * standard protobuf marshaller against writing them with ResultWriter and
+ * the OutputBatchMarshaller. Each variant ends with the encoded batch copied
+ * out of the marshaller's stream, as gRPC does when it frames a message.
+ * A third variant is what the default binding does: a ResultWriter that
+ * builds BundledRows, serialized by the standard protobuf marshaller.
+ *
+ * Usage:
+ * <pre>
+ *     mvn -Pbench package
+ *     java -cp target/qlik-java-sse-1.2.jar qlik.sse.bench.WriterBenchmark [rows] [iterations]
+ * </pre>
+ */
+public class WriterBenchmark {
+    private static final MethodDescriptor.Marshaller<BundledRows> PROTOBUF =
+            ProtoUtils.marshaller(BundledRows.getDefaultInstance());
+    private static final OutputBatchMarshaller WRITER = new OutputBatchMarshaller();
+
+    private static byte[] frame = new byte[1024 * 1024];
+    private static final OutputStream FRAME = new OutputStream() {
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len > frame.length) {
+                frame = new byte[len];
+            }
+            System.arraycopy(b, off, frame, 0, len);
+        }
+    };
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        double[] numbers = new double[rowCount];
+        String[] strings = new String[rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            numbers[r] = r * 1.5;
+            strings[r] = "customer-" + r;
+        }
+        ResultWriter out = new ResultWriter();
+        ResultWriter building = ResultWriter.building();
+
+        System.out.printf("rows/batch=%d iterations=%d%n", rowCount, iterations);
+
+        System.out.printf("%nNUMERIC results%n");
+        Bench.header();
+        Bench.Result builders = Bench.run("Row/Dual builders + protobuf marshaller", iterations, () -> {
+            BundledRows.Builder result = BundledRows.newBuilder();
+            for (double number : numbers) {
+                result.addRows(Row.newBuilder().addDuals(Dual.newBuilder().setNumData(number)));
+            }
+            drain(PROTOBUF.stream(result.build()));
+        });
+        Bench.Result writer = Bench.run("ResultWriter + OutputBatchMarshaller", iterations, () -> {
+            for (double number : numbers) {
+                out.addRow(number);
+            }
+            drain(WRITER.stream(out.toBatch()));
+        });
+        Bench.Result built = Bench.run("building ResultWriter + protobuf marshaller", iterations, () -> {
+            for (double number : numbers) {
+                building.addRow(number);
+            }
+            drain(PROTOBUF.stream(building.toBatch().getRows()));
+        });
+        Bench.speedup(builders, writer);
+        Bench.speedup(builders, built);
+        perRow(builders, writer, rowCount);
+
+        System.out.printf("%nSTRING results%n");
+        Bench.header();
+        builders = Bench.run("Row/Dual builders + protobuf marshaller", iterations, () -> {
+            BundledRows.Builder result = BundledRows.newBuilder();
+            for (String string : strings) {
+                result.addRows(Row.newBuilder().addDuals(Dual.newBuilder().setStrData(string)));
+            }
+            drain(PROTOBUF.stream(result.build()));
+        });
+        writer = Bench.run("ResultWriter + OutputBatchMarshaller", iterations, () -> {
+            for (String string : strings) {
+                out.addRow(string);
+            }
+            drain(WRITER.stream(out.toBatch()));
+        });
+        built = Bench.run("building ResultWriter + protobuf marshaller", iterations, () -> {
+            for (String string : strings) {
+                building.addRow(string);
+            }
+            drain(PROTOBUF.stream(building.toBatch().getRows()));
+        });
+        Bench.speedup(builders, writer);
+        Bench.speedup(builders, built);
+        perRow(builders, writer, rowCount);
+
+        System.out.printf("%nSTRING + DUAL results (two values per row)%n");
+        Bench.header();
+        builders = Bench.run("Row/Dual builders + protobuf marshaller", iterations, () -> {
+            BundledRows.Builder result = BundledRows.newBuilder();
+            for (int r = 0; r < rowCount; r++) {
+                result.addRows(Row.newBuilder()
+                        .addDuals(Dual.newBuilder().setStrData(strings[r]))
+                        .addDuals(Dual.newBuilder().setNumData(numbers[r]).setStrData(strings[r])));
+            }
+            drain(PROTOBUF.stream(result.build()));
+        });
+        writer = Bench.run("ResultWriter + OutputBatchMarshaller", iterations, () -> {
+            for (int r = 0; r < rowCount; r++) {
+                out.beginRow().add(strings[r]).add(numbers[r], strings[r]).endRow();
+            }
+            drain(WRITER.stream(out.toBatch()));
+        });
+        built = Bench.run("building ResultWriter + protobuf marshaller", iterations, () -> {
+            for (int r = 0; r < rowCount; r++) {
+                building.beginRow().add(strings[r]).add(numbers[r], strings[r]).endRow();
+            }
+            drain(PROTOBUF.stream(building.toBatch().getRows()));
+        });
+        Bench.speedup(builders, writer);
+        Bench.speedup(builders, built);
+        perRow(builders, writer, rowCount);
+    }
+
+    private static void perRow(Bench.Result builders, Bench.Result writer, int rowCount) {
+        System.out.printf("  -> bytes allocated per row: %.1f -> %.2f%n",
+                builders.bytesPerOp / rowCount, writer.bytesPerOp / rowCount);
+    }
+
+    /**
+     * Copy a message out of its stream as gRPC's framer does: drained into
+     * the frame if the stream is Drainable, read otherwise, and never closed.
+     */
+    private static void drain(InputStream stream) {
+        try {
+            int total = 0;
+            if (stream instanceof Drainable) {
+                total = ((Drainable) stream).drainTo(FRAME);
+            } else {
+                int n;
+                while ((n = stream.read(frame, total, frame.length - total)) > 0) {
+                    total += n;
+                    if (total == frame.length) {
+                        frame = Arrays.copyOf(frame, frame.length * 2);
+                    }
+                }
+            }
+            sink += total;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package qlik.sse.plugin;
 
 import qlik.sse.ServerSideExtension.FunctionType;
 import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
 
 /**
  * An abstract base class for an aggregation function.
@@ -33,6 +35,18 @@ public abstract class AggregationFunction extends PluginFunction {
      */
     public abstract void aggregation(BundledRows rows);
 
+    /**
+     * Execute an aggregation function against a batch as it was received.
+     *
+     * This is what the plugin calls. By default it calls aggregation(BundledRows);
+     * functions that can work on the batch in another form override it.
+     *
+     * @param batch the batch that the function should execute against.
+     */
+    public void aggregation(InputBatch batch) {
+        aggregation(batch.getRows());
+    }
+
     /**
      * Aggregation complete. Combine/reduce results and return.
      *
@@ -46,4 +60,16 @@ public abstract class AggregationFunction extends PluginFunction {
      * @return the aggregation result as BundledRows.
      */
     public abstract BundledRows reduce();
+
+    /**
+     * Aggregation complete, writing the result straight to the wire format.
+     *
+     * This is what the plugin calls. By default it adds the rows returned
+     * by reduce().
+     *
+     * @param out where the result is written.
+     */
+    public void reduce(ResultWriter out) {
+        out.addRows(reduce());
+    }
 }
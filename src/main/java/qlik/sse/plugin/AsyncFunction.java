@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.server.PluginServer;
+import qlik.sse.server.ServerProperties;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A function whose batches complete asynchronously. Implemented by
+ * AsyncScalarFunction and AsyncTensorFunction so that the plugin can start
+ * batches of either without holding a thread while they run.
+ */
+interface AsyncFunction {
+
+    /**
+     * Start processing a batch.
+     *
+     * @param batch the batch that the function should execute against.
+     * @return completes with the results of the batch.
+     */
+    CompletableFuture<BundledRows> start(InputBatch batch);
+
+    /**
+     * Get the number of batches of a stream that may be in progress at once.
+     * @return the number of batches.
+     */
+    int getMaxPending();
+
+    /**
+     * Read qlik.sse.async.pending from the properties the function is created with.
+     * @return the number of batches.
+     */
+    static int configuredMaxPending() {
+        Properties props = PluginServer.getProperties();
+        if (props == null) {
+            props = ServerProperties.getDefaultProperties();
+        }
+        return Math.max(1, Integer.parseInt(props.getProperty(ServerProperties.ASYNC_PENDING,
+                ServerProperties.ASYNC_PENDING_DEFAULT).trim()));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Abstract base class for a scalar function that does not block while it
+ * processes a batch, e.g. because it waits for local disk or another
+ * process.
+ *
+ * scalarAsync() returns a CompletableFuture for the results of the batch,
+ * and the plugin moves on to the next batch without waiting for it. Up to
+ * qlik.sse.async.pending batches of a stream may be in progress at once;
+ * once that many are, no more batches are requested from the client until
+ * the oldest completes. Results are sent in the order the batches arrived,
+ * whatever order the futures complete in, and the stream is completed once
+ * every future has. A future that completes exceptionally fails the call,
+ * with the status of a StatusRuntimeException if it is one.
+ *
+ * The CallContext of the stream is current while scalarAsync() is called,
+ * but not on whichever thread completes the future.
+ */
+public abstract class AsyncScalarFunction extends ScalarFunction implements AsyncFunction {
+    private final int maxPending = AsyncFunction.configuredMaxPending();
+
+    /**
+     * The default constructor.
+     */
+    public AsyncScalarFunction() { super(); }
+
+    /**
+     * Start executing a scalar function.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param rows the rows that the function should execute against.
+     *
+     * @return completes with the results of this execution.
+     */
+    public abstract CompletableFuture<BundledRows> scalarAsync(BundledRows rows);
+
+    /**
+     * Start executing a scalar function against a batch as it was received.
+     *
+     * This is what the plugin calls. By default it calls scalarAsync(BundledRows);
+     * functions that can work on the batch in another form override it.
+     *
+     * @param batch the batch that the function should execute against.
+     *
+     * @return completes with the results of this execution.
+     */
+    public CompletableFuture<BundledRows> scalarAsync(InputBatch batch) {
+        return scalarAsync(batch.getRows());
+    }
+
+    /**
+     * Waits for the results of scalarAsync(BundledRows). Only used when the
+     * function is called directly; the plugin does not wait.
+     *
+     * @param rows the rows that the function should execute against.
+     * @return the results of this execution.
+     */
+    @Override
+    public final BundledRows scalar(BundledRows rows) {
+        return scalarAsync(rows).join();
+    }
+
+    /**
+     * Waits for the results of scalarAsync(InputBatch). Only used when the
+     * function is called directly; the plugin does not wait.
+     *
+     * @param batch the batch that the function should execute against.
+     * @return the results of this execution.
+     */
+    @Override
+    public final BundledRows scalar(InputBatch batch) {
+        return scalarAsync(batch).join();
+    }
+
+    /**
+     * Waits for the results of scalarAsync(InputBatch) and writes them. Only
+     * used when the function is called directly; the plugin does not wait.
+     *
+     * @param batch the batch that the function should execute against.
+     * @param out where the results are written.
+     */
+    @Override
+    public final void scalar(InputBatch batch, ResultWriter out) {
+        out.addRows(scalar(batch));
+    }
+
+    @Override
+    public final CompletableFuture<BundledRows> start(InputBatch batch) {
+        return scalarAsync(batch);
+    }
+
+    /**
+     * Get the number of batches of a stream that may be in progress at once.
+     * @return the value of qlik.sse.async.pending when the function was created.
+     */
+    @Override
+    public int getMaxPending() { return maxPending; }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Abstract base class for a tensor function that does not block while it
+ * processes a batch, e.g. because it waits for local disk or another
+ * process.
+ *
+ * tensorAsync() returns a CompletableFuture for the results of the batch,
+ * and the plugin moves on to the next batch without waiting for it. Up to
+ * qlik.sse.async.pending batches of a stream may be in progress at once;
+ * once that many are, no more batches are requested from the client until
+ * the oldest completes. Results are sent in the order the batches arrived,
+ * whatever order the futures complete in, and the stream is completed once
+ * every future has. A future that completes exceptionally fails the call,
+ * with the status of a StatusRuntimeException if it is one.
+ *
+ * The CallContext of the stream is current while tensorAsync() is called,
+ * but not on whichever thread completes the future.
+ */
+public abstract class AsyncTensorFunction extends TensorFunction implements AsyncFunction {
+    private final int maxPending = AsyncFunction.configuredMaxPending();
+
+    /**
+     * The default constructor.
+     */
+    public AsyncTensorFunction() { super(); }
+
+    /**
+     * Start executing a tensor function.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param rows the rows that the function should execute against.
+     *
+     * @return completes with the results of this execution.
+     */
+    public abstract CompletableFuture<BundledRows> tensorAsync(BundledRows rows);
+
+    /**
+     * Start executing a tensor function against a batch as it was received.
+     *
+     * This is what the plugin calls. By default it calls tensorAsync(BundledRows);
+     * functions that can work on the batch in another form override it.
+     *
+     * @param batch the batch that the function should execute against.
+     *
+     * @return completes with the results of this execution.
+     */
+    public CompletableFuture<BundledRows> tensorAsync(InputBatch batch) {
+        return tensorAsync(batch.getRows());
+    }
+
+    /**
+     * Waits for the results of tensorAsync(BundledRows). Only used when the
+     * function is called directly; the plugin does not wait.
+     *
+     * @param rows the rows that the function should execute against.
+     * @return the results of this execution.
+     */
+    @Override
+    public final BundledRows tensor(BundledRows rows) {
+        return tensorAsync(rows).join();
+    }
+
+    /**
+     * Waits for the results of tensorAsync(InputBatch). Only used when the
+     * function is called directly; the plugin does not wait.
+     *
+     * @param batch the batch that the function should execute against.
+     * @return the results of this execution.
+     */
+    @Override
+    public final BundledRows tensor(InputBatch batch) {
+        return tensorAsync(batch).join();
+    }
+
+    /**
+     * Waits for the results of tensorAsync(InputBatch) and writes them. Only
+     * used when the function is called directly; the plugin does not wait.
+     *
+     * @param batch the batch that the function should execute against.
+     * @param out where the results are written.
+     */
+    @Override
+    public final void tensor(InputBatch batch, ResultWriter out) {
+        out.addRows(tensor(batch));
+    }
+
+    @Override
+    public final CompletableFuture<BundledRows> start(InputBatch batch) {
+        return tensorAsync(batch);
+    }
+
+    /**
+     * Get the number of batches of a stream that may be in progress at once.
+     * @return the value of qlik.sse.async.pending when the function was created.
+     */
+    @Override
+    public int getMaxPending() { return maxPending; }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.plugin.staging.MemoryBudget;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-stream state for a single call into the plugin.
+ *
+ * An instance is created by the plugin for every ExecuteFunction stream and
+ * is made current on whichever thread is processing a message for that
+ * stream. Function implementations are shared between concurrent streams, so
+ * anything that must stay constant for the life of a stream (e.g. the key
+ * that a stream started encrypting with) should be kept here rather than
+ * in the function itself.
+ *
+ * It also carries what Qlik tells the plugin about the call in the
+ * qlik-commonrequestheader-bin header: the app and user it is made for, and
+ * its cardinality (the number of rows Qlik expects to send), which can be
+ * used to size buffers up front.
+ *
+ * When several plugins are hosted in one JVM, the context also carries the
+ * properties and MemoryBudget of the plugin the call was made to, so that
+ * PluginServer.getProperties() answers for that plugin while it is current.
+ *
+ * Attributes that are AutoCloseable (e.g. state holding a temporary file)
+ * are closed when the stream ends, however it ends.
+ *
+ * When Qlik cancels the call, isCancelled() turns true. A function that
+ * works on a batch for a long time can check it and stop early; the plugin
+ * will not process any more batches of the call. checkCancelled() does
+ * that for the call current on the thread: a function calls it once per
+ * row and it throws, which the plugin counts as a batch saved rather than
+ * as a failure.
+ */
+public final class CallContext implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(CallContext.class);
+    private static final ThreadLocal<CallContext> CURRENT = new ThreadLocal<>();
+    // checkCancelled(row) only looks on rows whose index has none of these bits set.
+    private static final int CHECK_INTERVAL_MASK = 1023;
+
+    private final int functionId;
+    private final String appId;
+    private final String userId;
+    private final long cardinality;
+    private final Properties properties;
+    private final MemoryBudget memoryBudget;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a context for a call to the given function, for which Qlik
+     * sent no request header.
+     *
+     * @param functionId the id of the function being called.
+     */
+    public CallContext(int functionId) {
+        this(functionId, "", "", 0);
+    }
+
+    /**
+     * Creates a context for a call to the given function.
+     *
+     * @param functionId the id of the function being called.
+     * @param appId the id of the app the call is made for, or "" if not known.
+     * @param userId the id of the user the call is made for, or "" if not known.
+     * @param cardinality the number of rows Qlik expects to send, or 0 if not known.
+     */
+    public CallContext(int functionId, String appId, String userId, long cardinality) {
+        this(functionId, appId, userId, cardinality, null, null);
+    }
+
+    /**
+     * Creates a context for a call to the given function of a plugin.
+     *
+     * @param functionId the id of the function being called.
+     * @param appId the id of the app the call is made for, or "" if not known.
+     * @param userId the id of the user the call is made for, or "" if not known.
+     * @param cardinality the number of rows Qlik expects to send, or 0 if not known.
+     * @param properties the properties of the plugin, or null to use the application properties.
+     * @param memoryBudget the heap budget of the plugin, or null if it has none.
+     */
+    public CallContext(int functionId, String appId, String userId, long cardinality,
+                       Properties properties, MemoryBudget memoryBudget) {
+        this.functionId = functionId;
+        this.appId = appId;
+        this.userId = userId;
+        this.cardinality = cardinality;
+        this.properties = properties;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Get the context of the call being processed on this thread.
+     *
+     * @return the current CallContext, or null if called outside of a call.
+     */
+    public static CallContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Make this context current on the calling thread.
+     *
+     * @return the context that was previously current, to be passed to detach().
+     */
+    public CallContext attach() {
+        CallContext previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Restore the context that was current before attach() was called.
+     *
+     * @param previous the value returned by attach().
+     */
+    public void detach(CallContext previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Get the id of the function being called.
+     *
+     * @return the function id.
+     */
+    public int getFunctionId() { return functionId; }
+
+    /**
+     * Get the id of the app the call is made for.
+     *
+     * @return the app id, or "" if Qlik did not send one.
+     */
+    public String getAppId() { return appId; }
+
+    /**
+     * Get the id of the user the call is made for.
+     *
+     * @return the user id (e.g. "UserDirectory=X; UserId=Y"), or "" if Qlik did not send one.
+     */
+    public String getUserId() { return userId; }
+
+    /**
+     * Get the number of rows Qlik expects to send in the call. It is a hint
+     * for sizing buffers, not a promise.
+     *
+     * @return the cardinality, or 0 if it is not known.
+     */
+    public long getCardinality() { return cardinality; }
+
+    /**
+     * Get the properties of the plugin the call was made to.
+     *
+     * @return the properties, or null if they are the application properties.
+     */
+    public Properties getProperties() { return properties; }
+
+    /**
+     * Get the budget that staged data of the call takes its heap from.
+     *
+     * @return the budget, or null if the plugin has none.
+     */
+    public MemoryBudget getMemoryBudget() { return memoryBudget; }
+
+    /**
+     * Has Qlik cancelled the call? Its results will not be used.
+     *
+     * @return true if the call has been cancelled.
+     */
+    public boolean isCancelled() { return cancelled; }
+
+    /**
+     * Stop the work on a batch if the call current on this thread has been
+     * cancelled. A function that spends more than a few microseconds on a
+     * row calls it once per row; outside of a call it does nothing.
+     *
+     * @throws CancellationException if the call has been cancelled.
+     */
+    public static void checkCancelled() {
+        CallContext context = CURRENT.get();
+        if (context != null && context.cancelled) {
+            throw new CancellationException("Call to function " + context.functionId + " was cancelled.");
+        }
+    }
+
+    /**
+     * The same as checkCancelled(), but only on every 1024th row, for loops
+     * whose rows are too cheap to look up the current call on each of them.
+     *
+     * @param row the index of the row about to be processed.
+     * @throws CancellationException if the call has been cancelled.
+     */
+    public static void checkCancelled(int row) {
+        if ((row & CHECK_INTERVAL_MASK) == 0) {
+            checkCancelled();
+        }
+    }
+
+    /**
+     * Mark the call as cancelled. Called by the plugin.
+     */
+    void cancel() { cancelled = true; }
+
+    /**
+     * Get a per-stream attribute, creating it on first access.
+     *
+     * @param name the name of the attribute.
+     * @param initial supplies the value the first time the attribute is requested.
+     * @param <T> the type of the attribute.
+     * @return the value of the attribute for this stream.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getAttribute(String name, Supplier<T> initial) {
+        // plain get() first: computeIfAbsent() locks the bin on Java 8 even when the key is present.
+        Object value = attributes.get(name);
+        if (value == null) {
+            value = attributes.computeIfAbsent(name, k -> initial.get());
+        }
+        return (T) value;
+    }
+
+    /**
+     * Get a per-stream attribute.
+     *
+     * @param name the name of the attribute.
+     * @param <T> the type of the attribute.
+     * @return the value of the attribute, or null if it has not been set.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getAttribute(String name) {
+        return (T) attributes.get(name);
+    }
+
+    /**
+     * Remove a per-stream attribute.
+     *
+     * @param name the name of the attribute.
+     * @param <T> the type of the attribute.
+     * @return the value that was removed, or null if it was not set.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T removeAttribute(String name) {
+        return (T) attributes.remove(name);
+    }
+
+    /**
+     * Release the state of the stream: closes every attribute that is
+     * AutoCloseable and removes all attributes. Called by the plugin when the
+     * stream ends.
+     */
+    @Override
+    public void close() {
+        for (Object value : attributes.values()) {
+            if (value instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) value).close();
+                } catch (Exception e) {
+                    LOG.warn("Could not release state of function " + functionId + ".", e);
+                }
+            }
+        }
+        attributes.clear();
+    }
+}
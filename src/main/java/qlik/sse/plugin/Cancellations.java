@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the work done for calls that were cancelled, which was wasted,
+ * against the work that was not done because the cancellation was noticed,
+ * which was saved. Published as the MBean qlik.sse:type=Cancellations.
+ */
+public class Cancellations implements CancellationsMXBean {
+    private final AtomicLong cancelledCalls = new AtomicLong();
+    private final AtomicLong wastedBatches = new AtomicLong();
+    private final AtomicLong wastedNanos = new AtomicLong();
+    private final AtomicLong savedBatches = new AtomicLong();
+    private final AtomicLong cancelledScripts = new AtomicLong();
+    private final AtomicLong savedScriptRows = new AtomicLong();
+
+    /**
+     * Count a cancelled function call.
+     *
+     * @param processedBatches the number of batches that had been processed.
+     * @param processedNanos the time spent processing them.
+     */
+    void cancelled(long processedBatches, long processedNanos) {
+        cancelledCalls.incrementAndGet();
+        wastedBatches.addAndGet(processedBatches);
+        wastedNanos.addAndGet(processedNanos);
+    }
+
+    /**
+     * Count batches of a cancelled call that were not processed.
+     *
+     * @param batches the number of batches.
+     */
+    void saved(long batches) {
+        savedBatches.addAndGet(batches);
+    }
+
+    /**
+     * Count a cancelled script evaluation.
+     *
+     * @param skippedRows the number of rows that were not evaluated.
+     */
+    void cancelledScript(long skippedRows) {
+        cancelledScripts.incrementAndGet();
+        savedScriptRows.addAndGet(skippedRows);
+    }
+
+    @Override
+    public long getCancelledCalls() { return cancelledCalls.get(); }
+
+    @Override
+    public long getWastedBatches() { return wastedBatches.get(); }
+
+    @Override
+    public long getWastedMillis() { return TimeUnit.NANOSECONDS.toMillis(wastedNanos.get()); }
+
+    @Override
+    public long getSavedBatches() { return savedBatches.get(); }
+
+    @Override
+    public long getCancelledScripts() { return cancelledScripts.get(); }
+
+    @Override
+    public long getSavedScriptRows() { return savedScriptRows.get(); }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+/**
+ * Metrics for calls that Qlik cancelled, e.g. because the user changed a
+ * selection before the results arrived, or that were ended by a timeout.
+ */
+public interface CancellationsMXBean {
+    /**
+     * @return the number of function calls cancelled, or timed out, before they completed.
+     */
+    long getCancelledCalls();
+
+    /**
+     * @return the number of batches of cancelled calls that had been processed, whose results were thrown away.
+     */
+    long getWastedBatches();
+
+    /**
+     * @return the time spent processing the batches of cancelled calls, in milliseconds.
+     */
+    long getWastedMillis();
+
+    /**
+     * @return the number of batches of cancelled calls that had been received but were never processed,
+     *         or were stopped part way through.
+     */
+    long getSavedBatches();
+
+    /**
+     * @return the number of script evaluations cancelled before they completed.
+     */
+    long getCancelledScripts();
+
+    /**
+     * @return the number of rows of cancelled script evaluations that were never evaluated.
+     */
+    long getSavedScriptRows();
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.InputBatch;
+
+/**
+ * Abstract base class for an aggregation function that works on columns.
+ *
+ * Each batch of rows is converted to a ColumnarBatch once, before the
+ * function is called. The types of the columns are taken from the
+ * function's parameters.
+ */
+public abstract class ColumnarAggregationFunction extends AggregationFunction {
+
+    /**
+     * The default constructor.
+     */
+    public ColumnarAggregationFunction() { super(); }
+
+    /**
+     * Converts the rows to columns and calls aggregation(ColumnarBatch).
+     *
+     * @param rows the rows that the function should execute against.
+     */
+    @Override
+    public final void aggregation(BundledRows rows) {
+        aggregation(ColumnarBatch.fromRows(rows, getParms()));
+    }
+
+    /**
+     * Gets the batch as columns and calls aggregation(ColumnarBatch). A batch
+     * that arrived in serialized form is decoded straight into columns.
+     *
+     * @param batch the batch that the function should execute against.
+     */
+    @Override
+    public final void aggregation(InputBatch batch) {
+        aggregation(batch.getColumns(getParms()));
+    }
+
+    /**
+     * Execute an aggregation function.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param columns the batch that the function should execute against.
+     */
+    public abstract void aggregation(ColumnarBatch columns);
+}
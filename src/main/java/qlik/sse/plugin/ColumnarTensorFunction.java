@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+
+/**
+ * Abstract base class for a tensor function that works on columns.
+ *
+ * Each batch of rows is converted to a ColumnarBatch once, before the
+ * function is called, and the ColumnarBatch the function returns is
+ * converted back to rows. The types of the input columns are taken from
+ * the function's parameters.
+ */
+public abstract class ColumnarTensorFunction extends TensorFunction {
+
+    /**
+     * The default constructor.
+     */
+    public ColumnarTensorFunction() { super(); }
+
+    /**
+     * Converts the rows to columns and calls tensor(ColumnarBatch).
+     *
+     * @param rows the rows that the function should execute against.
+     * @return the rows returned by tensor(ColumnarBatch).
+     */
+    @Override
+    public final BundledRows tensor(BundledRows rows) {
+        return tensor(ColumnarBatch.fromRows(rows, getParms())).toRows();
+    }
+
+    /**
+     * Gets the batch as columns and calls tensor(ColumnarBatch). A batch that
+     * arrived in serialized form is decoded straight into columns.
+     *
+     * @param batch the batch that the function should execute against.
+     * @return the rows returned by tensor(ColumnarBatch).
+     */
+    @Override
+    public final BundledRows tensor(InputBatch batch) {
+        return tensor(batch.getColumns(getParms())).toRows();
+    }
+
+    /**
+     * Gets the batch as columns, calls tensor(ColumnarBatch) and writes the
+     * result columns straight to the wire format.
+     *
+     * @param batch the batch that the function should execute against.
+     * @param out where the results are written.
+     */
+    @Override
+    public final void tensor(InputBatch batch, ResultWriter out) {
+        tensor(batch.getColumns(getParms())).writeTo(out);
+    }
+
+    /**
+     * Execute a tensor function.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param columns the batch that the function should execute against.
+     *
+     * @return the result columns.
+     */
+    public abstract ColumnarBatch tensor(ColumnarBatch columns);
+}
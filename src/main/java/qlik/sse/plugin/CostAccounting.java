@@ -0,0 +1,289 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.server.ServerProperties;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for the CPU time and heap allocations spent on the calls to a
+ * plugin's functions, for capacity planning and chargeback.
+ *
+ * The CPU time and allocated bytes of the thread processing a batch are
+ * read from the ThreadMXBean before and after the batch, and the
+ * difference is charged to the function called and to the app and user
+ * the call was made for. The work of sending the results of a generator or
+ * asynchronous function, and of completing an aggregation, is charged the
+ * same way; the work an asynchronous function does on threads of its own
+ * is not. Totals and rates are published as the MBean
+ * qlik.sse:type=CostAccounting. Accounting is turned off with
+ * qlik.sse.accounting, and either measure is left at 0 if the JVM does not
+ * support it (e.g. CPU time on a virtual thread).
+ *
+ * There is no end to the apps and users that may call, so one that has not
+ * been charged for IDLE_TIME is dropped from the MBean; what it used stays
+ * in the total.
+ */
+public class CostAccounting implements CostAccountingMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(CostAccounting.class);
+    // rates are averaged over at least this long.
+    private static final long RATE_WINDOW = TimeUnit.MINUTES.toNanos(1);
+    // apps and users that have not been charged for this long are dropped.
+    private static final long IDLE_TIME = TimeUnit.MINUTES.toNanos(10);
+
+    private final ThreadMXBean threads;
+    private final com.sun.management.ThreadMXBean allocations;
+    private final boolean cpuTime;
+    private final Usage total = new Usage();
+    private final Map<String, Usage> functions = new ConcurrentHashMap<>();
+    private final Map<String, Usage> apps = new ConcurrentHashMap<>();
+    private final Map<String, Usage> users = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + IDLE_TIME);
+
+    /**
+     * Creates cost accounting configured from the given properties.
+     *
+     * @param props the properties of the plugin.
+     */
+    public CostAccounting(Properties props) {
+        boolean enabled = Boolean.parseBoolean(props.getProperty(ServerProperties.ACCOUNTING,
+                ServerProperties.ACCOUNTING_DEFAULT).trim());
+        threads = ManagementFactory.getThreadMXBean();
+        cpuTime = enabled && enableCpuTime(threads);
+        allocations = enabled ? allocationMXBean(threads) : null;
+    }
+
+    private static boolean enableCpuTime(ThreadMXBean threads) {
+        try {
+            if (!threads.isCurrentThreadCpuTimeSupported()) {
+                LOG.info("Thread CPU time is not supported by this JVM; it is not accounted for.");
+                return false;
+            }
+            if (!threads.isThreadCpuTimeEnabled()) {
+                threads.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            LOG.info("Thread CPU time cannot be measured; it is not accounted for: " + e);
+            return false;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMXBean(ThreadMXBean threads) {
+        try {
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                LOG.info("Thread allocations are not supported by this JVM; they are not accounted for.");
+                return null;
+            }
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            if (!bean.isThreadAllocatedMemorySupported()) {
+                LOG.info("Thread allocations are not supported by this JVM; they are not accounted for.");
+                return null;
+            }
+            if (!bean.isThreadAllocatedMemoryEnabled()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+            }
+            return bean;
+        } catch (LinkageError | UnsupportedOperationException | SecurityException e) {
+            LOG.info("Thread allocations cannot be measured; they are not accounted for: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the CPU time used by the calling thread so far, to be passed to charge().
+     *
+     * @return the CPU time in nanoseconds, or -1 if it is not measured.
+     */
+    long cpuTime() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Get the bytes allocated by the calling thread so far, to be passed to charge().
+     *
+     * @return the allocated bytes, or -1 if they are not measured.
+     */
+    long allocatedBytes() {
+        return allocations != null ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    /**
+     * Charge the work the calling thread has done since cpuTime() and
+     * allocatedBytes() were read to a call.
+     *
+     * @param function the name of the function called.
+     * @param context the context of the call.
+     * @param cpuStart what cpuTime() returned before the work.
+     * @param allocatedStart what allocatedBytes() returned before the work.
+     * @param batch true if the work was processing a batch, to be counted.
+     */
+    void charge(String function, CallContext context, long cpuStart, long allocatedStart, boolean batch) {
+        long cpu = cpuStart < 0 ? 0 : Math.max(0, cpuTime() - cpuStart);
+        long allocated = allocatedStart < 0 ? 0 : Math.max(0, allocatedBytes() - allocatedStart);
+        if (cpu == 0 && allocated == 0 && !batch) {
+            return;
+        }
+        int batches = batch ? 1 : 0;
+        total.add(batches, cpu, allocated);
+        charge(functions, function, batches, cpu, allocated);
+        charge(apps, context.getAppId(), batches, cpu, allocated);
+        charge(users, context.getUserId(), batches, cpu, allocated);
+        sweep();
+    }
+
+    private static void charge(Map<String, Usage> usages, String key, int batches, long cpu, long allocated) {
+        // an entry being dropped takes no more charges; the next one for its key is added anew.
+        while (!usage(usages, key).add(batches, cpu, allocated)) {
+            Thread.yield();
+        }
+    }
+
+    private static Usage usage(Map<String, Usage> usages, String key) {
+        // plain get() first: computeIfAbsent() locks the bin on Java 8 even when the key is present.
+        Usage usage = usages.get(key);
+        return usage != null ? usage : usages.computeIfAbsent(key, k -> new Usage());
+    }
+
+    /**
+     * Drop the apps and users that have been idle for IDLE_TIME, at most
+     * once per rate window, on whichever thread gets there first.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        long next = nextSweep.get();
+        if (now - next < 0 || !nextSweep.compareAndSet(next, now + RATE_WINDOW)) {
+            return;
+        }
+        apps.values().removeIf(usage -> usage.dropIfIdle(now));
+        users.values().removeIf(usage -> usage.dropIfIdle(now));
+    }
+
+    @Override
+    public boolean isCpuTimeMeasured() { return cpuTime; }
+
+    @Override
+    public boolean isAllocationMeasured() { return allocations != null; }
+
+    @Override
+    public Usage getTotal() { return total; }
+
+    @Override
+    public Map<String, Usage> getFunctions() { return new TreeMap<>(functions); }
+
+    @Override
+    public Map<String, Usage> getApps() { return new TreeMap<>(apps); }
+
+    @Override
+    public Map<String, Usage> getUsers() { return new TreeMap<>(users); }
+
+    /**
+     * The batches, CPU time and allocations charged to a function, an app
+     * or a user, in total and per second over about the last minute.
+     */
+    public static final class Usage {
+        private long batches;
+        private long cpuNanos;
+        private long allocatedBytes;
+        // the totals when the current rate window started, and the rates of the previous window.
+        private long windowStart = System.nanoTime();
+        private long windowCpuNanos;
+        private long windowAllocatedBytes;
+        private double cpuRate;
+        private double allocationRate;
+        private long lastCharged = windowStart;
+        private boolean dropped;
+
+        /**
+         * @return false if the usage has been dropped and was not charged.
+         */
+        synchronized boolean add(long batches, long cpuNanos, long allocatedBytes) {
+            if (dropped) {
+                return false;
+            }
+            this.batches += batches;
+            this.cpuNanos += cpuNanos;
+            this.allocatedBytes += allocatedBytes;
+            lastCharged = System.nanoTime();
+            roll(lastCharged);
+            return true;
+        }
+
+        /**
+         * Mark the usage dropped if it has not been charged for IDLE_TIME.
+         * @return true if it is to be removed.
+         */
+        synchronized boolean dropIfIdle(long now) {
+            if (now - lastCharged >= IDLE_TIME) {
+                dropped = true;
+            }
+            return dropped;
+        }
+
+        /**
+         * Work out the rates once a window has passed.
+         */
+        private void roll(long now) {
+            long elapsed = now - windowStart;
+            if (elapsed >= RATE_WINDOW) {
+                cpuRate = (double) (cpuNanos - windowCpuNanos) / elapsed;
+                allocationRate = (allocatedBytes - windowAllocatedBytes) * 1e9 / elapsed;
+                windowStart = now;
+                windowCpuNanos = cpuNanos;
+                windowAllocatedBytes = allocatedBytes;
+            }
+        }
+
+        /**
+         * @return the number of batches processed.
+         */
+        public synchronized long getBatches() { return batches; }
+
+        /**
+         * @return the CPU time used, in milliseconds.
+         */
+        public synchronized long getCpuMillis() { return cpuNanos / 1_000_000; }
+
+        /**
+         * @return the bytes allocated on the heap.
+         */
+        public synchronized long getAllocatedBytes() { return allocatedBytes; }
+
+        /**
+         * @return the CPU time used per second, i.e. the number of processors kept busy.
+         */
+        public synchronized double getCpuCores() {
+            roll(System.nanoTime());
+            return cpuRate;
+        }
+
+        /**
+         * @return the bytes allocated on the heap per second.
+         */
+        public synchronized double getAllocatedBytesPerSecond() {
+            roll(System.nanoTime());
+            return allocationRate;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import java.util.Map;
+
+/**
+ * Metrics for the CPU time and heap allocations charged by CostAccounting.
+ */
+public interface CostAccountingMXBean {
+    /**
+     * @return true if the CPU time of batches is measured.
+     */
+    boolean isCpuTimeMeasured();
+
+    /**
+     * @return true if the heap allocations of batches are measured.
+     */
+    boolean isAllocationMeasured();
+
+    /**
+     * @return the usage of all calls.
+     */
+    CostAccounting.Usage getTotal();
+
+    /**
+     * @return the usage of the calls to each function, by function name.
+     */
+    Map<String, CostAccounting.Usage> getFunctions();
+
+    /**
+     * @return the usage of the calls made for each app, by app id.
+     */
+    Map<String, CostAccounting.Usage> getApps();
+
+    /**
+     * @return the usage of the calls made for each user, by user id.
+     */
+    Map<String, CostAccounting.Usage> getUsers();
+}
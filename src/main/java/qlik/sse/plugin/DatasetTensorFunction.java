@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.staging.Dataset;
+import qlik.sse.server.PluginServer;
+import qlik.sse.server.ServerProperties;
+
+import java.util.Properties;
+
+/**
+ * Abstract base class for a tensor function that needs every row before
+ * it can return any result, such as a rank, a sort order or an exact
+ * percentile.
+ *
+ * Batches produce no rows. Each batch is converted to columns and staged
+ * in a Dataset that is kept in the stream's CallContext; large data sets
+ * spill to memory-mapped files rather than filling the heap (see
+ * qlik.sse.dataset.spillbytes). Once the last batch has arrived, prepare()
+ * is called once with the whole data set, and the results are then pulled
+ * from write() a range of rows at a time, one result row per input row,
+ * in order, as the client is ready for them (see GeneratorFunction).
+ *
+ * @param <P> the type of whatever prepare() computes from the whole data set.
+ */
+public abstract class DatasetTensorFunction<P> extends GeneratorFunction {
+    private static final String DATASET_ATTRIBUTE = DatasetTensorFunction.class.getName();
+
+    private final int spillBytes;
+    private Dataset unattached;
+
+    /**
+     * The default constructor.
+     */
+    public DatasetTensorFunction() {
+        super();
+        Properties props = PluginServer.getProperties();
+        if (props == null) {
+            props = ServerProperties.getDefaultProperties();
+        }
+        spillBytes = Integer.parseInt(props.getProperty(ServerProperties.DATASET_SPILL_BYTES,
+                ServerProperties.DATASET_SPILL_BYTES_DEFAULT).trim());
+    }
+
+    /**
+     * Compute whatever the results depend on from the whole data set, e.g.
+     * the sorted values. Called once, after the last batch has been staged.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param data every row of the stream.
+     * @return the input to write().
+     */
+    public abstract P prepare(Dataset data);
+
+    /**
+     * Write one result row for each of a range of input rows, in order.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param data every row of the stream.
+     * @param prepared what prepare() returned.
+     * @param from the first row to write, inclusive.
+     * @param to the last row to write, exclusive.
+     * @param out where the results are written.
+     */
+    public abstract void write(Dataset data, P prepared, int from, int to, ResultWriter out);
+
+    /**
+     * Stages the rows of a batch.
+     *
+     * @param batch the batch that the function should execute against.
+     * @return null; rows are only produced by complete().
+     */
+    @Override
+    public final RowSource generate(InputBatch batch) {
+        dataset().append(batch.getColumns(getParms()));
+        return null;
+    }
+
+    /**
+     * All batches have been staged: prepare the results. The data set is
+     * released once the last row has been written.
+     *
+     * @return the results, or null if no rows were received.
+     */
+    @Override
+    public final RowSource complete() {
+        Dataset data = dataset();
+        CallContext context = CallContext.current();
+        if (context == null) {
+            unattached = null;  // reset for next time
+        } else {
+            context.removeAttribute(DATASET_ATTRIBUTE);
+        }
+        int rowCount = data.getRowCount();
+        if (rowCount == 0) {
+            data.close();
+            return null;
+        }
+        P prepared;
+        try {
+            prepared = prepare(data);
+        } catch (RuntimeException | Error e) {
+            data.close();
+            throw e;
+        }
+        return new RowSource() {
+            private int next;
+
+            @Override
+            public boolean next(ResultWriter out, int maxRows) {
+                int to = (int) Math.min(rowCount, (long) next + maxRows);
+                write(data, prepared, next, to, out);
+                next = to;
+                return next < rowCount;
+            }
+
+            @Override
+            public void close() {
+                data.close();
+            }
+        };
+    }
+
+    /**
+     * Get the data set of the stream being processed on this thread.
+     * Outside of a call a single data set that belongs to the function is used.
+     *
+     * @return the data set.
+     */
+    private Dataset dataset() {
+        CallContext context = CallContext.current();
+        if (context == null) {
+            if (unattached == null) {
+                unattached = new Dataset(spillBytes);
+            }
+            return unattached;
+        }
+        return context.getAttribute(DATASET_ATTRIBUTE, () -> new Dataset(spillBytes, context.getCardinality()));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Parameter;
+
+import java.util.Arrays;
+
+/**
+ * The functions of a PluginCapabilities class, as declared with
+ * SseFunction annotations. Subclasses are generated at build time by
+ * SseFunctionProcessor; they are not meant to be written by hand.
+ *
+ * A registry knows the ids of its functions and holds their
+ * FunctionDefinitions serialized at build time, so the capabilities of a
+ * plugin can be sent without creating any function. Functions are created
+ * one at a time, when they are first needed (see PluginCapabilities).
+ */
+public abstract class FunctionRegistry {
+
+    /**
+     * Get the ids of the functions.
+     *
+     * @return the function ids, in ascending order.
+     */
+    public abstract int[] getFunctionIds();
+
+    /**
+     * Create and define an instance of a function.
+     *
+     * @param functionId the id of the function, one of getFunctionIds().
+     * @return the function.
+     * @throws IllegalArgumentException if there is no function with that id.
+     */
+    public abstract PluginFunction newFunction(int functionId);
+
+    /**
+     * Get the definitions of the functions, serialized as the functions
+     * field of a Capabilities message.
+     *
+     * @return the serialized definitions.
+     */
+    public abstract byte[] getSerializedFunctions();
+
+    /**
+     * Define a function created by a generated registry.
+     *
+     * @param function the function.
+     * @param name the name of the function.
+     * @param functionId the numeric id that identifies the function.
+     * @param returnType the return type of the function.
+     * @param qlikCache whether the Qlik engine may cache the results of the function.
+     * @param executorName the executor the function runs on, or "" for the default.
+     * @param parms the parameters of the function, in order.
+     * @return the function.
+     */
+    protected static PluginFunction define(PluginFunction function, String name, int functionId,
+                                           DataType returnType, boolean qlikCache, String executorName,
+                                           Parameter... parms) {
+        function.init(name, functionId, returnType, Arrays.asList(parms), qlikCache);
+        if (!executorName.isEmpty()) {
+            function.setExecutorName(executorName);
+        }
+        return function;
+    }
+
+    /**
+     * Describe a parameter of a function defined by a generated registry.
+     *
+     * @param name the name of the parameter.
+     * @param dataType the type of the parameter.
+     * @return the Parameter.
+     */
+    protected static Parameter param(String name, DataType dataType) {
+        return Parameter.newBuilder().setName(name).setDataType(dataType).build();
+    }
+}
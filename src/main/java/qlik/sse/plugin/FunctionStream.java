@@ -0,0 +1,781 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.FunctionType;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.OutputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.executor.AdmissionControl;
+import qlik.sse.plugin.executor.StreamExecutor;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The StreamObserver returned to gRPC for each ExecuteFunction call.
+ *
+ * Each batch is handed to the stream's executor and processed there, one
+ * at a time and in order. For a large call that is a serial executor over
+ * the executor the function is assigned to, and a few batches may be
+ * requested ahead so that the next one is received while the previous one
+ * is processed; for a small call it is an InlineExecutor, which processes
+ * the batch on the gRPC thread (see ExecutionStrategy). Either way, a
+ * batch is only requested from the client once an earlier one has been
+ * processed, so a busy executor pushes back on the client through gRPC
+ * flow control rather than buffering rows on the heap.
+ *
+ * All calls to the response observer are made from the stream's executor,
+ * so they never overlap.
+ *
+ * Batches arrive as InputBatch and results are sent as OutputBatch, which
+ * is what the columnar marshallers work with. Streams using the default
+ * marshaller are created with forRows(), which converts in both directions.
+ * Functions write their results with a ResultWriter that is kept for the
+ * life of the stream; that of a forRows() stream builds BundledRows, which
+ * the default marshaller serializes, rather than encoding them itself. A GeneratorFunction returns its rows through a
+ * RowSource instead; they are sent a batch at a time while the client is
+ * ready for them, and the next batch is only requested once they have all
+ * been sent, so flow control works in both directions.
+ *
+ * The batches of an asynchronous function (AsyncScalarFunction,
+ * AsyncTensorFunction) are started on the executor, which then moves on
+ * without waiting for them. Their results are sent in order as the futures
+ * complete, and the next batch is requested straight away while fewer than
+ * getMaxPending() are in progress.
+ *
+ * When Qlik cancels the call, or its deadline passes, the gRPC Context of
+ * the call is cancelled. The stream then marks its CallContext cancelled,
+ * skips the batches still queued on the executor, cancels the futures of
+ * an asynchronous function and releases the per-stream state (e.g. that of
+ * an aggregation) straight away, rather than when the batches it would no
+ * longer send have all been processed. The batch being processed stops at
+ * the next CallContext.checkCancelled() of the function; the thread is not
+ * interrupted, as it may be a gRPC thread or be shared with other calls.
+ * The work done and saved is counted in Cancellations; the time spent on
+ * a stopped batch is wasted, but the batch counts as saved.
+ *
+ * A call that runs over one of its Timeouts, for a batch or for the whole
+ * stream, is ended with DEADLINE_EXCEEDED by the timer and then stopped in
+ * the same way. The response observer is guarded so that the timer and the
+ * executor can both end the call, and only the first to do so does.
+ *
+ * No batch is requested until AdmissionControl admits the call, so a call
+ * that waits in its queue holds no thread; the wait counts against the
+ * stream timeout. When the call ends, or as soon as it is cancelled or
+ * runs out of time, its permit is released with the average time from
+ * receiving a batch to having processed it, from which the limits adapt.
+ *
+ * The CPU time and heap allocations of the work done for the call on the
+ * stream's executor are charged to it in CostAccounting.
+ */
+class FunctionStream implements StreamObserver<InputBatch> {
+    private static final Logger LOG = LoggerFactory.getLogger(FunctionStream.class);
+
+    private final PluginFunction function;
+    private final FunctionType functionType;
+    private final CallContext callContext;
+    private final StreamObserver<OutputBatch> responseObserver;
+    private final CallStreamObserver<?> flowControl;
+    private final StreamExecutor executor;
+    private final int readAhead;
+    private final ResultWriter writer;
+    private final GeneratorFunction generator;
+    private final AsyncFunction async;
+    private final Cancellations cancellations;
+    private final Timeouts timeouts;
+    private final CostAccounting costs;
+    private final long batchTimeout;
+    private final long streamTimeout;
+    private volatile ScheduledFuture<?> streamTimer;
+    private final Context context;
+    private final Context.CancellationListener cancellationListener = this::contextCancelled;
+    private volatile boolean failed;
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    // set when the call ran out of time.
+    private volatile boolean overdue;
+    private volatile AdmissionControl.Permit permit;
+    // the batches processed so far, the time spent on them, and the time from receiving
+    // them to having processed them. Only written on the serial executor; the batch count
+    // and latency are also read when the permit is released on another thread.
+    private volatile long processedBatches;
+    private long processedNanos;
+    private volatile long latencyNanos;
+    // the rows of a generator function that are still to be sent, and whether
+    // the client has sent all of its batches. Only used on the serial executor.
+    private RowSource source;
+    private boolean inputComplete;
+    // the results of an asynchronous function still to be sent, oldest first, and
+    // whether a batch is owed to the client because too many were in progress.
+    // Only used on the serial executor.
+    private final Queue<CompletableFuture<BundledRows>> pending = new ArrayDeque<>();
+    private boolean held;
+
+    /**
+     * Creates the stream. Must be called from within the gRPC call to
+     * executeFunction() so that inbound flow control can still be changed.
+     *
+     * @param function the function being called.
+     * @param responseObserver where results are sent.
+     * @param call the response observer gRPC passed in, used for flow control.
+     * @param callContext the context of the call.
+     * @param executor the executor that processes the batches of this stream, in order.
+     * @param readAhead how many batches to request ahead of the one being processed.
+     * @param cancellations where cancelled calls are counted.
+     * @param timeouts the time limits of the call.
+     * @param costs where the work done for the call is charged.
+     * @param writer where the function writes its results.
+     */
+    private FunctionStream(PluginFunction function, StreamObserver<OutputBatch> responseObserver,
+                           StreamObserver<?> call, CallContext callContext, StreamExecutor executor, int readAhead,
+                           Cancellations cancellations, Timeouts timeouts, CostAccounting costs,
+                           ResultWriter writer) {
+        this.function = function;
+        this.writer = writer;
+        this.functionType = function.getFunctionType();
+        this.generator = function instanceof GeneratorFunction ? (GeneratorFunction) function : null;
+        this.async = function instanceof AsyncFunction ? (AsyncFunction) function : null;
+        this.callContext = callContext;
+        this.responseObserver = new Response(responseObserver);
+        this.executor = executor;
+        this.cancellations = cancellations;
+        this.timeouts = timeouts;
+        this.costs = costs;
+        this.batchTimeout = timeouts.getBatchTimeout(function);
+        this.streamTimeout = timeouts.getStreamTimeout(function);
+        // a generator holds on to the rows of one batch until they are sent, so it never reads ahead.
+        this.readAhead = generator == null ? readAhead : 0;
+
+        if (call instanceof ServerCallStreamObserver) {
+            flowControl = (ServerCallStreamObserver<?>) call;
+            flowControl.disableAutoInboundFlowControl();
+            if (generator != null) {
+                flowControl.setOnReadyHandler(() -> this.executor.executeAlways(this::resume));
+            }
+        } else {
+            flowControl = null;
+        }
+        context = Context.current();
+        context.addListener(cancellationListener, Runnable::run);
+    }
+
+    /**
+     * Creates a stream for a call bound with the columnar marshallers.
+     *
+     * @param function the function being called.
+     * @param responseObserver where results are sent.
+     * @param callContext the context of the call.
+     * @param executor the executor that processes the batches of this stream, in order.
+     * @param readAhead how many batches to request ahead of the one being processed.
+     * @param cancellations where cancelled calls are counted.
+     * @param timeouts the time limits of the call.
+     * @param costs where the work done for the call is charged.
+     * @return the stream.
+     */
+    static FunctionStream forBatches(PluginFunction function, StreamObserver<OutputBatch> responseObserver,
+                                     CallContext callContext, StreamExecutor executor, int readAhead,
+                                     Cancellations cancellations, Timeouts timeouts, CostAccounting costs) {
+        return new FunctionStream(function, responseObserver, responseObserver, callContext, executor, readAhead,
+                cancellations, timeouts, costs, new ResultWriter());
+    }
+
+    /**
+     * Creates a stream for a call bound with the default protobuf marshaller.
+     * Results are built as BundledRows; rows that a function returns in
+     * wire format are parsed first.
+     *
+     * @param function the function being called.
+     * @param responseObserver where results are sent.
+     * @param callContext the context of the call.
+     * @param executor the executor that processes the batches of this stream, in order.
+     * @param readAhead how many batches to request ahead of the one being processed.
+     * @param cancellations where cancelled calls are counted.
+     * @param timeouts the time limits of the call.
+     * @param costs where the work done for the call is charged.
+     * @return the stream.
+     */
+    static FunctionStream forRows(PluginFunction function, StreamObserver<BundledRows> responseObserver,
+                                  CallContext callContext, StreamExecutor executor, int readAhead,
+                                  Cancellations cancellations, Timeouts timeouts, CostAccounting costs) {
+        StreamObserver<OutputBatch> batches = new StreamObserver<OutputBatch>() {
+            @Override
+            public void onNext(OutputBatch batch) { responseObserver.onNext(batch.getRows()); }
+
+            @Override
+            public void onError(Throwable t) { responseObserver.onError(t); }
+
+            @Override
+            public void onCompleted() { responseObserver.onCompleted(); }
+        };
+        return new FunctionStream(function, batches, responseObserver, callContext, executor, readAhead,
+                cancellations, timeouts, costs, ResultWriter.building());
+    }
+
+    /**
+     * Ask the client for the first batch, and any it may send ahead, once
+     * the call is admitted. A call that cannot even wait to be admitted is
+     * ended with RESOURCE_EXHAUSTED.
+     *
+     * @param admission the admission control of the plugin.
+     */
+    void start(AdmissionControl admission) {
+        if (streamTimeout > 0) {
+            streamTimer = timeouts.schedule(() -> expire("stream", streamTimeout), streamTimeout);
+        }
+        AdmissionControl.Permit admitted = admission.admit(function.getName(), callContext.getAppId(),
+                callContext.getUserId(), this::admitted, this::rejected);
+        if (admitted == null) {
+            rejected();
+            return;
+        }
+        permit = admitted;
+        if (failed || cancelled) {
+            admitted.release(-1, overdue);  // ended while being admitted, before release() could see the permit
+        }
+    }
+
+    /**
+     * The call could not wait to be admitted: end it with RESOURCE_EXHAUSTED.
+     */
+    private void rejected() {
+        String msg = "Too many calls in progress; call to function " + function.getName() + " rejected.";
+        LOG.warn(msg);
+        executor.executeAlways(() -> fail(Status.RESOURCE_EXHAUSTED.withDescription(msg)));
+    }
+
+    /**
+     * The call has been admitted: ask the client for the first batch.
+     */
+    private void admitted() {
+        if (flowControl != null && !failed && !cancelled) {
+            flowControl.request(1 + readAhead);
+        }
+    }
+
+    /**
+     * Get an observer that feeds parsed BundledRows into this stream.
+     * @return the observer to return to gRPC.
+     */
+    StreamObserver<BundledRows> rowObserver() {
+        return new StreamObserver<BundledRows>() {
+            @Override
+            public void onNext(BundledRows bundledRows) { FunctionStream.this.onNext(InputBatch.of(bundledRows)); }
+
+            @Override
+            public void onError(Throwable t) { FunctionStream.this.onError(t); }
+
+            @Override
+            public void onCompleted() { FunctionStream.this.onCompleted(); }
+        };
+    }
+
+    /**
+     * Receives a value from the stream. It can be called many times (via callback)
+     * but is never called after onError() or onCompleted().
+     * @param batch the rows that we need to process.
+     */
+    @Override
+    public void onNext(InputBatch batch) {
+        LOG.debug("onNext in executeFunction called.");
+        long received = System.nanoTime();
+        try {
+            executor.execute(() -> process(batch, received));
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Rejected batch for function " + function.getName() + ": " + e.getMessage());
+            executor.executeAlways(() -> fail(Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage())));
+        }
+    }
+
+    /**
+     * Receives a terminating error from the stream.
+     * May only be called once and if called it must be the last method called.
+     * In particular if an exception is thrown no further calls to any method
+     * may be made.
+     *
+     * gRPC ends a request stream with an error when the call has been
+     * cancelled or its deadline has passed. The call is closed by then, so
+     * nothing more is sent on it.
+     * @param t the error that occurred on the stream.
+     */
+    @Override
+    public void onError(Throwable t) {
+        LOG.debug("Call to function " + function.getName() + " ended by the client: " + Status.fromThrowable(t));
+        contextCancelled(context);
+    }
+
+    /**
+     * The gRPC Context of the call has been cancelled, by the client or
+     * because the deadline the client set has passed.
+     */
+    private void contextCancelled(Context cancelledContext) {
+        if (!markCancelled()) {
+            return;
+        }
+        Deadline deadline = cancelledContext.getDeadline();
+        if (deadline != null && deadline.isExpired()) {
+            LOG.warn("Call to function " + function.getName() + " ran past the deadline set by the client.");
+            overdue = true;
+            timeouts.clientDeadlineExpired();
+        }
+        stop();
+    }
+
+    /**
+     * A time limit of the call has passed: end it with DEADLINE_EXCEEDED and
+     * stop processing it. Called on the timer thread.
+     */
+    private void expire(String limit, long millis) {
+        if (!markCancelled()) {
+            return;
+        }
+        String msg = "Function " + function.getName() + " exceeded its " + limit + " timeout of " + millis + " ms.";
+        LOG.warn(msg);
+        overdue = true;
+        if ("batch".equals(limit)) {
+            timeouts.batchExpired();
+        } else {
+            timeouts.streamExpired();
+        }
+        responseObserver.onError(Status.DEADLINE_EXCEEDED.withDescription(msg).asRuntimeException());
+        stop();
+    }
+
+    /**
+     * Mark the call cancelled, unless it has already ended or been cancelled.
+     * @return true if the call was marked, by this caller only.
+     */
+    private synchronized boolean markCancelled() {
+        if (cancelled || finished || failed) {
+            return false;
+        }
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * Stop processing a cancelled call as soon as possible. Called on
+     * whichever thread noticed the cancellation. The permit is released
+     * straight away: the batch in progress stops at its next
+     * CallContext.checkCancelled(), and the next call need not wait for it.
+     */
+    private void stop() {
+        callContext.cancel();
+        releasePermit();
+        executor.executeAlways(this::cancelled);
+    }
+
+    /**
+     * Count the work done for a cancelled call and release its state. The
+     * batches queued before this task have been skipped by then.
+     */
+    private void cancelled() {
+        if (failed || finished) {
+            return;
+        }
+        failed = true;
+        LOG.info("Call to function " + function.getName() + " was cancelled after " + processedBatches + " batches.");
+        cancellations.cancelled(processedBatches, processedNanos);
+        cancellations.saved(pending.size());
+        release();
+    }
+
+    /**
+     * Receives a notification of successful stream completion.
+     * May only be called once and if called it must be the last method called.
+     */
+    @Override
+    public void onCompleted() {
+        LOG.debug("onCompleted in executeFunction called.");
+        executor.executeAlways(this::complete);
+    }
+
+    /**
+     * Process one batch on the executor.
+     * @param received when the batch was received, from System.nanoTime().
+     */
+    private void process(InputBatch batch, long received) {
+        if (failed || cancelled) {
+            if (cancelled) {
+                cancellations.saved(1);
+            }
+            return;
+        }
+        CallContext previous = callContext.attach();
+        long start = System.nanoTime();
+        long cpu = costs.cpuTime();
+        long allocated = costs.allocatedBytes();
+        ScheduledFuture<?> timer = batchTimeout > 0 && async == null
+                ? timeouts.schedule(() -> expire("batch", batchTimeout), batchTimeout) : null;
+        boolean stopped = false;
+        try {
+            dispatch(batch);
+            sendPending();
+        } catch (Throwable t) {
+            // CallContext.checkCancelled() in the function: the rest of the batch was saved.
+            stopped = cancelled && t instanceof CancellationException;
+            fail(t, "failed");
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            callContext.detach(previous);
+            costs.charge(function.getName(), callContext, cpu, allocated, true);
+            long end = System.nanoTime();
+            if (stopped) {
+                cancellations.saved(1);
+            } else {
+                processedBatches++;
+                latencyNanos += end - received;
+            }
+            processedNanos += end - start;
+        }
+        if (!failed && source == null && flowControl != null) {
+            if (async != null && pending.size() >= async.getMaxPending()) {
+                held = true;  // requested by sendCompleted() once the oldest batch completes
+            } else {
+                flowControl.request(1);
+            }
+        }
+        LOG.debug("onNext in executeFunction completed.");
+    }
+
+    /**
+     * The client is ready for more results: carry on sending the rows of a
+     * generator function, and once they are all sent, ask for the next batch
+     * or finish the stream.
+     */
+    private void resume() {
+        if (failed || cancelled || source == null) {
+            return;
+        }
+        CallContext previous = callContext.attach();
+        long cpu = costs.cpuTime();
+        long allocated = costs.allocatedBytes();
+        try {
+            sendPending();
+            if (source == null) {
+                if (inputComplete) {
+                    finish();
+                } else if (flowControl != null) {
+                    flowControl.request(1);
+                }
+            }
+        } catch (Throwable t) {
+            fail(t, "failed");
+        } finally {
+            callContext.detach(previous);
+            costs.charge(function.getName(), callContext, cpu, allocated, false);
+        }
+    }
+
+    /**
+     * Send rows from the pending RowSource, a batch at a time, for as long as
+     * the client is ready for them. If it is not, the rest are sent by resume().
+     */
+    private void sendPending() {
+        while (source != null && !failed && !cancelled) {
+            if (flowControl != null && !flowControl.isReady()) {
+                return;
+            }
+            boolean more = source.next(writer, generator.getBatchRows());
+            if (writer.getRowCount() > 0) {
+                responseObserver.onNext(writer.toBatch());
+            }
+            if (!more) {
+                RowSource exhausted = source;
+                source = null;
+                exhausted.close();
+            }
+        }
+    }
+
+    /**
+     * Start a batch of an asynchronous function. Its results are sent by
+     * sendCompleted(), which runs on the executor whenever a future completes.
+     */
+    private void startAsync(InputBatch batch) {
+        CompletableFuture<BundledRows> result = async.start(batch);
+        pending.add(result);
+        ScheduledFuture<?> timer = batchTimeout > 0
+                ? timeouts.schedule(() -> expire("batch", batchTimeout), batchTimeout) : null;
+        result.whenComplete((rows, t) -> {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            executor.executeAlways(this::sendCompleted);
+        });
+    }
+
+    /**
+     * Send the results of the oldest batches of an asynchronous function, as
+     * far as they have completed, and finish the stream once the last one
+     * is sent.
+     */
+    private void sendCompleted() {
+        boolean sent = false;
+        long cpu = costs.cpuTime();
+        long allocated = costs.allocatedBytes();
+        try {
+            while (!failed && !cancelled && !pending.isEmpty() && pending.peek().isDone()) {
+                BundledRows rows = pending.poll().join();
+                sent = true;
+                writer.addRows(rows);
+                responseObserver.onNext(writer.toBatch());
+                if (held) {
+                    held = false;
+                    if (flowControl != null) {
+                        flowControl.request(1);
+                    }
+                }
+            }
+            if (sent && !failed && inputComplete && pending.isEmpty()) {
+                finish();
+            }
+        } catch (Throwable t) {
+            fail(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t, "failed");
+        } finally {
+            costs.charge(function.getName(), callContext, cpu, allocated, false);
+        }
+    }
+
+    /**
+     * Hands a batch of rows to the function.
+     * @param batch the rows that we need to process.
+     */
+    private void dispatch(InputBatch batch) {
+        if (async != null) {
+            startAsync(batch);
+            return;
+        }
+        switch(functionType) {
+            case SCALAR:
+                /*
+                 * return this batch of results.
+                 */
+                ((ScalarFunction)function).scalar(batch, writer);
+                responseObserver.onNext(writer.toBatch());
+                break;
+            case TENSOR:
+                if (generator != null) {
+                    /*
+                     * the rows produced are sent by sendPending().
+                     */
+                    source = generator.generate(batch);
+                    break;
+                }
+                /*
+                 * return this batch of results.
+                 */
+                ((TensorFunction)function).tensor(batch, writer);
+                responseObserver.onNext(writer.toBatch());
+                break;
+            case AGGREGATION:
+                /*
+                 * Aggregation functions do not return values here. A single value
+                 * is returned once all rows have been processed.
+                 */
+                ((AggregationFunction)function).aggregation(batch);
+                break;
+            case UNRECOGNIZED:
+            default:
+                String msg = "Incorrect function type in onNext in executeFunction: " + functionType;
+                LOG.error(msg);
+                fail(Status.INTERNAL.withDescription(msg));
+                break;
+        }
+    }
+
+    /**
+     * Finish the stream once all batches have been processed.
+     */
+    private void complete() {
+        if (failed || cancelled) {
+            return;
+        }
+        inputComplete = true;
+        if (source != null) {
+            return;  // resume() finishes the stream once the pending rows are sent
+        }
+        if (!pending.isEmpty()) {
+            return;  // sendCompleted() finishes the stream once the last results are sent
+        }
+        CallContext previous = callContext.attach();
+        long cpu = costs.cpuTime();
+        long allocated = costs.allocatedBytes();
+        try {
+            if (function.isAggregation()) {
+                /*
+                 * return final result from aggregation processing.
+                 */
+                ((AggregationFunction)function).reduce(writer);
+                responseObserver.onNext(writer.toBatch());
+            } else if (generator != null) {
+                /*
+                 * return the final rows of a generator function, a batch at a time.
+                 */
+                source = generator.complete();
+                sendPending();
+                if (source != null) {
+                    return;  // resume() finishes the stream once the client catches up
+                }
+            }
+            finish();
+        } catch (Throwable t) {
+            fail(t, "failed to complete");
+        } finally {
+            callContext.detach(previous);
+            costs.charge(function.getName(), callContext, cpu, allocated, false);
+        }
+    }
+
+    /**
+     * End the stream successfully.
+     */
+    private void finish() {
+        finished = true;
+        responseObserver.onCompleted();
+        LOG.debug("onCompleted in executeFunction completed.");
+        release();
+    }
+
+    /**
+     * End the stream because the function failed, unless the call has been
+     * cancelled, in which case the failure is most likely that results could
+     * no longer be sent.
+     */
+    private void fail(Throwable t, String what) {
+        if (cancelled || context.isCancelled()) {
+            LOG.debug("Function " + function.getName() + " " + what + " after the call was cancelled: " + t);
+            return;
+        }
+        fail(statusOf(t, what));
+    }
+
+    /**
+     * End the stream with an error status. Only the first failure is reported.
+     */
+    private void fail(Status status) {
+        if (!failed) {
+            failed = true;
+            responseObserver.onError(status.asRuntimeException());
+        }
+        release();
+    }
+
+    /**
+     * Log a failed function and get the status the call ends with. A function
+     * may choose the status by throwing a StatusRuntimeException (e.g.
+     * RESOURCE_EXHAUSTED when a result would grow too large); anything else
+     * is a bug and ends the call with INTERNAL.
+     */
+    private Status statusOf(Throwable t, String what) {
+        Status status = Status.fromThrowable(t);
+        if (status.getCode() == Status.Code.UNKNOWN) {
+            LOG.error("Function " + function.getName() + " " + what + ".", t);
+            return Status.INTERNAL.withDescription("Function " + function.getName() + " failed: " + t).withCause(t);
+        }
+        LOG.warn("Function " + function.getName() + " " + what + ": " + status);
+        return status;
+    }
+
+    /**
+     * Release the per-stream state of the function once the stream has ended.
+     */
+    private void release() {
+        context.removeListener(cancellationListener);
+        ScheduledFuture<?> timer = streamTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        for (CompletableFuture<BundledRows> result : pending) {
+            result.cancel(true);
+        }
+        pending.clear();
+        if (source != null) {
+            RowSource pending = source;
+            source = null;
+            try {
+                pending.close();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not release the rows of function " + function.getName() + ".", e);
+            }
+        }
+        releasePermit();
+        callContext.close();
+    }
+
+    /**
+     * Release the admission permit of the call with the average latency of
+     * its batches. Releasing it again does nothing.
+     */
+    private void releasePermit() {
+        AdmissionControl.Permit admitted = permit;
+        if (admitted != null) {
+            long batches = processedBatches;
+            admitted.release(batches > 0 ? latencyNanos / batches : -1, overdue);
+        }
+    }
+
+    /**
+     * The response of the call. The executor sends results and ends the
+     * call, but a timer may end it too, so each method holds the lock of the
+     * response, and nothing is sent once the call has ended.
+     */
+    private static final class Response implements StreamObserver<OutputBatch> {
+        private final StreamObserver<OutputBatch> observer;
+        private boolean ended;
+
+        Response(StreamObserver<OutputBatch> observer) {
+            this.observer = observer;
+        }
+
+        @Override
+        public synchronized void onNext(OutputBatch batch) {
+            if (!ended) {
+                observer.onNext(batch);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            if (!ended) {
+                ended = true;
+                observer.onError(t);
+            }
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            if (!ended) {
+                ended = true;
+                observer.onCompleted();
+            }
+        }
+    }
+}
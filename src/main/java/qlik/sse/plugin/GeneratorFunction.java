@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.server.PluginServer;
+import qlik.sse.server.ServerProperties;
+
+import java.util.Properties;
+
+/**
+ * Abstract base class for a tensor function that returns its rows through
+ * a RowSource rather than as one result per batch, so it can return more
+ * rows than it received (e.g. a table loaded by a load script) or fewer.
+ *
+ * The plugin pulls the rows of each source in batches of
+ * qlik.sse.generator.batchrows rows and sends each batch only when the
+ * client is ready for it; the next input batch is requested once the
+ * source is exhausted. Rows are therefore produced as fast as the client
+ * consumes them and never pile up in memory. A function that declares its
+ * output with setTableDescription() can return millions of rows this way.
+ */
+public abstract class GeneratorFunction extends TensorFunction {
+    private final int batchRows;
+
+    /**
+     * The default constructor.
+     */
+    public GeneratorFunction() {
+        super();
+        Properties props = PluginServer.getProperties();
+        if (props == null) {
+            props = ServerProperties.getDefaultProperties();
+        }
+        batchRows = Math.max(1, Integer.parseInt(props.getProperty(ServerProperties.GENERATOR_BATCH_ROWS,
+                ServerProperties.GENERATOR_BATCH_ROWS_DEFAULT).trim()));
+    }
+
+    /**
+     * Get the rows produced for a batch.
+     *
+     * You must override this function in the derived class.
+     *
+     * It is called from onNext() in the plugin.
+     *
+     * @param batch the batch that the function should execute against.
+     * @return the rows, or null if there are none.
+     */
+    public abstract RowSource generate(InputBatch batch);
+
+    /**
+     * Get the rows produced once all batches have arrived. By default there
+     * are none.
+     *
+     * It is called from onCompleted() in the plugin.
+     *
+     * @return the rows, or null if there are none.
+     */
+    public RowSource complete() { return null; }
+
+    /**
+     * Get the number of rows that are sent in each batch.
+     * @return the number of rows.
+     */
+    public int getBatchRows() { return batchRows; }
+
+    /**
+     * Returns all rows produced for the batch. Only used when the function
+     * is called directly; the plugin pulls rows from generate().
+     *
+     * @param rows the rows that the function should execute against.
+     * @return the rows produced.
+     */
+    @Override
+    public final BundledRows tensor(BundledRows rows) {
+        return tensor(InputBatch.of(rows));
+    }
+
+    /**
+     * Returns all rows produced for the batch. Only used when the function
+     * is called directly; the plugin pulls rows from generate().
+     *
+     * @param batch the batch that the function should execute against.
+     * @return the rows produced.
+     */
+    @Override
+    public final BundledRows tensor(InputBatch batch) {
+        ResultWriter out = ResultWriter.building();
+        tensor(batch, out);
+        return out.toBatch().getRows();
+    }
+
+    /**
+     * Writes all rows produced for the batch. Only used when the function
+     * is called directly; the plugin pulls rows from generate().
+     *
+     * @param batch the batch that the function should execute against.
+     * @param out where the rows are written.
+     */
+    @Override
+    public final void tensor(InputBatch batch, ResultWriter out) {
+        try (RowSource source = generate(batch)) {
+            while (source != null && source.next(out, batchRows)) {
+                CallContext.checkCancelled();  // keep writing until the source is exhausted
+            }
+        }
+    }
+}
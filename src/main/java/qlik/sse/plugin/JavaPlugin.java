@@ -13,12 +13,22 @@
  */
 package qlik.sse.plugin;
 
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Context;
 import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import qlik.sse.ConnectorGrpc;
 import qlik.sse.ServerSideExtension.Capabilities;
+import qlik.sse.ServerSideExtension.CommonRequestHeader;
 import qlik.sse.ServerSideExtension.FunctionType;
 import qlik.sse.ServerSideExtension.DataType;
 import qlik.sse.ServerSideExtension.BundledRows;
@@ -27,7 +37,22 @@ import qlik.sse.ServerSideExtension.ScriptRequestHeader;
 import qlik.sse.ServerSideExtension.Row;
 import qlik.sse.ServerSideExtension.Dual;
 import qlik.sse.ServerSideExtension.Empty;
-
+import qlik.sse.ServerSideExtension.TableDescription;
+
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.InputBatchMarshaller;
+import qlik.sse.plugin.columnar.OutputBatch;
+import qlik.sse.plugin.columnar.OutputBatchMarshaller;
+import qlik.sse.plugin.deploy.PluginDirectory;
+import qlik.sse.plugin.executor.AdmissionControl;
+import qlik.sse.plugin.executor.ExecutionStrategy;
+import qlik.sse.plugin.executor.ExecutorRegistry;
+import qlik.sse.plugin.executor.FairShare;
+import qlik.sse.plugin.executor.InlineExecutor;
+import qlik.sse.plugin.executor.PriorityPolicy;
+import qlik.sse.plugin.executor.StreamExecutor;
+import qlik.sse.plugin.staging.MemoryBudget;
+import qlik.sse.server.Metrics;
 import qlik.sse.server.PluginServer;
 import qlik.sse.server.ServerProperties;
 
@@ -35,7 +60,18 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.grpc.Metadata.BINARY_BYTE_MARSHALLER;
 
@@ -43,9 +79,23 @@ import static io.grpc.Metadata.BINARY_BYTE_MARSHALLER;
 public class JavaPlugin extends Plugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(JavaPlugin.class);
+    private static final String PLUGIN_JAR_ATTRIBUTE = PluginDirectory.class.getName();
     private final ThreadLocal<Metadata> metadata = new ThreadLocal<>();
 
-    private final PluginCapabilities pluginCapabilities;
+    private final Properties props;
+    // replaced as a whole when plugin jars change.
+    private volatile PluginCapabilities pluginCapabilities;
+    private final PluginDirectory pluginDirectory;
+    private final MemoryBudget memoryBudget;
+    private final ExecutorRegistry executors;
+    private final ExecutionStrategy strategy;
+    private final PriorityPolicy priorities;
+    private final Cancellations cancellations = new Cancellations();
+    private final Timeouts timeouts;
+    private final CostAccounting costs;
+    private final FairShare fairShare;
+    private final AdmissionControl admission;
+    private final boolean columnarMarshaller;
 
 
     /**
@@ -54,7 +104,7 @@ public class JavaPlugin extends Plugin {
     public JavaPlugin() {
         String className;
         Class<PluginCapabilities> clazz;
-        Properties props = PluginServer.getProperties();
+        props = PluginServer.getProperties();
         // instantiate an instance of the plugin class specified in the properties file.
         className = props.getProperty(ServerProperties.CAPABILITIES);
         try {
@@ -65,6 +115,134 @@ public class JavaPlugin extends Plugin {
             LOG.error("Could not instantiate plugin.", e);
             throw new RuntimeException(e);
         }
+        initializeFunctions(pluginCapabilities);
+        memoryBudget = new MemoryBudget(Long.parseLong(
+                props.getProperty(ServerProperties.MEMORY_BUDGET, ServerProperties.MEMORY_BUDGET_DEFAULT).trim()));
+        Metrics.register("MemoryBudget", Metrics.scopedName(props, "default"), memoryBudget);
+        executors = new ExecutorRegistry(props);
+        strategy = new ExecutionStrategy(props);
+        Metrics.register("ExecutionStrategy", Metrics.scopedName(props, "default"), strategy);
+        priorities = new PriorityPolicy(props);
+        Metrics.register("PriorityPolicy", Metrics.scopedName(props, "default"), priorities);
+        Metrics.register("Cancellations", Metrics.scopedName(props, "default"), cancellations);
+        timeouts = new Timeouts(props);
+        Metrics.register("Timeouts", Metrics.scopedName(props, "default"), timeouts);
+        costs = new CostAccounting(props);
+        Metrics.register("CostAccounting", Metrics.scopedName(props, "default"), costs);
+        fairShare = new FairShare(props);
+        Metrics.register("FairShare", Metrics.scopedName(props, "default"), fairShare);
+        admission = new AdmissionControl(props, fairShare);
+        Metrics.register("AdmissionControl", Metrics.scopedName(props, "default"), admission);
+        String pluginDir = props.getProperty(ServerProperties.PLUGIN_DIR, ServerProperties.PLUGIN_DIR_DEFAULT).trim();
+        if (pluginDir.isEmpty()) {
+            pluginDirectory = null;
+        } else {
+            pluginDirectory = new PluginDirectory(Paths.get(pluginDir), pluginCapabilities, props,
+                    capabilities -> pluginCapabilities = capabilities,
+                    Long.parseLong(props.getProperty(ServerProperties.PLUGIN_DIR_INTERVAL,
+                            ServerProperties.PLUGIN_DIR_INTERVAL_DEFAULT).trim()));
+            pluginDirectory.start();
+            Metrics.register("PluginDirectory", Metrics.scopedName(props, "default"), pluginDirectory);
+        }
+        columnarMarshaller = Boolean.parseBoolean(props.getProperty(ServerProperties.COLUMNAR_MARSHALLER));
+    }
+
+    /**
+     * Create the functions of the plugin as set by qlik.sse.function.init:
+     * not at all (they are created when first called), in parallel in the
+     * background, or in parallel before returning.
+     * @param capabilities the capabilities whose functions are created.
+     */
+    private void initializeFunctions(PluginCapabilities capabilities) {
+        String mode = props.getProperty(ServerProperties.FUNCTION_INIT, ServerProperties.FUNCTION_INIT_DEFAULT).trim();
+        if (ServerProperties.FUNCTION_INIT_LAZY.equalsIgnoreCase(mode)) {
+            return;
+        }
+        int threads = Integer.parseInt(props.getProperty(ServerProperties.FUNCTION_INIT_THREADS,
+                ServerProperties.FUNCTION_INIT_THREADS_DEFAULT).trim());
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "sse-function-init-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        long start = System.nanoTime();
+        CompletableFuture<Void> initialized = capabilities.initialize(pool).whenComplete((result, e) -> {
+            pool.shutdown();
+            if (e != null) {
+                LOG.error("Could not initialize all functions. They will be initialized again when first called.", e);
+            } else {
+                LOG.info(String.format("Initialized functions in %.1f ms.", (System.nanoTime() - start) / 1e6));
+            }
+        });
+        if (ServerProperties.FUNCTION_INIT_EAGER.equalsIgnoreCase(mode)) {
+            try {
+                initialized.join();
+            } catch (CompletionException e) {
+                throw new RuntimeException("Could not initialize functions.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Binds the service methods. GetCapabilities is bound with a response
+     * marshaller that sends the Capabilities message serialized once by
+     * PluginCapabilities. If the columnar marshaller is enabled,
+     * ExecuteFunction is bound with a request marshaller that keeps each
+     * batch in serialized form, so that it can be decoded straight into
+     * columns, and a response marshaller that sends rows written by a
+     * ResultWriter as they are. The other methods are bound as generated.
+     *
+     * @return the service definition.
+     */
+    @Override
+    public ServerServiceDefinition getServiceDefinition() {
+        ServerServiceDefinition definition = bindService();
+        MethodDescriptor<Empty, Capabilities> getCapabilities = ConnectorGrpc.METHOD_GET_CAPABILITIES;
+        MethodDescriptor<BundledRows, BundledRows> executeFunction = ConnectorGrpc.METHOD_EXECUTE_FUNCTION;
+        ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(ConnectorGrpc.SERVICE_NAME);
+        for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+            String name = method.getMethodDescriptor().getFullMethodName();
+            if (!name.equals(getCapabilities.getFullMethodName())
+                    && !(columnarMarshaller && name.equals(executeFunction.getFullMethodName()))) {
+                builder.addMethod(method);
+            }
+        }
+        builder.addMethod(
+                getCapabilities.toBuilder(getCapabilities.getRequestMarshaller(), new SerializedMarshaller()).build(),
+                ServerCalls.asyncUnaryCall(this::getSerializedCapabilities));
+        if (columnarMarshaller) {
+            LOG.info("Using the columnar marshaller for ExecuteFunction.");
+            builder.addMethod(
+                    executeFunction.toBuilder(new InputBatchMarshaller(), new OutputBatchMarshaller()).build(),
+                    ServerCalls.asyncBidiStreamingCall(this::executeFunctionBatches));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sends a message that is already serialized as it is.
+     */
+    private static final class SerializedMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int n; (n = stream.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw Status.INTERNAL.withDescription("Could not read message.").withCause(e).asRuntimeException();
+            }
+        }
     }
 
     /**
@@ -86,6 +264,17 @@ public class JavaPlugin extends Plugin {
         return pluginCapabilities.getPluginFunction(id).getQlikCache();
     }
 
+    /**
+     * Get the table a function returns, if it has declared one.
+     * @param id the function ID
+     * @return the TableDescription to send to Qlik, or null for none.
+     */
+    @Override
+    public TableDescription getTableDescription(int id) {
+        PluginFunction function = pluginCapabilities.getPluginFunction(id);
+        return function == null ? null : function.getTableDescription();
+    }
+
     /**
      * Creates and returns the Capabilities for this plugin.
      * @param request and Empty request.
@@ -96,18 +285,31 @@ public class JavaPlugin extends Plugin {
          
          LOG.info("getCapabilities called.");
          
-         Capabilities capabilities = Capabilities.newBuilder()
-             .setAllowScript(pluginCapabilities.getAllowScripts())
-             .setPluginIdentifier(pluginCapabilities.getPluginIdentifier())
-             .setPluginVersion(pluginCapabilities.getPluginVersion())
-             .addAllFunctions(pluginCapabilities.getFunctionDefinitionList())
-             .build();
+         Capabilities capabilities;
+         try {
+             capabilities = Capabilities.parseFrom(pluginCapabilities.getSerializedCapabilities());
+         } catch (InvalidProtocolBufferException e) {
+             responseObserver.onError(Status.INTERNAL.withDescription("Invalid capabilities.").withCause(e).asRuntimeException());
+             return;
+         }
 
          responseObserver.onNext(capabilities);
          responseObserver.onCompleted();
          LOG.debug("getCapabilities completed.");
      }
 
+    /**
+     * Returns the Capabilities for this plugin as serialized by PluginCapabilities.
+     * @param request and Empty request.
+     * @param responseObserver where we return the gRPC response.
+     */
+     private void getSerializedCapabilities(Empty request, StreamObserver<byte[]> responseObserver) {
+         LOG.info("getCapabilities called.");
+         responseObserver.onNext(pluginCapabilities.getSerializedCapabilities());
+         responseObserver.onCompleted();
+         LOG.debug("getCapabilities completed.");
+     }
+
     /**
      * The gRPC entry point into the plugin when a function is executed.
      * @param responseObserver a StreamObserver that receives notifications from the gRPC message stream.
@@ -115,6 +317,133 @@ public class JavaPlugin extends Plugin {
      */
      @Override
      public StreamObserver<BundledRows> executeFunction(final StreamObserver<BundledRows> responseObserver) {
+         final PluginFunction function = getFunction(responseObserver);
+         if (function == null) {
+             return discard();
+         }
+
+         /*
+          * Batches are processed inline or on the executor the function is
+          * assigned to, depending on the size of the call and on whether that
+          * executor allows inline calls.
+          */
+         CallContext context = getCallContext(function);
+         FunctionStream stream;
+         if (strategy.choose(function.getName(), context.getCardinality(),
+                 executors.forFunction(function).isInline()) == ExecutionStrategy.Path.INLINE) {
+             stream = FunctionStream.forRows(function, responseObserver, context, new InlineExecutor(), 0,
+                     cancellations, timeouts, costs);
+         } else {
+             stream = FunctionStream.forRows(function, responseObserver, context,
+                     newSerialExecutor(function, context), strategy.getReadAhead(), cancellations, timeouts, costs);
+         }
+         stream.start(admission);
+         return stream.rowObserver();
+     }
+
+    /**
+     * The gRPC entry point into the plugin when a function is executed and
+     * the columnar marshaller is enabled.
+     * @param responseObserver a StreamObserver that receives notifications from the gRPC message stream.
+     * @return a StreamObserver
+     */
+     private StreamObserver<InputBatch> executeFunctionBatches(final StreamObserver<OutputBatch> responseObserver) {
+         final PluginFunction function = getFunction(responseObserver);
+         if (function == null) {
+             return discard();
+         }
+         CallContext context = getCallContext(function);
+         FunctionStream stream;
+         if (strategy.choose(function.getName(), context.getCardinality(),
+                 executors.forFunction(function).isInline()) == ExecutionStrategy.Path.INLINE) {
+             stream = FunctionStream.forBatches(function, responseObserver, context, new InlineExecutor(), 0,
+                     cancellations, timeouts, costs);
+         } else {
+             stream = FunctionStream.forBatches(function, responseObserver, context,
+                     newSerialExecutor(function, context), strategy.getReadAhead(), cancellations, timeouts, costs);
+         }
+         stream.start(admission);
+         return stream;
+     }
+
+    /**
+     * Create the executor that processes the batches of a call on the
+     * executor its function is assigned to, at the priority of the call and
+     * within the share of its app.
+     * @param function the function being called.
+     * @param context the context of the call.
+     * @return the executor.
+     */
+     private StreamExecutor newSerialExecutor(PluginFunction function, CallContext context) {
+         return executors.forFunction(function).newSerialExecutor(priorities.choose(function.getName(),
+                 context.getAppId(), context.getUserId(), context.getCardinality()),
+                 fairShare.tenant(context.getAppId(), context.getUserId()));
+     }
+
+    /**
+     * Get an observer that ignores what the client sends, for a call that
+     * has already been ended with an error.
+     * @param <T> the type of the messages.
+     * @return the observer to return to gRPC.
+     */
+     private static <T> StreamObserver<T> discard() {
+         return new StreamObserver<T>() {
+             @Override
+             public void onNext(T value) { }
+
+             @Override
+             public void onError(Throwable t) { }
+
+             @Override
+             public void onCompleted() { }
+         };
+     }
+
+    /**
+     * Creates the context of a call. If the function comes from a plugin jar,
+     * the version of the jar is pinned until the call ends.
+     * @param function the function being called.
+     * @return the context.
+     */
+     private CallContext getCallContext(PluginFunction function) {
+         CallContext context = newCallContext(function);
+         if (pluginDirectory != null) {
+             AutoCloseable lease = pluginDirectory.acquire(function);
+             if (lease != null) {
+                 context.getAttribute(PLUGIN_JAR_ATTRIBUTE, () -> lease);
+             }
+         }
+         return context;
+     }
+
+    /**
+     * Creates the context of a call from the CommonRequestHeader, if Qlik sent one.
+     * @param function the function being called.
+     * @return the context.
+     */
+     private CallContext newCallContext(PluginFunction function) {
+         byte[] bytes = metadata.get().get(Metadata.Key.of("qlik-commonrequestheader-bin", BINARY_BYTE_MARSHALLER));
+         if (bytes != null) {
+             try {
+                 CommonRequestHeader header = CommonRequestHeader.parseFrom(bytes);
+                 LOG.debug("Call to function " + function.getFunctionId() + " for app " + header.getAppId()
+                         + " has cardinality " + header.getCardinality() + ".");
+                 return new CallContext(function.getFunctionId(), header.getAppId(), header.getUserId(),
+                         header.getCardinality(), props, memoryBudget);
+             } catch (Exception e) {
+                 LOG.warn("Exception when trying to get the common request header.", e);
+             }
+         }
+         return new CallContext(function.getFunctionId(), "", "", 0, props, memoryBudget);
+     }
+
+    /**
+     * Looks up the function being called.
+     * @param responseObserver a StreamObserver that receives notifications from the gRPC message stream.
+     * @return the function, or null if the call could not be started, in which
+     * case the response observer has already been notified.
+     */
+     private PluginFunction getFunction(final StreamObserver<?> responseObserver) {
          LOG.debug("executeFunction called.");
          final int functionId;
 
@@ -128,105 +457,36 @@ public class JavaPlugin extends Plugin {
              LOG.debug("Function nbr " + functionId + " was called.");
          } catch (Exception e) {
              LOG.warn("Exception when trying to get the function request header.", e);
-             responseObserver.onError(new Throwable("Exception when trying to get the function request header in executeFunction."));
-             responseObserver.onCompleted();
-             return responseObserver;
+             responseObserver.onError(Status.INVALID_ARGUMENT
+                     .withDescription("Exception when trying to get the function request header in executeFunction.")
+                     .asRuntimeException());
+             return null;
          }
          LOG.debug("executeFunction called. Function Id: " + functionId + ".");
-         final FunctionType functionType;
-         final PluginFunction function = pluginCapabilities.getPluginFunction(functionId);
+         final PluginFunction function;
+         try {
+             function = pluginCapabilities.getPluginFunction(functionId);
+         } catch (IllegalStateException e) {
+             LOG.error("Could not initialize function " + functionId + ".", e);
+             responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).withCause(e).asRuntimeException());
+             return null;
+         }
          if (function == null) {
              String msg = String.format("Incorrect function id %d received in executeFunction.",
                      functionId);
              LOG.warn(msg);
-             responseObserver.onError(new Throwable(msg));
-             responseObserver.onCompleted();
-             return responseObserver;
-         } else {
-             functionType = function.getFunctionType();
+             responseObserver.onError(Status.NOT_FOUND.withDescription(msg).asRuntimeException());
+             return null;
          }
-
-         /*
-          * Builds a StreamObserver as an anonymous class to return
-          * from this function. It implements the functions required
-          * by the StreamObserver interface.
-          */
-         return new StreamObserver<BundledRows>() {
-
-             /**
-              * Receives a value from the stream. It can be called many times (via callback)
-              * but is never called after onError() or onCompleted().
-              * @param bundledRows the rows that we need to process.
-              */
-             @Override
-             public void onNext(BundledRows bundledRows) {
-                 LOG.debug("onNext in executeFunction called.");
-
-                 switch(functionType) {
-                     case SCALAR:
-                         /*
-                          * return this batch of results.
-                          */
-                         responseObserver.onNext(((ScalarFunction)function).scalar(bundledRows));
-                         break;
-                     case TENSOR:
-                         /*
-                          * return this batch of results.
-                          */
-                         responseObserver.onNext(((TensorFunction)function).tensor(bundledRows));
-                         break;
-                     case AGGREGATION:
-                         /*
-                          * Aggregation functions do not return values here. A single value
-                          * is returned once all rows have been processed.
-                          */
-                         ((AggregationFunction)function).aggregation(bundledRows);
-                         break;
-                     case UNRECOGNIZED:
-                     default:
-                         String msg = "Incorrect function type in onNext in executeFunction: " + functionType;
-                         LOG.error(msg);
-                         responseObserver.onError(new Throwable("Incorrect function id in onNext in executeFunction."));
-                         responseObserver.onCompleted();
-                         break;
-
-                 }
-                 LOG.debug("onNext in executeFunction completed.");
-             }
-
-             /**
-              * Receives a terminating error from the stream.
-              * May only be called once and if called it must be the last method called.
-              * In particular if an exception is thrown no further calls to any method
-              * may be made.
-              * @param t the error that occurred on the stream.
-              */
-             @Override
-             public void onError(Throwable t) {
-                 LOG.warn("Encountered error in executeFunction.", t);
-                 responseObserver.onCompleted();
-             }
-
-             /**
-              * Receives a notification of successful stream completion.
-              * May only be called once and if called it must be the last method called.
-              */
-             @Override
-             public void onCompleted() {
-                 LOG.debug("onCompleted in executeFunction called.");
-                 if (function.isAggregation()) {
-                     /*
-                      * return final result from aggregation processing.
-                      */
-                     responseObserver.onNext(((AggregationFunction)function).reduce());
-                 }
-                 responseObserver.onCompleted();
-                 LOG.debug("onCompleted in executeFunction completed.");
-             }
-         };
+         return function;
      }
     /**
      * The gRPC entry point into the plugin when a script is to be executed.
+     *
+     * The response is ended at most once: after an error, whatever else the
+     * client sends is ignored. If Qlik cancels the call, the script is not
+     * evaluated for the rest of the rows. Each batch may take at most
+     * qlik.sse.timeout.batch, after which the call ends with DEADLINE_EXCEEDED.
      * @param responseObserver a StreamObserver that receives notifications from the gRPC message stream.
      * @return a StreamObserver
      */
@@ -242,29 +502,31 @@ public class JavaPlugin extends Plugin {
              LOG.debug("Got the script request header.");
          } catch (Exception e) {
              LOG.error("Exception when trying to get the script request header.", e);
-             responseObserver.onError(new Throwable("Exception when trying to get the script request header in evaluateScript."));
-             responseObserver.onCompleted();
-             return responseObserver;
+             responseObserver.onError(Status.INVALID_ARGUMENT
+                     .withDescription("Exception when trying to get the script request header in evaluateScript.")
+                     .asRuntimeException());
+             return discard();
          }
 
-         if(header != null ) {
-             if(header.getParamsCount() == 0) {
-                 BundledRows result = prepareScript(header, null);
-                 if(result.getRowsCount() > 0) {
-                     responseObserver.onNext(result);
-                 } else {
-                     responseObserver.onError(new Throwable("An error occurred in prepareScript in evaluateScript."));
-                 }
+         if(header.getParamsCount() == 0) {
+             BundledRows result = prepareScript(header, null);
+             if (result == null) {
+                 return discard();
+             }
+             if(result.getRowsCount() > 0) {
+                 responseObserver.onNext(result);
                  responseObserver.onCompleted();
-                 LOG.debug("evaluateScript completed");
+             } else {
+                 responseObserver.onError(Status.INTERNAL
+                         .withDescription("An error occurred in prepareScript in evaluateScript.").asRuntimeException());
              }
-         } else {
-             LOG.warn("The script request header is null.");
-             responseObserver.onError(new Throwable("The script request header is null in evaluateScript."));
-             responseObserver.onCompleted();
+             LOG.debug("evaluateScript completed");
+             return discard();
          }
          
          return new StreamObserver<BundledRows>() {
+             // set once the response has been ended, or the call cancelled.
+             private boolean closed;
 
              /**
               * Receives a value from the stream. It can be called many times (via callback)
@@ -274,22 +536,33 @@ public class JavaPlugin extends Plugin {
              @Override
              public void onNext(BundledRows bundledRows) {
                  LOG.debug("onNext in evaluateScript called");
-                 if(header != null) {
-                     if(header.getFunctionType() == FunctionType.AGGREGATION) {
-                         LOG.warn("Aggregation is not implemented in evaluate script.");
-                         responseObserver.onCompleted();
-                     }
-                     BundledRows result = prepareScript(header, bundledRows);
-                     if(result.getRowsCount() > 0) {
-                         responseObserver.onNext(result);
-                         LOG.debug("onNext in evaluateScript completed");
-                     } else {
-                         responseObserver.onError(new Throwable("An error occured in prepareScript in evaluateScript."));
-                     }
+                 if (closed) {
+                     return;
+                 }
+                 if(header.getFunctionType() == FunctionType.AGGREGATION) {
+                     LOG.warn("Aggregation is not implemented in evaluate script.");
+                     closed = true;
+                     responseObserver.onError(Status.UNIMPLEMENTED
+                             .withDescription("Aggregation is not implemented in evaluateScript.").asRuntimeException());
+                     return;
+                 }
+                 BundledRows result;
+                 try {
+                     result = prepareScript(header, bundledRows);
+                 } catch (StatusRuntimeException e) {
+                     closed = true;
+                     responseObserver.onError(e);
+                     return;
+                 }
+                 if (result == null) {
+                     closed = true;
+                 } else if(result.getRowsCount() > 0) {
+                     responseObserver.onNext(result);
+                     LOG.debug("onNext in evaluateScript completed");
                  } else {
-                     LOG.warn("The script request header is null.");
-                     responseObserver.onError(new Throwable("The script request header is null in onNext in evaluateScript."));
-                     responseObserver.onCompleted();
+                     closed = true;
+                     responseObserver.onError(Status.INTERNAL
+                             .withDescription("An error occured in prepareScript in evaluateScript.").asRuntimeException());
                  }
              }
 
@@ -298,12 +571,18 @@ public class JavaPlugin extends Plugin {
               * May only be called once and if called it must be the last method called.
               * In particular if an exception is thrown no further calls to any method
               * may be made.
+              *
+              * gRPC ends a request stream with an error when the call has been
+              * cancelled, and the call is closed by then.
               * @param t the error that occurred on the stream.
               */
              @Override
              public void onError(Throwable t) {
-                LOG.warn("Encountered error in evaluateScript", t);
-                 responseObserver.onCompleted();
+                 LOG.debug("evaluateScript ended by the client: " + Status.fromThrowable(t));
+                 if (!closed) {
+                     closed = true;
+                     cancellations.cancelledScript(0);
+                 }
              }
 
              /**
@@ -313,7 +592,10 @@ public class JavaPlugin extends Plugin {
              @Override
              public void onCompleted() {
                  LOG.debug("onCompleted in evaluateScript called");
-                 responseObserver.onCompleted();
+                 if (!closed) {
+                     closed = true;
+                     responseObserver.onCompleted();
+                 }
                  LOG.debug("onCompleted in evaluateScript completed");
              }
          };
@@ -325,7 +607,8 @@ public class JavaPlugin extends Plugin {
      *
      * @param header the ScriptRequestHeader
      * @param bundledRows the rows to be processed. May be null.
-     * @return the resulting rows
+     * @return the resulting rows, or null if the call was cancelled before they were all evaluated.
+     * @throws StatusRuntimeException with DEADLINE_EXCEEDED if the rows took longer than qlik.sse.timeout.batch.
      */
      private BundledRows prepareScript(ScriptRequestHeader header, BundledRows bundledRows) {
          
@@ -351,7 +634,25 @@ public class JavaPlugin extends Plugin {
               */
              Object[] args;
              int cnt =0;
+             Context context = Context.current();
+             long timeout = timeouts.getBatchTimeoutMillis();
+             long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
              for (Row row : bundledRows.getRowsList()) {
+                 if (context.isCancelled()) {
+                     // Qlik has given up on the call, so do not evaluate the rest.
+                     LOG.info("evaluateScript cancelled after " + cnt + " rows.");
+                     if (context.getDeadline() != null && context.getDeadline().isExpired()) {
+                         timeouts.clientDeadlineExpired();
+                     }
+                     cancellations.cancelledScript(bundledRows.getRowsCount() - cnt);
+                     return null;
+                 }
+                 if (timeout > 0 && System.nanoTime() - deadline > 0) {
+                     String msg = "Script evaluation exceeded its batch timeout of " + timeout + " ms.";
+                     LOG.warn(msg);
+                     timeouts.batchExpired();
+                     throw Status.DEADLINE_EXCEEDED.withDescription(msg).asRuntimeException();
+                 }
                  args = row.getDualsList().toArray();
                  engine.put("args", args);
                  LOG.trace(String.format("calling executeScript: %d", cnt++));
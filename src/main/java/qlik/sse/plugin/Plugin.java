@@ -1,7 +1,9 @@
 package qlik.sse.plugin;
 
 import io.grpc.Metadata;
+import io.grpc.ServerServiceDefinition;
 import qlik.sse.ConnectorGrpc.ConnectorImplBase;
+import qlik.sse.ServerSideExtension.TableDescription;
 
 import java.util.Map;
 
@@ -29,4 +31,23 @@ public abstract class Plugin extends ConnectorImplBase {
      * @return true if caching should be enabled, false otherwise.
      */
     public abstract boolean getFunctionCaching(int id);
+
+    /**
+     * Get the table a function returns, if it has declared one.
+     * @param id the function ID
+     * @return the TableDescription to send to Qlik, or null for none.
+     */
+    public TableDescription getTableDescription(int id) {
+        return null;
+    }
+
+    /**
+     * Get the service definition that the server registers for this plugin.
+     * bindService() is final, so plugins that need to bind a method
+     * differently (e.g. with another marshaller) override this instead.
+     * @return the service definition.
+     */
+    public ServerServiceDefinition getServiceDefinition() {
+        return bindService();
+    }
 }
@@ -13,27 +13,113 @@
  */
 package qlik.sse.plugin;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.Capabilities;
 import qlik.sse.ServerSideExtension.FunctionDefinition;
+import qlik.sse.server.PluginServer;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * The function IDs for the functions associated with this
  * server-side extension.
+ *
+ * Functions are added one at a time with putFunction(), or all at once
+ * with putFunctions() from the FunctionRegistry generated for functions
+ * declared with SseFunction. Once the capabilities are built, functions
+ * are looked up by id in an array, and the Capabilities message is
+ * serialized only once.
+ *
+ * The functions of a registry are not created when they are added: the
+ * Capabilities message is built from the definitions the registry
+ * serialized at build time, and each function is created the first time
+ * it is looked up, or ahead of time by initialize(). Expensive set-up in a
+ * function's constructor (e.g. deriving a key) therefore no longer holds
+ * up the start of the server.
  */
 public class PluginCapabilities {
     private static final Logger LOG = LoggerFactory.getLogger(PluginCapabilities.class);
 
-    private final Map<Integer, PluginFunction> functionMap;
+    private final Map<Integer, Slot> functionMap;
+    // functions whose definitions are serialized by a FunctionRegistry, and those definitions.
+    private final Map<Integer, Slot> registered = new HashMap<>();
+    private final ByteArrayOutputStream registeredDefinitions = new ByteArrayOutputStream();
+    // set when a function with registered definitions was replaced by putFunctions(PluginCapabilities).
+    private boolean registeredReplaced;
+    // built on first use, and again if functions are added later.
+    private volatile Slot[] functionTable;
+    private volatile byte[] capabilities;
     private String pluginIdentifier;
     private String pluginVersion;
     private boolean allowScripts;
 
+    /**
+     * A function, or what is needed to create it on first use.
+     */
+    private static final class Slot {
+        private final FunctionRegistry registry;
+        private final int functionId;
+        private final Properties props;
+        private volatile PluginFunction function;
+
+        Slot(PluginFunction function) {
+            this.registry = null;
+            this.functionId = function.getFunctionId();
+            this.props = null;
+            this.function = function;
+        }
+
+        Slot(FunctionRegistry registry, int functionId, Properties props) {
+            this.registry = registry;
+            this.functionId = functionId;
+            this.props = props;
+        }
+
+        PluginFunction get() {
+            PluginFunction f = function;
+            if (f == null) {
+                synchronized (this) {
+                    f = function;
+                    if (f == null) {
+                        f = create();
+                        function = f;
+                    }
+                }
+            }
+            return f;
+        }
+
+        boolean isCreated() {
+            return function != null;
+        }
+
+        /**
+         * Create the function with the properties of the plugin it was added
+         * to, whichever thread it is created on.
+         */
+        private PluginFunction create() {
+            long start = System.nanoTime();
+            PluginFunction f;
+            try {
+                f = props == null ? registry.newFunction(functionId)
+                        : PluginServer.withProperties(props, () -> registry.newFunction(functionId));
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not initialize function " + functionId + ".", e);
+            }
+            LOG.debug(String.format("Initialized function %d (%s) in %.1f ms.",
+                    functionId, f.getName(), (System.nanoTime() - start) / 1e6));
+            return f;
+        }
+    }
 
     /**
      * Constructor. Builds a Map of functions.
@@ -53,6 +139,7 @@ public class PluginCapabilities {
         this.pluginIdentifier = pluginIdentifier;
         this.pluginVersion = pluginVersion;
         this.allowScripts = allowScripts;
+        changed();
     }
 
     /**
@@ -62,7 +149,64 @@ public class PluginCapabilities {
      * @param function an instance of PluginFunction
      */
     public void putFunction(int id, PluginFunction function) {
-        functionMap.put(id, function);
+        functionMap.put(id, new Slot(function));
+        changed();
+    }
+
+    /**
+     * Add a function to the function map and assign it to a named executor,
+     * so that it does not compete for threads with functions on other executors.
+     *
+     * @param id the function id value
+     * @param function an instance of PluginFunction
+     * @param executorName the name of the executor the function runs on
+     */
+    public void putFunction(int id, PluginFunction function, String executorName) {
+        function.setExecutorName(executorName);
+        functionMap.put(id, new Slot(function));
+        changed();
+    }
+
+    /**
+     * Add the functions of a registry generated from SseFunction declarations.
+     * They are created when they are first needed, with the properties in
+     * effect now.
+     *
+     * @param registry the registry, e.g. new SampleCapabilitiesRegistry().
+     */
+    public void putFunctions(FunctionRegistry registry) {
+        Properties props = PluginServer.getProperties();
+        for (int id : registry.getFunctionIds()) {
+            Slot slot = new Slot(registry, id, props);
+            functionMap.put(id, slot);
+            registered.put(id, slot);
+        }
+        byte[] definitions = registry.getSerializedFunctions();
+        registeredDefinitions.write(definitions, 0, definitions.length);
+        changed();
+    }
+
+    /**
+     * Add the functions of other capabilities, e.g. those loaded from a
+     * plugin jar. Functions with the same id as one already added are
+     * replaced. The plugin information is not copied.
+     *
+     * @param other the capabilities whose functions are added.
+     */
+    public void putFunctions(PluginCapabilities other) {
+        for (Map.Entry<Integer, Slot> function : other.functionMap.entrySet()) {
+            Slot previous = functionMap.put(function.getKey(), function.getValue());
+            if (previous != null && (registered.containsKey(function.getKey())
+                    || other.registered.containsKey(function.getKey()))) {
+                registeredReplaced = true;
+            }
+            if (other.registered.get(function.getKey()) == function.getValue()) {
+                registered.put(function.getKey(), function.getValue());
+            }
+        }
+        byte[] definitions = other.registeredDefinitions.toByteArray();
+        registeredDefinitions.write(definitions, 0, definitions.length);
+        changed();
     }
 
     /**
@@ -90,40 +234,156 @@ public class PluginCapabilities {
     }
 
     /**
-     * Gets the information about the functions in this plugin.
+     * Gets the information about the functions in this plugin. Functions
+     * that have not been created yet are created.
      *
      * @return a Map mapping function id to the plugin function.
      */
     public Map<Integer, PluginFunction> getFunctionMap() {
-        return functionMap;
+        Map<Integer, PluginFunction> functions = new HashMap<>();
+        for (Map.Entry<Integer, Slot> function : functionMap.entrySet()) {
+            functions.put(function.getKey(), function.getValue().get());
+        }
+        return functions;
     }
 
     /**
-     * Get the SSE function definitions for the plugin's functions.
+     * Get the SSE function definitions for the plugin's functions. Only
+     * functions that were added without a registry are created for this.
      * @return a List of function definitions.
      */
     public List<FunctionDefinition> getFunctionDefinitionList() {
+        Map<Integer, FunctionDefinition> definitions = new HashMap<>();
+        try {
+            // a registry added later replaces the definitions of one added earlier.
+            for (FunctionDefinition definition
+                    : Capabilities.parseFrom(registeredDefinitions.toByteArray()).getFunctionsList()) {
+                definitions.put(definition.getFunctionId(), definition);
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Invalid function definitions.", e);
+        }
         List<FunctionDefinition> list = new ArrayList<>();
+        for (Map.Entry<Integer, Slot> function : functionMap.entrySet()) {
+            FunctionDefinition definition = registered.get(function.getKey()) == function.getValue()
+                    ? definitions.get(function.getKey())
+                    : null;
+            list.add(definition != null ? definition : function.getValue().get().getFunctionDefinition());
+        }
+        return list;
+    }
 
-        for (PluginFunction function : functionMap.values())
-            list.add(function.getFunctionDefinition());
+    /**
+     * Create the functions that have not been created yet, in parallel.
+     *
+     * @param executor runs the creation of each function.
+     * @return a future that completes when every function has been created,
+     * exceptionally if any could not be.
+     */
+    public CompletableFuture<Void> initialize(Executor executor) {
+        List<CompletableFuture<?>> created = new ArrayList<>();
+        for (Slot slot : functionMap.values()) {
+            if (!slot.isCreated()) {
+                created.add(CompletableFuture.runAsync(slot::get, executor));
+            }
+        }
+        return CompletableFuture.allOf(created.toArray(new CompletableFuture<?>[0]));
+    }
 
-        return list;
+    /**
+     * Get the Capabilities message for the plugin, serialized. It is built
+     * once: the definitions of registered functions were serialized at
+     * build time, and the rest are serialized on first use.
+     *
+     * @return the serialized Capabilities; the caller must not modify it.
+     */
+    public byte[] getSerializedCapabilities() {
+        byte[] serialized = capabilities;
+        if (serialized == null) {
+            serialized = serializeCapabilities();
+            capabilities = serialized;
+        }
+        return serialized;
+    }
+
+    private byte[] serializeCapabilities() {
+        Capabilities.Builder builder = Capabilities.newBuilder().setAllowScript(allowScripts);
+        if (pluginIdentifier != null) {
+            builder.setPluginIdentifier(pluginIdentifier);
+        }
+        if (pluginVersion != null) {
+            builder.setPluginVersion(pluginVersion);
+        }
+        for (Map.Entry<Integer, Slot> function : registered.entrySet()) {
+            if (registeredReplaced || functionMap.get(function.getKey()) != function.getValue()) {
+                // replaced since it was registered, so the registered definitions no longer apply as they are.
+                return builder.addAllFunctions(getFunctionDefinitionList()).build().toByteArray();
+            }
+        }
+        for (Map.Entry<Integer, Slot> function : functionMap.entrySet()) {
+            if (!registered.containsKey(function.getKey())) {
+                builder.addFunctions(function.getValue().get().getFunctionDefinition());
+            }
+        }
+        // fields of a protobuf message may be concatenated, so the registered definitions are appended as they are.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] own = builder.build().toByteArray();
+        out.write(own, 0, own.length);
+        byte[] definitions = registeredDefinitions.toByteArray();
+        out.write(definitions, 0, definitions.length);
+        return out.toByteArray();
     }
 
     /**
-     * Gets the plugin function for this function id.
+     * Gets the plugin function for this function id, creating it if this
+     * is the first time it is needed.
      * @param functionId the id of this function.
      * @return the PluginFunction, or null if the functionId is not valid.
+     * @throws IllegalStateException if the function could not be created.
      */
     public PluginFunction getPluginFunction(int functionId) {
-        PluginFunction function;
-        function = functionMap.getOrDefault(functionId, null);
+        Slot[] table = functionTable;
+        if (table == null) {
+            table = buildFunctionTable();
+        }
+        Slot function = functionId >= 0 && functionId < table.length
+                ? table[functionId]
+                : functionMap.get(functionId);
 
         if (function == null) {
             LOG.error(String.format("Invalid function ID received: %d", functionId));
+            return null;
+        }
+
+        return function.get();
+    }
+
+    /**
+     * Index the functions by id. Ids above SseFunction.MAX_ID are left to the map.
+     */
+    private Slot[] buildFunctionTable() {
+        int length = 0;
+        for (int id : functionMap.keySet()) {
+            if (id >= 0 && id <= SseFunction.MAX_ID) {
+                length = Math.max(length, id + 1);
+            }
         }
+        Slot[] table = new Slot[length];
+        for (Map.Entry<Integer, Slot> function : functionMap.entrySet()) {
+            if (function.getKey() >= 0 && function.getKey() < length) {
+                table[function.getKey()] = function.getValue();
+            }
+        }
+        functionTable = table;
+        return table;
+    }
 
-        return function;
+    /**
+     * Forget the function table and the serialized capabilities, which are
+     * built again on next use.
+     */
+    private void changed() {
+        functionTable = null;
+        capabilities = null;
     }
 }
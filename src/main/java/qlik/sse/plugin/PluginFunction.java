@@ -16,7 +16,9 @@ package qlik.sse.plugin;
 import qlik.sse.ServerSideExtension.FunctionDefinition;
 import qlik.sse.ServerSideExtension.FunctionType;
 import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.FieldDescription;
 import qlik.sse.ServerSideExtension.Parameter;
+import qlik.sse.ServerSideExtension.TableDescription;
 
 
 import java.util.List;
@@ -24,7 +26,8 @@ import java.util.List;
 /**
  * An abstract base class that is used to create and manage SSE functions.
  *
- * All fields are set in the constructor.
+ * All fields are set in the constructor, or, for a function declared with
+ * SseFunction, by the FunctionRegistry generated from the declaration.
  */
 public abstract class PluginFunction {
     public static final boolean CACHE = true;
@@ -37,6 +40,10 @@ public abstract class PluginFunction {
     private List<Parameter> parms;
     private FunctionDefinition functionDefinition;
     private boolean qlikCache;
+    private String executorName;
+    private TableDescription tableDescription;
+    private long batchTimeout = -1;
+    private long streamTimeout = -1;
 
     /**
      * The default constructor.
@@ -77,6 +84,79 @@ public abstract class PluginFunction {
         this.functionType = functionType;
     }
 
+    /**
+     * Set the name of the executor that batches for this function are processed on.
+     * @param executorName the executor name, or null for the default executor.
+     */
+    public void setExecutorName(String executorName) {
+        this.executorName = executorName;
+    }
+
+    /**
+     * Get the name of the executor that batches for this function are processed on.
+     * @return the executor name, or null for the default executor.
+     */
+    public String getExecutorName() { return executorName; }
+
+    /**
+     * Limit the time the function may spend on one batch. A call that goes
+     * over is ended with DEADLINE_EXCEEDED. The property
+     * qlik.sse.function.NAME.timeout.batch takes precedence.
+     * @param millis the limit in milliseconds, 0 for none, or -1 to use qlik.sse.timeout.batch.
+     */
+    public void setBatchTimeout(long millis) {
+        this.batchTimeout = millis;
+    }
+
+    /**
+     * Get the time the function may spend on one batch.
+     * @return the limit in milliseconds, 0 for none, or -1 if the function has not set one.
+     */
+    public long getBatchTimeout() { return batchTimeout; }
+
+    /**
+     * Limit the time a call to the function may take from start to end. A
+     * call that goes over is ended with DEADLINE_EXCEEDED. The property
+     * qlik.sse.function.NAME.timeout.stream takes precedence.
+     * @param millis the limit in milliseconds, 0 for none, or -1 to use qlik.sse.timeout.stream.
+     */
+    public void setStreamTimeout(long millis) {
+        this.streamTimeout = millis;
+    }
+
+    /**
+     * Get the time a call to the function may take.
+     * @return the limit in milliseconds, 0 for none, or -1 if the function has not set one.
+     */
+    public long getStreamTimeout() { return streamTimeout; }
+
+    /**
+     * Declare the table this function returns, for functions that are used
+     * to load a table in the load script. The description is sent to Qlik in
+     * the qlik-tabledescription-bin response header, and names (and types)
+     * the fields of the table. Set numberOfRows if it is known in advance.
+     * @param tableDescription the table, or null to send no description.
+     */
+    public void setTableDescription(TableDescription tableDescription) {
+        this.tableDescription = tableDescription;
+    }
+
+    /**
+     * Get the table this function returns.
+     * @return the TableDescription, or null if the function has not declared one.
+     */
+    public TableDescription getTableDescription() { return tableDescription; }
+
+    /**
+     * Describe a field of a table, for use with setTableDescription().
+     * @param name the name of the field.
+     * @param dataType the type of the field.
+     * @return the FieldDescription.
+     */
+    public static FieldDescription field(String name, DataType dataType) {
+        return FieldDescription.newBuilder().setName(name).setDataType(dataType).build();
+    }
+
     /**
      * Get the FunctionDefinition of the function defined by this class.
      * @return an instance of FunctionDefinition.
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.plugin.columnar.ResultWriter;
+
+/**
+ * Rows that a GeneratorFunction produces on demand.
+ *
+ * The plugin pulls rows from a source a batch at a time, and only while the
+ * client is ready to receive them, so a source can produce any number of
+ * rows without holding them all: it only has to remember where it is. A
+ * source is used by one stream and is closed once it is exhausted, or when
+ * the stream ends before that.
+ */
+public interface RowSource extends AutoCloseable {
+
+    /**
+     * Write the next rows.
+     *
+     * @param out where the rows are written.
+     * @param maxRows the most rows to write in this call.
+     * @return true if there may be more rows, false if the source is exhausted.
+     */
+    boolean next(ResultWriter out, int maxRows);
+
+    /**
+     * Release whatever the source holds. Does nothing by default.
+     */
+    @Override
+    default void close() { }
+}
@@ -15,6 +15,8 @@ package qlik.sse.plugin;
 
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.FunctionType;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
 
 
 /**
@@ -40,4 +42,33 @@ public abstract class ScalarFunction extends PluginFunction {
      * @return an instance of BundledRows that represents the results of this execution.
      */
     public abstract BundledRows scalar(BundledRows rows);
+
+    /**
+     * Execute a scalar function against a batch as it was received.
+     *
+     * This is what the plugin calls. By default it calls scalar(BundledRows);
+     * functions that can work on the batch in another form override it.
+     *
+     * @param batch the batch that the function should execute against.
+     *
+     * @return an instance of BundledRows that represents the results of this execution.
+     */
+    public BundledRows scalar(InputBatch batch) {
+        return scalar(batch.getRows());
+    }
+
+    /**
+     * Execute a scalar function, writing the results straight to the wire
+     * format.
+     *
+     * This is what the plugin calls. By default it adds the rows returned by
+     * scalar(InputBatch); functions that produce many rows can override it to
+     * write each result with the ResultWriter instead of building them.
+     *
+     * @param batch the batch that the function should execute against.
+     * @param out where the results are written.
+     */
+    public void scalar(InputBatch batch, ResultWriter out) {
+        out.addRows(scalar(batch));
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.DataType;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an SSE function, so that it need not be wired up by hand.
+ *
+ * The annotation goes on a PluginFunction class with a public no-argument
+ * constructor, or on a public static no-argument method of a
+ * PluginCapabilities class that returns a new function. For example:
+ *
+ * <pre>
+ * &#64;SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.SUM_OF_ROWS,
+ *         name = "SumOfRows", returnType = DataType.NUMERIC,
+ *         params = {&#64;Param(name = "col1", type = DataType.NUMERIC),
+ *                   &#64;Param(name = "col2", type = DataType.NUMERIC)})
+ * public class SumOfRows extends ColumnarTensorFunction {
+ * </pre>
+ *
+ * At build time, SseFunctionProcessor generates a FunctionRegistry for
+ * each capabilities class, named after it (e.g. SampleCapabilitiesRegistry),
+ * that creates and defines the functions and holds their definitions
+ * already serialized. The capabilities class adds them with
+ * putFunctions(new SampleCapabilitiesRegistry()). The function type
+ * (scalar, tensor or aggregation) is taken from the class the function
+ * extends, and the function should not call init() itself.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface SseFunction {
+    /**
+     * The largest function id that can be declared with this annotation.
+     */
+    int MAX_ID = 65535;
+
+    /**
+     * @return the capabilities class the function belongs to. Defaults to
+     * the enclosing class of an annotated method.
+     */
+    Class<? extends PluginCapabilities> capabilities() default PluginCapabilities.class;
+
+    /**
+     * @return the numeric id that identifies the function, from 0 to MAX_ID.
+     */
+    int id();
+
+    /**
+     * @return the name of the function, as used in Qlik expressions.
+     */
+    String name();
+
+    /**
+     * @return the return type of the function.
+     */
+    DataType returnType() default DataType.NUMERIC;
+
+    /**
+     * @return the parameters of the function, in order.
+     */
+    Param[] params() default {};
+
+    /**
+     * @return whether the Qlik engine may cache the results of the function.
+     */
+    boolean cache() default PluginFunction.CACHE;
+
+    /**
+     * @return the name of the executor the function runs on, or "" for the default.
+     */
+    String executor() default "";
+
+    /**
+     * A parameter of an SSE function.
+     */
+    @Documented
+    @Retention(RetentionPolicy.SOURCE)
+    @Target({})
+    @interface Param {
+        /**
+         * @return the name of the parameter.
+         */
+        String name();
+
+        /**
+         * @return the type of the parameter.
+         */
+        DataType type();
+    }
+}
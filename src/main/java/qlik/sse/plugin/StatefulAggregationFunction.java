@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+
+/**
+ * A columnar aggregation function that keeps its intermediate result in a
+ * state object per stream.
+ *
+ * Function instances are shared by every stream that calls them, so state
+ * kept in fields of the function is mixed up between concurrent calls.
+ * Here each stream gets its own state, created by newState() for the first
+ * batch and kept in the stream's CallContext. It is handed to reduce() and
+ * dropped afterwards. State that is AutoCloseable is closed once the result
+ * has been written, or when the stream ends early.
+ *
+ * @param <S> the type of the state.
+ */
+public abstract class StatefulAggregationFunction<S> extends ColumnarAggregationFunction {
+    private static final String STATE_ATTRIBUTE = StatefulAggregationFunction.class.getName();
+
+    private S unattached;
+
+    /**
+     * The default constructor.
+     */
+    public StatefulAggregationFunction() { super(); }
+
+    /**
+     * Create the state for a new stream.
+     *
+     * @return the empty state.
+     */
+    protected abstract S newState();
+
+    /**
+     * Execute an aggregation function against one batch.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param columns the batch that the function should execute against.
+     * @param state the state of this stream.
+     */
+    public abstract void aggregation(ColumnarBatch columns, S state);
+
+    /**
+     * Aggregation complete. Write the result for the stream.
+     *
+     * You must override this function in the derived class.
+     *
+     * @param state the state of this stream.
+     * @param out where the result is written.
+     */
+    public abstract void reduce(S state, ResultWriter out);
+
+    /**
+     * Calls aggregation(ColumnarBatch, S) with the state of this stream.
+     *
+     * @param columns the batch that the function should execute against.
+     */
+    @Override
+    public final void aggregation(ColumnarBatch columns) {
+        aggregation(columns, state());
+    }
+
+    /**
+     * Returns the result of reduce(ResultWriter) as BundledRows.
+     *
+     * @return the aggregation result as BundledRows.
+     */
+    @Override
+    public final BundledRows reduce() {
+        ResultWriter out = ResultWriter.building();
+        reduce(out);
+        return out.toBatch().getRows();
+    }
+
+    /**
+     * Calls reduce(S, ResultWriter) with the state of this stream, and then
+     * discards (and if AutoCloseable, closes) the state.
+     *
+     * @param out where the result is written.
+     */
+    @Override
+    public final void reduce(ResultWriter out) {
+        S state = state();
+        CallContext context = CallContext.current();
+        if (context == null) {
+            unattached = null;  // reset for next time
+        } else {
+            context.removeAttribute(STATE_ATTRIBUTE);
+        }
+        try {
+            reduce(state, out);
+        } finally {
+            if (state instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) state).close();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Could not release state of " + getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the state of the stream being processed on this thread. Outside of
+     * a call (e.g. when the function is called directly) a single state that
+     * belongs to the function is used.
+     *
+     * @return the state.
+     */
+    protected S state() {
+        CallContext context = CallContext.current();
+        if (context == null) {
+            if (unattached == null) {
+                unattached = newState();
+            }
+            return unattached;
+        }
+        return context.getAttribute(STATE_ATTRIBUTE, this::newState);
+    }
+}
@@ -15,6 +15,8 @@ package qlik.sse.plugin;
 
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.FunctionType;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
 
 /**
  * Abstract base class for a tensor function.
@@ -40,4 +42,33 @@ public abstract class TensorFunction extends PluginFunction {
      */
     public abstract BundledRows tensor(BundledRows rows);
 
+    /**
+     * Execute a tensor function against a batch as it was received.
+     *
+     * This is what the plugin calls. By default it calls tensor(BundledRows);
+     * functions that can work on the batch in another form override it.
+     *
+     * @param batch the batch that the function should execute against.
+     *
+     * @return an instance of BundledRows that represents the results of this execution.
+     */
+    public BundledRows tensor(InputBatch batch) {
+        return tensor(batch.getRows());
+    }
+
+    /**
+     * Execute a tensor function, writing the results straight to the wire
+     * format.
+     *
+     * This is what the plugin calls. By default it adds the rows returned by
+     * tensor(InputBatch); functions that produce many rows can override it to
+     * write each result with the ResultWriter instead of building them.
+     *
+     * @param batch the batch that the function should execute against.
+     * @param out where the results are written.
+     */
+    public void tensor(InputBatch batch, ResultWriter out) {
+        out.addRows(tensor(batch));
+    }
+
 }
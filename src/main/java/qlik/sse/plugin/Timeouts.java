@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+import qlik.sse.server.ServerProperties;
+
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time limits of the calls to a plugin's functions, and the timer that
+ * enforces them.
+ *
+ * A function may spend at most its batch timeout on each batch, and a call
+ * may take at most its stream timeout from start to end. Each is read from
+ * qlik.sse.function.NAME.timeout.batch (or .stream) if set, then from the
+ * function itself (see PluginFunction.setBatchTimeout()), and then from
+ * qlik.sse.timeout.batch (or .stream). A call that goes over is ended with
+ * DEADLINE_EXCEEDED, as is one that runs past the deadline set by the client.
+ * The number of each is published as the MBean qlik.sse:type=Timeouts.
+ */
+public class Timeouts implements TimeoutsMXBean {
+    private final Properties props;
+    private final long batchTimeout;
+    private final long streamTimeout;
+    private final AtomicLong batchTimeouts = new AtomicLong();
+    private final AtomicLong streamTimeouts = new AtomicLong();
+    private final AtomicLong clientDeadlines = new AtomicLong();
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Creates the time limits configured in the given properties.
+     *
+     * @param props the properties of the plugin.
+     */
+    public Timeouts(Properties props) {
+        this.props = props;
+        this.batchTimeout = Long.parseLong(props.getProperty(ServerProperties.TIMEOUT_BATCH,
+                ServerProperties.TIMEOUT_BATCH_DEFAULT).trim());
+        this.streamTimeout = Long.parseLong(props.getProperty(ServerProperties.TIMEOUT_STREAM,
+                ServerProperties.TIMEOUT_STREAM_DEFAULT).trim());
+    }
+
+    /**
+     * Get the time a function may spend on one batch.
+     *
+     * @param function the function.
+     * @return the limit in milliseconds, or 0 for none.
+     */
+    public long getBatchTimeout(PluginFunction function) {
+        return timeout(ServerProperties.FUNCTION_TIMEOUT_BATCH, function, function.getBatchTimeout(), batchTimeout);
+    }
+
+    /**
+     * Get the time a call to a function may take.
+     *
+     * @param function the function.
+     * @return the limit in milliseconds, or 0 for none.
+     */
+    public long getStreamTimeout(PluginFunction function) {
+        return timeout(ServerProperties.FUNCTION_TIMEOUT_STREAM, function, function.getStreamTimeout(), streamTimeout);
+    }
+
+    private long timeout(String property, PluginFunction function, long declared, long fallback) {
+        String configured = props.getProperty(String.format(property, function.getName()));
+        if (configured != null) {
+            return Math.max(0, Long.parseLong(configured.trim()));
+        }
+        return Math.max(0, declared >= 0 ? declared : fallback);
+    }
+
+    /**
+     * Run a task once a limit has passed, on the timer thread.
+     *
+     * @param task the task, which should be quick.
+     * @param millis the limit in milliseconds.
+     * @return the scheduled task, to be cancelled if the limit was kept.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long millis) {
+        return timer().schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // the timer is only started once a limit is set.
+    private synchronized ScheduledThreadPoolExecutor timer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "sse-timeouts");
+                t.setDaemon(true);
+                return t;
+            });
+            // most limits are kept, so do not leave their tasks in the queue until they would have run.
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    /**
+     * Count a call ended because a batch took too long.
+     */
+    void batchExpired() { batchTimeouts.incrementAndGet(); }
+
+    /**
+     * Count a call ended because it took too long.
+     */
+    void streamExpired() { streamTimeouts.incrementAndGet(); }
+
+    /**
+     * Count a call that ran past the deadline set by the client.
+     */
+    void clientDeadlineExpired() { clientDeadlines.incrementAndGet(); }
+
+    @Override
+    public long getBatchTimeoutMillis() { return batchTimeout; }
+
+    @Override
+    public long getStreamTimeoutMillis() { return streamTimeout; }
+
+    @Override
+    public long getBatchTimeouts() { return batchTimeouts.get(); }
+
+    @Override
+    public long getStreamTimeouts() { return streamTimeouts.get(); }
+
+    @Override
+    public long getClientDeadlines() { return clientDeadlines.get(); }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin;
+
+/**
+ * Metrics for calls that ran out of time.
+ */
+public interface TimeoutsMXBean {
+    /**
+     * @return the default batch timeout in milliseconds, 0 for none.
+     */
+    long getBatchTimeoutMillis();
+
+    /**
+     * @return the default stream timeout in milliseconds, 0 for none.
+     */
+    long getStreamTimeoutMillis();
+
+    /**
+     * @return the number of calls ended because a batch took too long.
+     */
+    long getBatchTimeouts();
+
+    /**
+     * @return the number of calls ended because they took too long.
+     */
+    long getStreamTimeouts();
+
+    /**
+     * @return the number of calls that ran past the deadline set by the client.
+     */
+    long getClientDeadlines();
+}
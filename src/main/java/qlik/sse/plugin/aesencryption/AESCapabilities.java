@@ -36,17 +36,13 @@ public class AESCapabilities extends PluginCapabilities {
     private static final String pluginVersion = "v1.0.0";
 
     /**
-     * Constructor. Builds a Map of functions.
+     * Constructor. Adds the functions declared with SseFunction.
      */
     public AESCapabilities() {
         super();
         LOG.debug("initializing plugin capabilities");
         setPluginInfo(pluginIdentifier, pluginVersion, allowScripts);
-        putFunction(HELLO_WORLD, new HelloWorld());
-        putFunction(AES_ENCRYPT_DATA, new AESEncryptData());
-        putFunction(AES_DECRYPT_DATA, new AESDecryptData());
-        putFunction(AES_ENCRYPT_SCALAR, new AESEncryptScalar());
-        putFunction(AES_DECRYPT_SCALAR, new AESDecryptScalar());
+        putFunctions(new AESCapabilitiesRegistry());
     }
 
 }
@@ -16,20 +16,25 @@ package qlik.sse.plugin.aesencryption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
-
-import java.util.ArrayList;
-import java.util.List;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.DualColumn;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
 
 /**
  * This function uses AES to encrypt string columns that are passed to it.
  */
+@SseFunction(capabilities = AESCapabilities.class, id = AESCapabilities.AES_DECRYPT_DATA,
+        name = "AESDecryptData", returnType = DataType.STRING,
+        params = {@Param(name = "value", type = DataType.STRING),
+                  @Param(name = "id", type = DataType.STRING)})
 public class AESDecryptData extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(AESDecryptData.class);
 
@@ -41,23 +46,6 @@ public class AESDecryptData extends TensorFunction {
         super();
 
         decrypter = new AESEncryption();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "AESDecryptData";
-        int functionId = AESCapabilities.AES_DECRYPT_DATA;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("value")
-                .setDataType(DataType.STRING)
-                .build());
-
-        parms.add(Parameter.newBuilder()
-                .setName("id")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name, functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -70,22 +58,32 @@ public class AESDecryptData extends TensorFunction {
      */
     @Override
     public BundledRows tensor(BundledRows rows) {
-        LOG.debug("Function AESDecryptData called.");
-        BundledRows.Builder result = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
-
-        for (Row row : rows.getRowsList()) {
-            rowBuilder = Row.newBuilder();
-
-            List<Dual> dualList = row.getDualsList();
-            Dual value = dualList.get(0);  // decrypt this value
-            Dual id = dualList.get(1);     // the key is not encrypted
-            rowBuilder.addDuals(Dual.newBuilder().setStrData(decrypter.decrypt(value.getStrData())));
-            rowBuilder.addDuals(id);
+        ResultWriter out = ResultWriter.building();
+        tensor(InputBatch.of(rows), out);
+        return out.toBatch().getRows();
+    }
 
-            result.addRows(rowBuilder);
+    /**
+     * The execution logic for this SSE function, working on the UTF-8 bytes
+     * of the values and writing each result straight to the wire format.
+     *
+     * @param batch the rows we are to operate on
+     * @param out where the result set is written
+     */
+    @Override
+    public void tensor(InputBatch batch, ResultWriter out) {
+        LOG.debug("Function AESDecryptData called.");
+        // the id is passed through untouched, so read it as a DUAL to keep its numeric value.
+        ColumnarBatch columns = batch.getColumns(getParms().subList(0, 1));
+        StringColumn values = columns.getStringColumn(0);  // decrypt this value
+        DualColumn ids = columns.getDualColumn(1);     // the key is not encrypted
+        for (int r = 0; r < columns.getRowCount(); r++) {
+            CallContext.checkCancelled();
+            out.beginRow()
+                    .add(decrypter.decrypt(values.buffer(), values.offset(r), values.length(r)))
+                    .add(ids.getNum(r), ids.strings().buffer(), ids.strings().offset(r), ids.strings().length(r))
+                    .endRow();
         }
         LOG.debug("Function AESDecryptData completed.");
-        return result.build();
     }
 }
@@ -16,16 +16,16 @@ package qlik.sse.plugin.aesencryption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
 import qlik.sse.plugin.ScalarFunction;
-
-import java.util.ArrayList;
-import java.util.List;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
 
 /**
  * This function decrypts a scalar value using AES.
@@ -33,6 +33,9 @@ import java.util.List;
  * input: one or more rows containing a single column to decrypt.
  * output: the resulting row(s) with the column decrypted.
  */
+@SseFunction(capabilities = AESCapabilities.class, id = AESCapabilities.AES_DECRYPT_SCALAR,
+        name = "AESDecryptScalar", returnType = DataType.STRING,
+        params = @Param(name = "input", type = DataType.STRING))
 public class AESDecryptScalar extends ScalarFunction {
     private static final Logger LOG = LoggerFactory.getLogger(AESDecryptScalar.class);
 
@@ -44,18 +47,6 @@ public class AESDecryptScalar extends ScalarFunction {
     public AESDecryptScalar() {
         super();
         decrypter = new AESEncryption();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "AESDecryptScalar";
-        int functionId = AESCapabilities.AES_DECRYPT_SCALAR;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("input")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name,functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -68,40 +59,45 @@ public class AESDecryptScalar extends ScalarFunction {
      */
     @Override
     public BundledRows scalar(BundledRows rows) {
+        ResultWriter out = ResultWriter.building();
+        scalar(InputBatch.of(rows), out);
+        return out.toBatch().getRows();
+    }
+
+    /**
+     * The execution logic for this SSE function, working on the UTF-8 bytes
+     * of the values and writing each result straight to the wire format.
+     *
+     * @param batch the rows we are to operate on
+     * @param out where the result set is written
+     */
+    @Override
+    public void scalar(InputBatch batch, ResultWriter out) {
         LOG.debug("Function AESDecryptScalar called.");
-        BundledRows.Builder result = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
+        ColumnarBatch columns = batch.getColumns(getParms());
 
         /*
          * this is a scalar function. There should only be one row and
          * one column to work with.
          */
-        if (rows.getRowsCount() > 1)
-            LOG.warn("row count > 1: " + rows.getRowsCount());
-
-
-        for (Row row : rows.getRowsList()) {
-            rowBuilder = Row.newBuilder();
-            if (row.getDualsCount() > 1)
-                LOG.warn("duals count > 1: " + row.getDualsCount());
-            String input = row.getDuals(0).getStrData();
-            String output;
-
-            if (input != null) {
-                output = decrypter.decrypt(input);
-                if (output == null) {
-                    LOG.warn("decrypter returned null");
-                    output = "decrypterNull";
-                }
-            } else output = "input value was null";
-
-            rowBuilder.addDuals(Dual.newBuilder()
-                    .setStrData(output));
-            result.addRows(rowBuilder);
+        if (columns.getRowCount() > 1)
+            LOG.warn("row count > 1: " + columns.getRowCount());
+        if (columns.getColumnCount() > 1)
+            LOG.warn("duals count > 1: " + columns.getColumnCount());
+
+        StringColumn input = columns.getStringColumn(0);
+        for (int r = 0; r < columns.getRowCount(); r++) {
+            CallContext.checkCancelled();
+            byte[] output = decrypter.decrypt(input.buffer(), input.offset(r), input.length(r));
+            if (output == null) {
+                LOG.warn("decrypter returned null");
+                out.addRow("decrypterNull");
+            } else {
+                out.addRow(output);
+            }
         }
 
         LOG.debug("Function AESDecryptScalar completed.");
-        return result.build();
     }
 
 }
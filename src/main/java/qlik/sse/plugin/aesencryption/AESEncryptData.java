@@ -16,20 +16,25 @@ package qlik.sse.plugin.aesencryption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
-
-import java.util.ArrayList;
-import java.util.List;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.DualColumn;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
 
 /**
  * This function uses AES to encrypt string columns that are passed to it.
  */
+@SseFunction(capabilities = AESCapabilities.class, id = AESCapabilities.AES_ENCRYPT_DATA,
+        name = "AESEncryptData", returnType = DataType.STRING,
+        params = {@Param(name = "value", type = DataType.STRING),
+                  @Param(name = "id", type = DataType.STRING)})
 public class AESEncryptData extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(AESEncryptData.class);
 
@@ -41,23 +46,6 @@ public class AESEncryptData extends TensorFunction {
         super();
 
         encrypter = new AESEncryption();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "AESEncryptData";
-        int functionId = AESCapabilities.AES_ENCRYPT_DATA;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("value")
-                .setDataType(DataType.STRING)
-                .build());
-
-        parms.add(Parameter.newBuilder()
-                .setName("id")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name, functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -70,22 +58,32 @@ public class AESEncryptData extends TensorFunction {
      */
     @Override
     public BundledRows tensor(BundledRows rows) {
-        LOG.debug("Function AESEncryptData called.");
-        BundledRows.Builder result = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
-
-        for (Row row : rows.getRowsList()) {
-            rowBuilder = Row.newBuilder();
-
-            List<Dual> dualList = row.getDualsList();
-            Dual value = dualList.get(0);  // encrypt this value
-            Dual id = dualList.get(1);     // do not encrypt the key
-            rowBuilder.addDuals(Dual.newBuilder().setStrData(encrypter.encrypt(value.getStrData())));
-            rowBuilder.addDuals(id);
+        ResultWriter out = ResultWriter.building();
+        tensor(InputBatch.of(rows), out);
+        return out.toBatch().getRows();
+    }
 
-            result.addRows(rowBuilder);
+    /**
+     * The execution logic for this SSE function, working on the UTF-8 bytes
+     * of the values and writing each result straight to the wire format.
+     *
+     * @param batch the rows we are to operate on
+     * @param out where the result set is written
+     */
+    @Override
+    public void tensor(InputBatch batch, ResultWriter out) {
+        LOG.debug("Function AESEncryptData called.");
+        // the id is passed through untouched, so read it as a DUAL to keep its numeric value.
+        ColumnarBatch columns = batch.getColumns(getParms().subList(0, 1));
+        StringColumn values = columns.getStringColumn(0);  // encrypt this value
+        DualColumn ids = columns.getDualColumn(1);     // do not encrypt the key
+        for (int r = 0; r < columns.getRowCount(); r++) {
+            CallContext.checkCancelled();
+            out.beginRow()
+                    .add(encrypter.encrypt(values.buffer(), values.offset(r), values.length(r)))
+                    .add(ids.getNum(r), ids.strings().buffer(), ids.strings().offset(r), ids.strings().length(r))
+                    .endRow();
         }
         LOG.debug("Function AESEncryptData completed.");
-        return result.build();
     }
 }
@@ -15,56 +15,27 @@ package qlik.sse.plugin.aesencryption;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import qlik.sse.server.PluginServer;
 
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.spec.KeySpec;
 import java.util.Base64;
 
-import static qlik.sse.server.ServerProperties.*;
-
 /**
  * A class that performs AES encryption / decryption on strings.
+ *
+ * The key material is owned by AESKeyRing, so creating an instance is cheap
+ * and all instances pick up key rotations.
  */
 public class AESEncryption {
     private static final Logger LOG = LoggerFactory.getLogger(AESEncryption.class);
-    private Cipher encryptCipher, decryptCipher;
+    private final AESKeyRing keyRing;
 
     /**
      * The default constructor.
      */
     public AESEncryption() {
         super();
-        /*
-         * get security parameters from the application properties file.
-         */
-        // pad nonce to ensure at least 16 bytes long, then truncate to 16 bytes.
-        String nonceString = PluginServer.getProperties().getProperty(AES_NONCE) + "0000000000000000";
-        byte[] nonce = nonceString.substring(0,16).getBytes();
-        char[] secretKey = PluginServer.getProperties().getProperty(AES_KEY).toCharArray();
-        byte[] salt = PluginServer.getProperties().getProperty(AES_SALT).getBytes();
-
-        IvParameterSpec ivspec = new IvParameterSpec(nonce);
-        try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec spec = new PBEKeySpec(secretKey, salt, 65536, 256);
-            SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(tmp.getEncoded(), "AES");
-
-            encryptCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            encryptCipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivspec);
-            decryptCipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            decryptCipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivspec);
-
-        } catch(Exception e) {
-            LOG.error("Error while initializing cipher: ", e);
-        }
+        keyRing = AESKeyRing.getInstance();
     }
 
     /**
@@ -75,8 +46,7 @@ public class AESEncryption {
     public String encrypt(String strToEncrypt) {
         String returnValue;
         try {
-            returnValue = Base64.getEncoder().encodeToString(encryptCipher.doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
-            LOG.info(String.format("Encrypt: Before: %s  encrypted: %s", strToEncrypt, returnValue));
+            returnValue = Base64.getEncoder().encodeToString(keyRing.forCall().encrypt(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
         }
         catch (Exception e) {
             LOG.error("Error while encrypting: ", e);
@@ -94,9 +64,8 @@ public class AESEncryption {
     public String decrypt(String strToDecrypt) {
         String returnValue;
         try {
-            returnValue = new String(decryptCipher.doFinal(Base64.getDecoder().decode(strToDecrypt)));
-            LOG.info(String.format("Decrypt: Before: %s  decrypted: %s", strToDecrypt, returnValue));
-
+            returnValue = new String(keyRing.forCall().decrypt(Base64.getDecoder().decode(strToDecrypt)),
+                    StandardCharsets.UTF_8);
         }
         catch (Exception e) {
             LOG.error("Error while decrypting: ", e);
@@ -105,6 +74,45 @@ public class AESEncryption {
         return returnValue;
     }
 
+    /**
+     * Encrypt UTF-8 bytes using AES encryption. Unlike encrypt(String) this
+     * does not decode or re-encode the text, and does not log the values.
+     * @param utf8 the array holding the text to encrypt.
+     * @param offset the offset of the text in the array.
+     * @param length the length of the text in bytes.
+     * @return the encrypted text in base64 encoded form, or null if encryption failed.
+     */
+    public byte[] encrypt(byte[] utf8, int offset, int length) {
+        try {
+            return Base64.getEncoder().encode(keyRing.forCall().encrypt(utf8, offset, length));
+        }
+        catch (Exception e) {
+            LOG.error("Error while encrypting: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Decrypt base64-encoded bytes that were previously encrypted using AES.
+     * Unlike decrypt(String) the result is not decoded into a String, and
+     * the values are not logged.
+     * @param base64 the array holding the base64-encoded text to decrypt.
+     * @param offset the offset of the text in the array.
+     * @param length the length of the text in bytes.
+     * @return the decrypted text as UTF-8 bytes, or null if decryption failed.
+     */
+    public byte[] decrypt(byte[] base64, int offset, int length) {
+        try {
+            ByteBuffer cipherText = Base64.getDecoder().decode(ByteBuffer.wrap(base64, offset, length));
+            return keyRing.forCall().decrypt(cipherText.array(),
+                    cipherText.arrayOffset() + cipherText.position(), cipherText.remaining());
+        }
+        catch (Exception e) {
+            LOG.error("Error while decrypting: ", e);
+            return null;
+        }
+    }
+
     /**
      * A quick test function. Called as a runtime smoke test.
      *
@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.aesencryption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.server.Metrics;
+import qlik.sse.server.PluginServer;
+import qlik.sse.server.ServerProperties;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static qlik.sse.server.ServerProperties.*;
+
+/**
+ * Holds the AES key material shared by all of the AES functions and allows
+ * it to be rotated while the server is running.
+ *
+ * The current key is an immutable AESKeyState published through a volatile
+ * reference (copy-on-write), so the encrypt / decrypt path never takes a lock.
+ * A new key is derived on a background thread and only swapped in once it is
+ * ready. A stream pins the key state that was current when it first asked for
+ * one, so calls that are in flight during a rotation finish with the key they
+ * started with and only new streams see the new key.
+ *
+ * Rotation is triggered by calling reload() or rotate(), or automatically
+ * when the properties file changes if qlik.sse.plugin.aes.watch is true.
+ *
+ * When several plugins are hosted in one JVM, each plugin's properties get
+ * a key ring of their own, so each plugin encrypts with the key set for it
+ * with qlik.sse.server.NAME.plugin.aes.key and rotates independently.
+ */
+public final class AESKeyRing {
+    private static final Logger LOG = LoggerFactory.getLogger(AESKeyRing.class);
+    private static final String CALL_ATTRIBUTE = AESKeyRing.class.getName();
+
+    // the key ring of each plugin, by the identity of its properties. Guarded by RINGS.
+    private static final Map<Properties, AESKeyRing> RINGS = new IdentityHashMap<>();
+
+    private final Properties props;
+    private final ExecutorService deriver;
+    private volatile AESKeyState current;
+    private long generation;
+
+    /**
+     * Builds the key ring from the properties of a plugin. The first key is
+     * derived synchronously since there is nothing to serve requests with
+     * until it exists.
+     *
+     * @param props the properties of the plugin.
+     */
+    private AESKeyRing(Properties props) {
+        this.props = props;
+        String deriverName = Metrics.scopedName(props, "aes-key-deriver");
+        deriver = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, deriverName);
+            t.setDaemon(true);
+            return t;
+        });
+
+        current = derive(props.getProperty(AES_KEY), props.getProperty(AES_SALT), props.getProperty(AES_NONCE));
+
+        if (Boolean.parseBoolean(props.getProperty(AES_WATCH))) {
+            String propertiesFile = props.getProperty(PROPERTIES_FILE);
+            if (propertiesFile == null) {
+                LOG.warn("AES key watch requested, but no properties file was specified.");
+            } else {
+                startWatcher(Paths.get(propertiesFile).toAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Get the key ring of the plugin whose properties PluginServer.getProperties()
+     * answers with, creating it on first use.
+     * @return the instance of AESKeyRing shared by the plugin's functions.
+     */
+    public static AESKeyRing getInstance() {
+        return forProperties(PluginServer.getProperties());
+    }
+
+    /**
+     * Get the key ring of a plugin, creating it on first use.
+     * @param props the properties of the plugin.
+     * @return the instance of AESKeyRing shared by the plugin's functions.
+     */
+    public static AESKeyRing forProperties(Properties props) {
+        synchronized (RINGS) {
+            return RINGS.computeIfAbsent(props, AESKeyRing::new);
+        }
+    }
+
+    /**
+     * Get the key state that new streams should use.
+     * @return the current key state.
+     */
+    public AESKeyState current() {
+        return current;
+    }
+
+    /**
+     * Get the key state for the call being processed on this thread. The
+     * first time a stream asks, it is pinned to the current key state and
+     * keeps it for the remainder of the stream.
+     *
+     * @return the key state for this call, or the current key state if
+     * called outside of a call.
+     */
+    public AESKeyState forCall() {
+        CallContext context = CallContext.current();
+        if (context == null) {
+            return current;
+        }
+        return context.getAttribute(CALL_ATTRIBUTE, this::current);
+    }
+
+    /**
+     * Re-read the AES settings of the plugin from the properties file and
+     * rotate the key if any of them have changed. Settings that are not
+     * present in the file keep their current values.
+     *
+     * @return a future that completes with the key state in effect once the
+     * reload has been processed.
+     */
+    public CompletableFuture<AESKeyState> reload() {
+        String key = props.getProperty(AES_KEY);
+        String salt = props.getProperty(AES_SALT);
+        String nonce = props.getProperty(AES_NONCE);
+
+        String propertiesFile = props.getProperty(PROPERTIES_FILE);
+        if (propertiesFile != null) {
+            Properties fileProps = new Properties();
+            try (InputStream in = new FileInputStream(propertiesFile)) {
+                fileProps.load(in);
+            } catch (IOException e) {
+                LOG.error("Could not reload properties file " + propertiesFile + ". Keeping the current key.", e);
+                CompletableFuture<AESKeyState> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            String server = props.getProperty(SERVER_NAME);
+            if (server != null) {
+                // settings for this plugin take precedence, as they do at startup.
+                fileProps = ServerProperties.forServer(fileProps, server);
+            }
+            key = fileProps.getProperty(AES_KEY, key);
+            salt = fileProps.getProperty(AES_SALT, salt);
+            nonce = fileProps.getProperty(AES_NONCE, nonce);
+        }
+        return rotate(key, salt, nonce);
+    }
+
+    /**
+     * Derive a new key state in the background and make it current once
+     * it is ready. Streams that are already in progress are not affected.
+     * Nothing happens if the values match the current key state.
+     *
+     * @param key the secret key.
+     * @param salt the salt.
+     * @param nonce the nonce.
+     * @return a future that completes with the key state in effect once the
+     * rotation has been processed.
+     */
+    public CompletableFuture<AESKeyState> rotate(String key, String salt, String nonce) {
+        return CompletableFuture.supplyAsync(() -> {
+            AESKeyState state = current;
+            if (state.matches(key, salt, nonce)) {
+                LOG.debug("AES settings unchanged. Not rotating the key.");
+                return state;
+            }
+            state = derive(key, salt, nonce);
+            current = state;
+            LOG.info("AES key rotated. New streams will use " + state + ".");
+            return state;
+        }, deriver);
+    }
+
+    /**
+     * Derive a key state. Only ever called from the constructor or the
+     * deriver thread, so generation does not need to be synchronized.
+     */
+    private AESKeyState derive(String key, String salt, String nonce) {
+        long start = System.nanoTime();
+        try {
+            AESKeyState state = new AESKeyState(++generation, key, salt, nonce);
+            LOG.debug(String.format("Derived %s in %d ms.", state, (System.nanoTime() - start) / 1_000_000));
+            return state;
+        } catch (Exception e) {
+            LOG.error("Error while deriving AES key: ", e);
+            throw new IllegalStateException("Could not derive AES key", e);
+        }
+    }
+
+    /**
+     * Start a daemon thread that reloads the key whenever the properties
+     * file is modified.
+     *
+     * @param file the properties file to watch.
+     */
+    private void startWatcher(Path file) {
+        final WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            file.getParent().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            LOG.error("Could not watch " + file + " for AES key changes.", e);
+            return;
+        }
+
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey watchKey = watcher.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (file.getFileName().equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    watchKey.reset();
+                    if (changed) {
+                        LOG.info("Properties file " + file + " changed. Reloading AES key.");
+                        reload();
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                LOG.debug("AES key watcher stopped.");
+            }
+        }, Metrics.scopedName(props, "aes-key-watcher"));
+        t.setDaemon(true);
+        t.start();
+        LOG.info("Watching " + file + " for AES key changes.");
+    }
+}
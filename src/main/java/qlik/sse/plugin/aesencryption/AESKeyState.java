@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.aesencryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.spec.KeySpec;
+
+/**
+ * An immutable snapshot of the AES key material derived from a
+ * key / salt / nonce triple.
+ *
+ * Instances are never modified once built; rotating the key means building
+ * a new instance and publishing it through AESKeyRing. Cipher objects are not
+ * thread-safe, so each thread lazily gets its own pair of ciphers initialized
+ * from this snapshot.
+ */
+public final class AESKeyState {
+    private final long generation;
+    private final String key;
+    private final String salt;
+    private final String nonce;
+    private final SecretKeySpec secretKeySpec;
+    private final IvParameterSpec ivSpec;
+    private final ThreadLocal<Cipher> encryptCipher;
+    private final ThreadLocal<Cipher> decryptCipher;
+
+    /**
+     * Derive the key material. This runs PBKDF2 and is slow, so it should
+     * not be called on a request thread.
+     *
+     * @param generation a sequence number identifying this key state.
+     * @param key the secret key (passphrase).
+     * @param salt the salt.
+     * @param nonce the nonce, padded / truncated to 16 bytes.
+     * @throws GeneralSecurityException if the key could not be derived.
+     */
+    AESKeyState(long generation, String key, String salt, String nonce) throws GeneralSecurityException {
+        this.generation = generation;
+        this.key = key;
+        this.salt = salt;
+        this.nonce = nonce;
+
+        // pad nonce to ensure at least 16 bytes long, then truncate to 16 bytes.
+        String nonceString = nonce + "0000000000000000";
+        ivSpec = new IvParameterSpec(nonceString.substring(0, 16).getBytes());
+
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        KeySpec spec = new PBEKeySpec(key.toCharArray(), salt.getBytes(), 65536, 256);
+        SecretKey tmp = factory.generateSecret(spec);
+        secretKeySpec = new SecretKeySpec(tmp.getEncoded(), "AES");
+
+        // fail now rather than on the first request if the ciphers can't be built.
+        newCipher(Cipher.ENCRYPT_MODE);
+        encryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+        decryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
+    }
+
+    private Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(mode, secretKeySpec, ivSpec);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error while initializing cipher", e);
+        }
+    }
+
+    /**
+     * Encrypt a block of bytes with this key.
+     * @param input the plain text.
+     * @return the cipher text.
+     * @throws GeneralSecurityException if encryption fails.
+     */
+    public byte[] encrypt(byte[] input) throws GeneralSecurityException {
+        return encryptCipher.get().doFinal(input);
+    }
+
+    /**
+     * Encrypt part of an array with this key.
+     * @param input the array holding the plain text.
+     * @param offset the offset of the plain text in the array.
+     * @param length the length of the plain text.
+     * @return the cipher text.
+     * @throws GeneralSecurityException if encryption fails.
+     */
+    public byte[] encrypt(byte[] input, int offset, int length) throws GeneralSecurityException {
+        return encryptCipher.get().doFinal(input, offset, length);
+    }
+
+    /**
+     * Decrypt part of an array with this key.
+     * @param input the array holding the cipher text.
+     * @param offset the offset of the cipher text in the array.
+     * @param length the length of the cipher text.
+     * @return the plain text.
+     * @throws GeneralSecurityException if decryption fails.
+     */
+    public byte[] decrypt(byte[] input, int offset, int length) throws GeneralSecurityException {
+        return decryptCipher.get().doFinal(input, offset, length);
+    }
+
+    /**
+     * Decrypt a block of bytes with this key.
+     * @param input the cipher text.
+     * @return the plain text.
+     * @throws GeneralSecurityException if decryption fails.
+     */
+    public byte[] decrypt(byte[] input) throws GeneralSecurityException {
+        return decryptCipher.get().doFinal(input);
+    }
+
+    /**
+     * Get the sequence number of this key state. It increases by one
+     * every time the key is rotated.
+     * @return the generation.
+     */
+    public long getGeneration() { return generation; }
+
+    /**
+     * Determine whether this state was derived from the given inputs.
+     *
+     * @param key the secret key.
+     * @param salt the salt.
+     * @param nonce the nonce.
+     * @return true if all three match the values this state was built from.
+     */
+    boolean matches(String key, String salt, String nonce) {
+        return this.key.equals(key) && this.salt.equals(salt) && this.nonce.equals(nonce);
+    }
+
+    @Override
+    public String toString() {
+        return "AESKeyState{generation=" + generation + "}";
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of byte arrays that ResultWriter encodes into.
+ *
+ * A buffer is taken from the pool when a writer starts a batch and given
+ * back once gRPC has copied the encoded batch out of it. Buffers that are
+ * never given back are simply garbage collected. Buffers that are larger
+ * than MAX_POOLED_SIZE are not kept.
+ */
+final class BufferPool {
+    static final int INITIAL_SIZE = 64 * 1024;
+    static final int MAX_POOLED_SIZE = 8 * 1024 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool(4 * Runtime.getRuntime().availableProcessors());
+
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxBuffers;
+
+    BufferPool(int maxBuffers) {
+        this.maxBuffers = maxBuffers;
+    }
+
+    /**
+     * Get the pool shared by all writers.
+     */
+    static BufferPool shared() { return SHARED; }
+
+    /**
+     * Take a buffer of at least the given size from the pool, or allocate one.
+     */
+    byte[] acquire(int minSize) {
+        byte[] buffer = buffers.poll();
+        if (buffer != null) {
+            size.decrementAndGet();
+            if (buffer.length >= minSize) {
+                return buffer;
+            }
+        }
+        return new byte[Math.max(minSize, INITIAL_SIZE)];
+    }
+
+    /**
+     * Give a buffer back to the pool. The caller must not use it afterwards.
+     */
+    void release(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_SIZE) {
+            return;
+        }
+        if (size.incrementAndGet() <= maxBuffers) {
+            buffers.offer(buffer);
+        } else {
+            size.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Parameter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decodes a serialized BundledRows message straight into columns, without
+ * building a Row and a Dual object for every cell.
+ *
+ * Numeric values are read into double[] arrays. String values are not
+ * decoded at all; their columns record where each value's UTF-8 bytes are
+ * in the message buffer, and the buffer is shared with the columns.
+ *
+ * The wire format being decoded is:
+ * <pre>
+ *     message BundledRows { repeated Row rows = 1; }
+ *     message Row { repeated Dual duals = 1; }
+ *     message Dual { double numData = 1; string strData = 2; }
+ * </pre>
+ */
+public final class BundledRowsDecoder {
+    private static final int ROWS_TAG = tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int DUALS_TAG = tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int NUM_DATA_TAG = tag(1, WireFormat.WIRETYPE_FIXED64);
+    private static final int STR_DATA_TAG = tag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    /**
+     * Decode a serialized BundledRows. The type of each column is taken from
+     * the corresponding function parameter; columns beyond the declared
+     * parameters are treated as DUAL. The number of columns is taken from
+     * the first row.
+     *
+     * @param data the buffer holding the message. It is referenced, not copied, by string columns.
+     * @param offset the offset of the message in the buffer.
+     * @param length the length of the message.
+     * @param parms the parameters of the function.
+     * @return the batch.
+     * @throws InvalidProtocolBufferException if the message is malformed.
+     */
+    public static ColumnarBatch decode(byte[] data, int offset, int length, List<Parameter> parms)
+            throws InvalidProtocolBufferException {
+        try {
+            /*
+             * First pass: count the rows, and the columns of the first row,
+             * so that the arrays can be allocated at their final size.
+             */
+            CodedInputStream in = CodedInputStream.newInstance(data, offset, length);
+            int rowCount = 0;
+            int columnCount = -1;
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                if (tag == ROWS_TAG) {
+                    int rowLength = in.readRawVarint32();
+                    if (columnCount < 0) {
+                        columnCount = countDuals(data, offset + in.getTotalBytesRead(), rowLength);
+                    }
+                    in.skipRawBytes(rowLength);
+                    rowCount++;
+                } else {
+                    in.skipField(tag);
+                }
+            }
+            if (columnCount < 0) {
+                columnCount = parms.size();
+            }
+
+            double[][] numbers = new double[columnCount][];
+            int[][] stringOffsets = new int[columnCount][];
+            int[][] stringLengths = new int[columnCount][];
+            DataType[] types = new DataType[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                types[c] = c < parms.size() ? parms.get(c).getDataType() : DataType.DUAL;
+                if (types[c] != DataType.STRING) {
+                    numbers[c] = new double[rowCount];
+                }
+                if (types[c] != DataType.NUMERIC) {
+                    stringOffsets[c] = new int[rowCount];
+                    stringLengths[c] = new int[rowCount];
+                }
+            }
+
+            /*
+             * Second pass: fill the arrays.
+             */
+            in = CodedInputStream.newInstance(data, offset, length);
+            int row = 0;
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                if (tag != ROWS_TAG) {
+                    in.skipField(tag);
+                    continue;
+                }
+                int rowLimit = in.pushLimit(in.readRawVarint32());
+                int column = 0;
+                while (!in.isAtEnd()) {
+                    int rowTag = in.readTag();
+                    if (rowTag != DUALS_TAG) {
+                        in.skipField(rowTag);
+                        continue;
+                    }
+                    int dualLimit = in.pushLimit(in.readRawVarint32());
+                    while (!in.isAtEnd()) {
+                        int dualTag = in.readTag();
+                        if (dualTag == NUM_DATA_TAG) {
+                            double value = in.readDouble();
+                            if (column < columnCount && numbers[column] != null) {
+                                numbers[column][row] = value;
+                            }
+                        } else if (dualTag == STR_DATA_TAG) {
+                            int stringLength = in.readRawVarint32();
+                            if (column < columnCount && stringOffsets[column] != null) {
+                                stringOffsets[column][row] = offset + in.getTotalBytesRead();
+                                stringLengths[column][row] = stringLength;
+                            }
+                            in.skipRawBytes(stringLength);
+                        } else {
+                            in.skipField(dualTag);
+                        }
+                    }
+                    in.popLimit(dualLimit);
+                    column++;
+                }
+                in.popLimit(rowLimit);
+                row++;
+            }
+
+            Column[] columns = new Column[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                switch (types[c]) {
+                    case NUMERIC:
+                        columns[c] = new DoubleColumn(numbers[c]);
+                        break;
+                    case STRING:
+                        columns[c] = new StringColumn(data, stringOffsets[c], stringLengths[c]);
+                        break;
+                    default:
+                        columns[c] = new DualColumn(new DoubleColumn(numbers[c]),
+                                new StringColumn(data, stringOffsets[c], stringLengths[c]));
+                        break;
+                }
+            }
+            return new ColumnarBatch(rowCount, columns);
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+    }
+
+    /**
+     * Build a field tag the way protobuf does (WireFormat.makeTag is not public).
+     */
+    private static int tag(int fieldNumber, int wireType) {
+        return (fieldNumber << 3) | wireType;
+    }
+
+    /**
+     * Count the duals in a serialized Row.
+     */
+    private static int countDuals(byte[] data, int offset, int length) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(data, offset, length);
+        int count = 0;
+        while (!in.isAtEnd()) {
+            int tag = in.readTag();
+            if (tag == DUALS_TAG) {
+                count++;
+            }
+            in.skipField(tag);
+        }
+        return count;
+    }
+
+    /**
+     * private to prevent explicit object creation
+     */
+    private BundledRowsDecoder() { super(); }
+}
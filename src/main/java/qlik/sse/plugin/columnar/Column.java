@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Dual;
+
+/**
+ * Abstract base class for a column of values.
+ */
+public abstract class Column {
+    private final DataType dataType;
+
+    /**
+     * Initializes the class.
+     * @param dataType the type of data held by this column.
+     */
+    protected Column(DataType dataType) {
+        this.dataType = dataType;
+    }
+
+    /**
+     * Get the type of data held by this column.
+     * @return the DataType.
+     */
+    public DataType getDataType() { return dataType; }
+
+    /**
+     * Get the number of values in this column.
+     * @return the number of values.
+     */
+    public abstract int size();
+
+    /**
+     * Set a value from a protobuf Dual.
+     * @param row the row index.
+     * @param dual the value.
+     */
+    abstract void set(int row, Dual dual);
+
+    /**
+     * Copy a value into a Dual builder.
+     * @param row the row index.
+     * @param builder the builder to set the value on.
+     */
+    abstract void get(int row, Dual.Builder builder);
+
+    /**
+     * Add a value to the row being written.
+     * @param row the row index.
+     * @param out the writer.
+     */
+    abstract void write(int row, ResultWriter out);
+
+    /**
+     * Create an empty column of the given type.
+     * @param dataType the type of the column.
+     * @param size the number of rows.
+     * @return the new column.
+     */
+    public static Column create(DataType dataType, int size) {
+        switch (dataType) {
+            case NUMERIC:
+                return new DoubleColumn(size);
+            case STRING:
+                return new StringColumn(size);
+            case DUAL:
+            case UNRECOGNIZED:
+            default:
+                return new DualColumn(size);
+        }
+    }
+}
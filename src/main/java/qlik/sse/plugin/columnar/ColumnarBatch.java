@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Parameter;
+import qlik.sse.ServerSideExtension.Row;
+
+import java.util.List;
+
+/**
+ * A batch of rows held as columns. It is built once per batch from the
+ * BundledRows received from Qlik, and converted back to BundledRows once
+ * when a function returns it.
+ */
+public class ColumnarBatch {
+    private final int rowCount;
+    private final Column[] columns;
+
+    /**
+     * Creates a batch from columns. All columns must have the same size.
+     * @param columns the columns of the batch.
+     */
+    public ColumnarBatch(Column... columns) {
+        this(columns.length == 0 ? 0 : columns[0].size(), columns);
+    }
+
+    /**
+     * Creates a batch from columns.
+     * @param rowCount the number of rows. Every column must have this size.
+     * @param columns the columns of the batch.
+     */
+    public ColumnarBatch(int rowCount, Column... columns) {
+        for (Column column : columns) {
+            if (column.size() != rowCount) {
+                throw new IllegalArgumentException(String.format(
+                        "column size %d does not match row count %d", column.size(), rowCount));
+            }
+        }
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    /**
+     * Convert BundledRows to columns. The type of each column is taken from
+     * the corresponding function parameter; columns beyond the declared
+     * parameters are treated as DUAL.
+     *
+     * @param rows the rows received from Qlik.
+     * @param parms the parameters of the function.
+     * @return the batch.
+     */
+    public static ColumnarBatch fromRows(BundledRows rows, List<Parameter> parms) {
+        int rowCount = rows.getRowsCount();
+        int columnCount = rowCount > 0 ? rows.getRows(0).getDualsCount() : parms.size();
+
+        Column[] columns = new Column[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            DataType type = c < parms.size() ? parms.get(c).getDataType() : DataType.DUAL;
+            columns[c] = Column.create(type, rowCount);
+        }
+
+        // fill one column at a time so that each loop writes to a single array.
+        List<Row> rowList = rows.getRowsList();
+        for (int c = 0; c < columnCount; c++) {
+            Column column = columns[c];
+            if (column instanceof DoubleColumn) {
+                double[] values = ((DoubleColumn) column).values();
+                for (int r = 0; r < rowCount; r++) {
+                    values[r] = rowList.get(r).getDuals(c).getNumData();
+                }
+            } else {
+                for (int r = 0; r < rowCount; r++) {
+                    column.set(r, rowList.get(r).getDuals(c));
+                }
+            }
+        }
+        return new ColumnarBatch(rowCount, columns);
+    }
+
+    /**
+     * Convert this batch to BundledRows to return to Qlik.
+     * @return the rows.
+     */
+    public BundledRows toRows() {
+        BundledRows.Builder result = BundledRows.newBuilder();
+        for (int r = 0; r < rowCount; r++) {
+            Row.Builder rowBuilder = Row.newBuilder();
+            for (Column column : columns) {
+                Dual.Builder dualBuilder = Dual.newBuilder();
+                column.get(r, dualBuilder);
+                rowBuilder.addDuals(dualBuilder);
+            }
+            result.addRows(rowBuilder);
+        }
+        return result.build();
+    }
+
+    /**
+     * Write this batch to a ResultWriter, row by row.
+     * @param out the writer.
+     */
+    public void writeTo(ResultWriter out) {
+        if (columns.length == 1 && columns[0] instanceof DoubleColumn) {
+            double[] values = ((DoubleColumn) columns[0]).values();
+            for (int r = 0; r < rowCount; r++) {
+                out.addRow(values[r]);
+            }
+            return;
+        }
+        for (int r = 0; r < rowCount; r++) {
+            out.beginRow();
+            for (Column column : columns) {
+                column.write(r, out);
+            }
+            out.endRow();
+        }
+    }
+
+    /**
+     * Get the number of rows in the batch.
+     * @return the row count.
+     */
+    public int getRowCount() { return rowCount; }
+
+    /**
+     * Get the number of columns in the batch.
+     * @return the column count.
+     */
+    public int getColumnCount() { return columns.length; }
+
+    /**
+     * Get a column.
+     * @param index the column index.
+     * @return the column.
+     */
+    public Column getColumn(int index) { return columns[index]; }
+
+    /**
+     * Get the numeric values of a column. For a DUAL column this is its numeric half.
+     * @param index the column index.
+     * @return the column as a DoubleColumn.
+     * @throws IllegalStateException if the column is a STRING column.
+     */
+    public DoubleColumn getDoubleColumn(int index) {
+        Column column = columns[index];
+        if (column instanceof DoubleColumn) {
+            return (DoubleColumn) column;
+        } else if (column instanceof DualColumn) {
+            return ((DualColumn) column).numbers();
+        }
+        throw new IllegalStateException("column " + index + " is not numeric: " + column.getDataType());
+    }
+
+    /**
+     * Get the string values of a column. For a DUAL column this is its string half.
+     * @param index the column index.
+     * @return the column as a StringColumn.
+     * @throws IllegalStateException if the column is a NUMERIC column.
+     */
+    public StringColumn getStringColumn(int index) {
+        Column column = columns[index];
+        if (column instanceof StringColumn) {
+            return (StringColumn) column;
+        } else if (column instanceof DualColumn) {
+            return ((DualColumn) column).strings();
+        }
+        throw new IllegalStateException("column " + index + " is not a string column: " + column.getDataType());
+    }
+
+    /**
+     * Get a DUAL column.
+     * @param index the column index.
+     * @return the column as a DualColumn.
+     * @throws IllegalStateException if the column is not a DUAL column.
+     */
+    public DualColumn getDualColumn(int index) {
+        Column column = columns[index];
+        if (column instanceof DualColumn) {
+            return (DualColumn) column;
+        }
+        throw new IllegalStateException("column " + index + " is not a dual column: " + column.getDataType());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Dual;
+
+/**
+ * A column of numeric values backed by a double[].
+ */
+public class DoubleColumn extends Column {
+    private final double[] values;
+
+    /**
+     * Creates a column of zeros.
+     * @param size the number of values.
+     */
+    public DoubleColumn(int size) {
+        this(new double[size]);
+    }
+
+    /**
+     * Creates a column that wraps an existing array. The array is not copied.
+     * @param values the values.
+     */
+    public DoubleColumn(double[] values) {
+        super(DataType.NUMERIC);
+        this.values = values;
+    }
+
+    @Override
+    public int size() { return values.length; }
+
+    /**
+     * Get a value.
+     * @param row the row index.
+     * @return the value.
+     */
+    public double get(int row) { return values[row]; }
+
+    /**
+     * Set a value.
+     * @param row the row index.
+     * @param value the value.
+     */
+    public void set(int row, double value) { values[row] = value; }
+
+    /**
+     * Get the backing array. Changes to the array are changes to the column.
+     * @return the values.
+     */
+    public double[] values() { return values; }
+
+    @Override
+    void set(int row, Dual dual) { values[row] = dual.getNumData(); }
+
+    @Override
+    void get(int row, Dual.Builder builder) { builder.setNumData(values[row]); }
+
+    @Override
+    void write(int row, ResultWriter out) { out.add(values[row]); }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Dual;
+
+/**
+ * A column of dual values, each having both a numeric and a string
+ * representation. The two halves are stored as a DoubleColumn and a
+ * StringColumn that can be used on their own.
+ */
+public class DualColumn extends Column {
+    private final DoubleColumn numbers;
+    private final StringColumn strings;
+
+    /**
+     * Creates a column of zeros / empty strings.
+     * @param size the number of values.
+     */
+    public DualColumn(int size) {
+        this(new DoubleColumn(size), new StringColumn(size));
+    }
+
+    /**
+     * Creates a column from its numeric and string halves.
+     * @param numbers the numeric values.
+     * @param strings the string values. Must be the same size as numbers.
+     */
+    public DualColumn(DoubleColumn numbers, StringColumn strings) {
+        super(DataType.DUAL);
+        if (numbers.size() != strings.size()) {
+            throw new IllegalArgumentException("numeric and string columns differ in size");
+        }
+        this.numbers = numbers;
+        this.strings = strings;
+    }
+
+    @Override
+    public int size() { return numbers.size(); }
+
+    /**
+     * Get the numeric value of a row.
+     * @param row the row index.
+     * @return the numeric value.
+     */
+    public double getNum(int row) { return numbers.get(row); }
+
+    /**
+     * Get the string value of a row.
+     * @param row the row index.
+     * @return the string value.
+     */
+    public String getStr(int row) { return strings.get(row); }
+
+    /**
+     * Set both values of a row.
+     * @param row the row index.
+     * @param num the numeric value.
+     * @param str the string value.
+     */
+    public void set(int row, double num, String str) {
+        numbers.set(row, num);
+        strings.set(row, str);
+    }
+
+    /**
+     * Get the numeric values of this column.
+     * @return the numeric half of the column.
+     */
+    public DoubleColumn numbers() { return numbers; }
+
+    /**
+     * Get the string values of this column.
+     * @return the string half of the column.
+     */
+    public StringColumn strings() { return strings; }
+
+    @Override
+    void set(int row, Dual dual) {
+        numbers.set(row, dual);
+        strings.set(row, dual);
+    }
+
+    @Override
+    void get(int row, Dual.Builder builder) {
+        numbers.get(row, builder);
+        strings.get(row, builder);
+    }
+
+    @Override
+    void write(int row, ResultWriter out) {
+        strings.write(row, numbers.get(row), out);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.Parameter;
+
+import java.util.List;
+
+/**
+ * A batch of rows received from Qlik, in whichever form it arrived.
+ *
+ * With the default protobuf marshaller the batch holds a parsed BundledRows.
+ * With the columnar marshaller it holds the serialized message, which is
+ * decoded straight into columns by functions that want columns, and only
+ * parsed into a BundledRows for functions that want rows. Either way the
+ * conversion happens at most once.
+ *
+ * Not thread-safe; a batch is processed by one thread at a time.
+ */
+public final class InputBatch {
+    private final byte[] data;
+    private BundledRows rows;
+    private ColumnarBatch columns;
+
+    private InputBatch(byte[] data, BundledRows rows) {
+        this.data = data;
+        this.rows = rows;
+    }
+
+    /**
+     * Wrap a parsed BundledRows.
+     * @param rows the rows.
+     * @return the batch.
+     */
+    public static InputBatch of(BundledRows rows) {
+        return new InputBatch(null, rows);
+    }
+
+    /**
+     * Wrap a serialized BundledRows. The array is not copied.
+     * @param data the serialized message.
+     * @return the batch.
+     */
+    public static InputBatch wrap(byte[] data) {
+        return new InputBatch(data, null);
+    }
+
+    /**
+     * Get the batch as BundledRows, parsing it if necessary.
+     * @return the rows.
+     * @throws IllegalArgumentException if the serialized message is malformed.
+     */
+    public BundledRows getRows() {
+        if (rows == null) {
+            try {
+                rows = BundledRows.parseFrom(data);
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalArgumentException("Malformed BundledRows message", e);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Get the batch as columns, decoding it if necessary.
+     * @param parms the parameters of the function, which give the type of each column.
+     * @return the columns.
+     * @throws IllegalArgumentException if the serialized message is malformed.
+     */
+    public ColumnarBatch getColumns(List<Parameter> parms) {
+        if (columns == null) {
+            if (data != null) {
+                try {
+                    columns = BundledRowsDecoder.decode(data, 0, data.length, parms);
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalArgumentException("Malformed BundledRows message", e);
+                }
+            } else {
+                columns = ColumnarBatch.fromRows(rows, parms);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Get the serialized form of the batch.
+     * @return the serialized BundledRows message.
+     */
+    public byte[] toByteArray() {
+        return data != null ? data : rows.toByteArray();
+    }
+}
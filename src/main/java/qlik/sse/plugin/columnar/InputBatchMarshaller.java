@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A gRPC marshaller for ExecuteFunction requests that keeps each message in
+ * its serialized form, as an InputBatch, instead of parsing it into a
+ * BundledRows. The message is copied out of gRPC's buffers once and from
+ * then on numeric values are decoded straight into arrays and string values
+ * are read in place.
+ */
+public class InputBatchMarshaller implements MethodDescriptor.Marshaller<InputBatch> {
+
+    @Override
+    public InputStream stream(InputBatch value) {
+        return new ByteArrayInputStream(value.toByteArray());
+    }
+
+    @Override
+    public InputBatch parse(InputStream stream) {
+        try {
+            return InputBatch.wrap(readFully(stream));
+        } catch (IOException e) {
+            throw Status.INTERNAL.withDescription("Error reading BundledRows message").withCause(e).asRuntimeException();
+        }
+    }
+
+    /**
+     * Read a stream to the end. gRPC's message streams report their full
+     * length from available(), so normally this is a single read into an
+     * array of exactly the right size.
+     */
+    private static byte[] readFully(InputStream stream) throws IOException {
+        int size = stream.available();
+        byte[] data = new byte[size];
+        int read = 0;
+        while (read < size) {
+            int n = stream.read(data, read, size - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        int next = stream.read();
+        if (read == size && next < 0) {
+            return data;
+        }
+
+        // available() under-reported; fall back to reading in chunks.
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, size * 2));
+        out.write(data, 0, read);
+        if (next >= 0) {
+            out.write(next);
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = stream.read(chunk)) >= 0) {
+                out.write(chunk, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
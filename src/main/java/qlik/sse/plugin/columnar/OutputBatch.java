@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import qlik.sse.ServerSideExtension.BundledRows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A batch of result rows to be sent back to Qlik, either as a BundledRows
+ * or already encoded in BundledRows wire format by a ResultWriter.
+ *
+ * An encoded batch may live in a pooled buffer. The buffer goes back to the
+ * pool once the stream returned by toInputStream() has been drained or read
+ * to the end, or is closed, or once the batch has been parsed by getRows();
+ * the batch must not be used after that. gRPC drains the stream into its
+ * own buffers when it frames the message and never closes it, so the
+ * buffer goes back as soon as the bytes have been copied.
+ */
+public final class OutputBatch {
+    private final BundledRows rows;
+    private final int length;
+    private final BufferPool pool;
+    private byte[] data;
+    private BundledRows parsed;
+
+    private OutputBatch(BundledRows rows, byte[] data, int length, BufferPool pool) {
+        this.rows = rows;
+        this.data = data;
+        this.length = length;
+        this.pool = pool;
+    }
+
+    /**
+     * Wrap a BundledRows.
+     * @param rows the rows.
+     * @return the batch.
+     */
+    public static OutputBatch of(BundledRows rows) {
+        return new OutputBatch(rows, null, rows.getSerializedSize(), null);
+    }
+
+    /**
+     * Wrap rows encoded in BundledRows wire format. The array is not copied.
+     * @param data the encoded rows.
+     * @param length the number of bytes of the array in use.
+     * @return the batch.
+     */
+    public static OutputBatch wrap(byte[] data, int length) {
+        return new OutputBatch(null, data, length, null);
+    }
+
+    static OutputBatch pooled(byte[] data, int length, BufferPool pool) {
+        return new OutputBatch(null, data, length, pool);
+    }
+
+    /**
+     * Get the batch as BundledRows, parsing it if necessary.
+     * @return the rows.
+     */
+    public BundledRows getRows() {
+        if (rows != null) {
+            return rows;
+        }
+        if (parsed == null) {
+            checkNotReleased();
+            try {
+                parsed = BundledRows.parseFrom(CodedInputStream.newInstance(data, 0, length));
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalStateException("ResultWriter produced a malformed BundledRows message", e);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            release();
+        }
+        return parsed;
+    }
+
+    /**
+     * Is the batch already encoded in wire format?
+     * @return true if the batch was written by a ResultWriter, false if it wraps a BundledRows.
+     */
+    public boolean isEncoded() { return rows == null && parsed == null; }
+
+    /**
+     * Get the size of the batch in wire format.
+     * @return the size in bytes.
+     */
+    public int getSerializedSize() { return length; }
+
+    /**
+     * Get a stream of the batch in wire format. Draining the stream, reading
+     * it to the end or closing it releases a pooled buffer.
+     * @return the stream.
+     */
+    public InputStream toInputStream() {
+        if (rows != null) {
+            return rows.toByteString().newInput();
+        }
+        if (parsed != null) {
+            return parsed.toByteString().newInput();
+        }
+        checkNotReleased();
+        return new EncodedStream(data, length);
+    }
+
+    private void checkNotReleased() {
+        if (data == null) {
+            throw new IllegalStateException("OutputBatch used after its buffer was released");
+        }
+    }
+
+    private synchronized void release() {
+        if (pool != null && data != null) {
+            pool.release(data);
+        }
+        data = null;
+    }
+
+    /**
+     * The encoded batch as gRPC's framer consumes it: it asks for the
+     * length up front (KnownLength) and then has the bytes written into its
+     * buffers (Drainable), after which the buffer is released.
+     */
+    private final class EncodedStream extends ByteArrayInputStream implements Drainable, KnownLength {
+        EncodedStream(byte[] data, int length) {
+            super(data, 0, length);
+        }
+
+        @Override
+        public synchronized int drainTo(OutputStream target) throws IOException {
+            int n = count - pos;
+            target.write(buf, pos, n);
+            pos = count;
+            release();
+            return n;
+        }
+
+        @Override
+        public synchronized int read() {
+            int b = super.read();
+            releaseAtEnd();
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int n = super.read(b, off, len);
+            releaseAtEnd();
+            return n;
+        }
+
+        @Override
+        public synchronized long skip(long n) {
+            long skipped = super.skip(n);
+            releaseAtEnd();
+            return skipped;
+        }
+
+        // the buffer may be reused once released, so the stream cannot go back.
+        @Override
+        public boolean markSupported() { return false; }
+
+        @Override
+        public synchronized void reset() {
+            throw new UnsupportedOperationException("mark/reset not supported");
+        }
+
+        @Override
+        public synchronized void close() {
+            pos = count;
+            release();
+        }
+
+        private void releaseAtEnd() {
+            if (pos >= count) {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import qlik.sse.ServerSideExtension.BundledRows;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A gRPC marshaller for ExecuteFunction responses that sends the rows
+ * encoded by a ResultWriter as they are, instead of serializing a
+ * BundledRows.
+ */
+public class OutputBatchMarshaller implements MethodDescriptor.Marshaller<OutputBatch> {
+    private static final MethodDescriptor.Marshaller<BundledRows> ROWS =
+            ProtoUtils.marshaller(BundledRows.getDefaultInstance());
+
+    @Override
+    public InputStream stream(OutputBatch value) {
+        return value.isEncoded() ? value.toInputStream() : ROWS.stream(value.getRows());
+    }
+
+    @Override
+    public OutputBatch parse(InputStream stream) {
+        try {
+            return OutputBatch.of(BundledRows.parseFrom(stream));
+        } catch (IOException e) {
+            throw Status.INTERNAL.withDescription("Error reading BundledRows message").withCause(e).asRuntimeException();
+        }
+    }
+}
@@ -0,0 +1,577 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Row;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes the results of a function straight into a buffer in BundledRows
+ * wire format, without building a Row and a Dual object for every value.
+ *
+ * Rows with a single value are written with one of the addRow() methods.
+ * Rows with several values are written with beginRow(), one add() per
+ * value and endRow(). A whole BundledRows can be appended with addRows().
+ * String values can be given as Strings, or as UTF-8 bytes (a ByteString or
+ * a slice of an array), which are copied as they are without being decoded
+ * or re-encoded.
+ * Once the batch is complete, toBatch() hands the encoded rows over as an
+ * OutputBatch and the writer starts on a new batch.
+ *
+ * The buffer is taken from a shared pool and given back once gRPC has sent
+ * the batch, so writing a batch does not allocate per row once the pool has
+ * warmed up. A writer is not thread-safe; the plugin keeps one per stream.
+ *
+ * Where the results are needed as BundledRows anyway, such as for a call
+ * bound with the default protobuf marshaller, a writer created with
+ * building() builds the rows with the generated builders instead, so they
+ * are not encoded only to be parsed back and encoded again by gRPC.
+ */
+public final class ResultWriter {
+    private static final int ROWS_TAG = 10;
+    private static final int DUALS_TAG = 10;
+    private static final int NUM_DATA_TAG = 9;
+    private static final int STR_DATA_TAG = 18;
+
+    private final BufferPool pool;
+    private final BundledRows.Builder rows;
+    private byte[] buffer;
+    private int position;
+    private int rowCount;
+    private BundledRows pendingRows;
+
+    // the values of the row being written, between beginRow() and endRow().
+    private boolean inRow;
+    private int dualCount;
+    private double[] nums = new double[4];
+    private String[] strs = new String[4];
+    private ByteString[] byteStrs = new ByteString[4];
+    private byte[][] rawStrs = new byte[4][];
+    private int[] rawOffsets = new int[4];
+    private int[] strLengths = new int[4];
+
+    /**
+     * Creates a writer that takes its buffers from the shared pool.
+     */
+    public ResultWriter() {
+        this(BufferPool.shared());
+    }
+
+    ResultWriter(BufferPool pool) {
+        this(pool, null);
+    }
+
+    private ResultWriter(BufferPool pool, BundledRows.Builder rows) {
+        this.pool = pool;
+        this.rows = rows;
+    }
+
+    /**
+     * Creates a writer that builds its batches as BundledRows rather than
+     * encoding them.
+     * @return the writer.
+     */
+    public static ResultWriter building() {
+        return new ResultWriter(null, BundledRows.newBuilder());
+    }
+
+    /**
+     * Write a row holding a single numeric value.
+     * @param num the value.
+     * @return this writer.
+     */
+    public ResultWriter addRow(double num) {
+        beginRow();
+        add(num);
+        return endRow();
+    }
+
+    /**
+     * Write a row holding a single string value.
+     * @param str the value.
+     * @return this writer.
+     */
+    public ResultWriter addRow(String str) {
+        beginRow();
+        add(str);
+        return endRow();
+    }
+
+    /**
+     * Write a row holding a single string value given as UTF-8 bytes.
+     * @param utf8 the value.
+     * @return this writer.
+     */
+    public ResultWriter addRow(ByteString utf8) {
+        beginRow();
+        add(utf8);
+        return endRow();
+    }
+
+    /**
+     * Write a row holding a single string value given as the remaining UTF-8
+     * bytes of a buffer, which may be direct or memory-mapped. The position of
+     * the buffer is not changed.
+     * @param utf8 the value.
+     * @return this writer.
+     */
+    public ResultWriter addRow(ByteBuffer utf8) {
+        return addRow(ByteString.copyFrom(utf8.duplicate()));
+    }
+
+    /**
+     * Write a row holding a single string value given as UTF-8 bytes.
+     * @param utf8 the value, or null for an empty value.
+     * @return this writer.
+     */
+    public ResultWriter addRow(byte[] utf8) {
+        beginRow();
+        add(utf8);
+        return endRow();
+    }
+
+    /**
+     * Write a row holding a single string value given as a slice of UTF-8 bytes.
+     * @param utf8 the array holding the value.
+     * @param offset the offset of the value in the array.
+     * @param length the length of the value in bytes.
+     * @return this writer.
+     */
+    public ResultWriter addRow(byte[] utf8, int offset, int length) {
+        beginRow();
+        add(utf8, offset, length);
+        return endRow();
+    }
+
+    /**
+     * Write a row holding a single dual value.
+     * @param num the numeric part of the value.
+     * @param str the string part of the value.
+     * @return this writer.
+     */
+    public ResultWriter addRow(double num, String str) {
+        beginRow();
+        add(num, str);
+        return endRow();
+    }
+
+    /**
+     * Start a row. Values are added with add() and the row is finished with endRow().
+     * @return this writer.
+     */
+    public ResultWriter beginRow() {
+        if (inRow) {
+            throw new IllegalStateException("beginRow() called twice without endRow()");
+        }
+        inRow = true;
+        dualCount = 0;
+        return this;
+    }
+
+    /**
+     * Add a numeric value to the current row.
+     * @param num the value.
+     * @return this writer.
+     */
+    public ResultWriter add(double num) {
+        return add(num, (String) null);
+    }
+
+    /**
+     * Add a string value to the current row.
+     * @param str the value.
+     * @return this writer.
+     */
+    public ResultWriter add(String str) {
+        return add(0, str);
+    }
+
+    /**
+     * Add a dual value to the current row.
+     * @param num the numeric part of the value.
+     * @param str the string part of the value, or null for none.
+     * @return this writer.
+     */
+    public ResultWriter add(double num, String str) {
+        int i = nextDual();
+        nums[i] = num;
+        strs[i] = str;
+        return this;
+    }
+
+    /**
+     * Add a string value given as UTF-8 bytes to the current row.
+     * @param utf8 the value.
+     * @return this writer.
+     */
+    public ResultWriter add(ByteString utf8) {
+        return add(0, utf8);
+    }
+
+    /**
+     * Add a dual value whose string part is given as UTF-8 bytes to the current row.
+     * @param num the numeric part of the value.
+     * @param utf8 the string part of the value.
+     * @return this writer.
+     */
+    public ResultWriter add(double num, ByteString utf8) {
+        int i = nextDual();
+        nums[i] = num;
+        byteStrs[i] = utf8;
+        return this;
+    }
+
+    /**
+     * Add a string value given as UTF-8 bytes to the current row.
+     * @param utf8 the value, or null for an empty value.
+     * @return this writer.
+     */
+    public ResultWriter add(byte[] utf8) {
+        return utf8 != null ? add(0, utf8, 0, utf8.length) : add(0, (String) null);
+    }
+
+    /**
+     * Add a string value given as a slice of UTF-8 bytes to the current row.
+     * The bytes are copied when the row is finished.
+     * @param utf8 the array holding the value.
+     * @param offset the offset of the value in the array.
+     * @param length the length of the value in bytes.
+     * @return this writer.
+     */
+    public ResultWriter add(byte[] utf8, int offset, int length) {
+        return add(0, utf8, offset, length);
+    }
+
+    /**
+     * Add a dual value whose string part is given as a slice of UTF-8 bytes
+     * to the current row. The bytes are copied when the row is finished.
+     * @param num the numeric part of the value.
+     * @param utf8 the array holding the string part of the value.
+     * @param offset the offset of the string in the array.
+     * @param length the length of the string in bytes.
+     * @return this writer.
+     */
+    public ResultWriter add(double num, byte[] utf8, int offset, int length) {
+        int i = nextDual();
+        nums[i] = num;
+        rawStrs[i] = utf8;
+        rawOffsets[i] = offset;
+        strLengths[i] = length;
+        return this;
+    }
+
+    /**
+     * Reserve the next value of the current row.
+     */
+    private int nextDual() {
+        if (!inRow) {
+            throw new IllegalStateException("add() called outside of beginRow() / endRow()");
+        }
+        if (dualCount == nums.length) {
+            int capacity = dualCount * 2;
+            nums = Arrays.copyOf(nums, capacity);
+            strs = Arrays.copyOf(strs, capacity);
+            byteStrs = Arrays.copyOf(byteStrs, capacity);
+            rawStrs = Arrays.copyOf(rawStrs, capacity);
+            rawOffsets = Arrays.copyOf(rawOffsets, capacity);
+            strLengths = Arrays.copyOf(strLengths, capacity);
+        }
+        return dualCount++;
+    }
+
+    /**
+     * Finish the current row and encode it.
+     * @return this writer.
+     */
+    public ResultWriter endRow() {
+        if (!inRow) {
+            throw new IllegalStateException("endRow() called without beginRow()");
+        }
+        inRow = false;
+        if (rows != null) {
+            return buildRow();
+        }
+
+        int rowSize = 0;
+        for (int i = 0; i < dualCount; i++) {
+            int dualSize = dualSize(i);
+            rowSize += 1 + varintSize(dualSize) + dualSize;
+        }
+        ensureCapacity(1 + varintSize(rowSize) + rowSize);
+
+        byte[] buf = buffer;
+        int pos = position;
+        buf[pos++] = ROWS_TAG;
+        pos = writeVarint(buf, pos, rowSize);
+        for (int i = 0; i < dualCount; i++) {
+            buf[pos++] = DUALS_TAG;
+            pos = writeVarint(buf, pos, dualSize(i));
+            // like the generated code, which omits the field if numData_ == 0D: -0.0 is not sent.
+            if (nums[i] != 0d) {
+                long bits = Double.doubleToRawLongBits(nums[i]);
+                buf[pos++] = NUM_DATA_TAG;
+                for (int b = 0; b < 8; b++) {
+                    buf[pos++] = (byte) (bits >>> (8 * b));
+                }
+            }
+            int length = strLengths[i];
+            if (length > 0) {
+                buf[pos++] = STR_DATA_TAG;
+                pos = writeVarint(buf, pos, length);
+                if (strs[i] != null) {
+                    pos = writeUtf8(buf, pos, strs[i]);
+                } else if (byteStrs[i] != null) {
+                    byteStrs[i].copyTo(buf, pos);
+                    pos += length;
+                } else {
+                    System.arraycopy(rawStrs[i], rawOffsets[i], buf, pos, length);
+                    pos += length;
+                }
+            }
+            strs[i] = null;
+            byteStrs[i] = null;
+            rawStrs[i] = null;
+        }
+        position = pos;
+        rowCount++;
+        return this;
+    }
+
+    /**
+     * Build the current row with the generated builders.
+     */
+    private ResultWriter buildRow() {
+        flushPendingRows();
+        // plain builders, added as messages: nested builders cost more than the rows they build.
+        Row.Builder row = Row.newBuilder();
+        for (int i = 0; i < dualCount; i++) {
+            Dual.Builder dual = Dual.newBuilder().setNumData(nums[i]);
+            if (strs[i] != null) {
+                dual.setStrData(strs[i]);
+            } else if (byteStrs[i] != null) {
+                dual.setStrDataBytes(byteStrs[i]);
+            } else if (rawStrs[i] != null) {
+                dual.setStrDataBytes(ByteString.copyFrom(rawStrs[i], rawOffsets[i], strLengths[i]));
+            }
+            row.addDuals(dual);
+            strs[i] = null;
+            byteStrs[i] = null;
+            rawStrs[i] = null;
+        }
+        rows.addRows(row);
+        rowCount++;
+        return this;
+    }
+
+    /**
+     * Append rows that have already been built. If nothing else is written
+     * to the batch, the rows are passed on as they are rather than encoded.
+     * @param rows the rows.
+     * @return this writer.
+     */
+    public ResultWriter addRows(BundledRows rows) {
+        if (inRow) {
+            throw new IllegalStateException("addRows() called between beginRow() and endRow()");
+        }
+        if (isEmpty()) {
+            pendingRows = rows;
+        } else if (this.rows != null) {
+            flushPendingRows();
+            this.rows.addAllRows(rows.getRowsList());
+        } else {
+            encode(rows);
+        }
+        rowCount += rows.getRowsCount();
+        return this;
+    }
+
+    /**
+     * Get the number of rows written to the current batch.
+     * @return the row count.
+     */
+    public int getRowCount() { return rowCount; }
+
+    /**
+     * Hand over the rows written so far as a batch, and start a new batch.
+     * @return the batch.
+     */
+    public OutputBatch toBatch() {
+        if (inRow) {
+            throw new IllegalStateException("toBatch() called between beginRow() and endRow()");
+        }
+        OutputBatch batch;
+        if (rows != null && rows.getRowsCount() > 0) {
+            batch = OutputBatch.of(rows.build());
+            rows.clear();
+        } else if (position == 0) {
+            batch = OutputBatch.of(pendingRows != null ? pendingRows : BundledRows.getDefaultInstance());
+        } else {
+            batch = OutputBatch.pooled(buffer, position, pool);
+            buffer = null;
+        }
+        position = 0;
+        rowCount = 0;
+        pendingRows = null;
+        return batch;
+    }
+
+    private boolean isEmpty() {
+        return position == 0 && pendingRows == null && (rows == null || rows.getRowsCount() == 0);
+    }
+
+    /**
+     * Move rows passed on as they are into the rows being built.
+     */
+    private void flushPendingRows() {
+        if (pendingRows != null) {
+            rows.addAllRows(pendingRows.getRowsList());
+            pendingRows = null;
+        }
+    }
+
+    /**
+     * Encode a BundledRows at the end of the buffer. Concatenated BundledRows
+     * messages parse as one message holding all of their rows.
+     */
+    private void encode(BundledRows rows) {
+        if (pendingRows != null) {
+            BundledRows pending = pendingRows;
+            pendingRows = null;
+            encode(pending);
+        }
+        int size = rows.getSerializedSize();
+        ensureCapacity(size);
+        try {
+            CodedOutputStream out = CodedOutputStream.newInstance(buffer, position, size);
+            rows.writeTo(out);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position += size;
+    }
+
+    /**
+     * Compute the encoded size of a value of the current row. Also records
+     * the UTF-8 length of its string.
+     */
+    private int dualSize(int i) {
+        int size = nums[i] != 0d ? 9 : 0;
+        int length;
+        if (strs[i] != null) {
+            length = utf8Length(strs[i]);
+        } else if (byteStrs[i] != null) {
+            length = byteStrs[i].size();
+        } else if (rawStrs[i] != null) {
+            length = strLengths[i];
+        } else {
+            length = 0;
+        }
+        strLengths[i] = length;
+        if (length > 0) {
+            size += 1 + varintSize(length) + length;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (pendingRows != null) {
+            BundledRows pending = pendingRows;
+            pendingRows = null;
+            encode(pending);
+        }
+        if (buffer == null) {
+            buffer = pool.acquire(needed);
+        } else if (buffer.length - position < needed) {
+            byte[] grown = pool.acquire(Math.max(buffer.length * 2, position + needed));
+            System.arraycopy(buffer, 0, grown, 0, position);
+            pool.release(buffer);
+            buffer = grown;
+        }
+    }
+
+    private static int varintSize(int value) {
+        if ((value & (~0 << 7)) == 0) return 1;
+        if ((value & (~0 << 14)) == 0) return 2;
+        if ((value & (~0 << 21)) == 0) return 3;
+        if ((value & (~0 << 28)) == 0) return 4;
+        return 5;
+    }
+
+    private static int writeVarint(byte[] buf, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * The number of bytes needed to encode a string as UTF-8. Unpaired
+     * surrogates are encoded as '?', as protobuf does.
+     */
+    private static int utf8Length(String str) {
+        int length = str.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static int writeUtf8(byte[] buf, int pos, String str) {
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >>> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (codePoint >>> 18));
+                buf[pos++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = (byte) '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >>> 12));
+                buf[pos++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Dual;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A column of string values.
+ *
+ * A column decoded straight from the wire keeps the UTF-8 bytes of each value
+ * as an offset and length into the message buffer, and only builds a String
+ * for a row when it is asked for. Functions that work on bytes (hashing,
+ * encryption) can read those bytes directly with getBytes() or the buffer(),
+ * offset() and length() slice accessors, and never decode the values at all.
+ */
+public class StringColumn extends Column {
+    private final String[] values;
+    private byte[] buffer;
+    private int[] offsets;
+    // the UTF-8 length of each value, or -1 if the value was set after the column was encoded.
+    private int[] lengths;
+    // true if every value has a slice in the buffer.
+    private boolean encoded;
+
+    /**
+     * Creates a column of empty strings.
+     * @param size the number of values.
+     */
+    public StringColumn(int size) {
+        this(new String[size]);
+        Arrays.fill(values, "");
+    }
+
+    /**
+     * Creates a column that wraps an existing array. The array is not copied.
+     * @param values the values.
+     */
+    public StringColumn(String[] values) {
+        super(DataType.STRING);
+        this.values = values;
+        this.buffer = null;
+        this.offsets = null;
+        this.lengths = null;
+    }
+
+    /**
+     * Creates a column whose values are UTF-8 encoded in a shared buffer.
+     * Neither the buffer nor the arrays are copied.
+     *
+     * @param buffer the buffer holding the encoded values.
+     * @param offsets the offset of each value in the buffer.
+     * @param lengths the length in bytes of each value.
+     */
+    public StringColumn(byte[] buffer, int[] offsets, int[] lengths) {
+        super(DataType.STRING);
+        this.values = new String[offsets.length];
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.encoded = true;
+    }
+
+    @Override
+    public int size() { return values.length; }
+
+    /**
+     * Get a value.
+     * @param row the row index.
+     * @return the value.
+     */
+    public String get(int row) {
+        String value = values[row];
+        if (value == null) {
+            value = lengths[row] == 0 ? "" : new String(buffer, offsets[row], lengths[row], StandardCharsets.UTF_8);
+            values[row] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Set a value.
+     * @param row the row index.
+     * @param value the value.
+     */
+    public void set(int row, String value) {
+        values[row] = value;
+        if (lengths != null) {
+            lengths[row] = -1;
+            encoded = false;
+        }
+    }
+
+    /**
+     * Get the UTF-8 bytes of a value. For a column decoded from the wire
+     * this is a view of the message buffer, not a copy.
+     * @param row the row index.
+     * @return the bytes.
+     */
+    public ByteString getBytes(int row) {
+        if (hasSlice(row)) {
+            return UnsafeByteOperations.unsafeWrap(buffer, offsets[row], lengths[row]);
+        }
+        return ByteString.copyFromUtf8(get(row));
+    }
+
+    /**
+     * Get the buffer holding the UTF-8 bytes of the values. A column that
+     * was not decoded from the wire is encoded the first time this, offset()
+     * or length() is called.
+     * @return the buffer. It must not be modified.
+     */
+    public byte[] buffer() {
+        ensureEncoded();
+        return buffer;
+    }
+
+    /**
+     * Get the offset of a value in buffer().
+     * @param row the row index.
+     * @return the offset.
+     */
+    public int offset(int row) {
+        ensureEncoded();
+        return offsets[row];
+    }
+
+    /**
+     * Get the length in bytes of a value in buffer().
+     * @param row the row index.
+     * @return the length.
+     */
+    public int length(int row) {
+        ensureEncoded();
+        return lengths[row];
+    }
+
+    private boolean hasSlice(int row) {
+        return lengths != null && lengths[row] >= 0;
+    }
+
+    /**
+     * Make sure every value has a slice in the buffer, encoding the values
+     * into a new buffer if not.
+     */
+    private void ensureEncoded() {
+        if (encoded) {
+            return;
+        }
+        byte[][] utf8 = new byte[values.length][];
+        int total = 0;
+        for (int r = 0; r < values.length; r++) {
+            utf8[r] = get(r).getBytes(StandardCharsets.UTF_8);
+            total += utf8[r].length;
+        }
+        byte[] newBuffer = new byte[total];
+        int[] newOffsets = new int[values.length];
+        int[] newLengths = new int[values.length];
+        int position = 0;
+        for (int r = 0; r < values.length; r++) {
+            System.arraycopy(utf8[r], 0, newBuffer, position, utf8[r].length);
+            newOffsets[r] = position;
+            newLengths[r] = utf8[r].length;
+            position += utf8[r].length;
+        }
+        buffer = newBuffer;
+        offsets = newOffsets;
+        lengths = newLengths;
+        encoded = true;
+    }
+
+    @Override
+    void set(int row, Dual dual) { set(row, dual.getStrData()); }
+
+    @Override
+    void get(int row, Dual.Builder builder) { builder.setStrData(get(row)); }
+
+    @Override
+    void write(int row, ResultWriter out) {
+        if (hasSlice(row)) {
+            // pass the bytes through without decoding them.
+            out.add(buffer, offsets[row], lengths[row]);
+        } else {
+            out.add(get(row));
+        }
+    }
+
+    /**
+     * Add a value, together with the numeric half of a dual, to the row being written.
+     */
+    void write(int row, double num, ResultWriter out) {
+        if (hasSlice(row)) {
+            out.add(num, buffer, offsets[row], lengths[row]);
+        } else {
+            out.add(num, get(row));
+        }
+    }
+}
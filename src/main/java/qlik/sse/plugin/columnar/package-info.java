@@ -0,0 +1,26 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.columnar;
+
+/**
+ * A columnar view of the rows passed to and returned from SSE functions.
+ *
+ * Each column of a batch is held in a primitive array rather than as a
+ * protobuf Dual per cell, which gives function code tight loops over
+ * contiguous memory.
+ *
+ * The package also holds the wire-level counterparts used by the columnar
+ * marshallers: InputBatch / BundledRowsDecoder on the way in, and
+ * ResultWriter / OutputBatch on the way out.
+ */
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.deploy;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Loads the classes of a plugin jar in preference to those of the server,
+ * so that a jar can bring a new version of a class the server was started
+ * with (e.g. a sample function). The classes through which the server and
+ * the jar's functions talk to each other (the plugin API, the protocol,
+ * gRPC and protobuf) always come from the server, so that both agree on
+ * them even if the jar bundles copies.
+ */
+final class JarClassLoader extends URLClassLoader {
+    private static final Set<String> SHARED_PACKAGES = new HashSet<>(Arrays.asList(
+            "qlik.sse",
+            "qlik.sse.plugin",
+            "qlik.sse.plugin.columnar",
+            "qlik.sse.plugin.deploy",
+            "qlik.sse.plugin.executor",
+            "qlik.sse.plugin.staging",
+            "qlik.sse.server"));
+    private static final String[] SHARED_PREFIXES = {
+            "java.", "javax.", "io.grpc.", "com.google.protobuf.", "org.slf4j."};
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    /**
+     * Creates a loader for a jar.
+     * @param jar the location of the jar.
+     * @param parent the loader of the server's classes.
+     */
+    JarClassLoader(URL jar, ClassLoader parent) {
+        super(new URL[] { jar }, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (isShared(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    c = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    c = getParent().loadClass(name);
+                }
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
+    private static boolean isShared(String name) {
+        for (String prefix : SHARED_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && SHARED_PACKAGES.contains(name.substring(0, dot));
+    }
+}
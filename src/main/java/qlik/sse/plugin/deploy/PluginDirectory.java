@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.deploy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.plugin.PluginCapabilities;
+import qlik.sse.plugin.PluginFunction;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A directory of plugin jars whose functions are served alongside those of
+ * the configured capabilities, and which may be added, replaced or removed
+ * while the server runs.
+ *
+ * Each jar is loaded in a class loader of its own (see JarClassLoader) and
+ * names its PluginCapabilities class in the Sse-Capabilities attribute of
+ * its manifest. Whenever a jar is added, changed or removed, a new
+ * PluginCapabilities holding the configured functions and those of every
+ * jar is built and handed to the plugin in one step, so a call sees either
+ * the old set of functions or the new one. A jar's functions replace
+ * configured functions with the same id; jars are applied in name order.
+ *
+ * A stream pins the version of the jar its function came from (see
+ * acquire()), so streams that started before a jar was replaced finish on
+ * the old version, whose class loader is released once they have ended.
+ * A jar that cannot be loaded is logged and the previous version, if any,
+ * is kept.
+ *
+ * Qlik reads the capabilities of a plugin when it connects, so a new
+ * version of a function is used straight away, but functions with new ids
+ * or signatures are only seen by Qlik once it reconnects.
+ */
+public final class PluginDirectory implements PluginDirectoryMXBean, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginDirectory.class);
+
+    private final Path directory;
+    private final PluginCapabilities base;
+    private final Properties props;
+    private final Consumer<PluginCapabilities> publisher;
+    private final long interval;
+    private final Object scanLock = new Object();
+
+    // guarded by this.
+    private final Map<Path, PluginJar> loaded = new TreeMap<>();
+    private final List<PluginJar> draining = new ArrayList<>();
+    private final Map<PluginFunction, PluginJar> owners = new IdentityHashMap<>();
+    // guarded by scanLock: versions of jars that could not be loaded, so they are not tried again.
+    private final Map<Path, String> failed = new HashMap<>();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong failedLoads = new AtomicLong();
+    private final AtomicLong unloads = new AtomicLong();
+    private WatchService watcher;
+
+    /**
+     * Creates a plugin directory. Nothing is loaded until start() is called.
+     *
+     * @param directory the directory of jars.
+     * @param base the configured capabilities.
+     * @param props the properties of the plugin, which the capabilities of the jars are created with.
+     * @param publisher receives the capabilities to serve each time they change.
+     * @param interval how long, in milliseconds, a jar must be unchanged before it is loaded.
+     */
+    public PluginDirectory(Path directory, PluginCapabilities base, Properties props,
+                           Consumer<PluginCapabilities> publisher, long interval) {
+        this.directory = directory;
+        this.base = base;
+        this.props = props;
+        this.publisher = publisher;
+        this.interval = interval;
+    }
+
+    /**
+     * Load the jars in the directory, publish the capabilities, and start a
+     * daemon thread that watches the directory for changes.
+     */
+    public void start() {
+        scan(0);
+        synchronized (this) {
+            if (loaded.isEmpty()) {
+                publish();
+            }
+        }
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            LOG.error("Could not watch " + directory + " for plugin jars.", e);
+            return;
+        }
+        Thread t = new Thread(this::watch, "sse-plugin-watcher");
+        t.setDaemon(true);
+        t.start();
+        LOG.info("Watching " + directory + " for plugin jars.");
+    }
+
+    /**
+     * Wake up whenever the directory changes, and at least once an interval
+     * to pick up jars that were still being written and to release the
+     * class loaders of replaced jars.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.poll(interval, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                scan(interval);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Plugin directory watcher stopped.");
+        } catch (RuntimeException e) {
+            LOG.error("Plugin directory watcher failed.", e);
+        }
+    }
+
+    @Override
+    public void scan() {
+        scan(0);
+    }
+
+    /**
+     * Load new and changed jars, drop removed ones, and release idle class loaders.
+     *
+     * @param settle how long, in milliseconds, a jar must be unchanged before it is loaded.
+     */
+    private void scan(long settle) {
+        synchronized (scanLock) {
+            Map<Path, PluginJar> added = new HashMap<>();
+            Set<Path> present = new HashSet<>();
+            try (DirectoryStream<Path> jars = Files.newDirectoryStream(directory, "*.jar")) {
+                for (Path jar : jars) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue;  // removed since it was listed.
+                    }
+                    present.add(jar);
+                    PluginJar current;
+                    synchronized (this) {
+                        current = loaded.get(jar);
+                    }
+                    long modified = attributes.lastModifiedTime().toMillis();
+                    String version = modified + "/" + attributes.size();
+                    if ((current != null && current.isCurrent(attributes))
+                            || version.equals(failed.get(jar))
+                            || System.currentTimeMillis() - modified < settle) {
+                        continue;
+                    }
+                    try {
+                        added.put(jar, PluginJar.load(jar, attributes, getClass().getClassLoader(), props));
+                        failed.remove(jar);
+                        loads.incrementAndGet();
+                        LOG.info((current == null ? "Loaded" : "Reloaded") + " plugin jar " + jar + ".");
+                    } catch (Exception e) {
+                        failed.put(jar, version);
+                        failedLoads.incrementAndGet();
+                        LOG.error("Could not load plugin jar " + jar + "."
+                                + (current == null ? "" : " Keeping the version that is loaded."), e);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Could not list plugin jars in " + directory + ".", e);
+                return;
+            }
+            failed.keySet().retainAll(present);
+            swap(added, present);
+        }
+    }
+
+    /**
+     * Replace the jars that were reloaded or removed and publish the result.
+     */
+    private synchronized void swap(Map<Path, PluginJar> added, Set<Path> present) {
+        boolean changed = !added.isEmpty();
+        for (Map.Entry<Path, PluginJar> jar : added.entrySet()) {
+            retire(loaded.put(jar.getKey(), jar.getValue()));
+        }
+        for (Iterator<PluginJar> jars = loaded.values().iterator(); jars.hasNext(); ) {
+            PluginJar jar = jars.next();
+            if (!present.contains(jar.getSource())) {
+                LOG.info("Plugin jar " + jar.getSource() + " was removed.");
+                jars.remove();
+                retire(jar);
+                changed = true;
+            }
+        }
+        if (changed) {
+            publish();
+        }
+        release();
+    }
+
+    private void retire(PluginJar jar) {
+        if (jar != null) {
+            jar.retiredAt = System.currentTimeMillis();
+            draining.add(jar);
+        }
+    }
+
+    /**
+     * Build the capabilities from the configured functions and those of
+     * every loaded jar, and hand them to the plugin.
+     */
+    private void publish() {
+        PluginCapabilities capabilities = new PluginCapabilities();
+        capabilities.setPluginInfo(base.getPluginIdentifier(), base.getPluginVersion(), base.getAllowScripts());
+        capabilities.putFunctions(base);
+        owners.clear();
+        for (PluginJar jar : loaded.values()) {
+            capabilities.putFunctions(jar.getCapabilities());
+            own(jar);
+        }
+        for (PluginJar jar : draining) {
+            own(jar);
+        }
+        publisher.accept(capabilities);
+    }
+
+    private void own(PluginJar jar) {
+        for (PluginFunction function : jar.getCapabilities().getFunctionMap().values()) {
+            owners.put(function, jar);
+        }
+    }
+
+    /**
+     * Close the class loaders of replaced jars once no stream uses them.
+     * They are kept for at least an interval after they were replaced, for
+     * streams that looked up a function just before the swap.
+     */
+    private void release() {
+        long now = System.currentTimeMillis();
+        for (Iterator<PluginJar> jars = draining.iterator(); jars.hasNext(); ) {
+            PluginJar jar = jars.next();
+            if (jar.streams == 0 && now - jar.retiredAt >= interval) {
+                jars.remove();
+                owners.values().removeIf(owner -> owner == jar);
+                jar.close();
+                unloads.incrementAndGet();
+                LOG.info("Released a previous version of plugin jar " + jar.getSource() + ".");
+            }
+        }
+    }
+
+    /**
+     * Pin the version of the jar a function came from for the life of a
+     * stream, so that its class loader is not released while the stream
+     * runs.
+     *
+     * @param function the function being called.
+     * @return a lease to close when the stream ends, or null if the function
+     * does not come from a plugin jar.
+     */
+    public synchronized AutoCloseable acquire(PluginFunction function) {
+        PluginJar jar = owners.get(function);
+        if (jar == null) {
+            return null;
+        }
+        jar.streams++;
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                synchronized (PluginDirectory.this) {
+                    jar.streams--;
+                }
+            }
+        };
+    }
+
+    /**
+     * Stop watching the directory and release every jar.
+     */
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOG.warn("Could not stop watching " + directory + ".", e);
+            }
+        }
+        for (PluginJar jar : loaded.values()) {
+            jar.close();
+        }
+        for (PluginJar jar : draining) {
+            jar.close();
+        }
+        loaded.clear();
+        draining.clear();
+        owners.clear();
+    }
+
+    @Override
+    public String getDirectory() { return directory.toString(); }
+
+    @Override
+    public synchronized String[] getLoadedJars() {
+        List<String> names = new ArrayList<>();
+        for (Path jar : loaded.keySet()) {
+            names.add(jar.getFileName().toString());
+        }
+        return names.toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized int getDrainingJars() { return draining.size(); }
+
+    @Override
+    public synchronized int getActiveStreams() {
+        int streams = 0;
+        for (PluginJar jar : loaded.values()) {
+            streams += jar.streams;
+        }
+        for (PluginJar jar : draining) {
+            streams += jar.streams;
+        }
+        return streams;
+    }
+
+    @Override
+    public long getLoads() { return loads.get(); }
+
+    @Override
+    public long getFailedLoads() { return failedLoads.get(); }
+
+    @Override
+    public long getUnloads() { return unloads.get(); }
+}
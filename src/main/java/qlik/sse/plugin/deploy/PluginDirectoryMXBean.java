@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.deploy;
+
+/**
+ * Metrics for the plugin jars loaded from a PluginDirectory.
+ */
+public interface PluginDirectoryMXBean {
+    /**
+     * @return the directory that is watched.
+     */
+    String getDirectory();
+
+    /**
+     * @return the names of the jars whose functions are being served.
+     */
+    String[] getLoadedJars();
+
+    /**
+     * @return the number of replaced or removed jars whose class loaders are
+     * kept until the streams that were started on them have ended.
+     */
+    int getDrainingJars();
+
+    /**
+     * @return the number of streams running on functions from plugin jars.
+     */
+    int getActiveStreams();
+
+    /**
+     * @return the number of times a jar was loaded, including reloads.
+     */
+    long getLoads();
+
+    /**
+     * @return the number of times a jar could not be loaded.
+     */
+    long getFailedLoads();
+
+    /**
+     * @return the number of class loaders released.
+     */
+    long getUnloads();
+
+    /**
+     * Look for new, changed and removed jars now.
+     */
+    void scan();
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.deploy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.plugin.PluginCapabilities;
+import qlik.sse.server.PluginServer;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * One version of a plugin jar: the class loader it was loaded in and the
+ * capabilities it declares.
+ *
+ * The jar is copied before it is opened, so that it can be overwritten or
+ * removed while its classes are in use. The streams running on its
+ * functions are counted by the PluginDirectory, which closes the jar once
+ * it has been replaced and they have all ended.
+ */
+final class PluginJar {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginJar.class);
+
+    /**
+     * The manifest attribute that names the jar's PluginCapabilities class.
+     */
+    static final String CAPABILITIES_ATTRIBUTE = "Sse-Capabilities";
+
+    private final Path source;
+    private final long modified;
+    private final long size;
+    private final Path copy;
+    private final JarClassLoader loader;
+    private final PluginCapabilities capabilities;
+
+    // guarded by the PluginDirectory.
+    int streams;
+    long retiredAt;
+
+    private PluginJar(Path source, BasicFileAttributes attributes, Path copy, JarClassLoader loader,
+                      PluginCapabilities capabilities) {
+        this.source = source;
+        this.modified = attributes.lastModifiedTime().toMillis();
+        this.size = attributes.size();
+        this.copy = copy;
+        this.loader = loader;
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * Load a jar and create the capabilities it declares.
+     *
+     * @param source the jar.
+     * @param attributes the attributes of the jar, as they were when it was found.
+     * @param parent the loader of the server's classes.
+     * @param props the properties the capabilities are created with.
+     * @return the loaded jar.
+     * @throws Exception if the jar cannot be read or its capabilities cannot be created.
+     */
+    static PluginJar load(Path source, BasicFileAttributes attributes, ClassLoader parent, Properties props)
+            throws Exception {
+        Path copy = Files.createTempFile("qlik-sse-plugin-", ".jar");
+        JarClassLoader loader = null;
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        try {
+            Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+            String className;
+            try (JarFile jar = new JarFile(copy.toFile())) {
+                Manifest manifest = jar.getManifest();
+                className = manifest == null ? null : manifest.getMainAttributes().getValue(CAPABILITIES_ATTRIBUTE);
+            }
+            if (className == null) {
+                throw new IllegalArgumentException(
+                        "The manifest of " + source + " has no " + CAPABILITIES_ATTRIBUTE + " attribute.");
+            }
+            JarClassLoader jarLoader = new JarClassLoader(copy.toUri().toURL(), parent);
+            loader = jarLoader;
+            thread.setContextClassLoader(jarLoader);
+            PluginCapabilities capabilities = PluginServer.withProperties(props, () ->
+                    Class.forName(className.trim(), true, jarLoader).asSubclass(PluginCapabilities.class)
+                            .getDeclaredConstructor().newInstance());
+            // create the functions now, so that a jar whose functions cannot be created is not swapped in.
+            capabilities.initialize(Runnable::run).join();
+            return new PluginJar(source, attributes, copy, jarLoader, capabilities);
+        } catch (Exception | LinkageError e) {
+            if (loader != null) {
+                loader.close();
+            }
+            Files.deleteIfExists(copy);
+            // report what the constructor of the capabilities threw rather than the reflection wrapper.
+            Throwable cause = e instanceof InvocationTargetException && e.getCause() != null ? e.getCause() : e;
+            throw cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+    }
+
+    /**
+     * Determine whether this is the version of the jar that is on disk.
+     *
+     * @param attributes the attributes of the jar on disk.
+     * @return true if it has not changed since it was loaded.
+     */
+    boolean isCurrent(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().toMillis() == modified && attributes.size() == size;
+    }
+
+    /**
+     * @return the jar this version was loaded from.
+     */
+    Path getSource() { return source; }
+
+    /**
+     * @return the capabilities declared by the jar.
+     */
+    PluginCapabilities getCapabilities() { return capabilities; }
+
+    /**
+     * Close the class loader and delete the copy of the jar. Classes that
+     * were loaded keep working, but no more can be loaded.
+     */
+    void close() {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the class loader of " + source + ".", e);
+        }
+        try {
+            Files.deleteIfExists(copy);
+        } catch (IOException e) {
+            LOG.warn("Could not delete " + copy + ".", e);
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.plugin.executor.FairShare.Tenant;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static qlik.sse.server.ServerProperties.*;
+
+/**
+ * Limits the number of calls to the plugin's functions that are in
+ * progress at once, overall, for each function and for each app, so that
+ * under overload the calls that are let in keep their latency instead of
+ * every call slowing down until all of them time out.
+ *
+ * A call that arrives while a limit is reached waits in a bounded queue,
+ * without holding a thread: its first batch is simply not requested from
+ * the client until the call is admitted. Waiting calls are queued per
+ * Tenant (see FairShare), and admitted so that each tenant gets a share of
+ * the calls let in in proportion to its weight; the calls of one tenant
+ * are admitted in the order they arrived. A call held back by the limit of
+ * its function or app does not hold up other calls. A call that arrives
+ * while the queue is full is rejected straight away, unless another tenant
+ * has at least two more calls waiting, in which case the newest call of
+ * the tenant with the most calls waiting is rejected instead, so that one
+ * app cannot take the whole queue either. The plugin ends a rejected call
+ * with RESOURCE_EXHAUSTED.
+ *
+ * The overall limit is set with qlik.sse.admission.limit, and that of a
+ * function with qlik.sse.function.NAME.limit; 0, the default, is no limit.
+ * The configured limits are maximums. With qlik.sse.admission.algorithm
+ * set to gradient (the default) or aimd, each limit is moved between 1 and
+ * its maximum by a ConcurrencyLimit, from the latency of the calls that
+ * end, so that throughput stays near its peak. The limit of an app is a
+ * fixed cap, and is only kept while the app has calls queued or in
+ * progress. The limits, calls in progress and queue are published as the
+ * MBean qlik.sse:type=AdmissionControl.
+ */
+public class AdmissionControl implements AdmissionControlMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionControl.class);
+
+    private final Properties props;
+    private final FairShare fairShare;
+    private final String algorithm;
+    private final int queueSize;
+    private final Limiter global;
+    // one per function of the plugin, kept with its limit for as long as the plugin runs.
+    private final Map<String, Limiter> functions = new HashMap<>();
+    // only the apps with calls queued or in progress: there is no end to the apps that may call.
+    private final Map<String, Limiter> apps = new HashMap<>();
+    // the calls waiting to be admitted, per tenant.
+    private final Map<Tenant, Waiting> waiting = new LinkedHashMap<>();
+    private int waitingCalls;
+    private double virtualTime;
+    private long admitted;
+    private long queued;
+    private long rejected;
+    private long queueNanos;
+
+    /**
+     * Creates admission control configured from the given properties.
+     *
+     * @param props the properties of the plugin.
+     * @param fairShare the tenants that calls are shared between.
+     */
+    public AdmissionControl(Properties props, FairShare fairShare) {
+        this.props = props;
+        this.fairShare = fairShare;
+        this.algorithm = props.getProperty(ADMISSION_ALGORITHM, ADMISSION_ALGORITHM_DEFAULT).trim();
+        this.queueSize = Math.max(0, Integer.parseInt(props.getProperty(ADMISSION_QUEUE,
+                ADMISSION_QUEUE_DEFAULT).trim()));
+        this.global = limiter(algorithm, Integer.parseInt(props.getProperty(ADMISSION_LIMIT,
+                ADMISSION_LIMIT_DEFAULT).trim()));
+    }
+
+    private static Limiter limiter(String algorithm, int max) {
+        return max > 0 ? new Limiter(ConcurrencyLimit.create(algorithm, max)) : new Limiter(null);
+    }
+
+    /**
+     * Admit a call now, or queue it until it can be.
+     *
+     * @param function the name of the function being called.
+     * @param appId the id of the app the call is made for, or "".
+     * @param userId the id of the user the call is made for, or "".
+     * @param start run once the call is admitted, on this thread if it is
+     *              admitted straight away, else on the thread that ends the
+     *              call that makes room for it.
+     * @param reject run if the call is rejected while it waits, to make
+     *               room in the queue for a call of another tenant.
+     * @return the permit of the call, to be released when the call ends, or
+     *         null if the call is rejected because the queue is full.
+     */
+    public Permit admit(String function, String appId, String userId, Runnable start, Runnable reject) {
+        Tenant tenant = fairShare.tenant(appId, userId);
+        Permit permit;
+        Permit pushedOut = null;
+        synchronized (this) {
+            Limiter limiter = functions.computeIfAbsent(function, name -> limiter(algorithm, Integer.parseInt(
+                    props.getProperty(String.format(FUNCTION_ADMISSION_LIMIT, name), "0").trim())));
+            Limiter app = apps.computeIfAbsent(appId, id -> limiter("fixed", fairShare.getAppLimit(id)));
+            permit = new Permit(limiter, appId, app, tenant, start, reject);
+            app.permits++;
+            // calls still queued are held back by a limit, so a new call only goes ahead of them past another one.
+            if (global.hasRoom() && limiter.hasRoom() && app.hasRoom()) {
+                permit.enter();
+            } else {
+                if (waitingCalls >= queueSize) {
+                    pushedOut = pushOut(tenant);
+                    if (pushedOut == null) {
+                        rejected++;
+                        tenant.rejected.incrementAndGet();
+                        app.permits--;
+                        forget(appId, app);
+                        LOG.debug("Admission queue is full; rejected a call to function " + function + ".");
+                        return null;
+                    }
+                }
+                queued++;
+                enqueue(permit);
+            }
+        }
+        if (pushedOut != null) {
+            LOG.debug("Admission queue is full; rejected a waiting call of " + pushedOut.tenant.getName() + ".");
+            pushedOut.reject.run();
+            return permit;
+        }
+        if (permit.state == Permit.ADMITTED) {
+            start.run();
+        }
+        return permit;
+    }
+
+    private void enqueue(Permit permit) {
+        Waiting calls = waiting.get(permit.tenant);
+        if (calls == null) {
+            // a tenant that starts waiting cannot claim the share it did not use while it was idle.
+            calls = new Waiting(Math.max(virtualTime, permit.tenant.lastVirtualTime));
+            waiting.put(permit.tenant, calls);
+        }
+        calls.permits.add(permit);
+        waitingCalls++;
+    }
+
+    /**
+     * Make room in the full queue for a call of the given tenant by
+     * rejecting the newest call of the tenant with the most calls waiting,
+     * if it has at least two more than the given one.
+     * @return the call rejected, or null if none was.
+     */
+    private Permit pushOut(Tenant tenant) {
+        Waiting own = waiting.get(tenant);
+        int ownCalls = own == null ? 0 : own.permits.size();
+        Waiting largest = null;
+        for (Waiting calls : waiting.values()) {
+            if (largest == null || calls.permits.size() > largest.permits.size()) {
+                largest = calls;
+            }
+        }
+        if (largest == null || largest.permits.size() < ownCalls + 2) {
+            return null;
+        }
+        Permit newest = largest.permits.pollLast();
+        remove(newest, largest);
+        end(newest);
+        rejected++;
+        newest.tenant.rejected.incrementAndGet();
+        return newest;
+    }
+
+    private void remove(Permit permit, Waiting calls) {
+        waitingCalls--;
+        long nanos = System.nanoTime() - permit.created;
+        queueNanos += nanos;
+        permit.tenant.queueNanos.addAndGet(nanos);
+        if (calls.permits.isEmpty()) {
+            permit.tenant.lastVirtualTime = calls.virtualTime;
+            waiting.remove(permit.tenant);
+        }
+    }
+
+    /**
+     * Admit waiting calls while there is room for them: each time, the
+     * first call that a limit does not hold back, of the tenant that has
+     * had the least share of the calls admitted for its weight.
+     * @return the calls to start, outside the lock.
+     */
+    private List<Runnable> drain() {
+        List<Runnable> starts = new ArrayList<>();
+        while (global.hasRoom()) {
+            Waiting next = null;
+            Permit admissible = null;
+            for (Waiting calls : waiting.values()) {
+                if (next != null && calls.virtualTime >= next.virtualTime) {
+                    continue;
+                }
+                for (Permit permit : calls.permits) {
+                    if (permit.limiter.hasRoom() && permit.app.hasRoom()) {
+                        next = calls;
+                        admissible = permit;
+                        break;
+                    }
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            next.permits.remove(admissible);
+            virtualTime = next.virtualTime;
+            next.virtualTime += 1 / admissible.tenant.getWeight();
+            remove(admissible, next);
+            admissible.enter();
+            starts.add(admissible.start);
+        }
+        return starts;
+    }
+
+    /**
+     * Mark a permit released, and forget the limiter of its app once no
+     * call of the app is queued or in progress.
+     */
+    private void end(Permit permit) {
+        permit.state = Permit.RELEASED;
+        permit.app.permits--;
+        forget(permit.appId, permit.app);
+    }
+
+    private void forget(String appId, Limiter app) {
+        if (app.permits == 0) {
+            apps.remove(appId);
+        }
+    }
+
+    private void release(Permit permit, long latencyNanos, boolean overdue) {
+        List<Runnable> starts;
+        synchronized (this) {
+            if (permit.state == Permit.QUEUED) {
+                Waiting calls = waiting.get(permit.tenant);
+                calls.permits.remove(permit);
+                remove(permit, calls);
+                end(permit);
+                return;
+            }
+            if (permit.state != Permit.ADMITTED) {
+                return;
+            }
+            end(permit);
+            permit.tenant.inFlight.decrementAndGet();
+            global.sample(latencyNanos, overdue);
+            permit.limiter.sample(latencyNanos, overdue);
+            permit.app.sample(latencyNanos, overdue);
+            starts = drain();
+        }
+        for (Runnable start : starts) {
+            try {
+                start.run();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not start an admitted call.", e);
+            }
+        }
+    }
+
+    @Override
+    public String getAlgorithm() { return algorithm; }
+
+    @Override
+    public synchronized int getMaxLimit() { return global.getMax(); }
+
+    @Override
+    public synchronized int getLimit() { return global.get(); }
+
+    @Override
+    public synchronized int getInFlight() { return global.inFlight; }
+
+    @Override
+    public synchronized int getQueued() { return waitingCalls; }
+
+    @Override
+    public int getQueueSize() { return queueSize; }
+
+    @Override
+    public synchronized long getLatencyMicros() { return global.getBaseline() / 1000; }
+
+    @Override
+    public synchronized long getAdmittedCalls() { return admitted; }
+
+    @Override
+    public synchronized long getQueuedCalls() { return queued; }
+
+    @Override
+    public synchronized long getRejectedCalls() { return rejected; }
+
+    @Override
+    public synchronized long getQueueMillis() { return queueNanos / 1_000_000; }
+
+    @Override
+    public synchronized Map<String, Integer> getFunctionLimits() {
+        Map<String, Integer> limits = new TreeMap<>();
+        functions.forEach((name, limiter) -> {
+            if (limiter.limit != null) {
+                limits.put(name, limiter.get());
+            }
+        });
+        return limits;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getFunctionInFlight() {
+        Map<String, Integer> inFlight = new TreeMap<>();
+        functions.forEach((name, limiter) -> inFlight.put(name, limiter.inFlight));
+        return inFlight;
+    }
+
+    /**
+     * The calls in progress against one limit. Only used under the lock of
+     * the AdmissionControl.
+     */
+    private static final class Limiter {
+        // null if there is no limit.
+        private final ConcurrencyLimit limit;
+        private int inFlight;
+        // the permits queued or in progress against it; only counted for apps.
+        private int permits;
+
+        Limiter(ConcurrencyLimit limit) {
+            this.limit = limit;
+        }
+
+        boolean hasRoom() { return limit == null || inFlight < limit.get(); }
+
+        int get() { return limit == null ? 0 : limit.get(); }
+
+        int getMax() { return limit == null ? 0 : limit.max; }
+
+        long getBaseline() { return limit == null ? 0 : limit.getBaseline(); }
+
+        void sample(long latencyNanos, boolean overdue) {
+            if (limit != null) {
+                limit.sample(latencyNanos, inFlight, overdue);
+            }
+            inFlight--;
+        }
+    }
+
+    /**
+     * The calls of one tenant waiting to be admitted, oldest first, and the
+     * calls admitted for it so far divided by its weight.
+     */
+    private static final class Waiting {
+        private final ArrayDeque<Permit> permits = new ArrayDeque<>();
+        private double virtualTime;
+
+        Waiting(double virtualTime) {
+            this.virtualTime = virtualTime;
+        }
+    }
+
+    /**
+     * The right of one call to be in progress. It must be released when the
+     * call ends, however it ends, and may be released more than once.
+     */
+    public final class Permit {
+        private static final int QUEUED = 0;
+        private static final int ADMITTED = 1;
+        private static final int RELEASED = 2;
+
+        private final Limiter limiter;
+        private final String appId;
+        private final Limiter app;
+        private final Tenant tenant;
+        private final Runnable start;
+        private final Runnable reject;
+        private final long created = System.nanoTime();
+        // guarded by the AdmissionControl.
+        private int state = QUEUED;
+
+        private Permit(Limiter limiter, String appId, Limiter app, Tenant tenant, Runnable start, Runnable reject) {
+            this.limiter = limiter;
+            this.appId = appId;
+            this.app = app;
+            this.tenant = tenant;
+            this.start = start;
+            this.reject = reject;
+        }
+
+        private void enter() {
+            state = ADMITTED;
+            admitted++;
+            global.inFlight++;
+            limiter.inFlight++;
+            app.inFlight++;
+            tenant.calls.incrementAndGet();
+            tenant.inFlight.incrementAndGet();
+        }
+
+        /**
+         * Release the permit, letting in the next calls that are waiting, and
+         * adjust the limits to the latency of the call.
+         *
+         * @param latencyNanos the average time from receiving a batch of the
+         *                     call to having processed it, or -1 if it processed none.
+         * @param overdue true if the call ran out of time.
+         */
+        public void release(long latencyNanos, boolean overdue) {
+            AdmissionControl.this.release(this, latencyNanos, overdue);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.Map;
+
+/**
+ * Metrics for the calls let in, queued and rejected by AdmissionControl.
+ */
+public interface AdmissionControlMXBean {
+    /**
+     * @return the algorithm that moves the limits: fixed, aimd or gradient.
+     */
+    String getAlgorithm();
+
+    /**
+     * @return the configured limit on calls in progress at once, 0 for none.
+     */
+    int getMaxLimit();
+
+    /**
+     * @return the current limit on calls in progress at once, 0 for none.
+     */
+    int getLimit();
+
+    /**
+     * @return the number of calls in progress.
+     */
+    int getInFlight();
+
+    /**
+     * @return the number of calls waiting to be admitted.
+     */
+    int getQueued();
+
+    /**
+     * @return the most calls that may wait to be admitted.
+     */
+    int getQueueSize();
+
+    /**
+     * @return the long-term average latency per batch of the calls that ended, in microseconds, or 0 with no overall limit.
+     */
+    long getLatencyMicros();
+
+    /**
+     * @return the number of calls admitted since startup.
+     */
+    long getAdmittedCalls();
+
+    /**
+     * @return the number of calls that had to wait to be admitted.
+     */
+    long getQueuedCalls();
+
+    /**
+     * @return the number of calls rejected because the queue was full.
+     */
+    long getRejectedCalls();
+
+    /**
+     * @return the total time calls spent waiting to be admitted, in milliseconds.
+     */
+    long getQueueMillis();
+
+    /**
+     * @return the current limit of each function that has one.
+     */
+    Map<String, Integer> getFunctionLimits();
+
+    /**
+     * @return the number of calls in progress for each function called since startup.
+     */
+    Map<String, Integer> getFunctionInFlight();
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+/**
+ * A ConcurrencyLimit that grows by one for each call that keeps its usual
+ * latency, and shrinks by a tenth for each that takes more than twice as
+ * long per batch as the long-term average, or runs out of time.
+ */
+class AimdLimit extends ConcurrencyLimit {
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.9;
+
+    AimdLimit(int max) {
+        super(max, Math.ceil(max / 4.0));
+    }
+
+    @Override
+    void update(double latency, int inFlight, boolean overdue) {
+        if (overdue || latency > baseline * TOLERANCE) {
+            limit = limit * BACKOFF;
+        } else if (isUsed(inFlight)) {
+            limit = limit + 1;
+        }
+    }
+}
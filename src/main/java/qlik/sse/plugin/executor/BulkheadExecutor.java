@@ -0,0 +1,424 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import qlik.sse.plugin.executor.FairShare.Tenant;
+import qlik.sse.plugin.executor.PriorityPolicy.Priority;
+import qlik.sse.server.ServerProperties;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named, bounded thread pool. Functions are assigned to a bulkhead so that
+ * a slow function can only use up the threads and queue space of its own
+ * bulkhead, and cannot delay functions assigned to other bulkheads.
+ *
+ * At most maxConcurrency tasks run at a time and at most queueLimit more may
+ * wait. Anything beyond that is rejected with a RejectedExecutionException.
+ *
+ * Waiting tasks are taken by priority: those of INTERACTIVE streams ahead
+ * of those of BULK streams, and in the order they were submitted within
+ * each. So that bulk work is never starved, once interactiveBurst
+ * interactive tasks have been taken ahead of a waiting bulk task, the next
+ * bulk task is taken before any more interactive ones. Within a priority,
+ * the tasks of each Tenant are taken in order, and tenants share the
+ * threads in proportion to their weights (see FairQueue).
+ *
+ * Small calls to functions on an inline bulkhead may bypass it and be
+ * processed on the gRPC thread that receives them (see ExecutionStrategy);
+ * those calls are outside its limits.
+ *
+ * The tasks run either on a pool of maxConcurrency threads, or on threads
+ * started on demand by a thread-per-task executor, which is how virtual
+ * threads are meant to be used: nothing keeps them once there is no work.
+ * Either way at most maxConcurrency tasks run at a time.
+ */
+public class BulkheadExecutor implements Executor, BulkheadExecutorMXBean {
+    private final String name;
+    private final int maxConcurrency;
+    private final int queueLimit;
+    private final int interactiveBurst;
+    private final boolean inline;
+    private final ExecutorService threads;
+    private final boolean threadPerTask;
+    // the tasks waiting for a thread at each priority, the number of interactive
+    // tasks taken while a bulk task was waiting, and the number of threads started
+    // by a thread-per-task executor that have not finished. Guarded by this.
+    private final FairQueue interactive = new FairQueue();
+    private final FairQueue bulk = new FairQueue();
+    private int overtaken;
+    private int started;
+
+    private final AtomicInteger pending = new AtomicInteger();   // waiting + running
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a bulkhead.
+     *
+     * @param name the name of the bulkhead. Also used to name its threads.
+     * @param maxConcurrency the maximum number of tasks that run at the same time.
+     * @param queueLimit the maximum number of tasks that may wait for a thread.
+     */
+    public BulkheadExecutor(String name, int maxConcurrency, int queueLimit) {
+        this(name, maxConcurrency, queueLimit, platformThreadFactory(name));
+    }
+
+    /**
+     * Creates a bulkhead whose threads are created by the given factory.
+     *
+     * @param name the name of the bulkhead.
+     * @param maxConcurrency the maximum number of tasks that run at the same time.
+     * @param queueLimit the maximum number of tasks that may wait for a thread.
+     * @param threadFactory creates the threads that run the tasks.
+     */
+    public BulkheadExecutor(String name, int maxConcurrency, int queueLimit, ThreadFactory threadFactory) {
+        this(name, maxConcurrency, queueLimit,
+                Integer.parseInt(ServerProperties.PRIORITY_INTERACTIVE_BURST_DEFAULT), threadFactory);
+    }
+
+    /**
+     * Creates a bulkhead whose threads are created by the given factory.
+     *
+     * @param name the name of the bulkhead.
+     * @param maxConcurrency the maximum number of tasks that run at the same time.
+     * @param queueLimit the maximum number of tasks that may wait for a thread.
+     * @param interactiveBurst how many interactive tasks may be taken ahead of a waiting bulk task.
+     * @param threadFactory creates the threads that run the tasks.
+     */
+    public BulkheadExecutor(String name, int maxConcurrency, int queueLimit, int interactiveBurst,
+                            ThreadFactory threadFactory) {
+        this(name, maxConcurrency, queueLimit, interactiveBurst, false, threadFactory);
+    }
+
+    /**
+     * Creates a bulkhead whose threads are created by the given factory.
+     *
+     * @param name the name of the bulkhead.
+     * @param maxConcurrency the maximum number of tasks that run at the same time.
+     * @param queueLimit the maximum number of tasks that may wait for a thread.
+     * @param interactiveBurst how many interactive tasks may be taken ahead of a waiting bulk task.
+     * @param inline true if small calls may be processed inline instead of on the bulkhead.
+     * @param threadFactory creates the threads that run the tasks.
+     */
+    public BulkheadExecutor(String name, int maxConcurrency, int queueLimit, int interactiveBurst,
+                            boolean inline, ThreadFactory threadFactory) {
+        this(name, maxConcurrency, queueLimit, interactiveBurst, inline,
+                pool(maxConcurrency, threadFactory), false);
+    }
+
+    /**
+     * Creates a bulkhead that starts a thread for a task from a
+     * thread-per-task executor, e.g. VirtualThreads.newThreadPerTaskExecutor(),
+     * unless maxConcurrency of them are running already. A thread goes on to
+     * run the tasks that are waiting when it is done and ends when there are
+     * none.
+     *
+     * @param name the name of the bulkhead.
+     * @param maxConcurrency the maximum number of tasks that run at the same time.
+     * @param queueLimit the maximum number of tasks that may wait for a thread.
+     * @param interactiveBurst how many interactive tasks may be taken ahead of a waiting bulk task.
+     * @param inline true if small calls may be processed inline instead of on the bulkhead.
+     * @param threadPerTask starts the threads that run the tasks; shut down with the bulkhead.
+     */
+    public BulkheadExecutor(String name, int maxConcurrency, int queueLimit, int interactiveBurst,
+                            boolean inline, ExecutorService threadPerTask) {
+        this(name, maxConcurrency, queueLimit, interactiveBurst, inline, threadPerTask, true);
+    }
+
+    private BulkheadExecutor(String name, int maxConcurrency, int queueLimit, int interactiveBurst,
+                             boolean inline, ExecutorService threads, boolean threadPerTask) {
+        if (maxConcurrency < 1 || queueLimit < 0 || interactiveBurst < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid limits for executor %s: threads=%d queue=%d burst=%d",
+                    name, maxConcurrency, queueLimit, interactiveBurst));
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.queueLimit = queueLimit;
+        this.interactiveBurst = interactiveBurst;
+        this.inline = inline;
+        this.threads = threads;
+        this.threadPerTask = threadPerTask;
+    }
+
+    private static ThreadPoolExecutor pool(int maxConcurrency, ThreadFactory threadFactory) {
+        // the queue is bounded by admit(), not by the queue itself. Each task in it stands for
+        // whichever task next() picks when it runs.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, maxConcurrency), Math.max(1, maxConcurrency),
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Create a factory for the daemon platform threads used by default.
+     */
+    static ThreadFactory platformThreadFactory(String name) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "sse-" + name + "-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Run a task on this bulkhead, at bulk priority.
+     *
+     * @param task the task to run.
+     * @throws RejectedExecutionException if the bulkhead is full.
+     */
+    @Override
+    public void execute(Runnable task) {
+        admit();
+        submit(task, Priority.BULK, FairShare.NONE);
+    }
+
+    /**
+     * Create an executor that runs its tasks one at a time, in the order they
+     * were submitted, on this bulkhead's threads, at bulk priority.
+     *
+     * @return a new SerialExecutor.
+     */
+    public SerialExecutor newSerialExecutor() {
+        return new SerialExecutor(Priority.BULK, FairShare.NONE);
+    }
+
+    /**
+     * Create an executor that runs its tasks one at a time, in the order they
+     * were submitted, on this bulkhead's threads. Used to process the batches
+     * of a single stream in order.
+     *
+     * @param priority the priority of the stream.
+     * @param tenant the tenant the stream belongs to.
+     * @return a new SerialExecutor.
+     */
+    public SerialExecutor newSerialExecutor(Priority priority, Tenant tenant) {
+        return new SerialExecutor(priority, tenant);
+    }
+
+    /**
+     * Reserve space for one task.
+     */
+    private void admit() {
+        if (pending.incrementAndGet() > maxConcurrency + queueLimit) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(String.format(
+                    "Executor %s is full: %d running, %d queued.", name, active.get(), getQueueDepth()));
+        }
+    }
+
+    /**
+     * Queue an admitted task at its priority, and have a thread run the
+     * next task: one of the pool, or a new one unless maxConcurrency have
+     * been started, in which case the next of them to finish runs it.
+     */
+    private void submit(Runnable task, Priority priority, Tenant tenant) {
+        synchronized (this) {
+            (priority == Priority.INTERACTIVE ? interactive : bulk).add(task, tenant);
+            if (threadPerTask) {
+                if (started == maxConcurrency) {
+                    return;
+                }
+                started++;
+            }
+        }
+        threads.execute(threadPerTask ? this::runWhileWaiting : this::runNext);
+    }
+
+    /**
+     * Run the next task on a thread of the pool.
+     */
+    private void runNext() {
+        run(next());
+    }
+
+    /**
+     * Run the next task on a thread started for it, then the tasks that
+     * are waiting when it is done, so that a busy bulkhead does not hand
+     * every task over to a new thread. The thread ends when none are left.
+     */
+    private void runWhileWaiting() {
+        while (true) {
+            FairQueue.Task task;
+            synchronized (this) {
+                task = next();
+                if (task == null) {
+                    started--;
+                    return;
+                }
+            }
+            run(task);
+        }
+    }
+
+    /**
+     * Run a task that was next by priority and fair share, and charge its
+     * tenant for it.
+     */
+    private void run(FairQueue.Task task) {
+        long start = System.nanoTime();
+        active.incrementAndGet();
+        try {
+            task.runnable.run();
+        } finally {
+            long nanos = System.nanoTime() - start;
+            synchronized (this) {
+                task.queue.completed(task, nanos);
+            }
+            task.tenant.queueNanos.addAndGet(start - task.queued);
+            task.tenant.busyNanos.addAndGet(nanos);
+            task.tenant.batches.incrementAndGet();
+            active.decrementAndGet();
+            pending.decrementAndGet();
+            completed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Take the next task: an interactive one if any is waiting, unless
+     * interactiveBurst of them have already been taken ahead of a bulk one.
+     */
+    private synchronized FairQueue.Task next() {
+        if (!interactive.isEmpty() && (bulk.isEmpty() || overtaken < interactiveBurst)) {
+            if (!bulk.isEmpty()) {
+                overtaken++;
+            }
+            return interactive.poll();
+        }
+        overtaken = 0;
+        return bulk.poll();
+    }
+
+    /**
+     * Stop accepting tasks. Tasks that are already queued still run.
+     */
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public int getMaxConcurrency() { return maxConcurrency; }
+
+    @Override
+    public int getQueueLimit() { return queueLimit; }
+
+    @Override
+    public int getQueueDepth() { return Math.max(0, pending.get() - active.get()); }
+
+    @Override
+    public synchronized int getInteractiveQueueDepth() { return interactive.size(); }
+
+    @Override
+    public synchronized int getBulkQueueDepth() { return bulk.size(); }
+
+    @Override
+    public int getInteractiveBurst() { return interactiveBurst; }
+
+    @Override
+    public boolean isInline() { return inline; }
+
+    @Override
+    public int getActiveCount() { return active.get(); }
+
+    @Override
+    public long getCompletedCount() { return completed.get(); }
+
+    @Override
+    public long getRejectedCount() { return rejected.get(); }
+
+    /**
+     * Runs tasks one at a time, in submission order, on the threads of the
+     * enclosing BulkheadExecutor, at the priority of its stream and within
+     * the share of its tenant. Each task counts against the bulkhead's
+     * limits while it waits and runs.
+     */
+    public class SerialExecutor implements StreamExecutor {
+        private final Priority priority;
+        private final Tenant tenant;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        private SerialExecutor(Priority priority, Tenant tenant) {
+            this.priority = priority;
+            this.tenant = tenant;
+        }
+
+        /**
+         * Queue a task behind any tasks already submitted to this executor.
+         *
+         * @param task the task to run.
+         * @throws RejectedExecutionException if the bulkhead is full.
+         */
+        @Override
+        public void execute(Runnable task) {
+            admit();
+            enqueue(task);
+        }
+
+        /**
+         * Queue a task that must run even if the bulkhead is full, such as
+         * the one that completes a stream whose batches were admitted.
+         *
+         * @param task the task to run.
+         */
+        @Override
+        public void executeAlways(Runnable task) {
+            pending.incrementAndGet();
+            enqueue(task);
+        }
+
+        private synchronized void enqueue(Runnable task) {
+            tasks.add(task);
+            if (!running) {
+                running = true;
+                submit(this::runNext, priority, tenant);
+            }
+        }
+
+        private void runNext() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+            }
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        running = false;
+                    } else {
+                        submit(this::runNext, priority, tenant);
+                    }
+                }
+            }
+        }
+    }
+}
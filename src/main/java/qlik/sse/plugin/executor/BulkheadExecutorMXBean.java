@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+/**
+ * JMX view of a BulkheadExecutor.
+ */
+public interface BulkheadExecutorMXBean {
+    /**
+     * @return the name of the executor.
+     */
+    String getName();
+
+    /**
+     * @return the maximum number of batches processed at the same time.
+     */
+    int getMaxConcurrency();
+
+    /**
+     * @return the maximum number of batches that may wait for a thread.
+     */
+    int getQueueLimit();
+
+    /**
+     * @return the number of batches currently waiting for a thread.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of batches of interactive calls currently waiting for a thread.
+     */
+    int getInteractiveQueueDepth();
+
+    /**
+     * @return the number of batches of bulk calls currently waiting for a thread.
+     */
+    int getBulkQueueDepth();
+
+    /**
+     * @return how many interactive batches may be taken ahead of a waiting bulk batch.
+     */
+    int getInteractiveBurst();
+
+    /**
+     * @return true if small calls to its functions may be processed inline, outside its limits.
+     */
+    boolean isInline();
+
+    /**
+     * @return the number of batches currently being processed.
+     */
+    int getActiveCount();
+
+    /**
+     * @return the number of batches processed since startup.
+     */
+    long getCompletedCount();
+
+    /**
+     * @return the number of batches rejected because the queue was full.
+     */
+    long getRejectedCount();
+}
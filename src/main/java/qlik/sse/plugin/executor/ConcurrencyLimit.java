@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.Locale;
+
+/**
+ * The number of calls that may be in progress at once, which an adaptive
+ * algorithm moves between 1 and a configured maximum as it observes the
+ * latency of the calls that end. An adaptive limit starts at a quarter of
+ * the maximum, so that the usual latency is learnt before calls queue up.
+ *
+ * Latency is sampled per batch: the time from receiving a batch to having
+ * processed it, averaged over a call. It includes the time the batch waited
+ * for an executor thread, which is what grows first when too many calls
+ * are let in. Instances are not thread-safe; AdmissionControl calls them
+ * under its lock.
+ */
+abstract class ConcurrencyLimit {
+    /**
+     * The algorithms that can be set with qlik.sse.admission.algorithm.
+     */
+    enum Algorithm {
+        /**
+         * The limit stays at the configured maximum.
+         */
+        FIXED,
+        /**
+         * Additive increase, multiplicative decrease: the limit grows by one
+         * while calls keep their usual latency, and shrinks by a tenth when a
+         * call is much slower than usual or runs out of time.
+         */
+        AIMD,
+        /**
+         * The limit follows the ratio of the long-term to the recent latency,
+         * so it shrinks as soon as calls queue up and grows back once they no
+         * longer do.
+         */
+        GRADIENT
+    }
+
+    // the weight of each sample in the long-term latency. It follows falling latency
+    // faster than rising latency, which is mostly calls queueing up.
+    private static final double BASELINE_WEIGHT_UP = 0.002;
+    private static final double BASELINE_WEIGHT_DOWN = 0.05;
+
+    protected final int max;
+    protected double limit;
+    // the long-term average latency per batch, in nanoseconds; 0 until the first sample.
+    protected double baseline;
+
+    ConcurrencyLimit(int max, double initial) {
+        this.max = max;
+        this.limit = Math.max(1, Math.min(max, initial));
+    }
+
+    /**
+     * Create a limit.
+     *
+     * @param algorithm the name of the algorithm, as set in qlik.sse.admission.algorithm.
+     * @param max the most calls that may be in progress at once.
+     * @return the limit.
+     */
+    static ConcurrencyLimit create(String algorithm, int max) {
+        switch (Algorithm.valueOf(algorithm.trim().toUpperCase(Locale.ROOT))) {
+            case AIMD:
+                return new AimdLimit(max);
+            case GRADIENT:
+                return new GradientLimit(max);
+            case FIXED:
+            default:
+                return new ConcurrencyLimit(max, max) {
+                    @Override
+                    void update(double latency, int inFlight, boolean overdue) { }
+                };
+        }
+    }
+
+    /**
+     * Get the number of calls that may be in progress at once.
+     *
+     * @return the current limit, at least 1.
+     */
+    int get() { return (int) limit; }
+
+    /**
+     * Get the long-term average latency per batch.
+     *
+     * @return the latency in nanoseconds, or 0 before any call has ended.
+     */
+    long getBaseline() { return (long) baseline; }
+
+    /**
+     * Adjust the limit to a call that has ended.
+     *
+     * @param latencyNanos the average latency of the batches of the call, or -1 if it processed none.
+     * @param inFlight the number of calls in progress when it ended, including itself.
+     * @param overdue true if the call ran out of time.
+     */
+    void sample(long latencyNanos, int inFlight, boolean overdue) {
+        if (latencyNanos < 0 && !overdue) {
+            return;
+        }
+        double latency = Math.max(1, latencyNanos);
+        if (latencyNanos >= 0) {
+            baseline = baseline == 0 ? latency : baseline
+                    + (latency - baseline) * (latency > baseline ? BASELINE_WEIGHT_UP : BASELINE_WEIGHT_DOWN);
+        }
+        update(latency, inFlight, overdue);
+        limit = Math.max(1, Math.min(max, limit));
+    }
+
+    /**
+     * Move the limit after the long-term latency has taken in the sample.
+     */
+    abstract void update(double latency, int inFlight, boolean overdue);
+
+    /**
+     * Is the limit being used? While fewer than half the permitted calls are
+     * in progress, latency says nothing about whether more could be let in.
+     */
+    boolean isUsed(int inFlight) {
+        return inFlight * 2 >= limit;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static qlik.sse.server.ServerProperties.*;
+
+/**
+ * Chooses how the batches of a call are processed, from the cardinality
+ * Qlik sends in the qlik-commonrequestheader-bin header.
+ *
+ * Small calls, typically a chart asking for a few hundred values, are
+ * processed INLINE: on the gRPC thread that receives each batch, which
+ * saves the hand-off to an executor thread and keeps latency low. Larger
+ * calls, and calls whose cardinality is not known, such as a load script
+ * sending millions of rows, take the PARALLEL path: they are processed on
+ * the function's executor, within its limits, while the next batch is
+ * already being received and decoded.
+ *
+ * Processing inline trades isolation for latency: an inline call is not
+ * subject to the concurrency, queue, priority or fair-share limits of the
+ * function's executor, and a slow function ties up a gRPC thread. So only
+ * functions on an executor that allows it (by default only the "default"
+ * executor, see qlik.sse.executor.NAME.inline) are processed inline; the
+ * calls to all other functions take the PARALLEL path whatever their size.
+ *
+ * The limits are set with qlik.sse.inline.maxrows and
+ * qlik.sse.parallel.readahead. The number of calls (and rows) that took
+ * each path is published as the MBean qlik.sse:type=ExecutionStrategy.
+ */
+public class ExecutionStrategy implements ExecutionStrategyMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionStrategy.class);
+
+    /**
+     * The ways the batches of a call can be processed.
+     */
+    public enum Path {
+        /**
+         * On the gRPC thread that receives the batch.
+         */
+        INLINE,
+        /**
+         * On the function's executor, reading ahead.
+         */
+        PARALLEL
+    }
+
+    private final long inlineMaxRows;
+    private final int readAhead;
+    private final AtomicLong inlineCalls = new AtomicLong();
+    private final AtomicLong parallelCalls = new AtomicLong();
+    private final AtomicLong unknownCalls = new AtomicLong();
+    private final AtomicLong inlineRows = new AtomicLong();
+    private final AtomicLong parallelRows = new AtomicLong();
+
+    /**
+     * Creates a strategy configured from the given properties.
+     *
+     * @param props the application properties.
+     */
+    public ExecutionStrategy(Properties props) {
+        this.inlineMaxRows = Long.parseLong(props.getProperty(INLINE_MAX_ROWS, INLINE_MAX_ROWS_DEFAULT).trim());
+        this.readAhead = Math.max(0, Integer.parseInt(props.getProperty(READ_AHEAD, READ_AHEAD_DEFAULT).trim()));
+    }
+
+    /**
+     * Choose the path for a call, and count it.
+     *
+     * @param functionName the name of the function being called, for logging.
+     * @param cardinality the number of rows Qlik expects to send, or 0 if not known.
+     * @param inline true if the function's executor allows calls to be processed inline.
+     * @return the path.
+     */
+    public Path choose(String functionName, long cardinality, boolean inline) {
+        Path path;
+        if (cardinality <= 0) {
+            unknownCalls.incrementAndGet();
+            path = Path.PARALLEL;
+        } else if (inline && cardinality <= inlineMaxRows) {
+            path = Path.INLINE;
+        } else {
+            path = Path.PARALLEL;
+        }
+        if (path == Path.INLINE) {
+            inlineCalls.incrementAndGet();
+            inlineRows.addAndGet(cardinality);
+        } else {
+            parallelCalls.incrementAndGet();
+            parallelRows.addAndGet(Math.max(0, cardinality));
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Call to " + functionName + " with cardinality " + cardinality + " runs " + path + ".");
+        }
+        return path;
+    }
+
+    @Override
+    public long getInlineMaxRows() { return inlineMaxRows; }
+
+    @Override
+    public int getReadAhead() { return readAhead; }
+
+    @Override
+    public long getInlineCalls() { return inlineCalls.get(); }
+
+    @Override
+    public long getParallelCalls() { return parallelCalls.get(); }
+
+    @Override
+    public long getUnknownCardinalityCalls() { return unknownCalls.get(); }
+
+    @Override
+    public long getInlineRows() { return inlineRows.get(); }
+
+    @Override
+    public long getParallelRows() { return parallelRows.get(); }
+}
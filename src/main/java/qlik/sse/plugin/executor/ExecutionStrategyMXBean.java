@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+/**
+ * Metrics for the choice of execution path made by an ExecutionStrategy.
+ */
+public interface ExecutionStrategyMXBean {
+    /**
+     * @return the largest cardinality that is processed inline.
+     */
+    long getInlineMaxRows();
+
+    /**
+     * @return the number of batches received ahead of the one being processed on the parallel path.
+     */
+    int getReadAhead();
+
+    /**
+     * @return the number of calls processed inline since startup.
+     */
+    long getInlineCalls();
+
+    /**
+     * @return the number of calls processed on an executor since startup.
+     */
+    long getParallelCalls();
+
+    /**
+     * @return the number of calls that arrived without a cardinality.
+     */
+    long getUnknownCardinalityCalls();
+
+    /**
+     * @return the total cardinality of the calls processed inline.
+     */
+    long getInlineRows();
+
+    /**
+     * @return the total cardinality of the calls processed on an executor.
+     */
+    long getParallelRows();
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.plugin.PluginFunction;
+import qlik.sse.server.Metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static qlik.sse.server.ServerProperties.*;
+
+/**
+ * The set of named bulkhead executors available to a plugin.
+ *
+ * Executors are created on first use and sized from the application properties:
+ * <pre>
+ *     qlik.sse.executor.NAME.threads = 4
+ *     qlik.sse.executor.NAME.queue = 100
+ * </pre>
+ * Anything not configured takes the sizing of the "default" executor. Small
+ * calls to functions on the "default" executor may be processed inline (see
+ * ExecutionStrategy); other executors only allow that if configured with
+ * qlik.sse.executor.NAME.inline = true, so their limits hold for every call. All
+ * executors take qlik.sse.priority.interactive.burst interactive batches
+ * ahead of a waiting bulk batch.
+ * If qlik.sse.threads is "virtual" and virtual threads are available, the
+ * executors start virtual threads as tasks are queued instead of keeping
+ * a pool, and their threads setting only caps how many run at a time.
+ *
+ * A function runs on the executor named by the property
+ * qlik.sse.function.NAME.executor if present, otherwise on the executor
+ * assigned in its PluginCapabilities, otherwise on "default".
+ *
+ * When several plugins are hosted in one JVM, each has its own registry,
+ * and the names of its executors' threads and metrics are qualified by the
+ * name of the plugin (e.g. "secsse.fpe").
+ */
+public class ExecutorRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutorRegistry.class);
+
+    /**
+     * The name of the executor used by functions that have not been assigned one.
+     */
+    public static final String DEFAULT = "default";
+
+    private final Properties props;
+    private final boolean virtual;
+    private final int interactiveBurst;
+    private final Map<String, BulkheadExecutor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry configured from the given properties.
+     *
+     * @param props the application properties.
+     */
+    public ExecutorRegistry(Properties props) {
+        this.props = props;
+        this.virtual = useVirtualThreads(props);
+        this.interactiveBurst = Integer.parseInt(props.getProperty(PRIORITY_INTERACTIVE_BURST,
+                PRIORITY_INTERACTIVE_BURST_DEFAULT).trim());
+    }
+
+    /**
+     * Determine whether the application properties ask for virtual threads,
+     * and whether they can be provided.
+     *
+     * @param props the application properties.
+     * @return true if virtual threads should be used.
+     */
+    public static boolean useVirtualThreads(Properties props) {
+        if (!THREAD_TYPE_VIRTUAL.equalsIgnoreCase(props.getProperty(THREAD_TYPE, THREAD_TYPE_DEFAULT).trim())) {
+            return false;
+        }
+        if (!VirtualThreads.isSupported()) {
+            LOG.warn("Virtual threads were requested but are not available in this JVM / jar. Using platform threads.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the executor that should process batches for a function.
+     *
+     * @param function the function.
+     * @return the executor for that function.
+     */
+    public BulkheadExecutor forFunction(PluginFunction function) {
+        String name = props.getProperty(String.format(FUNCTION_EXECUTOR, function.getName()));
+        if (name == null) {
+            name = function.getExecutorName();
+        }
+        return get(name == null ? DEFAULT : name);
+    }
+
+    /**
+     * Get an executor by name, creating it if necessary.
+     *
+     * @param name the name of the executor.
+     * @return the executor.
+     */
+    public BulkheadExecutor get(String name) {
+        return executors.computeIfAbsent(name, this::create);
+    }
+
+    /**
+     * Get all of the executors created so far.
+     *
+     * @return the executors.
+     */
+    public Collection<BulkheadExecutor> getExecutors() {
+        return executors.values();
+    }
+
+    /**
+     * Shut down all executors.
+     */
+    public void shutdown() {
+        for (BulkheadExecutor executor : executors.values()) {
+            executor.shutdown();
+            Metrics.unregister("Executor", executor.getName());
+        }
+    }
+
+    private BulkheadExecutor create(String name) {
+        int threads = Integer.parseInt(property(name, EXECUTOR_THREADS));
+        int queue = Integer.parseInt(property(name, EXECUTOR_QUEUE));
+        // not taken from "default": a named executor must opt in to giving up its limits.
+        boolean inline = Boolean.parseBoolean(props.getProperty(String.format(EXECUTOR_INLINE, name),
+                DEFAULT.equals(name) ? EXECUTOR_INLINE_DEFAULT : "false").trim());
+        String scopedName = Metrics.scopedName(props, name);
+        BulkheadExecutor executor = virtual
+                ? new BulkheadExecutor(scopedName, threads, queue, interactiveBurst, inline,
+                        VirtualThreads.newThreadPerTaskExecutor("sse-" + scopedName))
+                : new BulkheadExecutor(scopedName, threads, queue, interactiveBurst, inline,
+                        BulkheadExecutor.platformThreadFactory(scopedName));
+        Metrics.register("Executor", scopedName, executor);
+        LOG.info(String.format("Created executor %s: threads=%d queue=%d inline=%b virtual=%b",
+                scopedName, threads, queue, inline, virtual));
+        return executor;
+    }
+
+    private String property(String name, String format) {
+        String value = props.getProperty(String.format(format, name));
+        if (value == null) {
+            value = props.getProperty(String.format(format, DEFAULT));
+        }
+        return value.trim();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import qlik.sse.plugin.executor.FairShare.Tenant;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tasks of one priority waiting for a thread of a BulkheadExecutor,
+ * queued per Tenant and taken so that each tenant with tasks waiting gets
+ * executor time in proportion to its weight.
+ *
+ * Each tenant has a virtual time: the executor time it has used, divided
+ * by its weight. The next task is that of the waiting tenant with the
+ * least virtual time, and tasks of the same tenant are taken in order. A
+ * task is charged the average time of the tenant's recent tasks when it is
+ * taken, so that a tenant does not get every free thread before its first
+ * task ends, and the difference when it ends. A tenant that starts waiting
+ * again starts from the virtual time of the last task taken, so it cannot
+ * claim the time it did not use while it was idle.
+ *
+ * Not thread-safe; the executor calls it under its lock.
+ */
+final class FairQueue {
+    private final Map<Tenant, Flow> flows = new HashMap<>();
+    private double virtualTime;
+    private int size;
+
+    /**
+     * Queue a task behind the other waiting tasks of its tenant.
+     */
+    void add(Runnable task, Tenant tenant) {
+        Flow flow = flows.get(tenant);
+        if (flow == null) {
+            flow = new Flow(tenant);
+            flows.put(tenant, flow);
+        }
+        if (flow.tasks.isEmpty() && flow.running == 0) {
+            flow.virtualTime = Math.max(flow.virtualTime, virtualTime);
+        }
+        flow.tasks.add(new Task(task, this, flow));
+        size++;
+    }
+
+    boolean isEmpty() { return size == 0; }
+
+    int size() { return size; }
+
+    /**
+     * Take the next task, or null if none is waiting.
+     */
+    Task poll() {
+        Flow next = null;
+        for (Flow flow : flows.values()) {
+            if (!flow.tasks.isEmpty() && (next == null || flow.virtualTime < next.virtualTime)) {
+                next = flow;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        Task task = next.tasks.poll();
+        size--;
+        virtualTime = next.virtualTime;
+        task.charged = next.averageNanos;
+        next.virtualTime += task.charged / next.tenant.getWeight();
+        next.running++;
+        return task;
+    }
+
+    /**
+     * Charge the tenant of a task for the time it actually took.
+     */
+    void completed(Task task, long nanos) {
+        Flow flow = task.flow;
+        flow.virtualTime += (nanos - task.charged) / flow.tenant.getWeight();
+        flow.averageNanos += (nanos - flow.averageNanos) / 8;
+        flow.running--;
+        if (flow.tasks.isEmpty() && flow.running == 0) {
+            flows.remove(flow.tenant);
+        }
+    }
+
+    /**
+     * The tasks of one tenant.
+     */
+    private static final class Flow {
+        private final Tenant tenant;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private double virtualTime;
+        private double averageNanos;
+        private int running;
+
+        Flow(Tenant tenant) {
+            this.tenant = tenant;
+        }
+    }
+
+    /**
+     * A waiting task, and what its tenant was charged for it.
+     */
+    static final class Task {
+        final Runnable runnable;
+        final Tenant tenant;
+        final FairQueue queue;
+        final long queued = System.nanoTime();
+        private final Flow flow;
+        private double charged;
+
+        private Task(Runnable runnable, FairQueue queue, Flow flow) {
+            this.runnable = runnable;
+            this.tenant = flow.tenant;
+            this.queue = queue;
+            this.flow = flow;
+        }
+    }
+}
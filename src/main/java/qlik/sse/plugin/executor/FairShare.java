@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static qlik.sse.server.ServerProperties.*;
+
+/**
+ * Shares the plugin between the Qlik apps (or users) that call it, so that
+ * one app reloading cannot take all of its capacity away from the others.
+ *
+ * Each call belongs to a Tenant: its app, its user, or both, as set with
+ * qlik.sse.fairshare.key and read from the qlik-commonrequestheader-bin
+ * header. AdmissionControl admits waiting calls, and a BulkheadExecutor
+ * runs waiting batches, so that each tenant with work waiting gets a share
+ * in proportion to its weight, which is read from qlik.sse.app.ID.weight
+ * (1 by default). Calls admitted are counted for the share of admission,
+ * and the time spent processing batches for the share of an executor.
+ * An app's calls in progress can also be capped, with qlik.sse.app.ID.limit
+ * or, for every app, qlik.sse.admission.app.limit.
+ *
+ * The calls, queue time and executor time of each tenant are published as
+ * the MBean qlik.sse:type=FairShare, to see which tenants are noisy
+ * neighbours. A tenant is kept for as long as the plugin runs.
+ */
+public class FairShare implements FairShareMXBean {
+    /**
+     * The tenant of work that does not belong to a call, such as tasks run
+     * with BulkheadExecutor.execute().
+     */
+    static final Tenant NONE = new Tenant("", 1);
+
+    /**
+     * What the calls are shared between.
+     */
+    enum Key {
+        /**
+         * Each app gets its share.
+         */
+        APP,
+        /**
+         * Each user gets its share, whatever app it uses.
+         */
+        USER,
+        /**
+         * Each user of each app gets its share; that of the app is its weight.
+         */
+        APP_USER
+    }
+
+    private final Properties props;
+    private final Key key;
+    private final int appLimit;
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    /**
+     * Creates fair sharing configured from the given properties.
+     *
+     * @param props the properties of the plugin.
+     */
+    public FairShare(Properties props) {
+        this.props = props;
+        this.key = Key.valueOf(props.getProperty(FAIRSHARE_KEY, FAIRSHARE_KEY_DEFAULT).trim()
+                .toUpperCase(Locale.ROOT).replace('+', '_'));
+        this.appLimit = Integer.parseInt(props.getProperty(ADMISSION_APP_LIMIT, ADMISSION_APP_LIMIT_DEFAULT).trim());
+    }
+
+    /**
+     * Get the tenant a call belongs to.
+     *
+     * @param appId the id of the app the call is made for, or "".
+     * @param userId the id of the user the call is made for, or "".
+     * @return the tenant.
+     */
+    public Tenant tenant(String appId, String userId) {
+        String name;
+        switch (key) {
+            case USER:
+                name = userId;
+                break;
+            case APP_USER:
+                name = appId + "/" + userId;
+                break;
+            case APP:
+            default:
+                name = appId;
+                break;
+        }
+        Tenant tenant = tenants.get(name);
+        if (tenant == null) {
+            tenant = tenants.computeIfAbsent(name, n -> new Tenant(n, key == Key.USER ? 1 : weight(appId)));
+        }
+        return tenant;
+    }
+
+    private double weight(String appId) {
+        String configured = props.getProperty(String.format(APP_WEIGHT, appId));
+        return configured == null ? 1 : Math.max(0.01, Double.parseDouble(configured.trim()));
+    }
+
+    /**
+     * Get the most calls for an app that may be in progress at once.
+     *
+     * @param appId the id of the app.
+     * @return the limit, or 0 for none.
+     */
+    int getAppLimit(String appId) {
+        String configured = props.getProperty(String.format(APP_LIMIT, appId));
+        return configured == null ? appLimit : Integer.parseInt(configured.trim());
+    }
+
+    @Override
+    public String getKey() { return key.name().toLowerCase(Locale.ROOT).replace('_', '+'); }
+
+    @Override
+    public Map<String, Double> getWeights() { return collect(t -> t.weight); }
+
+    @Override
+    public Map<String, Long> getCalls() { return collect(t -> t.calls.get()); }
+
+    @Override
+    public Map<String, Integer> getInFlight() { return collect(t -> t.inFlight.get()); }
+
+    @Override
+    public Map<String, Long> getRejectedCalls() { return collect(t -> t.rejected.get()); }
+
+    @Override
+    public Map<String, Long> getQueueMillis() { return collect(t -> t.queueNanos.get() / 1_000_000); }
+
+    @Override
+    public Map<String, Long> getBatches() { return collect(t -> t.batches.get()); }
+
+    @Override
+    public Map<String, Long> getBusyMillis() { return collect(t -> t.busyNanos.get() / 1_000_000); }
+
+    private <T> Map<String, T> collect(Function<Tenant, T> value) {
+        Map<String, T> values = new TreeMap<>();
+        tenants.forEach((name, tenant) -> values.put(name, value.apply(tenant)));
+        return values;
+    }
+
+    /**
+     * An app, user, or user of an app, that gets a fair share of the plugin.
+     */
+    public static final class Tenant {
+        private final String name;
+        private final double weight;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong queueNanos = new AtomicLong();
+        final AtomicLong batches = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        // the share of admitted calls the tenant had when it last stopped waiting. Guarded by AdmissionControl.
+        double lastVirtualTime;
+
+        private Tenant(String name, double weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        /**
+         * Get the name of the tenant: its app id, user id, or both separated by "/".
+         *
+         * @return the name.
+         */
+        public String getName() { return name; }
+
+        /**
+         * Get the share of the tenant relative to the others.
+         *
+         * @return the weight.
+         */
+        public double getWeight() { return weight; }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.Map;
+
+/**
+ * Metrics for the share of the plugin each tenant of a FairShare gets.
+ * Each map is keyed by the name of the tenant: its app id, user id, or both.
+ */
+public interface FairShareMXBean {
+    /**
+     * @return what calls are shared between: app, user or app+user.
+     */
+    String getKey();
+
+    /**
+     * @return the weight of each tenant.
+     */
+    Map<String, Double> getWeights();
+
+    /**
+     * @return the number of calls of each tenant admitted since startup.
+     */
+    Map<String, Long> getCalls();
+
+    /**
+     * @return the number of calls of each tenant in progress.
+     */
+    Map<String, Integer> getInFlight();
+
+    /**
+     * @return the number of calls of each tenant rejected because the admission queue was full.
+     */
+    Map<String, Long> getRejectedCalls();
+
+    /**
+     * @return the total time calls and batches of each tenant spent waiting to be admitted or run, in milliseconds.
+     */
+    Map<String, Long> getQueueMillis();
+
+    /**
+     * @return the number of batches of each tenant processed on an executor since startup.
+     */
+    Map<String, Long> getBatches();
+
+    /**
+     * @return the total time executor threads spent on the batches of each tenant, in milliseconds.
+     */
+    Map<String, Long> getBusyMillis();
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+/**
+ * A ConcurrencyLimit that is scaled by the gradient between the long-term
+ * and the recent latency per batch: when batches start to take longer than
+ * they usually do, calls are queueing for threads, and the limit is reduced
+ * in proportion. A small allowance, the square root of the limit, lets it
+ * grow back while latency stays level. The recent latency is averaged over
+ * a few calls, and the limit moves a fifth of the way to its new value on
+ * each, so that a single slow call does not halve it.
+ */
+class GradientLimit extends ConcurrencyLimit {
+    // how much slower than usual batches may get before the limit is reduced.
+    private static final double TOLERANCE = 1.5;
+    private static final double RECENT_WEIGHT = 0.2;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+
+    private double recent;
+
+    GradientLimit(int max) {
+        super(max, Math.ceil(max / 4.0));
+    }
+
+    @Override
+    void update(double latency, int inFlight, boolean overdue) {
+        if (overdue) {
+            limit = limit * BACKOFF;
+            return;
+        }
+        recent = recent == 0 ? latency : recent + (latency - recent) * RECENT_WEIGHT;
+        if (baseline > recent * 2) {
+            // latency has fallen for good, e.g. after warm-up: let the long-term average catch up.
+            baseline = baseline * 0.95;
+        }
+        if (!isUsed(inFlight)) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baseline / recent));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = limit * (1 - SMOOTHING) + target * SMOOTHING;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A StreamExecutor that runs tasks on the thread that submits them, which
+ * for a stream is the gRPC thread delivering its messages. A task submitted
+ * while another one is running (e.g. from within it) is queued and run by
+ * that thread once the running task is done, so tasks still run one at a
+ * time and in order. Tasks are never rejected.
+ */
+public class InlineExecutor implements StreamExecutor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            tasks.add(task);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        RuntimeException failure = null;
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                next = tasks.poll();
+                if (next == null) {
+                    running = false;
+                    break;
+                }
+            }
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                // keep going: the tasks behind it were submitted in the expectation that they run.
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void executeAlways(Runnable task) {
+        execute(task);
+    }
+}
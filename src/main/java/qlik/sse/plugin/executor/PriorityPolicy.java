@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static qlik.sse.server.ServerProperties.*;
+
+/**
+ * Chooses the priority at which the batches of a call are processed on an
+ * executor, from what Qlik sends in the qlik-commonrequestheader-bin header.
+ *
+ * A chart asking for the values of a few thousand rows is INTERACTIVE: a
+ * user is waiting for it, and its batches are taken ahead of those of BULK
+ * calls, such as a load script sending millions of rows, which only care
+ * about throughput (see BulkheadExecutor). The priority of a call is, in
+ * order:
+ * <ul>
+ *     <li>that set for its function with qlik.sse.function.NAME.priority;</li>
+ *     <li>BULK if its user or app matches qlik.sse.priority.bulk.users or
+ *     qlik.sse.priority.bulk.apps, e.g. the service account that runs reload tasks;</li>
+ *     <li>INTERACTIVE if its cardinality is known and at most
+ *     qlik.sse.priority.interactive.maxrows, else BULK.</li>
+ * </ul>
+ * The priorities set for functions are read when the policy is created, so
+ * a value that is not a priority fails the startup of the plugin rather
+ * than every call to the function. The number of calls given each
+ * priority is published as the MBean qlik.sse:type=PriorityPolicy.
+ */
+public class PriorityPolicy implements PriorityPolicyMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(PriorityPolicy.class);
+
+    /**
+     * The priorities at which batches are processed, highest first.
+     */
+    public enum Priority {
+        /**
+         * Calls a user is waiting for.
+         */
+        INTERACTIVE,
+        /**
+         * Calls that move many rows and care about throughput.
+         */
+        BULK
+    }
+
+    private final Map<String, Priority> functionPriorities = new HashMap<>();
+    private final long interactiveMaxRows;
+    private final Pattern bulkUsers;
+    private final Pattern bulkApps;
+    private final AtomicLong interactiveCalls = new AtomicLong();
+    private final AtomicLong bulkCalls = new AtomicLong();
+
+    /**
+     * Creates a policy configured from the given properties.
+     *
+     * @param props the properties of the plugin.
+     * @throws IllegalArgumentException if the priority set for a function is not a Priority.
+     */
+    public PriorityPolicy(Properties props) {
+        String prefix = FUNCTION_PRIORITY.substring(0, FUNCTION_PRIORITY.indexOf("%s"));
+        String suffix = FUNCTION_PRIORITY.substring(FUNCTION_PRIORITY.indexOf("%s") + 2);
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(prefix) && key.endsWith(suffix) && key.length() > prefix.length() + suffix.length()) {
+                functionPriorities.put(key.substring(prefix.length(), key.length() - suffix.length()),
+                        priority(key, props.getProperty(key)));
+            }
+        }
+        this.interactiveMaxRows = Long.parseLong(props.getProperty(PRIORITY_INTERACTIVE_MAX_ROWS,
+                PRIORITY_INTERACTIVE_MAX_ROWS_DEFAULT).trim());
+        this.bulkUsers = pattern(props.getProperty(PRIORITY_BULK_USERS, PRIORITY_BULK_USERS_DEFAULT));
+        this.bulkApps = pattern(props.getProperty(PRIORITY_BULK_APPS, PRIORITY_BULK_APPS_DEFAULT));
+    }
+
+    private static Priority priority(String key, String value) {
+        try {
+            return Priority.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid priority %s = %s: must be interactive or bulk.", key, value), e);
+        }
+    }
+
+    private static Pattern pattern(String regex) {
+        return regex.trim().isEmpty() ? null : Pattern.compile(regex.trim());
+    }
+
+    /**
+     * Choose the priority of a call, and count it.
+     *
+     * @param functionName the name of the function being called.
+     * @param appId the id of the app the call is made for, or "".
+     * @param userId the id of the user the call is made for, or "".
+     * @param cardinality the number of rows Qlik expects to send, or 0 if not known.
+     * @return the priority.
+     */
+    public Priority choose(String functionName, String appId, String userId, long cardinality) {
+        Priority priority = functionPriorities.get(functionName);
+        if (priority == null) {
+            if ((bulkUsers != null && bulkUsers.matcher(userId).matches())
+                    || (bulkApps != null && bulkApps.matcher(appId).matches())) {
+                priority = Priority.BULK;
+            } else if (cardinality > 0 && cardinality <= interactiveMaxRows) {
+                priority = Priority.INTERACTIVE;
+            } else {
+                priority = Priority.BULK;
+            }
+        }
+        (priority == Priority.INTERACTIVE ? interactiveCalls : bulkCalls).incrementAndGet();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Call to " + functionName + " with cardinality " + cardinality + " runs at " + priority + ".");
+        }
+        return priority;
+    }
+
+    @Override
+    public long getInteractiveMaxRows() { return interactiveMaxRows; }
+
+    @Override
+    public long getInteractiveCalls() { return interactiveCalls.get(); }
+
+    @Override
+    public long getBulkCalls() { return bulkCalls.get(); }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+/**
+ * Metrics for the priorities chosen by a PriorityPolicy.
+ */
+public interface PriorityPolicyMXBean {
+    /**
+     * @return the largest cardinality that is processed at interactive priority.
+     */
+    long getInteractiveMaxRows();
+
+    /**
+     * @return the number of calls processed on an executor at interactive priority since startup.
+     */
+    long getInteractiveCalls();
+
+    /**
+     * @return the number of calls processed on an executor at bulk priority since startup.
+     */
+    long getBulkCalls();
+}
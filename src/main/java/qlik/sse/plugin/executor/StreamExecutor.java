@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks of a single stream one at a time, in the order they were
+ * submitted.
+ */
+public interface StreamExecutor extends Executor {
+
+    /**
+     * Queue a task behind any tasks already submitted.
+     *
+     * @param task the task to run.
+     * @throws java.util.concurrent.RejectedExecutionException if there is no room for the task.
+     */
+    @Override
+    void execute(Runnable task);
+
+    /**
+     * Queue a task that must run even if there is no room for more tasks,
+     * such as the one that completes a stream whose batches were admitted.
+     *
+     * @param task the task to run.
+     */
+    void executeAlways(Runnable task);
+}
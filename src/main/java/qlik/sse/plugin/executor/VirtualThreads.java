@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads.
+ *
+ * This is the Java 8 version of the class, used when running on a JVM
+ * older than 21 or from a jar built without the jdk21 profile. Virtual
+ * threads are not available and every factory method throws
+ * UnsupportedOperationException. The jdk21 profile builds a multi-release
+ * jar that replaces this class with one that supports them.
+ */
+public final class VirtualThreads {
+
+    /**
+     * Determine whether virtual threads can be used.
+     * @return false; this version of the class does not support them.
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * Create a factory for virtual threads.
+     * @param prefix the prefix for the names of the threads.
+     * @return never returns normally.
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 and a jar built with the jdk21 profile.");
+    }
+
+    /**
+     * Create an executor that runs each task on a new virtual thread.
+     * @param prefix the prefix for the names of the threads.
+     * @return never returns normally.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 and a jar built with the jdk21 profile.");
+    }
+
+    /**
+     * private to prevent explicit object creation
+     */
+    private VirtualThreads() { super(); }
+}
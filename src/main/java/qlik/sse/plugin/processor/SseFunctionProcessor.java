@@ -0,0 +1,350 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.processor;
+
+import qlik.sse.ServerSideExtension.Capabilities;
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.FunctionDefinition;
+import qlik.sse.ServerSideExtension.FunctionType;
+import qlik.sse.ServerSideExtension.Parameter;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a FunctionRegistry for each PluginCapabilities class that has
+ * functions declared with SseFunction.
+ *
+ * The registry for SampleCapabilities is SampleCapabilitiesRegistry, in
+ * the same package. Its newFunction() creates and defines a function by
+ * id with a switch, and its getSerializedFunctions() returns the
+ * FunctionDefinitions as they were serialized by this processor, so there
+ * is nothing to look up, reflect on or encode when the plugin starts or
+ * answers GetCapabilities, and no function has to be created to answer it.
+ *
+ * Mistakes in the declarations (a duplicate id, a function that cannot be
+ * created, a class that is not a scalar, tensor or aggregation function)
+ * are reported as compile errors on the annotated element.
+ */
+@SupportedAnnotationTypes(SseFunctionProcessor.ANNOTATION)
+public class SseFunctionProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "qlik.sse.plugin.SseFunction";
+    private static final String PLUGIN = "qlik.sse.plugin.";
+    private static final int MAX_ID = 65535;
+    private static final int CHUNK = 80;
+
+    /**
+     * A function declared with SseFunction.
+     */
+    private static final class Declaration {
+        Element element;
+        String create;
+        int id;
+        String name;
+        String returnType;
+        String functionType;
+        List<String[]> params = new ArrayList<>();
+        boolean cache;
+        String executor;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        Elements elements = processingEnv.getElementUtils();
+        TypeElement annotation = elements.getTypeElement(ANNOTATION);
+        if (annotation == null || annotations.isEmpty()) {
+            return false;
+        }
+        Map<TypeElement, List<Declaration>> registries = new LinkedHashMap<>();
+        for (Element element : round.getElementsAnnotatedWith(annotation)) {
+            for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+                if (mirror.getAnnotationType().asElement().equals(annotation)) {
+                    declare(element, mirror, registries);
+                }
+            }
+        }
+        for (Map.Entry<TypeElement, List<Declaration>> registry : registries.entrySet()) {
+            generate(registry.getKey(), registry.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Check a declaration and add it to the registry of its capabilities class.
+     */
+    private void declare(Element element, AnnotationMirror mirror, Map<TypeElement, List<Declaration>> registries) {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        Map<String, AnnotationValue> values = new LinkedHashMap<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            values.put(value.getKey().getSimpleName().toString(), value.getValue());
+        }
+
+        Declaration declaration = new Declaration();
+        declaration.element = element;
+        declaration.id = (Integer) values.get("id").getValue();
+        declaration.name = (String) values.get("name").getValue();
+        declaration.returnType = ((VariableElement) values.get("returnType").getValue()).getSimpleName().toString();
+        declaration.cache = (Boolean) values.get("cache").getValue();
+        declaration.executor = (String) values.get("executor").getValue();
+        for (Object param : (List<?>) values.get("params").getValue()) {
+            AnnotationMirror p = (AnnotationMirror) ((AnnotationValue) param).getValue();
+            String name = null;
+            String type = null;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                    : elements.getElementValuesWithDefaults(p).entrySet()) {
+                if (value.getKey().getSimpleName().contentEquals("name")) {
+                    name = (String) value.getValue().getValue();
+                } else {
+                    type = ((VariableElement) value.getValue().getValue()).getSimpleName().toString();
+                }
+            }
+            declaration.params.add(new String[]{name, type});
+        }
+
+        TypeMirror pluginFunction = type(PLUGIN + "PluginFunction");
+        TypeMirror pluginCapabilities = type(PLUGIN + "PluginCapabilities");
+        TypeMirror created;
+        TypeElement capabilities = (TypeElement) types.asElement((TypeMirror) values.get("capabilities").getValue());
+        if (element.getKind() == ElementKind.CLASS) {
+            TypeElement function = (TypeElement) element;
+            if (!function.getModifiers().contains(Modifier.PUBLIC) || function.getModifiers().contains(Modifier.ABSTRACT)
+                    || (function.getNestingKind().isNested() && !function.getModifiers().contains(Modifier.STATIC))
+                    || !hasPublicConstructor(function)) {
+                error(element, "An @SseFunction class must be public and concrete, with a public no-argument constructor.");
+                return;
+            }
+            if (types.isSameType(capabilities.asType(), pluginCapabilities)) {
+                error(element, "An @SseFunction class must name the capabilities class it belongs to.");
+                return;
+            }
+            created = function.asType();
+            declaration.create = "new " + function.getQualifiedName() + "()";
+        } else {
+            ExecutableElement method = (ExecutableElement) element;
+            TypeElement enclosing = (TypeElement) method.getEnclosingElement();
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || !method.getModifiers().contains(Modifier.STATIC)
+                    || !method.getParameters().isEmpty() || !enclosing.getModifiers().contains(Modifier.PUBLIC)) {
+                error(element, "An @SseFunction method must be public, static and take no arguments.");
+                return;
+            }
+            if (types.isSameType(capabilities.asType(), pluginCapabilities)) {
+                capabilities = enclosing;
+            }
+            created = method.getReturnType();
+            declaration.create = enclosing.getQualifiedName() + "." + method.getSimpleName() + "()";
+        }
+        if (!types.isAssignable(types.erasure(created), pluginFunction)) {
+            error(element, "An @SseFunction must be a PluginFunction.");
+            return;
+        }
+        if (!types.isAssignable(types.erasure(capabilities.asType()), pluginCapabilities)
+                || types.isSameType(capabilities.asType(), pluginCapabilities)) {
+            error(element, capabilities.getQualifiedName() + " is not a PluginCapabilities class.");
+            return;
+        }
+        declaration.functionType = functionType(created);
+        if (declaration.functionType == null) {
+            error(element, "An @SseFunction must extend ScalarFunction, TensorFunction or AggregationFunction.");
+            return;
+        }
+        if (declaration.id < 0 || declaration.id > MAX_ID) {
+            error(element, "Function id " + declaration.id + " is not between 0 and " + MAX_ID + ".");
+            return;
+        }
+        List<Declaration> registry = registries.computeIfAbsent(capabilities, k -> new ArrayList<>());
+        for (Declaration other : registry) {
+            if (other.id == declaration.id) {
+                error(element, "Function id " + declaration.id + " of " + capabilities.getSimpleName()
+                        + " is already used by " + other.name + ".");
+                return;
+            }
+        }
+        registry.add(declaration);
+    }
+
+    private boolean hasPublicConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String functionType(TypeMirror created) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror erased = types.erasure(created);
+        if (types.isAssignable(erased, type(PLUGIN + "ScalarFunction"))) {
+            return FunctionType.SCALAR.name();
+        } else if (types.isAssignable(erased, type(PLUGIN + "TensorFunction"))) {
+            return FunctionType.TENSOR.name();
+        } else if (types.isAssignable(erased, type(PLUGIN + "AggregationFunction"))) {
+            return FunctionType.AGGREGATION.name();
+        }
+        return null;
+    }
+
+    private TypeMirror type(String name) {
+        return processingEnv.getTypeUtils().erasure(processingEnv.getElementUtils().getTypeElement(name).asType());
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Write the registry of a capabilities class.
+     */
+    private void generate(TypeElement capabilities, List<Declaration> declarations) {
+        declarations.sort(Comparator.comparingInt(d -> d.id));
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(capabilities);
+        String packageName = pkg.getQualifiedName().toString();
+        String className = capabilities.getQualifiedName().toString()
+                .substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('.', '_') + "Registry";
+
+        Capabilities.Builder definitions = Capabilities.newBuilder();
+        for (Declaration d : declarations) {
+            FunctionDefinition.Builder definition = FunctionDefinition.newBuilder()
+                    .setName(d.name)
+                    .setFunctionId(d.id)
+                    .setFunctionType(FunctionType.valueOf(d.functionType))
+                    .setReturnType(DataType.valueOf(d.returnType));
+            for (String[] param : d.params) {
+                definition.addParams(Parameter.newBuilder().setName(param[0]).setDataType(DataType.valueOf(param[1])));
+            }
+            definitions.addFunctions(definition);
+        }
+        // only the functions field is set, so this is exactly that field's encoding.
+        String serialized = new String(definitions.build().toByteArray(), StandardCharsets.ISO_8859_1);
+
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by ").append(SseFunctionProcessor.class.getName())
+                .append(" from the @SseFunction declarations of ").append(capabilities.getSimpleName())
+                .append(". Do not edit.\n");
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("import qlik.sse.ServerSideExtension.DataType;\n");
+        out.append("import qlik.sse.plugin.FunctionRegistry;\n");
+        out.append("import qlik.sse.plugin.PluginFunction;\n\n");
+        out.append("import java.nio.charset.StandardCharsets;\n\n");
+        out.append("/**\n * The functions of ").append(capabilities.getQualifiedName()).append(".\n */\n");
+        out.append("public final class ").append(className).append(" extends FunctionRegistry {\n");
+        out.append("    // the FunctionDefinitions, serialized as the functions field of Capabilities, one char per byte.\n");
+        out.append("    private static final String FUNCTIONS =\n");
+        for (int i = 0; i < serialized.length() || i == 0; i += CHUNK) {
+            out.append(i == 0 ? "            " : "            + ")
+                    .append(literal(serialized.substring(i, Math.min(serialized.length(), i + CHUNK)))).append("\n");
+        }
+        out.append("            ;\n\n");
+        out.append("    private static final int[] IDS = {");
+        for (int i = 0; i < declarations.size(); i++) {
+            out.append(i == 0 ? "" : ", ").append(declarations.get(i).id);
+        }
+        out.append("};\n\n");
+        out.append("    @Override\n");
+        out.append("    public int[] getFunctionIds() {\n");
+        out.append("        return IDS.clone();\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    public PluginFunction newFunction(int functionId) {\n");
+        out.append("        switch (functionId) {\n");
+        for (Declaration d : declarations) {
+            out.append("            case ").append(d.id).append(":\n");
+            out.append("                return define(").append(d.create).append(", ")
+                    .append(literal(d.name)).append(", ").append(d.id).append(", DataType.").append(d.returnType)
+                    .append(", ").append(d.cache ? "PluginFunction.CACHE" : "PluginFunction.NO_CACHE")
+                    .append(", ").append(literal(d.executor));
+            for (String[] param : d.params) {
+                out.append(",\n                        param(").append(literal(param[0])).append(", DataType.").append(param[1]).append(")");
+            }
+            out.append(");\n");
+        }
+        out.append("            default:\n");
+        out.append("                throw new IllegalArgumentException(\"No function with id \" + functionId + \".\");\n");
+        out.append("        }\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    public byte[] getSerializedFunctions() {\n");
+        out.append("        return FUNCTIONS.getBytes(StandardCharsets.ISO_8859_1);\n");
+        out.append("    }\n");
+        out.append("}\n");
+
+        List<Element> origins = new ArrayList<>();
+        origins.add(capabilities);
+        for (Declaration d : declarations) {
+            origins.add(d.element);
+        }
+        String qualified = packageName.isEmpty() ? className : packageName + "." + className;
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(qualified, origins.toArray(new Element[0])).openWriter()) {
+            writer.write(out.toString());
+        } catch (IOException e) {
+            error(capabilities, "Could not write " + qualified + ": " + e);
+        }
+    }
+
+    /**
+     * Quote a string as a Java literal, escaping anything that is not printable ASCII.
+     */
+    private static String literal(String s) {
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c >= 0x20 && c < 0x7f) {
+                out.append(c);
+            } else if (c < 0x100) {
+                // octal: javac would turn a unicode escape of a line break into a real one.
+                out.append(String.format("\\%03o", (int) c));
+            } else {
+                out.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return out.append('"').toString();
+    }
+}
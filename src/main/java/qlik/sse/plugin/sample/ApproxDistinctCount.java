@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.DataType;
+
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.StatefulAggregationFunction;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
+import qlik.sse.plugin.stats.HyperLogLog;
+
+/**
+ * This function estimates the number of distinct values in the given column
+ * with a HyperLogLog sketch, using 16 KB per stream however many rows there
+ * are. The estimate is typically within 1% of the exact count.
+ */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.APPROX_DISTINCT_COUNT,
+        name = "ApproxDistinctCount", returnType = DataType.NUMERIC,
+        params = @Param(name = "column", type = DataType.STRING))
+public class ApproxDistinctCount extends StatefulAggregationFunction<HyperLogLog> {
+    private static final Logger LOG = LoggerFactory.getLogger(ApproxDistinctCount.class);
+
+    /**
+     * Initializes the class.
+     */
+    public ApproxDistinctCount() {
+    }
+
+    @Override
+    protected HyperLogLog newState() {
+        return new HyperLogLog();
+    }
+
+    /**
+     * Adds the values of the column to the sketch. Values are hashed as
+     * UTF-8 bytes, without being decoded. Empty values are nulls and are
+     * not counted. It is called from onNext() in the plugin.
+     *
+     * @param columns the columns we are to operate on
+     * @param sketch the sketch of this stream
+     */
+    @Override
+    public void aggregation(ColumnarBatch columns, HyperLogLog sketch) {
+        LOG.debug("Function ApproxDistinctCount called.");
+        StringColumn values = columns.getStringColumn(0);
+        byte[] buffer = values.buffer();
+        for (int r = 0; r < columns.getRowCount(); r++) {
+            CallContext.checkCancelled(r);
+            int length = values.length(r);
+            if (length > 0) {
+                sketch.add(buffer, values.offset(r), length);
+            }
+        }
+        LOG.debug("Function ApproxDistinctCount completed.");
+    }
+
+    /**
+     * Returns the estimated number of distinct values. It is called from
+     * onCompleted() in the plugin.
+     *
+     * @param sketch the sketch of this stream
+     * @param out where the result is written.
+     */
+    @Override
+    public void reduce(HyperLogLog sketch, ResultWriter out) {
+        out.addRow((double) sketch.cardinality());
+    }
+}
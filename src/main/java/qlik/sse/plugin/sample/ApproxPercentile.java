@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.DataType;
+
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.StatefulAggregationFunction;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.DoubleColumn;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.stats.KllSketch;
+
+/**
+ * This function estimates a percentile of the given column with a KLL
+ * sketch, like Qlik's Fractile() but in a few KB per stream however many
+ * rows there are. The fraction is taken from the first row and defaults to
+ * 0.5 (the median). Nulls are ignored.
+ */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.APPROX_PERCENTILE,
+        name = "ApproxPercentile", returnType = DataType.NUMERIC,
+        params = {@Param(name = "column", type = DataType.NUMERIC),
+                  @Param(name = "fraction", type = DataType.NUMERIC)})
+public class ApproxPercentile extends StatefulAggregationFunction<ApproxPercentile.State> {
+    private static final Logger LOG = LoggerFactory.getLogger(ApproxPercentile.class);
+
+    /**
+     * The sketch of a stream and the fraction that was asked for.
+     */
+    static final class State {
+        final KllSketch sketch = new KllSketch();
+        double fraction = Double.NaN;
+    }
+
+    /**
+     * Initializes the class.
+     */
+    public ApproxPercentile() {
+    }
+
+    @Override
+    protected State newState() {
+        return new State();
+    }
+
+    /**
+     * Adds the values of the column to the sketch. It is called from
+     * onNext() in the plugin.
+     *
+     * @param columns the columns we are to operate on
+     * @param state the sketch of this stream
+     */
+    @Override
+    public void aggregation(ColumnarBatch columns, State state) {
+        LOG.debug("Function ApproxPercentile called.");
+        if (Double.isNaN(state.fraction) && columns.getRowCount() > 0) {
+            state.fraction = columns.getColumnCount() > 1 ? columns.getDoubleColumn(1).get(0) : 0.5;
+        }
+        DoubleColumn values = columns.getDoubleColumn(0);
+        state.sketch.add(values.values(), 0, values.size());
+        LOG.debug("Function ApproxPercentile completed.");
+    }
+
+    /**
+     * Returns the estimated percentile. It is called from onCompleted() in
+     * the plugin.
+     *
+     * @param state the sketch of this stream
+     * @param out where the result is written.
+     */
+    @Override
+    public void reduce(State state, ResultWriter out) {
+        out.addRow(state.sketch.quantile(state.fraction));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.DataType;
+
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.StatefulAggregationFunction;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
+import qlik.sse.plugin.stats.HeavyHitters;
+
+import java.util.Map;
+
+/**
+ * This function finds the 10 most frequent values of the given column with
+ * a count-min sketch, and returns them as "value (count), value (count), ..."
+ * in order of frequency. Counts are estimates that may be slightly high.
+ * Memory per stream is fixed (about 80 KB). Empty values are nulls and are
+ * not counted.
+ */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.APPROX_TOP_VALUES,
+        name = "ApproxTopValues", returnType = DataType.STRING,
+        params = @Param(name = "column", type = DataType.STRING))
+public class ApproxTopValues extends StatefulAggregationFunction<HeavyHitters> {
+    private static final Logger LOG = LoggerFactory.getLogger(ApproxTopValues.class);
+
+    /**
+     * Initializes the class.
+     */
+    public ApproxTopValues() {
+    }
+
+    @Override
+    protected HeavyHitters newState() {
+        return new HeavyHitters();
+    }
+
+    /**
+     * Counts the values of the column. It is called from onNext() in the
+     * plugin.
+     *
+     * @param columns the columns we are to operate on
+     * @param counts the counts of this stream
+     */
+    @Override
+    public void aggregation(ColumnarBatch columns, HeavyHitters counts) {
+        LOG.debug("Function ApproxTopValues called.");
+        StringColumn values = columns.getStringColumn(0);
+        byte[] buffer = values.buffer();
+        for (int r = 0; r < columns.getRowCount(); r++) {
+            CallContext.checkCancelled(r);
+            int length = values.length(r);
+            if (length > 0) {
+                counts.add(buffer, values.offset(r), length);
+            }
+        }
+        LOG.debug("Function ApproxTopValues completed.");
+    }
+
+    /**
+     * Returns the most frequent values with their counts. It is called from
+     * onCompleted() in the plugin.
+     *
+     * @param counts the counts of this stream
+     * @param out where the result is written.
+     */
+    @Override
+    public void reduce(HeavyHitters counts, ResultWriter out) {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Long> entry : counts.top()) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(entry.getKey()).append(" (").append(entry.getValue()).append(')');
+        }
+        out.addRow(result.toString());
+    }
+}
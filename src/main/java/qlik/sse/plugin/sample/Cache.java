@@ -17,22 +17,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 /**
  * This function returns the column data with the date appended to
  * the column value. The function has engine caching enabled (the default),
  * so subsequent calls won't re-execute.
  */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.CACHE,
+        name = "Cache", returnType = DataType.STRING,
+        params = @Param(name = "columnOfStrings", type = DataType.STRING))
 public class Cache extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(Cache.class);
 
@@ -41,18 +43,6 @@ public class Cache extends TensorFunction {
      */
     public Cache() {
         super();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "Cache";
-        int functionId = SampleCapabilities.CACHE;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("columnOfStrings")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name,functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -64,19 +54,25 @@ public class Cache extends TensorFunction {
      */
     @Override
     public BundledRows tensor(BundledRows rows) {
-        LOG.debug("Function Cache called.");
-        BundledRows.Builder bundledRowsBuilder = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
-        Dual.Builder dualBuilder;
+        ResultWriter out = ResultWriter.building();
+        tensor(InputBatch.of(rows), out);
+        return out.toBatch().getRows();
+    }
 
-        for(Row row : rows.getRowsList()) {
-            String str = String.format("%s---%s", row.getDuals(0).getStrData(), new Date().toString());
-            rowBuilder = Row.newBuilder();
-            dualBuilder = Dual.newBuilder();
-            bundledRowsBuilder.addRows(rowBuilder.addDuals(dualBuilder.setStrData(str)));
+    /**
+     * The execution logic for this SSE function, writing each result
+     * straight to the wire format.
+     *
+     * @param batch the rows we are to operate on
+     * @param out where the result set is written
+     */
+    @Override
+    public void tensor(InputBatch batch, ResultWriter out) {
+        LOG.debug("Function Cache called.");
+        for(Row row : batch.getRows().getRowsList()) {
+            out.addRow(String.format("%s---%s", row.getDuals(0).getStrData(), new Date().toString()));
         }
         LOG.debug("Function Cache completed.");
-        return bundledRowsBuilder.build();
     }
 
 }
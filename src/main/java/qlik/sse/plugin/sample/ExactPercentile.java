@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.DataType;
+
+import qlik.sse.plugin.DatasetTensorFunction;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.staging.Dataset;
+
+/**
+ * This function computes the exact percentile of the given column over all
+ * of its rows, like Qlik's Fractile(), and returns it on every row (e.g. to
+ * compare each value with the median in a load script). The fraction is
+ * taken from the first row and defaults to 0.5 (the median); values between
+ * two ranks are interpolated. Nulls are ignored.
+ *
+ * Unlike ApproxPercentile, this keeps every value: the rows are staged off
+ * the heap until the last batch has arrived, and then sorted.
+ */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.EXACT_PERCENTILE,
+        name = "ExactPercentile", returnType = DataType.NUMERIC,
+        params = {@Param(name = "column", type = DataType.NUMERIC),
+                  @Param(name = "fraction", type = DataType.NUMERIC)})
+public class ExactPercentile extends DatasetTensorFunction<Double> {
+    private static final Logger LOG = LoggerFactory.getLogger(ExactPercentile.class);
+
+    /**
+     * Initializes the class.
+     */
+    public ExactPercentile() {
+    }
+
+    /**
+     * Sorts the values and computes the percentile. It is called from
+     * onCompleted() in the plugin.
+     *
+     * @param data every row of the stream
+     * @return the percentile, or NaN if there are no values
+     */
+    @Override
+    public Double prepare(Dataset data) {
+        LOG.debug("Function ExactPercentile sorting " + data.getRowCount() + " rows.");
+        double fraction = data.getColumnCount() > 1 ? data.getNum(1, 0) : 0.5;
+        double[] sorted = data.sortedNumbers(0);
+        if (sorted.length == 0 || Double.isNaN(fraction)) {
+            return Double.NaN;
+        }
+        double position = Math.min(1, Math.max(0, fraction)) * (sorted.length - 1);
+        int lower = (int) position;
+        if (lower == sorted.length - 1) {
+            return sorted[lower];
+        }
+        return sorted[lower] + (position - lower) * (sorted[lower + 1] - sorted[lower]);
+    }
+
+    /**
+     * Writes the percentile on each row.
+     *
+     * @param data every row of the stream
+     * @param percentile the percentile
+     * @param from the first row to write
+     * @param to the row after the last row to write
+     * @param out where the results are written
+     */
+    @Override
+    public void write(Dataset data, Double percentile, int from, int to, ResultWriter out) {
+        double value = percentile;
+        for (int r = from; r < to; r++) {
+            out.addRow(value);
+        }
+    }
+}
@@ -17,19 +17,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * A simple function that returns the data it is passed without
  * any alteration. It is a smoke test to verify that the Qlik Sense
  * engine can can communicate with this SSE plugin. A message
  * gets logged by the logger on this side of things.
  */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.HELLO_WORLD,
+        name = "HelloWorld", returnType = DataType.STRING,
+        params = @Param(name = "str1", type = DataType.STRING))
 public class HelloWorld extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(HelloWorld.class);
 
@@ -38,18 +38,6 @@ public class HelloWorld extends TensorFunction {
      */
     public HelloWorld() {
         super();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "HelloWorld";
-        int functionId = SampleCapabilities.HELLO_WORLD;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("str1")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name,functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
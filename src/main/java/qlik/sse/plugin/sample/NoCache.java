@@ -16,17 +16,17 @@ package qlik.sse.plugin.sample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
 import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 /**
  * This function returns the column data with the date appended to
@@ -34,6 +34,9 @@ import java.util.List;
  * so subsequent calls will execute and cause another date to be appended
  * to the column.
  */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.NO_CACHE,
+        name = "NoCache", returnType = DataType.STRING, cache = PluginFunction.NO_CACHE,
+        params = @Param(name = "columnOfStrings", type = DataType.STRING))
 public class NoCache extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(NoCache.class);
 
@@ -42,18 +45,6 @@ public class NoCache extends TensorFunction {
      */
     public NoCache() {
         super();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "NoCache";
-        int functionId = SampleCapabilities.NO_CACHE;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("columnOfStrings")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name,functionId, returnType, parms, PluginFunction.NO_CACHE);
     }
 
     /**
@@ -65,20 +56,25 @@ public class NoCache extends TensorFunction {
      */
     @Override
     public BundledRows tensor(BundledRows rows) {
-        LOG.debug("Function NoCache called.");
-
-        BundledRows.Builder bundledRowsBuilder = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
-        Dual.Builder dualBuilder;
+        ResultWriter out = ResultWriter.building();
+        tensor(InputBatch.of(rows), out);
+        return out.toBatch().getRows();
+    }
 
-        for(Row row : rows.getRowsList()) {
-            String str = String.format("%s+++%s", row.getDuals(0).getStrData(), new Date().toString());
-            rowBuilder = Row.newBuilder();
-            dualBuilder = Dual.newBuilder();
-            bundledRowsBuilder.addRows(rowBuilder.addDuals(dualBuilder.setStrData(str)));
+    /**
+     * The execution logic for this SSE function, writing each result
+     * straight to the wire format.
+     *
+     * @param batch the rows we are to operate on
+     * @param out where the result set is written
+     */
+    @Override
+    public void tensor(InputBatch batch, ResultWriter out) {
+        LOG.debug("Function NoCache called.");
+        for(Row row : batch.getRows().getRowsList()) {
+            out.addRow(String.format("%s+++%s", row.getDuals(0).getStrData(), new Date().toString()));
         }
         LOG.debug("Function NoCache completed.");
-        return bundledRowsBuilder.build();
     }
 
 }
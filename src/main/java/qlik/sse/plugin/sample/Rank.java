@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.DataType;
+
+import qlik.sse.plugin.DatasetTensorFunction;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.staging.Dataset;
+
+import java.util.Arrays;
+
+/**
+ * This function returns the rank of each value of the given column among
+ * all of its values, 1 for the smallest. Equal values get the same (lowest)
+ * rank, and the rank after a tie skips accordingly ("1, 2, 2, 4"). Nulls
+ * are not ranked and return null.
+ *
+ * The ranks depend on every row, so nothing is returned until the last
+ * batch has arrived; the rows are staged off the heap in the meantime.
+ */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.RANK,
+        name = "Rank", returnType = DataType.NUMERIC,
+        params = @Param(name = "column", type = DataType.NUMERIC))
+public class Rank extends DatasetTensorFunction<double[]> {
+    private static final Logger LOG = LoggerFactory.getLogger(Rank.class);
+
+    /**
+     * Initializes the class.
+     */
+    public Rank() {
+    }
+
+    /**
+     * Sorts the values. It is called from onCompleted() in the plugin.
+     *
+     * @param data every row of the stream
+     * @return the non-null values in ascending order
+     */
+    @Override
+    public double[] prepare(Dataset data) {
+        LOG.debug("Function Rank sorting " + data.getRowCount() + " rows.");
+        return data.sortedNumbers(0);
+    }
+
+    /**
+     * Writes the rank of each row: one more than the number of smaller values.
+     *
+     * @param data every row of the stream
+     * @param sorted the non-null values in ascending order
+     * @param from the first row to write
+     * @param to the row after the last row to write
+     * @param out where the results are written
+     */
+    @Override
+    public void write(Dataset data, double[] sorted, int from, int to, ResultWriter out) {
+        for (int r = from; r < to; r++) {
+            double value = data.getNum(0, r);
+            out.addRow(Double.isNaN(value) ? Double.NaN : lowerBound(sorted, value) + 1);
+        }
+    }
+
+    /**
+     * The index of the first value that is not less than the given value.
+     */
+    private static int lowerBound(double[] sorted, double value) {
+        int index = Arrays.binarySearch(sorted, value);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && sorted[index - 1] == value) {
+            index--;
+        }
+        return index;
+    }
+}
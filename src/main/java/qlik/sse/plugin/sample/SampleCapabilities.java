@@ -15,7 +15,12 @@ package qlik.sse.plugin.sample;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.DataType;
 import qlik.sse.plugin.PluginCapabilities;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.stats.NumericAggregation;
+import qlik.sse.plugin.stats.NumericAggregation.Statistic;
 
 /**
  * The function IDs for the functions associated with this
@@ -30,24 +35,86 @@ public class SampleCapabilities extends PluginCapabilities {
     public static final int STRING_AGGREGATION = 3;
     public static final int CACHE = 4;
     public static final int NO_CACHE = 5;
+    public static final int MEAN_OF_COLUMN = 6;
+    public static final int MIN_OF_COLUMN = 7;
+    public static final int MAX_OF_COLUMN = 8;
+    public static final int COUNT_OF_COLUMN = 9;
+    public static final int VARIANCE_OF_COLUMN = 10;
+    public static final int STDDEV_OF_COLUMN = 11;
+    public static final int APPROX_DISTINCT_COUNT = 12;
+    public static final int APPROX_PERCENTILE = 13;
+    public static final int APPROX_TOP_VALUES = 14;
+    public static final int RANK = 15;
+    public static final int EXACT_PERCENTILE = 16;
+    public static final int SERIES = 17;
 
     private static final boolean allowScripts = true;
     private static final String pluginIdentifier = "Qlik java plugin basic example"; // a short descriptive identifier.
     private static final String pluginVersion = "v1.0.0";
 
     /**
-     * Constructor. Builds a Map of functions.
+     * Constructor. Adds the functions declared with SseFunction, which are
+     * the function classes of this package and the methods below.
      */
     public SampleCapabilities() {
         super();
         LOG.debug("initializing plugin capabilities");
         setPluginInfo(pluginIdentifier, pluginVersion, allowScripts);
-        putFunction(HELLO_WORLD, new HelloWorld());
-        putFunction(SUM_OF_ROWS, new SumOfRows());
-        putFunction(SUM_OF_COLUMN, new SumOfColumn());
-        putFunction(STRING_AGGREGATION, new StringAggregation());
-        putFunction(CACHE, new Cache());
-        putFunction(NO_CACHE, new NoCache());
+        putFunctions(new SampleCapabilitiesRegistry());
+    }
+
+    /**
+     * @return a function that returns the mean of a numeric column.
+     */
+    @SseFunction(id = MEAN_OF_COLUMN, name = "MeanOfColumn", returnType = DataType.NUMERIC,
+            params = @Param(name = "column", type = DataType.NUMERIC))
+    public static NumericAggregation meanOfColumn() {
+        return new NumericAggregation(Statistic.MEAN);
+    }
+
+    /**
+     * @return a function that returns the minimum of a numeric column.
+     */
+    @SseFunction(id = MIN_OF_COLUMN, name = "MinOfColumn", returnType = DataType.NUMERIC,
+            params = @Param(name = "column", type = DataType.NUMERIC))
+    public static NumericAggregation minOfColumn() {
+        return new NumericAggregation(Statistic.MIN);
+    }
+
+    /**
+     * @return a function that returns the maximum of a numeric column.
+     */
+    @SseFunction(id = MAX_OF_COLUMN, name = "MaxOfColumn", returnType = DataType.NUMERIC,
+            params = @Param(name = "column", type = DataType.NUMERIC))
+    public static NumericAggregation maxOfColumn() {
+        return new NumericAggregation(Statistic.MAX);
+    }
+
+    /**
+     * @return a function that returns the count of the values of a numeric column.
+     */
+    @SseFunction(id = COUNT_OF_COLUMN, name = "CountOfColumn", returnType = DataType.NUMERIC,
+            params = @Param(name = "column", type = DataType.NUMERIC))
+    public static NumericAggregation countOfColumn() {
+        return new NumericAggregation(Statistic.COUNT);
+    }
+
+    /**
+     * @return a function that returns the sample variance of a numeric column.
+     */
+    @SseFunction(id = VARIANCE_OF_COLUMN, name = "VarianceOfColumn", returnType = DataType.NUMERIC,
+            params = @Param(name = "column", type = DataType.NUMERIC))
+    public static NumericAggregation varianceOfColumn() {
+        return new NumericAggregation(Statistic.VARIANCE);
+    }
+
+    /**
+     * @return a function that returns the sample standard deviation of a numeric column.
+     */
+    @SseFunction(id = STDDEV_OF_COLUMN, name = "StdDevOfColumn", returnType = DataType.NUMERIC,
+            params = @Param(name = "column", type = DataType.NUMERIC))
+    public static NumericAggregation stdDevOfColumn() {
+        return new NumericAggregation(Statistic.STDDEV);
     }
 
 }
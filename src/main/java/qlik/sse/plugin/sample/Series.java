@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.sample;
+
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.TableDescription;
+
+import qlik.sse.plugin.GeneratorFunction;
+import qlik.sse.plugin.RowSource;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.DoubleColumn;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+
+/**
+ * This function returns a table with a single field "Value" that holds the
+ * numbers from start to end (inclusive) in increments of step, for each
+ * row it receives. Step defaults to 1; a step that never reaches the end
+ * returns no rows. For example, in a load script:
+ *
+ * <pre>
+ *     Numbers: LOAD * EXTENSION JavaSSE.Series(Ranges{start, end, step});
+ * </pre>
+ *
+ * The numbers are generated as the client reads them, so a single row can
+ * produce millions of rows without holding them in memory.
+ */
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.SERIES,
+        name = "Series", returnType = DataType.NUMERIC,
+        params = {@Param(name = "start", type = DataType.NUMERIC),
+                  @Param(name = "end", type = DataType.NUMERIC),
+                  @Param(name = "step", type = DataType.NUMERIC)})
+public class Series extends GeneratorFunction {
+
+    /**
+     * Initializes the class.
+     */
+    public Series() {
+        setTableDescription(TableDescription.newBuilder()
+                .setName("Series")
+                .addFields(field("Value", DataType.NUMERIC))
+                .build());
+    }
+
+    /**
+     * Returns the numbers for each row of the batch. It is called from
+     * onNext() in the plugin.
+     *
+     * @param batch the rows we are to operate on
+     * @return the numbers, generated on demand
+     */
+    @Override
+    public RowSource generate(InputBatch batch) {
+        ColumnarBatch columns = batch.getColumns(getParms());
+        DoubleColumn starts = columns.getDoubleColumn(0);
+        DoubleColumn ends = columns.getDoubleColumn(1);
+        DoubleColumn steps = columns.getColumnCount() > 2 ? columns.getDoubleColumn(2) : null;
+        int rowCount = columns.getRowCount();
+
+        return new RowSource() {
+            private int row = -1;
+            private long index;
+            private long count;
+            private double start;
+            private double step;
+
+            @Override
+            public boolean next(ResultWriter out, int maxRows) {
+                int written = 0;
+                while (written < maxRows) {
+                    if (index == count) {
+                        if (++row == rowCount) {
+                            return false;
+                        }
+                        start(row);
+                        continue;
+                    }
+                    out.addRow(start + index++ * step);
+                    written++;
+                }
+                return true;
+            }
+
+            /**
+             * Work out how many numbers a row produces.
+             */
+            private void start(int r) {
+                start = starts.get(r);
+                step = steps == null || steps.get(r) == 0 || Double.isNaN(steps.get(r)) ? 1 : steps.get(r);
+                double last = Math.floor((ends.get(r) - start) / step);
+                count = last >= 0 ? (long) last + 1 : 0;  // NaN or a step away from the end: none
+                index = 0;
+            }
+        };
+    }
+}
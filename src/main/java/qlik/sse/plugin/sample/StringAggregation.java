@@ -13,43 +13,72 @@
  */
 package qlik.sse.plugin.sample;
 
+import io.grpc.Status;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
-import qlik.sse.ServerSideExtension.BundledRows;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.AggregationFunction;
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.StatefulAggregationFunction;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
+import qlik.sse.plugin.staging.SpillBuffer;
+import qlik.sse.server.PluginServer;
+import qlik.sse.server.ServerProperties;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
 
 /**
  * This function aggregates the values of the given column as a concatenated string.
+ *
+ * Values are joined with the separator set by
+ * qlik.sse.plugin.stringaggregation.separator (none by default); empty
+ * values are nulls and are skipped. The result is built from the UTF-8 bytes
+ * of the values, on the heap while it is small and in a memory-mapped
+ * temporary file once it grows past qlik.sse.plugin.stringaggregation.spillbytes.
+ *
+ * The result is returned in a single message, so it is capped at
+ * qlik.sse.plugin.stringaggregation.maxbytes. A result that would be larger
+ * is either cut at the limit and ended with "..." (overflow = truncate, the
+ * default), or the call ends with RESOURCE_EXHAUSTED (overflow = fail).
  */
-public class StringAggregation extends AggregationFunction {
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.STRING_AGGREGATION,
+        name = "StringAggregation", returnType = DataType.STRING,
+        params = @Param(name = "columnOfStrings", type = DataType.STRING))
+public class StringAggregation extends StatefulAggregationFunction<StringAggregation.Concatenation> {
     private static final Logger LOG = LoggerFactory.getLogger(StringAggregation.class);
+    private static final byte[] ELLIPSIS = "...".getBytes(StandardCharsets.UTF_8);
 
-    private final StringBuilder result = new StringBuilder();
+    private final byte[] separator;
+    private final int maxBytes;
+    private final int spillBytes;
+    private final boolean failOnOverflow;
 
     /**
      * Initializes the class.
      */
     public StringAggregation() {
-        List<Parameter> parms = new ArrayList<>();
-        String name = "StringAggregation";
-        int functionId = SampleCapabilities.STRING_AGGREGATION;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("columnOfStrings")
-                .setDataType(DataType.STRING)
-                .build());
+        Properties props = PluginServer.getProperties();
+        if (props == null) {
+            props = ServerProperties.getDefaultProperties();
+        }
+        separator = props.getProperty(ServerProperties.STRING_AGGREGATION_SEPARATOR,
+                ServerProperties.STRING_AGGREGATION_SEPARATOR_DEFAULT).getBytes(StandardCharsets.UTF_8);
+        maxBytes = Math.max(ELLIPSIS.length, Integer.parseInt(props.getProperty(
+                ServerProperties.STRING_AGGREGATION_MAX_BYTES, ServerProperties.STRING_AGGREGATION_MAX_BYTES_DEFAULT).trim()));
+        spillBytes = Integer.parseInt(props.getProperty(
+                ServerProperties.STRING_AGGREGATION_SPILL_BYTES, ServerProperties.STRING_AGGREGATION_SPILL_BYTES_DEFAULT).trim());
+        failOnOverflow = ServerProperties.STRING_AGGREGATION_OVERFLOW_FAIL.equalsIgnoreCase(props.getProperty(
+                ServerProperties.STRING_AGGREGATION_OVERFLOW, ServerProperties.STRING_AGGREGATION_OVERFLOW_DEFAULT).trim());
+    }
 
-        init(name,functionId, returnType, parms, PluginFunction.CACHE);
+    @Override
+    protected Concatenation newState() {
+        return new Concatenation(new SpillBuffer(Math.min(spillBytes, maxBytes)));
     }
 
     /**
@@ -59,32 +88,112 @@ public class StringAggregation extends AggregationFunction {
      *
      * It is called from onNext() in the plugin.
      *
-     * @param rows the rows we are to operate on
+     * @param columns the columns we are to operate on
+     * @param result the result of this stream so far
      */
     @Override
-    public void aggregation (BundledRows rows) {
+    public void aggregation(ColumnarBatch columns, Concatenation result) {
         LOG.debug("Function StringAggregation called.");
-        StringBuilder strBuilder = new StringBuilder();
-        for(Row row : rows.getRowsList()) {
-            strBuilder.append(row.getDuals(0).getStrData());
+        if (result.truncated) {
+            return;  // the rest of the values would be cut off anyway
+        }
+        StringColumn values = columns.getStringColumn(0);
+        byte[] buffer = values.buffer();
+        SpillBuffer bytes = result.bytes;
+        for (int r = 0; r < columns.getRowCount(); r++) {
+            CallContext.checkCancelled(r);
+            int length = values.length(r);
+            if (length == 0) {
+                continue;
+            }
+            int offset = values.offset(r);
+            int sep = bytes.size() > 0 ? separator.length : 0;
+            if ((long) bytes.size() + sep + length > maxBytes) {
+                overflow(result, buffer, offset, length);
+                return;
+            }
+            if (sep > 0) {
+                bytes.write(separator);
+            }
+            bytes.write(buffer, offset, length);
         }
-        result.append(strBuilder.toString());
         LOG.debug("Function StringAggregation completed.");
     }
 
     /**
-     * Aggregation is complete. Combine intermediate results.
+     * Aggregation is complete. Return the concatenated values.
      *
      * It is called from onCompleted() in the plugin.
      *
-     * @return the accumulated total as an instance of BundledRows.
+     * @param result the result of this stream
+     * @param out where the result is written.
      */
-    public BundledRows reduce() {
-        String output = result.toString();
-        result.setLength(0);  // reset the buffer for next time.
+    @Override
+    public void reduce(Concatenation result, ResultWriter out) {
+        out.addRow(result.bytes.contents());
+    }
 
-        BundledRows.Builder bundledRowsBuilder = BundledRows.newBuilder();
-        return bundledRowsBuilder.addRows(Row.newBuilder()
-                .addDuals(Dual.newBuilder().setStrData(output))).build();
+    /**
+     * The next value does not fit: fill up to the limit and end with "...",
+     * or give up.
+     */
+    private void overflow(Concatenation result, byte[] value, int offset, int length) {
+        if (failOnOverflow) {
+            throw Status.RESOURCE_EXHAUSTED
+                    .withDescription("StringAggregation result exceeds the limit of " + maxBytes
+                            + " bytes (" + ServerProperties.STRING_AGGREGATION_MAX_BYTES + ")")
+                    .asRuntimeException();
+        }
+        SpillBuffer bytes = result.bytes;
+        int room = maxBytes - ELLIPSIS.length;
+        if (bytes.size() > room) {
+            while (room > 0 && isContinuation(bytes.get(room))) {
+                room--;
+            }
+            bytes.truncate(room);
+        } else {
+            int sep = bytes.size() > 0 ? separator.length : 0;
+            if (bytes.size() + sep < room) {
+                if (sep > 0) {
+                    bytes.write(separator);
+                }
+                int prefix = Math.min(length, room - bytes.size());
+                while (prefix > 0 && prefix < length && isContinuation(value[offset + prefix])) {
+                    prefix--;
+                }
+                bytes.write(value, offset, prefix);
+            }
+        }
+        bytes.write(ELLIPSIS);
+        result.truncated = true;
+        LOG.warn("StringAggregation result truncated to " + maxBytes + " bytes ("
+                + ServerProperties.STRING_AGGREGATION_MAX_BYTES + ").");
+    }
+
+    /**
+     * Is this byte the second, third or fourth byte of a UTF-8 sequence?
+     */
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * The result of one stream. Closing it deletes the spill file, if any.
+     */
+    public static final class Concatenation implements AutoCloseable {
+        final SpillBuffer bytes;
+        boolean truncated;
+
+        Concatenation(SpillBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Release the bytes of the result.
+         */
+        @Override
+        public void close() {
+            bytes.close();
+        }
     }
 }
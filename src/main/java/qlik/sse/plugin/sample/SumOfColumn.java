@@ -13,81 +13,27 @@
  */
 package qlik.sse.plugin.sample;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import qlik.sse.ServerSideExtension;
-import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.AggregationFunction;
-import qlik.sse.plugin.PluginFunction;
-
-import java.util.ArrayList;
-import java.util.List;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.stats.NumericAggregation;
 
 /**
  * This function aggregates the values of the given column.
+ *
+ * The total is kept per stream with compensated summation; see
+ * NumericAggregation for the other statistics available.
  */
-public class SumOfColumn extends AggregationFunction {
-    private static final Logger LOG = LoggerFactory.getLogger(SumOfColumn.class);
-
-    private final List<Double> results = new ArrayList<>();
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.SUM_OF_COLUMN,
+        name = "SumOfColumn", returnType = DataType.NUMERIC,
+        params = @Param(name = "column", type = DataType.NUMERIC))
+public class SumOfColumn extends NumericAggregation {
 
     /**
      * Initializes the class.
      */
     public SumOfColumn() {
-        List<Parameter> parms = new ArrayList<>();
-        String name = "SumOfColumn";
-        int functionId = SampleCapabilities.SUM_OF_COLUMN;
-        DataType returnType = DataType.NUMERIC;
-
-        parms.add(Parameter.newBuilder()
-                .setName("column")
-                .setDataType(DataType.NUMERIC)
-                .build());
-
-        init(name,functionId, returnType, parms, PluginFunction.CACHE);
-    }
-
-    /**
-     * The execution logic for this SSE function. In this case, it
-     * totals the values of the column. It is called from onNext()
-     * in the plugin.
-     *
-     * @param rows the rows we are to operate on
-     */
-    @Override
-    public void aggregation (BundledRows rows) {
-        LOG.debug("Function SumOfColumn called.");
-        double columnSum = 0;
-        for(ServerSideExtension.Row row : rows.getRowsList()) {
-            columnSum += row.getDuals(0).getNumData();
-        }
-
-        LOG.debug("Function SumOfColumn completed.");
-        results.add(columnSum);
-    }
-
-    /**
-     * This function aggregates the total values that we have
-     * accumulated from multiple calls to aggregation(). It is called
-     * from onCompleted() in the plugin.
-     *
-     * @return the accumulated total as an instance of BundledRows.
-     */
-    public BundledRows reduce() {
-        double sum = 0;
-        for(double d : results) {
-            sum += d;
-        }
-        LOG.debug("sum(List<Double>) completed with sum: " + sum + ".");
-        results.clear();  // reset for next time
-        BundledRows.Builder bundledRowsBuilder = BundledRows.newBuilder();
-        return bundledRowsBuilder.addRows(Row.newBuilder()
-                        .addDuals(Dual.newBuilder().setNumData(sum))).build();
+        super(Statistic.SUM);
     }
 }
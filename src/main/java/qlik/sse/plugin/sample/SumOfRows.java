@@ -16,23 +16,23 @@ package qlik.sse.plugin.sample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
-import qlik.sse.plugin.TensorFunction;
-
-import java.util.ArrayList;
-import java.util.List;
+import qlik.sse.plugin.ColumnarTensorFunction;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.DoubleColumn;
 
 /**
  * This function adds the values of the two columns that are passed
  * in as parameters for each row.
  */
-public class SumOfRows extends TensorFunction {
+@SseFunction(capabilities = SampleCapabilities.class, id = SampleCapabilities.SUM_OF_ROWS,
+        name = "SumOfRows", returnType = DataType.NUMERIC,
+        params = {@Param(name = "col1", type = DataType.NUMERIC),
+                  @Param(name = "col2", type = DataType.NUMERIC)})
+public class SumOfRows extends ColumnarTensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(SumOfRows.class);
 
     /**
@@ -40,22 +40,6 @@ public class SumOfRows extends TensorFunction {
      */
     public SumOfRows() {
         super();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "SumOfRows";
-        int functionId = SampleCapabilities.SUM_OF_ROWS;
-        DataType returnType = DataType.NUMERIC;
-
-        parms.add(Parameter.newBuilder()
-                .setName("col1")
-                .setDataType(DataType.NUMERIC)
-                .build());
-        parms.add(Parameter.newBuilder()
-                .setName("col2")
-                .setDataType(DataType.NUMERIC)
-                .build());
-
-        init(name,functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -63,27 +47,21 @@ public class SumOfRows extends TensorFunction {
      * the parameters (col1 and col2) that we receive as arguments for
      * each row.
      *
-     * @param rows the rows we are to operate on
+     * @param columns the columns we are to operate on
      * @return the result set
      */
     @Override
-    public BundledRows tensor (BundledRows rows) {
+    public ColumnarBatch tensor(ColumnarBatch columns) {
         LOG.debug("Function SumOfRows called.");
-        BundledRows.Builder result = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
-        Dual.Builder dualBuilder;
-        double rowSum;
-        for(Row row : rows.getRowsList()) {
-            rowBuilder = Row.newBuilder();
-            dualBuilder = Dual.newBuilder();
-            rowSum = 0;
-            for(Dual dual : row.getDualsList()) {
-                rowSum += dual.getNumData();
+        double[] rowSums = new double[columns.getRowCount()];
+        for (int c = 0; c < columns.getColumnCount(); c++) {
+            double[] values = columns.getDoubleColumn(c).values();
+            for (int r = 0; r < rowSums.length; r++) {
+                rowSums[r] += values[r];
             }
-            result.addRows(rowBuilder.addDuals(dualBuilder.setNumData(rowSum)));
         }
         LOG.debug("Function SumOfRows completed.");
-        return result.build();
+        return new ColumnarBatch(new DoubleColumn(rowSums));
     }
 
 }
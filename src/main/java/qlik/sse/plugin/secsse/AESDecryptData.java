@@ -16,20 +16,24 @@ package qlik.sse.plugin.secsse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
-
-import java.util.ArrayList;
-import java.util.List;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
 
 /**
  * This function uses AES to encrypt string columns that are passed to it.
  */
+@SseFunction(capabilities = SecSSECapabilities.class, id = SecSSECapabilities.AES_DECRYPT_DATA,
+        name = "AESDecryptData", returnType = DataType.STRING,
+        params = {@Param(name = "str1", type = DataType.STRING),
+                  @Param(name = "str2", type = DataType.STRING)})
 public class AESDecryptData extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(AESDecryptData.class);
 
@@ -41,22 +45,6 @@ public class AESDecryptData extends TensorFunction {
         super();
 
         decrypter = new AESEncryption();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "AESDecryptData";
-        int functionId = SecSSECapabilities.AES_DECRYPT_DATA;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("str1")
-                .setDataType(DataType.STRING)
-                .build());
-        parms.add(Parameter.newBuilder()
-                .setName("str2")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name, functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -69,21 +57,34 @@ public class AESDecryptData extends TensorFunction {
      */
     @Override
     public BundledRows tensor(BundledRows rows) {
-        LOG.debug("Function AESDecryptData called.");
-        BundledRows.Builder result = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
-        Dual.Builder dualBuilder;
-
-        for (Row row : rows.getRowsList()) {
-            rowBuilder = Row.newBuilder();
+        ResultWriter out = ResultWriter.building();
+        tensor(InputBatch.of(rows), out);
+        return out.toBatch().getRows();
+    }
 
-            for (Dual dual : row.getDualsList()) {
-                dualBuilder = Dual.newBuilder();
-                rowBuilder.addDuals(dualBuilder.setStrData(decrypter.decrypt(dual.getStrData())));
+    /**
+     * The execution logic for this SSE function, working on the UTF-8 bytes
+     * of the values and writing each result straight to the wire format.
+     *
+     * @param batch the rows we are to operate on
+     * @param out where the result set is written
+     */
+    @Override
+    public void tensor(InputBatch batch, ResultWriter out) {
+        LOG.debug("Function AESDecryptData called.");
+        ColumnarBatch columns = batch.getColumns(getParms());
+        StringColumn[] values = new StringColumn[columns.getColumnCount()];
+        for (int c = 0; c < values.length; c++) {
+            values[c] = columns.getStringColumn(c);
+        }
+        for (int r = 0; r < columns.getRowCount(); r++) {
+            CallContext.checkCancelled();
+            out.beginRow();
+            for (StringColumn value : values) {
+                out.add(decrypter.decrypt(value.buffer(), value.offset(r), value.length(r)));
             }
-            result.addRows(rowBuilder);
+            out.endRow();
         }
         LOG.debug("Function AESDecryptData completed.");
-        return result.build();
     }
 }
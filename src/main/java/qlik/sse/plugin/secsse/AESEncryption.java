@@ -22,16 +22,23 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.spec.KeySpec;
 import java.util.Base64;
 
 /**
  * A class that performs AES encryption / decryption on strings.
+ *
+ * Cipher objects are not thread-safe and a function instance is shared by
+ * concurrent streams, so each thread gets its own pair of ciphers.
  */
 public class AESEncryption {
     private static final Logger LOG = LoggerFactory.getLogger(qlik.sse.plugin.secsse.AESEncryption.class);
-    private Cipher encryptCipher, decryptCipher;
+    private SecretKeySpec secretKeySpec;
+    private IvParameterSpec ivspec;
+    private final ThreadLocal<Cipher> encryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private final ThreadLocal<Cipher> decryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
 
     /**
      * The default constructor.
@@ -42,22 +49,27 @@ public class AESEncryption {
         String secretKey = "boooooooooom!!!!";
         String salt = "ssshhhhhhhhhhh!!!!";
 
-        IvParameterSpec ivspec = new IvParameterSpec(iv);
+        ivspec = new IvParameterSpec(iv);
         try {
             SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
             KeySpec spec = new PBEKeySpec(secretKey.toCharArray(), salt.getBytes(), 65536, 256);
             SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(tmp.getEncoded(), "AES");
-
-            encryptCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            encryptCipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivspec);
-            decryptCipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            decryptCipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivspec);
+            secretKeySpec = new SecretKeySpec(tmp.getEncoded(), "AES");
         } catch(Exception e) {
             LOG.error("Error while initializing cipher: ", e);
         }
     }
 
+    private Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(mode, secretKeySpec, ivspec);
+            return cipher;
+        } catch(Exception e) {
+            throw new IllegalStateException("Error while initializing cipher", e);
+        }
+    }
+
     /**
      * Encrypt a string using AES encryption.
      * @param strToEncrypt the string to encrypt.
@@ -66,8 +78,10 @@ public class AESEncryption {
     public String encrypt(String strToEncrypt) {
         String returnValue;
         try {
-            returnValue = Base64.getEncoder().encodeToString(encryptCipher.doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
-            LOG.info(String.format("Before: %s  encrypted: %s", strToEncrypt, returnValue));
+            returnValue = Base64.getEncoder().encodeToString(encryptCipher.get().doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Before: %s  encrypted: %s", strToEncrypt, returnValue));
+            }
         }
         catch (Exception e) {
             LOG.error("Error while encrypting: ", e);
@@ -85,9 +99,10 @@ public class AESEncryption {
     public String decrypt(String strToDecrypt) {
         String returnValue;
         try {
-            returnValue = new String(decryptCipher.doFinal(Base64.getDecoder().decode(strToDecrypt)));
-            LOG.info(String.format("Before: %s  encrypted: %s", strToDecrypt, returnValue));
-
+            returnValue = new String(decryptCipher.get().doFinal(Base64.getDecoder().decode(strToDecrypt)));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Before: %s  encrypted: %s", strToDecrypt, returnValue));
+            }
         }
         catch (Exception e) {
             LOG.error("Error while decrypting: ", e);
@@ -96,6 +111,45 @@ public class AESEncryption {
         return returnValue;
     }
 
+    /**
+     * Encrypt UTF-8 bytes using AES encryption. Unlike encrypt(String) this
+     * does not decode or re-encode the text, and does not log the values.
+     * @param utf8 the array holding the text to encrypt.
+     * @param offset the offset of the text in the array.
+     * @param length the length of the text in bytes.
+     * @return the encrypted text in base64 encoded form, or null if encryption failed.
+     */
+    public byte[] encrypt(byte[] utf8, int offset, int length) {
+        try {
+            return Base64.getEncoder().encode(encryptCipher.get().doFinal(utf8, offset, length));
+        }
+        catch (Exception e) {
+            LOG.error("Error while encrypting: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Decrypt base64-encoded bytes that were previously encrypted using AES.
+     * Unlike decrypt(String) the result is not decoded into a String, and
+     * the values are not logged.
+     * @param base64 the array holding the base64-encoded text to decrypt.
+     * @param offset the offset of the text in the array.
+     * @param length the length of the text in bytes.
+     * @return the decrypted text as UTF-8 bytes, or null if decryption failed.
+     */
+    public byte[] decrypt(byte[] base64, int offset, int length) {
+        try {
+            ByteBuffer cipherText = Base64.getDecoder().decode(ByteBuffer.wrap(base64, offset, length));
+            return decryptCipher.get().doFinal(cipherText.array(),
+                    cipherText.arrayOffset() + cipherText.position(), cipherText.remaining());
+        }
+        catch (Exception e) {
+            LOG.error("Error while decrypting: ", e);
+            return null;
+        }
+    }
+
     /**
      * A quick test function. This needs to move to JUnit at some point.
      */
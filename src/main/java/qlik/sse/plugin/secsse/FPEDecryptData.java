@@ -16,20 +16,22 @@ package qlik.sse.plugin.secsse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.Row;
 import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * This function decrypts FPE encrypted string columns that are passed to it.
  */
+@SseFunction(capabilities = SecSSECapabilities.class, id = SecSSECapabilities.FPE_DECRYPT_DATA,
+        name = "FPEDecryptData", returnType = DataType.STRING, executor = SecSSECapabilities.FPE_EXECUTOR,
+        params = {@Param(name = "str1", type = DataType.STRING),
+                  @Param(name = "str2", type = DataType.STRING)})
 public class FPEDecryptData extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(FPEDecryptData.class);
 
@@ -41,22 +43,6 @@ public class FPEDecryptData extends TensorFunction {
         super();
 
         decrypter = new FPEEncryption();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "FPEDecryptData";
-        int functionId = SecSSECapabilities.FPE_DECRYPT_DATA;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("str1")
-                .setDataType(DataType.STRING)
-                .build());
-        parms.add(Parameter.newBuilder()
-                .setName("str2")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name, functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -75,6 +61,7 @@ public class FPEDecryptData extends TensorFunction {
         Dual.Builder dualBuilder;
 
         for (Row row : rows.getRowsList()) {
+            CallContext.checkCancelled();
             rowBuilder = Row.newBuilder();
 
             for (Dual dual : row.getDualsList()) {
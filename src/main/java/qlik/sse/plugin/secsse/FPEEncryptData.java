@@ -16,20 +16,22 @@ package qlik.sse.plugin.secsse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.Row;
 import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * This function performs format-preserving encryption on the columns that are passed to it.
  */
+@SseFunction(capabilities = SecSSECapabilities.class, id = SecSSECapabilities.FPE_ENCRYPT_DATA,
+        name = "FPEEncryptData", returnType = DataType.STRING, executor = SecSSECapabilities.FPE_EXECUTOR,
+        params = {@Param(name = "str1", type = DataType.STRING),
+                  @Param(name = "str2", type = DataType.STRING)})
 public class FPEEncryptData extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(FPEEncryptData.class);
 
@@ -41,22 +43,6 @@ public class FPEEncryptData extends TensorFunction {
         super();
 
         encrypter = new FPEEncryption();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "FPEEncryptData";
-        int functionId = SecSSECapabilities.FPE_ENCRYPT_DATA;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("str1")
-                .setDataType(DataType.STRING)
-                .build());
-        parms.add(Parameter.newBuilder()
-                .setName("str2")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name, functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -75,6 +61,7 @@ public class FPEEncryptData extends TensorFunction {
         Dual.Builder dualBuilder;
 
         for (Row row : rows.getRowsList()) {
+            CallContext.checkCancelled();
             rowBuilder = Row.newBuilder();
 
             for (Dual dual : row.getDualsList()) {
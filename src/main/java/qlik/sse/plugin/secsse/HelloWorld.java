@@ -17,19 +17,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.BundledRows;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.Row;
 import qlik.sse.ServerSideExtension.Dual;
-import qlik.sse.plugin.PluginFunction;
 import qlik.sse.plugin.ScalarFunction;
-
-import java.util.ArrayList;
-import java.util.List;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 
 /**
  * A simple function that sets the value of any column it receives
  * to "Hello World" and returns the result.
  */
+@SseFunction(capabilities = SecSSECapabilities.class, id = SecSSECapabilities.HELLO_WORLD,
+        name = "HelloWorld", returnType = DataType.STRING,
+        params = @Param(name = "str1", type = DataType.STRING))
 public class HelloWorld extends ScalarFunction {
     private static final Logger LOG = LoggerFactory.getLogger(HelloWorld.class);
 
@@ -38,18 +38,6 @@ public class HelloWorld extends ScalarFunction {
      */
     public HelloWorld() {
         super();
-
-        List<Parameter> parms = new ArrayList<>();
-        String name = "HelloWorld";
-        int functionId = SecSSECapabilities.HELLO_WORLD;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("str1")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name,functionId, returnType, parms, PluginFunction.CACHE);
     }
 
     /**
@@ -16,55 +16,54 @@ package qlik.sse.plugin.secsse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.DataType;
-import qlik.sse.ServerSideExtension.Parameter;
 import qlik.sse.ServerSideExtension.BundledRows;
-import qlik.sse.ServerSideExtension.Row;
-import qlik.sse.ServerSideExtension.Dual;
 
-import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.SseFunction;
+import qlik.sse.plugin.SseFunction.Param;
 import qlik.sse.plugin.TensorFunction;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.InputBatch;
+import qlik.sse.plugin.columnar.ResultWriter;
+import qlik.sse.plugin.columnar.StringColumn;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * This function creates a SHA-256 hash on string columns that are passed to it.
  */
+@SseFunction(capabilities = SecSSECapabilities.class, id = SecSSECapabilities.SHA256_HASH_DATA,
+        name = "SHA256HashData", returnType = DataType.STRING,
+        params = {@Param(name = "str1", type = DataType.STRING),
+                  @Param(name = "str2", type = DataType.STRING)})
 public class SHA256HashData extends TensorFunction {
     private static final Logger LOG = LoggerFactory.getLogger(SHA256HashData.class);
-    MessageDigest  md;
+    private static final int DIGEST_LENGTH = 32;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
 
-    /**
-     * Initializes the class.
+    /*
+     * MessageDigest is not thread-safe and a function instance is shared by
+     * concurrent streams, so each thread gets its own.
      */
-    public SHA256HashData() {
-        super();
-
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
         try {
             // Static getInstance method is called with hashing SHA
-            md = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256");
         } catch(NoSuchAlgorithmException e) {
             LOG.error("Failed to create message digest", e);
+            throw new IllegalStateException(e);
         }
+    });
 
-        List<Parameter> parms = new ArrayList<>();
-        String name = "SHA256HashData";
-        int functionId = SecSSECapabilities.SHA256_HASH_DATA;
-        DataType returnType = DataType.STRING;
-
-        parms.add(Parameter.newBuilder()
-                .setName("str1")
-                .setDataType(DataType.STRING)
-                .build());
-        parms.add(Parameter.newBuilder()
-                .setName("str2")
-                .setDataType(DataType.STRING)
-                .build());
-
-        init(name, functionId, returnType, parms, PluginFunction.CACHE);
+    /**
+     * Initializes the class.
+     */
+    public SHA256HashData() {
+        super();
     }
 
     /**
@@ -77,22 +76,67 @@ public class SHA256HashData extends TensorFunction {
      */
     @Override
     public BundledRows tensor(BundledRows rows) {
-        LOG.debug("Function SHA256HashData called.");
-        BundledRows.Builder result = BundledRows.newBuilder();
-        Row.Builder rowBuilder;
-        Dual.Builder dualBuilder;
-
-        for (Row row : rows.getRowsList()) {
-            rowBuilder = Row.newBuilder();
+        ResultWriter out = ResultWriter.building();
+        tensor(InputBatch.of(rows), out);
+        return out.toBatch().getRows();
+    }
 
-            for (Dual dual : row.getDualsList()) {
-                dualBuilder = Dual.newBuilder();
-                rowBuilder.addDuals(dualBuilder.setStrData(getSHA(dual.getStrData())));
+    /**
+     * The execution logic for this SSE function, working on the UTF-8 bytes
+     * of the values and writing each result straight to the wire format.
+     *
+     * @param batch the rows we are to operate on
+     * @param out where the result set is written
+     */
+    @Override
+    public void tensor(InputBatch batch, ResultWriter out) {
+        LOG.debug("Function SHA256HashData called.");
+        ColumnarBatch columns = batch.getColumns(getParms());
+        StringColumn[] values = new StringColumn[columns.getColumnCount()];
+        for (int c = 0; c < values.length; c++) {
+            values[c] = columns.getStringColumn(c);
+        }
+        MessageDigest md = DIGEST.get();
+        byte[] digest = new byte[DIGEST_LENGTH];
+        // one slot per column: the writer copies the values when the row ends.
+        byte[] hex = new byte[2 * DIGEST_LENGTH * values.length];
+        try {
+            for (int r = 0; r < columns.getRowCount(); r++) {
+                CallContext.checkCancelled();
+                out.beginRow();
+                for (int c = 0; c < values.length; c++) {
+                    md.update(values[c].buffer(), values[c].offset(r), values[c].length(r));
+                    md.digest(digest, 0, DIGEST_LENGTH);
+                    int slot = c * 2 * DIGEST_LENGTH;
+                    int start = toHex(digest, hex, slot);
+                    out.add(hex, start, slot + 2 * DIGEST_LENGTH - start);
+                }
+                out.endRow();
             }
-            result.addRows(rowBuilder);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Failed to calculate SHA-256 digest", e);
         }
         LOG.debug("Function SHA256HashData completed.");
-        return result.build();
+    }
+
+    /**
+     * Write a digest as hex in the same form as getSHA(): without leading
+     * zeros, but padded with zeros to at least 32 characters.
+     * @param digest the digest.
+     * @param hex where the hex digits are written, 64 bytes from offset.
+     * @param offset the offset of the hex digits.
+     * @return the offset of the first hex digit of the result.
+     */
+    private static int toHex(byte[] digest, byte[] hex, int offset) {
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            hex[offset + 2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            hex[offset + 2 * i + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        int start = offset;
+        while (start < offset + 32 && hex[start] == '0') {
+            start++;
+        }
+        return start;
     }
 
     /**
@@ -101,7 +145,7 @@ public class SHA256HashData extends TensorFunction {
      * @return the SHA-256 hash value
      */
     public String getSHA(String input) {
-        byte[] messageDigest = md.digest(input.getBytes());
+        byte[] messageDigest = DIGEST.get().digest(input.getBytes(StandardCharsets.UTF_8));
         String padding = "00000000000000000000000000000000";
         String returnValue;
 
@@ -36,20 +36,20 @@ public class SecSSECapabilities extends PluginCapabilities {
     private static final String pluginIdentifier = "Qlik SecSSE mapped to java"; // a short descriptive identifier.
     private static final String pluginVersion = "v1.0.0";
 
+    /**
+     * FPE is slow, so it gets an executor of its own where it can't hold up the other functions.
+     */
+    public static final String FPE_EXECUTOR = "fpe";
+
 
     /**
-     * Constructor. Builds a Map of functions.
+     * Constructor. Adds the functions declared with SseFunction.
      */
     public SecSSECapabilities() {
         super();
         LOG.debug("initializing plugin capabilities");
         setPluginInfo(pluginIdentifier, pluginVersion, allowScripts);
-        putFunction(HELLO_WORLD, new HelloWorld());
-        putFunction(AES_ENCRYPT_DATA, new AESEncryptData());
-        putFunction(AES_DECRYPT_DATA, new AESDecryptData());
-        putFunction(FPE_ENCRYPT_DATA, new FPEEncryptData());
-        putFunction(FPE_DECRYPT_DATA, new FPEDecryptData());
-        putFunction(SHA256_HASH_DATA, new SHA256HashData());
+        putFunctions(new SecSSECapabilitiesRegistry());
     }
 
 }
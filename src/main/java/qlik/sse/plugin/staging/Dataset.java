@@ -0,0 +1,248 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.staging;
+
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.plugin.CallContext;
+import qlik.sse.plugin.columnar.Column;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.DoubleColumn;
+import qlik.sse.plugin.columnar.DualColumn;
+import qlik.sse.plugin.columnar.StringColumn;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Every row of a stream, staged column by column so that a function can
+ * work on the whole data set once the last batch has arrived.
+ *
+ * Numbers are kept as 8-byte doubles and strings as their UTF-8 bytes plus
+ * a 4-byte end offset per row, each column in its own SpillBuffer, so a
+ * column moves to a memory-mapped file once it grows past the spill limit.
+ * Staging a row costs its encoded size and nothing per value on the heap.
+ * The columns and their types are taken from the first batch. An instance
+ * is not thread-safe.
+ */
+public final class Dataset implements AutoCloseable {
+    private final int spillBytes;
+    private final long expectedRows;
+    private DataType[] types;
+    private SpillBuffer[] numbers;
+    private SpillBuffer[] strings;
+    private SpillBuffer[] ends;
+    private int rowCount;
+
+    /**
+     * Creates an empty data set.
+     * @param spillBytes how many bytes of each column are kept on the heap.
+     */
+    public Dataset(int spillBytes) {
+        this(spillBytes, 0);
+    }
+
+    /**
+     * Creates an empty data set sized for the number of rows it is expected
+     * to hold, such as the cardinality of the call. The fixed-size parts of
+     * each column are allocated (or spilled) up front, rather than grown a
+     * batch at a time.
+     * @param spillBytes how many bytes of each column are kept on the heap.
+     * @param expectedRows how many rows are expected, or 0 if not known.
+     */
+    public Dataset(int spillBytes, long expectedRows) {
+        this.spillBytes = spillBytes;
+        this.expectedRows = Math.max(0, expectedRows);
+    }
+
+    /**
+     * Stage the rows of a batch.
+     * @param batch the batch.
+     */
+    public void append(ColumnarBatch batch) {
+        if (types == null) {
+            init(batch);
+        }
+        int rows = batch.getRowCount();
+        for (int c = 0; c < types.length; c++) {
+            Column column = batch.getColumn(c);
+            if (column instanceof DoubleColumn) {
+                appendNumbers(c, ((DoubleColumn) column).values(), rows);
+            } else if (column instanceof StringColumn) {
+                appendStrings(c, (StringColumn) column, rows);
+            } else {
+                DualColumn dual = (DualColumn) column;
+                appendNumbers(c, dual.numbers().values(), rows);
+                appendStrings(c, dual.strings(), rows);
+            }
+        }
+        rowCount += rows;
+    }
+
+    /**
+     * Get the number of rows staged.
+     * @return the row count.
+     */
+    public int getRowCount() { return rowCount; }
+
+    /**
+     * Get the number of columns.
+     * @return the column count, 0 if no batch has been staged.
+     */
+    public int getColumnCount() { return types == null ? 0 : types.length; }
+
+    /**
+     * Get the type of a column.
+     * @param column the column index.
+     * @return the type.
+     */
+    public DataType getDataType(int column) { return types[column]; }
+
+    /**
+     * Get the number in a NUMERIC or DUAL column.
+     * @param column the column index.
+     * @param row the row index.
+     * @return the value.
+     */
+    public double getNum(int column, int row) {
+        SpillBuffer values = numbers[column];
+        if (values == null) {
+            throw new IllegalArgumentException("Column " + column + " has no numbers");
+        }
+        return values.getDouble(row * Double.BYTES);
+    }
+
+    /**
+     * Get the string in a STRING or DUAL column.
+     * @param column the column index.
+     * @param row the row index.
+     * @return the value.
+     */
+    public String getString(int column, int row) {
+        byte[] utf8 = getBytes(column, row);
+        return utf8.length == 0 ? "" : new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the UTF-8 bytes of the string in a STRING or DUAL column.
+     * @param column the column index.
+     * @param row the row index.
+     * @return a copy of the bytes.
+     */
+    public byte[] getBytes(int column, int row) {
+        SpillBuffer offsets = ends[column];
+        if (offsets == null) {
+            throw new IllegalArgumentException("Column " + column + " has no strings");
+        }
+        int start = row == 0 ? 0 : offsets.getInt((row - 1) * Integer.BYTES);
+        int end = offsets.getInt(row * Integer.BYTES);
+        byte[] utf8 = new byte[end - start];
+        strings[column].get(start, utf8, 0, utf8.length);
+        return utf8;
+    }
+
+    /**
+     * Copy the numbers of a NUMERIC or DUAL column to an array and sort it,
+     * leaving out nulls (NaN). This is the usual first step of a rank or a
+     * percentile; the array costs 8 bytes of heap per value.
+     * @param column the column index.
+     * @return the non-null values in ascending order.
+     */
+    public double[] sortedNumbers(int column) {
+        double[] sorted = new double[rowCount];
+        int count = 0;
+        for (int r = 0; r < rowCount; r++) {
+            double value = getNum(column, r);
+            if (!Double.isNaN(value)) {
+                sorted[count++] = value;
+            }
+        }
+        if (count < rowCount) {
+            sorted = Arrays.copyOf(sorted, count);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Has any column moved to a memory-mapped file?
+     * @return true if any part of the data set is in a file.
+     */
+    public boolean isSpilled() {
+        for (int c = 0; c < getColumnCount(); c++) {
+            if ((numbers[c] != null && numbers[c].isSpilled()) || (strings[c] != null && strings[c].isSpilled())
+                    || (ends[c] != null && ends[c].isSpilled())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release the staged rows and delete any spill files.
+     */
+    @Override
+    public void close() {
+        for (int c = 0; c < getColumnCount(); c++) {
+            close(numbers[c]);
+            close(strings[c]);
+            close(ends[c]);
+        }
+        types = null;
+        rowCount = 0;
+    }
+
+    private void init(ColumnarBatch batch) {
+        int count = batch.getColumnCount();
+        types = new DataType[count];
+        numbers = new SpillBuffer[count];
+        strings = new SpillBuffer[count];
+        ends = new SpillBuffer[count];
+        for (int c = 0; c < count; c++) {
+            DataType type = batch.getColumn(c).getDataType();
+            types[c] = type;
+            if (type != DataType.STRING) {
+                numbers[c] = new SpillBuffer(spillBytes, expectedRows * Double.BYTES);
+            }
+            if (type != DataType.NUMERIC) {
+                strings[c] = new SpillBuffer(spillBytes);
+                ends[c] = new SpillBuffer(spillBytes, expectedRows * Integer.BYTES);
+            }
+        }
+    }
+
+    private void appendNumbers(int c, double[] values, int rows) {
+        SpillBuffer target = numbers[c];
+        for (int r = 0; r < rows; r++) {
+            CallContext.checkCancelled(r);
+            target.writeDouble(values[r]);
+        }
+    }
+
+    private void appendStrings(int c, StringColumn column, int rows) {
+        SpillBuffer target = strings[c];
+        SpillBuffer offsets = ends[c];
+        byte[] buffer = column.buffer();
+        for (int r = 0; r < rows; r++) {
+            CallContext.checkCancelled(r);
+            target.write(buffer, column.offset(r), column.length(r));
+            offsets.writeInt(target.size());
+        }
+    }
+
+    private static void close(SpillBuffer buffer) {
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.staging;
+
+import qlik.sse.plugin.CallContext;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the heap that the staged data of a plugin's calls may use
+ * at once, shared by all of its streams.
+ *
+ * A SpillBuffer created during a call reserves its heap array from the
+ * budget of the call (see CallContext) as it grows. When a reservation
+ * would take the budget over its limit, the buffer spills to disk instead,
+ * so a plugin with a budget cannot take more than its share of a heap
+ * that is shared with other plugins; the calls carry on, from disk.
+ *
+ * The budget is set with qlik.sse.memory.budget and published as the MBean
+ * qlik.sse:type=MemoryBudget.
+ */
+public final class MemoryBudget implements MemoryBudgetMXBean {
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+
+    /**
+     * Creates a budget.
+     * @param limit the most bytes that may be held on the heap, or 0 for no limit.
+     */
+    public MemoryBudget(long limit) {
+        this.limit = Math.max(0, limit);
+    }
+
+    /**
+     * Get the budget of the call being processed on this thread.
+     *
+     * @return the budget, or null if there is none.
+     */
+    public static MemoryBudget current() {
+        CallContext context = CallContext.current();
+        return context == null ? null : context.getMemoryBudget();
+    }
+
+    /**
+     * Reserve heap, if it is within the limit.
+     *
+     * @param bytes the number of bytes.
+     * @return true if they were reserved, false if they would exceed the limit.
+     */
+    public boolean tryReserve(long bytes) {
+        while (true) {
+            long current = used.get();
+            long next = current + bytes;
+            if (limit > 0 && next > limit && bytes > 0) {
+                denied.incrementAndGet();
+                return false;
+            }
+            if (used.compareAndSet(current, next)) {
+                peak.accumulateAndGet(next, Math::max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserve heap whether or not it is within the limit, e.g. for the small
+     * array every buffer starts with.
+     *
+     * @param bytes the number of bytes.
+     */
+    public void reserve(long bytes) {
+        peak.accumulateAndGet(used.addAndGet(bytes), Math::max);
+    }
+
+    /**
+     * Return heap that was reserved.
+     *
+     * @param bytes the number of bytes.
+     */
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    @Override
+    public long getLimit() { return limit; }
+
+    @Override
+    public long getUsed() { return used.get(); }
+
+    @Override
+    public long getPeak() { return peak.get(); }
+
+    @Override
+    public long getDenied() { return denied.get(); }
+}
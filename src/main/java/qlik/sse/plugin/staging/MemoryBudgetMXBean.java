@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.staging;
+
+/**
+ * Metrics for the heap used by staged data.
+ */
+public interface MemoryBudgetMXBean {
+    /**
+     * @return the most bytes that may be held on the heap, or 0 for no limit.
+     */
+    long getLimit();
+
+    /**
+     * @return the bytes held on the heap now.
+     */
+    long getUsed();
+
+    /**
+     * @return the most bytes held on the heap at once since startup.
+     */
+    long getPeak();
+
+    /**
+     * @return the number of reservations that were refused, each of which
+     * made a buffer start smaller or spill to disk earlier than it would have.
+     */
+    long getDenied();
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.staging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.server.PluginServer;
+import qlik.sse.server.ServerProperties;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * An append-only buffer of bytes, ints and doubles that is kept on the heap
+ * while it is small and moves to a memory-mapped temporary file once it
+ * grows past a limit.
+ *
+ * After spilling, the bytes live in the page cache rather than on the Java
+ * heap, so a large buffer neither counts against -Xmx nor has to be copied
+ * by the garbage collector, and the operating system can write it out
+ * under memory pressure. The file is created in qlik.sse.spill.dir (the
+ * system temporary directory by default) and deleted when the buffer is
+ * closed; on most Unix systems its name is removed right away, so it
+ * cannot be left behind. Buffers hold up to 2 GB. An instance is not
+ * thread-safe.
+ *
+ * A buffer created during a call takes its heap from the MemoryBudget of
+ * the call, if the plugin has one, and spills before reaching its own limit
+ * when the budget is used up.
+ */
+public final class SpillBuffer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+    private static final int INITIAL_SIZE = 256;
+
+    private final int heapLimit;
+    private final long expectedBytes;
+    private final MemoryBudget budget;
+    private byte[] heap;
+    private ByteBuffer heapView;
+    private int size;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+
+    /**
+     * Creates an empty buffer.
+     * @param heapLimit how many bytes are kept on the heap before spilling.
+     */
+    public SpillBuffer(int heapLimit) {
+        this(heapLimit, 0);
+    }
+
+    /**
+     * Creates an empty buffer sized for the number of bytes it is expected
+     * to hold. If they fit within the heap limit they are allocated up
+     * front; if not, the buffer spills on the first write, to a file of the
+     * expected size, rather than filling the heap and copying it out.
+     * @param heapLimit how many bytes are kept on the heap before spilling.
+     * @param expectedBytes how many bytes the buffer is expected to hold, or 0 if not known.
+     */
+    public SpillBuffer(int heapLimit, long expectedBytes) {
+        this.heapLimit = heapLimit;
+        this.expectedBytes = Math.max(0, Math.min(Integer.MAX_VALUE, expectedBytes));
+        this.budget = MemoryBudget.current();
+        int initial = this.expectedBytes > 0 && this.expectedBytes <= heapLimit ? (int) this.expectedBytes : INITIAL_SIZE;
+        initial = Math.min(initial, Math.max(heapLimit, 1));
+        if (budget != null && !budget.tryReserve(initial)) {
+            initial = Math.min(initial, INITIAL_SIZE);
+            budget.reserve(initial);
+        }
+        setHeap(new byte[initial]);
+    }
+
+    /**
+     * Append bytes.
+     * @param src the array holding the bytes.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     * @throws UncheckedIOException if the spill file cannot be written.
+     */
+    public void write(byte[] src, int offset, int length) {
+        if (reserve(length) == heapView) {
+            System.arraycopy(src, offset, heap, size, length);
+        } else {
+            mapped.position(size);
+            mapped.put(src, offset, length);
+        }
+        size += length;
+    }
+
+    /**
+     * Append all of an array.
+     * @param src the bytes.
+     */
+    public void write(byte[] src) {
+        write(src, 0, src.length);
+    }
+
+    /**
+     * Append an int, in native byte order.
+     * @param value the value.
+     */
+    public void writeInt(int value) {
+        reserve(Integer.BYTES).putInt(size, value);
+        size += Integer.BYTES;
+    }
+
+    /**
+     * Append a double, in native byte order.
+     * @param value the value.
+     */
+    public void writeDouble(double value) {
+        reserve(Double.BYTES).putDouble(size, value);
+        size += Double.BYTES;
+    }
+
+    /**
+     * Get an int written by writeInt().
+     * @param index the byte index of the int.
+     * @return the value.
+     */
+    public int getInt(int index) {
+        checkIndex(index, Integer.BYTES);
+        return view().getInt(index);
+    }
+
+    /**
+     * Get a double written by writeDouble().
+     * @param index the byte index of the double.
+     * @return the value.
+     */
+    public double getDouble(int index) {
+        checkIndex(index, Double.BYTES);
+        return view().getDouble(index);
+    }
+
+    /**
+     * Get a byte.
+     * @param index the index of the byte, less than size().
+     * @return the byte.
+     */
+    public byte get(int index) {
+        checkIndex(index, 1);
+        return mapped == null ? heap[index] : mapped.get(index);
+    }
+
+    /**
+     * Copy bytes out of the buffer.
+     * @param index the index of the first byte.
+     * @param dst the array to copy to.
+     * @param offset the offset in dst to copy to.
+     * @param length the number of bytes.
+     */
+    public void get(int index, byte[] dst, int offset, int length) {
+        checkIndex(index, length);
+        if (mapped == null) {
+            System.arraycopy(heap, index, dst, offset, length);
+        } else {
+            ByteBuffer source = mapped.duplicate();
+            source.position(index);
+            source.get(dst, offset, length);
+        }
+    }
+
+    /**
+     * Discard the bytes from the given length on.
+     * @param length the new length, no more than size().
+     */
+    public void truncate(int length) {
+        if (length < 0 || length > size) {
+            throw new IndexOutOfBoundsException("Cannot truncate " + size + " bytes to " + length);
+        }
+        size = length;
+    }
+
+    /**
+     * Get the number of bytes written.
+     * @return the size in bytes.
+     */
+    public int size() { return size; }
+
+    /**
+     * Has the buffer moved to a file?
+     * @return true if the bytes are in a memory-mapped file, false if on the heap.
+     */
+    public boolean isSpilled() { return mapped != null; }
+
+    /**
+     * Get a read-only view of the bytes written. The view is only valid until
+     * the next write and must not be used after the buffer is closed.
+     * @return the bytes from position 0 to size().
+     */
+    public ByteBuffer contents() {
+        ByteBuffer contents = mapped == null ? ByteBuffer.wrap(heap) : mapped.duplicate();
+        contents.position(0).limit(size);
+        return contents.asReadOnlyBuffer();
+    }
+
+    /**
+     * Release the memory and delete the spill file, if there is one.
+     */
+    @Override
+    public void close() {
+        releaseHeap();
+        mapped = null;  // unmapped once it is garbage collected
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close spill file.", e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Make room for length more bytes, spilling or growing as needed.
+     * @return the buffer to write them to, from position size.
+     */
+    private ByteBuffer reserve(int length) {
+        if (heap == null && mapped == null) {
+            throw new IllegalStateException("SpillBuffer is closed");
+        }
+        long total = (long) size + length;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalStateException("SpillBuffer cannot hold more than 2 GB");
+        }
+        int needed = (int) total;
+        if (mapped == null) {
+            if (needed <= heapLimit && expectedBytes <= heapLimit) {
+                if (needed <= heap.length) {
+                    return heapView;
+                }
+                int grown = Math.min(heapLimit, Math.max(heap.length * 2, needed));
+                if (budget == null || budget.tryReserve(grown - heap.length)) {
+                    setHeap(Arrays.copyOf(heap, grown));
+                    return heapView;
+                }
+            }
+            spill(needed);
+        } else if (needed > mapped.capacity()) {
+            map(Math.max(needed, (int) Math.min(Integer.MAX_VALUE, 2L * mapped.capacity())));
+        }
+        return mapped;
+    }
+
+    private ByteBuffer view() {
+        return mapped == null ? heapView : mapped;
+    }
+
+    private void setHeap(byte[] bytes) {
+        heap = bytes;
+        heapView = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private void checkIndex(int index, int length) {
+        if (index < 0 || length < 0 || index > size - length) {
+            throw new IndexOutOfBoundsException("Cannot read " + length + " bytes at " + index + " of " + size);
+        }
+    }
+
+    /**
+     * Move the bytes from the heap to a new temporary file.
+     */
+    private void spill(int needed) {
+        Properties props = PluginServer.getProperties();
+        String dir = props == null ? ServerProperties.SPILL_DIR_DEFAULT
+                : props.getProperty(ServerProperties.SPILL_DIR, ServerProperties.SPILL_DIR_DEFAULT);
+        try {
+            Path file = dir.isEmpty()
+                    ? Files.createTempFile("qlik-sse-", ".spill")
+                    : Files.createTempFile(Paths.get(dir), "qlik-sse-", ".spill");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            LOG.debug("Spilling " + size + " bytes to " + file + ".");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create spill file in "
+                    + (dir.isEmpty() ? System.getProperty("java.io.tmpdir") : dir), e);
+        }
+        map(Math.max(needed, (int) Math.min(Integer.MAX_VALUE, Math.max(2L * heapLimit, expectedBytes))));
+        mapped.put(heap, 0, size);
+        releaseHeap();
+    }
+
+    private void releaseHeap() {
+        if (budget != null && heap != null) {
+            budget.release(heap.length);
+        }
+        heap = null;
+        heapView = null;
+    }
+
+    /**
+     * Map the spill file with the given capacity, growing the file if needed.
+     */
+    private void map(int capacity) {
+        try {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            mapped.order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + capacity + " bytes of spill file", e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.staging;
+
+/**
+ * Storage for intermediate results that may be too large to keep on the
+ * Java heap, such as the growing result of a string aggregation or every
+ * row of a stream for a whole-dataset function (Dataset). Data is kept on
+ * the heap while it is small and moved to memory-mapped temporary files
+ * once it is not.
+ */
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.stats;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A count-min sketch (Cormode and Muthukrishnan, 2005) that estimates how
+ * often each value has been seen.
+ *
+ * It is a table of depth rows of width counters. A value increments one
+ * counter in each row, and its estimate is the smallest of those counters.
+ * The estimate is never below the true count, and with probability
+ * 1 - e^-depth it is at most e / width of the total count above it. Memory
+ * is fixed at depth * width longs: 80 KB for the default 5 x 2048, which
+ * overestimates by at most 0.13% of the total count with 99.3% confidence.
+ *
+ * Sketches of the same dimensions can be merged. An instance is not
+ * thread-safe.
+ */
+public final class CountMinSketch {
+    public static final int DEFAULT_DEPTH = 5;
+    public static final int DEFAULT_WIDTH = 2048;
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final int depth;
+    private final int width;
+    private final long[] counters;
+    private long total;
+
+    /**
+     * Creates a sketch with the default dimensions.
+     */
+    public CountMinSketch() {
+        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+
+    /**
+     * Creates a sketch.
+     * @param depth the number of rows, which sets the confidence.
+     * @param width the number of counters per row, which sets the accuracy;
+     *              a power of two.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || width < 1 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("Count-min depth must be positive and width a power of two: "
+                    + depth + " x " + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counters = new long[depth * width];
+    }
+
+    /**
+     * Hash a value given as UTF-8 bytes, for use with add(long) and estimate(long).
+     * @param utf8 the array holding the value.
+     * @param offset the offset of the value.
+     * @param length the length of the value in bytes.
+     * @return the hash.
+     */
+    public static long hash(byte[] utf8, int offset, int length) {
+        return Hash64.hash(utf8, offset, length, SEED);
+    }
+
+    /**
+     * Hash a string value, for use with add(long) and estimate(long).
+     * @param value the value.
+     * @return the hash of its UTF-8 bytes.
+     */
+    public static long hash(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        return hash(utf8, 0, utf8.length);
+    }
+
+    /**
+     * Count one occurrence of a value.
+     * @param hash the hash of the value.
+     */
+    public void add(long hash) {
+        add(hash, 1);
+    }
+
+    /**
+     * Count occurrences of a value.
+     * @param hash the hash of the value.
+     * @param occurrences the number of occurrences; not negative.
+     */
+    public void add(long hash, long occurrences) {
+        // one 64-bit hash gives a column per row: h1 + row * h2 (Kirsch and Mitzenmacher).
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = width - 1;
+        for (int row = 0; row < depth; row++) {
+            counters[row * width + ((h1 + row * h2) & mask)] += occurrences;
+        }
+        total += occurrences;
+    }
+
+    /**
+     * Estimate how often a value has been seen.
+     * @param hash the hash of the value.
+     * @return the estimate, which is never less than the true count.
+     */
+    public long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = width - 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + ((h1 + row * h2) & mask)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Combine another sketch into this one.
+     * @param other a sketch with the same dimensions.
+     * @return this sketch.
+     */
+    public CountMinSketch merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Cannot merge count-min sketches of " + depth + " x " + width
+                    + " and " + other.depth + " x " + other.width);
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+        return this;
+    }
+
+    /**
+     * Get the number of occurrences counted.
+     * @return the total count.
+     */
+    public long getTotal() { return total; }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.stats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most frequent values of a stream: a CountMinSketch for the
+ * counts plus a fixed number of candidate values.
+ *
+ * Each value is counted in the sketch. Once the list of candidates is
+ * full, a value becomes a candidate only if its estimated count is above
+ * that of the least frequent one, which it replaces. Checking that takes
+ * one comparison, so most values of a skewed stream are dealt with by the
+ * sketch alone and never turned into a String. Memory is the
+ * sketch plus the candidates.
+ *
+ * Candidates are identified by their 64-bit hash. Sketches with the same
+ * dimensions and capacity can be merged. An instance is not thread-safe.
+ */
+public final class HeavyHitters {
+    public static final int DEFAULT_CAPACITY = 10;
+
+    private final CountMinSketch counts;
+    private final long[] hashes;
+    private final long[] estimates;
+    private final String[] values;
+    private int size;
+    private long minEstimate;
+
+    /**
+     * Tracks the 10 most frequent values with a default count-min sketch.
+     */
+    public HeavyHitters() {
+        this(DEFAULT_CAPACITY, new CountMinSketch());
+    }
+
+    /**
+     * Creates the tracker.
+     * @param capacity the number of values to track.
+     * @param counts an empty sketch to count the values in.
+     */
+    public HeavyHitters(int capacity, CountMinSketch counts) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Heavy hitters capacity must be positive: " + capacity);
+        }
+        this.counts = counts;
+        this.hashes = new long[capacity];
+        this.estimates = new long[capacity];
+        this.values = new String[capacity];
+    }
+
+    /**
+     * Add a value given as UTF-8 bytes.
+     * @param utf8 the array holding the value.
+     * @param offset the offset of the value.
+     * @param length the length of the value in bytes.
+     */
+    public void add(byte[] utf8, int offset, int length) {
+        long hash = CountMinSketch.hash(utf8, offset, length);
+        counts.add(hash);
+        long estimate = counts.estimate(hash);
+        if (size == values.length && estimate <= minEstimate) {
+            return;
+        }
+        offer(hash, estimate, utf8, offset, length, null);
+    }
+
+    /**
+     * Add a string value.
+     * @param value the value.
+     */
+    public void add(String value) {
+        long hash = CountMinSketch.hash(value);
+        counts.add(hash);
+        long estimate = counts.estimate(hash);
+        if (size == values.length && estimate <= minEstimate) {
+            return;
+        }
+        offer(hash, estimate, null, 0, 0, value);
+    }
+
+    /**
+     * Combine another tracker into this one. The counts are merged and the
+     * candidates of both are ranked again by their merged estimates.
+     * @param other a tracker with the same capacity and sketch dimensions.
+     * @return this tracker.
+     */
+    public HeavyHitters merge(HeavyHitters other) {
+        if (other.values.length != values.length) {
+            throw new IllegalArgumentException("Cannot merge heavy hitters of capacity "
+                    + values.length + " and " + other.values.length);
+        }
+        counts.merge(other.counts);
+        for (int i = 0; i < size; i++) {
+            estimates[i] = counts.estimate(hashes[i]);
+        }
+        minEstimate = minimum();
+        for (int i = 0; i < other.size; i++) {
+            long estimate = counts.estimate(other.hashes[i]);
+            if (size < values.length || estimate > minEstimate) {
+                offer(other.hashes[i], estimate, null, 0, 0, other.values[i]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Get the most frequent values, most frequent first.
+     * @return the values with their estimated counts.
+     */
+    public List<Map.Entry<String, Long>> top() {
+        List<Map.Entry<String, Long>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new SimpleImmutableEntry<>(values[i], estimates[i]));
+        }
+        result.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return result;
+    }
+
+    /**
+     * Get the number of values counted.
+     * @return the total count.
+     */
+    public long getTotal() { return counts.getTotal(); }
+
+    /**
+     * Make a value a candidate, or update its estimate if it already is one.
+     * The value is given either as bytes or as a String.
+     */
+    private void offer(long hash, long estimate, byte[] utf8, int offset, int length, String value) {
+        int slot = -1;
+        for (int i = 0; i < size; i++) {
+            if (hashes[i] == hash) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            if (size < values.length) {
+                slot = size++;
+            } else {
+                slot = 0;
+                for (int i = 1; i < size; i++) {
+                    if (estimates[i] < estimates[slot]) {
+                        slot = i;
+                    }
+                }
+            }
+            hashes[slot] = hash;
+            values[slot] = value != null ? value : new String(utf8, offset, length, StandardCharsets.UTF_8);
+        }
+        estimates[slot] = estimate;
+        minEstimate = minimum();
+    }
+
+    private long minimum() {
+        if (size < values.length) {
+            return 0;
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, estimates[i]);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.stats;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A HyperLogLog sketch that estimates the number of distinct values.
+ *
+ * Memory is fixed at 2^precision one-byte registers regardless of how many
+ * values are added: 16 KB at the default precision of 14, for a standard
+ * error of about 0.8%. Values are hashed with a 64-bit hash, so there is no
+ * large-range correction to make, and the estimate uses Ertl's improved
+ * estimator ("New cardinality estimation algorithms for HyperLogLog
+ * sketches", 2017), which needs neither bias tables nor a switch to linear
+ * counting for small cardinalities.
+ *
+ * Sketches of the same precision can be merged, which gives the sketch of
+ * the union of their values. An instance is not thread-safe.
+ */
+public final class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    private static final long SEED = 0;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates a sketch with the default precision.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a sketch.
+     * @param precision the number of bits of the hash that select a
+     *                  register, from 4 to 18.
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between "
+                    + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Add a value given as UTF-8 bytes.
+     * @param utf8 the array holding the value.
+     * @param offset the offset of the value.
+     * @param length the length of the value in bytes.
+     */
+    public void add(byte[] utf8, int offset, int length) {
+        addHash(Hash64.hash(utf8, offset, length, SEED));
+    }
+
+    /**
+     * Add a string value. It counts as the same value as its UTF-8 bytes.
+     * @param value the value.
+     */
+    public void add(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        add(utf8, 0, utf8.length);
+    }
+
+    /**
+     * Add a numeric value. 0.0 and -0.0 are the same value.
+     * @param value the value.
+     */
+    public void add(double value) {
+        addHash(Hash64.hash(Double.doubleToLongBits(value == 0 ? 0.0 : value), SEED));
+    }
+
+    /**
+     * Add a value by its 64-bit hash. The hash must be uniformly distributed
+     * over all 64 bits.
+     * @param hash the hash of the value.
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        long rest = hash << precision;
+        // position of the first 1 bit after the index bits, or 65 - precision if there is none.
+        int rank = rest == 0 ? 65 - precision : Long.numberOfLeadingZeros(rest) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Combine another sketch into this one.
+     * @param other a sketch of the same precision.
+     * @return this sketch.
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of precision "
+                    + precision + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Estimate the number of distinct values that have been added.
+     * @return the estimate.
+     */
+    public double estimate() {
+        int q = 64 - precision;
+        int m = registers.length;
+        int[] histogram = new int[q + 2];
+        for (byte register : registers) {
+            histogram[register]++;
+        }
+        double z = m * tau(1 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return m * (m / (2 * Math.log(2))) / z;
+    }
+
+    /**
+     * Estimate the number of distinct values, rounded to a whole number.
+     * @return the estimate.
+     */
+    public long cardinality() {
+        return Math.round(estimate());
+    }
+
+    /**
+     * Get the relative standard error of the estimate.
+     * @return the standard error as a fraction of the cardinality.
+     */
+    public double standardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * Get the precision of the sketch.
+     * @return the number of bits of the hash that select a register.
+     */
+    public int getPrecision() { return precision; }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.stats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ServerSideExtension.DataType;
+import qlik.sse.ServerSideExtension.Parameter;
+
+import qlik.sse.plugin.PluginFunction;
+import qlik.sse.plugin.StatefulAggregationFunction;
+import qlik.sse.plugin.columnar.ColumnarBatch;
+import qlik.sse.plugin.columnar.DoubleColumn;
+import qlik.sse.plugin.columnar.ResultWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An aggregation function that computes a statistic over a numeric column.
+ *
+ * Each batch is added to the NumericSummary of the stream, and the
+ * statistic is taken from the summary in reduce(). The summary only keeps
+ * the variance when the statistic needs it.
+ */
+public class NumericAggregation extends StatefulAggregationFunction<NumericSummary> {
+    private static final Logger LOG = LoggerFactory.getLogger(NumericAggregation.class);
+
+    /**
+     * The statistics that can be computed.
+     */
+    public enum Statistic {
+        SUM { public double of(NumericSummary summary) { return summary.getSum(); } },
+        MEAN { public double of(NumericSummary summary) { return summary.getMean(); } },
+        MIN { public double of(NumericSummary summary) { return summary.getMin(); } },
+        MAX { public double of(NumericSummary summary) { return summary.getMax(); } },
+        COUNT { public double of(NumericSummary summary) { return summary.getCount(); } },
+        VARIANCE {
+            public double of(NumericSummary summary) { return summary.getVariance(); }
+            public boolean needsVariance() { return true; }
+        },
+        STDDEV {
+            public double of(NumericSummary summary) { return summary.getStdDev(); }
+            public boolean needsVariance() { return true; }
+        };
+
+        /**
+         * Get this statistic from a summary.
+         * @param summary the summary.
+         * @return the value of the statistic. NaN is sent to Qlik as null.
+         */
+        public abstract double of(NumericSummary summary);
+
+        /**
+         * Whether the summary has to keep the variance for this statistic.
+         * @return true for the variance and the standard deviation.
+         */
+        public boolean needsVariance() { return false; }
+    }
+
+    private final Statistic statistic;
+
+    /**
+     * Creates the function, to be defined by the FunctionRegistry generated
+     * from its SseFunction declaration.
+     *
+     * @param statistic the statistic the function returns.
+     */
+    public NumericAggregation(Statistic statistic) {
+        this.statistic = statistic;
+    }
+
+    /**
+     * Initializes the class.
+     *
+     * @param name the name of the function.
+     * @param functionId the numeric id that identifies the function.
+     * @param statistic the statistic the function returns.
+     */
+    public NumericAggregation(String name, int functionId, Statistic statistic) {
+        this.statistic = statistic;
+
+        List<Parameter> parms = new ArrayList<>();
+        parms.add(Parameter.newBuilder()
+                .setName("column")
+                .setDataType(DataType.NUMERIC)
+                .build());
+
+        init(name, functionId, DataType.NUMERIC, parms, PluginFunction.CACHE);
+    }
+
+    /**
+     * Get the statistic this function returns.
+     * @return the statistic.
+     */
+    public Statistic getStatistic() { return statistic; }
+
+    @Override
+    protected NumericSummary newState() {
+        return new NumericSummary(statistic.needsVariance());
+    }
+
+    /**
+     * Adds the values of the column to the summary for this stream. It is
+     * called from onNext() in the plugin.
+     *
+     * @param columns the columns we are to operate on
+     * @param summary the summary of this stream
+     */
+    @Override
+    public void aggregation(ColumnarBatch columns, NumericSummary summary) {
+        LOG.debug("Function " + getName() + " called.");
+        DoubleColumn column = columns.getDoubleColumn(0);
+        summary.add(column.values(), 0, column.size());
+        LOG.debug("Function " + getName() + " completed.");
+    }
+
+    /**
+     * Aggregation is complete. Write the statistic. It is called from
+     * onCompleted() in the plugin.
+     *
+     * @param summary the summary of this stream
+     * @param out where the result is written.
+     */
+    @Override
+    public void reduce(NumericSummary summary, ResultWriter out) {
+        LOG.debug(getName() + " completed with " + summary + ".");
+        out.addRow(statistic.of(summary));
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.stats;
+
+import java.util.function.DoubleConsumer;
+
+/**
+ * Count, sum, mean, min, max and variance of a set of values, computed in a
+ * single pass with primitive accumulators.
+ *
+ * The sum is compensated (Kahan-Babuska / Neumaier summation), so adding
+ * millions of values of very different magnitude does not lose the small
+ * ones. The mean and variance are kept with Welford's algorithm, which does
+ * not suffer from the cancellation of the naive sum-of-squares formula.
+ * A summary created without variance skips that work, for callers that
+ * only need the count, sum, mean, min or max.
+ *
+ * Two summaries can be merged, so a data set can be split, summarized on
+ * several threads and combined afterwards. The class is a DoubleConsumer
+ * for that reason:
+ * <pre>
+ *     NumericSummary summary = DoubleStream.of(values).parallel()
+ *             .collect(NumericSummary::new, NumericSummary::accept, NumericSummary::merge);
+ * </pre>
+ *
+ * NaN is how the Qlik engine sends a null numeric value, so NaN values are
+ * skipped rather than poisoning the result. An instance is not thread-safe.
+ */
+public final class NumericSummary implements DoubleConsumer {
+    private final boolean variance;
+    private long count;
+    private double sum;
+    private double compensation;
+    private double mean;
+    private double m2;         // sum of squared differences from the mean.
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates an empty summary that keeps all statistics.
+     */
+    public NumericSummary() {
+        this(true);
+    }
+
+    /**
+     * Creates an empty summary.
+     * @param variance false to keep only the count, sum, mean, min and max,
+     *                 which makes adding values cheaper. The variance and
+     *                 standard deviation are then not available.
+     */
+    public NumericSummary(boolean variance) {
+        this.variance = variance;
+    }
+
+    /**
+     * Add a value. NaN values are ignored.
+     * @param value the value.
+     */
+    @Override
+    public void accept(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        addToSum(value);
+
+        if (variance) {
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Add all values of an array. NaN values are ignored.
+     * @param values the values.
+     */
+    public void add(double[] values) {
+        add(values, 0, values.length);
+    }
+
+    /**
+     * Add a range of an array. NaN values are ignored.
+     *
+     * The range is summarized on its own in one pass and merged in. The
+     * squared differences are taken from the range's first value rather
+     * than from a running mean (the shifted-data form of the sum of
+     * squares), which avoids the division per value of the update in
+     * accept() and, unlike the textbook formula, does not cancel when the
+     * values are far from zero. Without variance the pass only keeps the
+     * count, compensated sum, min and max.
+     *
+     * @param values the values.
+     * @param from the index of the first value, inclusive.
+     * @param to the index of the last value, exclusive.
+     */
+    public void add(double[] values, int from, int to) {
+        while (from < to && Double.isNaN(values[from])) {
+            from++;
+        }
+        if (from == to) {
+            return;
+        }
+        double shift = values[from];
+        long n = 0;
+        double s = 0;
+        double c = 0;
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        double shifted = 0;
+        double squares = 0;
+        if (variance) {
+            for (int i = from; i < to; i++) {
+                double value = values[i];
+                if (value != value) {  // NaN
+                    continue;
+                }
+                n++;
+                double t = s + value;  // same as addToSum(), on locals
+                double z = t - s;
+                c += (s - (t - z)) + (value - z);
+                s = t;
+                lo = value < lo ? value : lo;
+                hi = value > hi ? value : hi;
+                double delta = value - shift;
+                shifted += delta;
+                squares += delta * delta;
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                double value = values[i];
+                if (value != value) {  // NaN
+                    continue;
+                }
+                n++;
+                double t = s + value;
+                double z = t - s;
+                c += (s - (t - z)) + (value - z);
+                s = t;
+                lo = value < lo ? value : lo;  // Math.min() also orders -0.0 and NaN, which costs a branch.
+                hi = value > hi ? value : hi;
+            }
+        }
+
+        NumericSummary range = new NumericSummary(variance);
+        range.count = n;
+        range.sum = s;
+        range.compensation = c;
+        if (variance) {
+            range.mean = range.getMean();
+            range.m2 = Math.max(0, squares - shifted * shifted / n);
+        }
+        range.min = lo;
+        range.max = hi;
+        merge(range);
+    }
+
+    /**
+     * Combine another summary into this one, as if its values had been
+     * added to this summary. The other summary is not changed.
+     * @param other the summary to merge.
+     * @return this summary.
+     * @throws IllegalArgumentException if this summary keeps the variance
+     *         and the other, which has values, does not.
+     */
+    public NumericSummary merge(NumericSummary other) {
+        if (variance && !other.variance && other.count > 0) {
+            throw new IllegalArgumentException("Cannot merge a summary without variance into one with variance.");
+        }
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            count = other.count;
+            sum = other.sum;
+            compensation = other.compensation;
+            mean = other.mean;
+            m2 = other.m2;
+            min = other.min;
+            max = other.max;
+            return this;
+        }
+        long total = count + other.count;
+        if (variance) {
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        }
+        count = total;
+
+        addToSum(other.sum);
+        compensation += other.compensation;
+
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    /**
+     * Reset the summary to its empty state.
+     */
+    public void clear() {
+        count = 0;
+        sum = 0;
+        compensation = 0;
+        mean = 0;
+        m2 = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Get the number of values.
+     * @return the number of values that were not NaN.
+     */
+    public long getCount() { return count; }
+
+    /**
+     * Get the compensated sum of the values.
+     * @return the sum, or 0 if there are no values.
+     */
+    public double getSum() {
+        double result = sum + compensation;
+        if (Double.isNaN(result) && Double.isInfinite(sum)) {
+            // the compensation of an infinite sum is NaN; the uncompensated sum is right.
+            return sum;
+        }
+        return result;
+    }
+
+    /**
+     * Get the arithmetic mean of the values.
+     * @return the mean, or NaN if there are no values.
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : getSum() / count;
+    }
+
+    /**
+     * Get the smallest value.
+     * @return the minimum, or NaN if there are no values.
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Get the largest value.
+     * @return the maximum, or NaN if there are no values.
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Get the sample variance (divided by n - 1), as the Qlik Stdev()
+     * function uses.
+     * @return the variance, or NaN if there are fewer than two values.
+     * @throws IllegalStateException if the summary does not keep the variance.
+     */
+    public double getVariance() {
+        checkVariance();
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+
+    /**
+     * Get the population variance (divided by n).
+     * @return the variance, or NaN if there are no values.
+     * @throws IllegalStateException if the summary does not keep the variance.
+     */
+    public double getPopulationVariance() {
+        checkVariance();
+        return count == 0 ? Double.NaN : m2 / count;
+    }
+
+    /**
+     * Get the sample standard deviation.
+     * @return the standard deviation, or NaN if there are fewer than two values.
+     * @throws IllegalStateException if the summary does not keep the variance.
+     */
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Whether the summary keeps the variance.
+     * @return false if it was created without variance.
+     */
+    public boolean hasVariance() { return variance; }
+
+    private void checkVariance() {
+        if (!variance) {
+            throw new IllegalStateException("The summary was created without variance.");
+        }
+    }
+
+    /**
+     * One step of compensated summation: add the value and keep the exact
+     * rounding error of the addition (Knuth's TwoSum, which unlike the
+     * comparison in Neumaier's formulation does not branch).
+     */
+    private void addToSum(double value) {
+        double t = sum + value;
+        double z = t - sum;
+        compensation += (sum - (t - z)) + (value - z);
+        sum = t;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NumericSummary{count=%d, sum=%s, mean=%s, min=%s, max=%s, variance=%s}",
+                count, getSum(), getMean(), getMin(), getMax(), variance ? getVariance() : "n/a");
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.server;
+
+import io.grpc.Status;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The standard gRPC health service (grpc.health.v1.Health), so that load
+ * balancers, orchestrators and tools such as grpc_health_probe can tell
+ * whether the server is ready for traffic.
+ *
+ * The status of the server as a whole is reported for the service name ""
+ * and that of the SSE connector for "qlik.sse.Connector". Both are
+ * NOT_SERVING while the server warms up (see WarmUp) and after it has been
+ * asked to stop.
+ */
+public class HealthService extends HealthGrpc.HealthImplBase {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthService.class);
+
+    /**
+     * The name the status of the server as a whole is reported under.
+     */
+    public static final String SERVER = "";
+
+    private final Map<String, ServingStatus> statuses = new ConcurrentHashMap<>();
+    private final Map<String, List<StreamObserver<HealthCheckResponse>>> watchers = new ConcurrentHashMap<>();
+
+    /**
+     * Set the status reported for a service, and tell anyone watching it.
+     *
+     * @param service the name of the service, or SERVER.
+     * @param status the status.
+     */
+    public void setStatus(String service, ServingStatus status) {
+        ServingStatus previous = statuses.put(service, status);
+        if (previous != status) {
+            LOG.info("Health of " + (service.isEmpty() ? "the server" : service) + " is " + status + ".");
+            for (StreamObserver<HealthCheckResponse> watcher : watchers(service)) {
+                send(watcher, status);
+            }
+        }
+    }
+
+    @Override
+    public void check(HealthCheckRequest request, StreamObserver<HealthCheckResponse> responseObserver) {
+        ServingStatus status = statuses.get(request.getService());
+        if (status == null) {
+            responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("Unknown service " + request.getService() + ".").asRuntimeException());
+            return;
+        }
+        responseObserver.onNext(HealthCheckResponse.newBuilder().setStatus(status).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void watch(HealthCheckRequest request, StreamObserver<HealthCheckResponse> responseObserver) {
+        String service = request.getService();
+        List<StreamObserver<HealthCheckResponse>> list = watchers(service);
+        list.add(responseObserver);
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            ((ServerCallStreamObserver<HealthCheckResponse>) responseObserver)
+                    .setOnCancelHandler(() -> list.remove(responseObserver));
+        }
+        send(responseObserver, statuses.getOrDefault(service, ServingStatus.SERVICE_UNKNOWN));
+    }
+
+    private List<StreamObserver<HealthCheckResponse>> watchers(String service) {
+        return watchers.computeIfAbsent(service, k -> new CopyOnWriteArrayList<>());
+    }
+
+    private static void send(StreamObserver<HealthCheckResponse> watcher, ServingStatus status) {
+        // a watcher's observer is not thread-safe, and the status may change on any thread.
+        synchronized (watcher) {
+            try {
+                watcher.onNext(HealthCheckResponse.newBuilder().setStatus(status).build());
+            } catch (RuntimeException e) {
+                LOG.debug("Could not send health status to a watcher.", e);
+            }
+        }
+    }
+}
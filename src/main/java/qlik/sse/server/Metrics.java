@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+/**
+ * Publishes runtime metrics as JMX MBeans in the "qlik.sse" domain, where they
+ * can be read with jconsole, VisualVM, or any JMX-capable monitoring agent.
+ */
+public final class Metrics {
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    /**
+     * The JMX domain that all metrics are registered under.
+     */
+    public static final String DOMAIN = "qlik.sse";
+
+    /**
+     * Register an MBean as qlik.sse:type=TYPE,name=NAME. An MBean already
+     * registered under the same name is replaced.
+     *
+     * @param type the type of the metric, e.g. "Executor".
+     * @param name the name of this instance.
+     * @param mbean the MBean (typically an MXBean implementation).
+     */
+    public static void register(String type, String name, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = objectName(type, name);
+            try {
+                server.registerMBean(mbean, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(mbean, objectName);
+            }
+            LOG.debug("Registered metrics " + objectName);
+        } catch (Exception e) {
+            LOG.warn("Could not register metrics for " + type + " " + name + ".", e);
+        }
+    }
+
+    /**
+     * Remove an MBean that was registered with register().
+     *
+     * @param type the type of the metric.
+     * @param name the name of this instance.
+     */
+    public static void unregister(String type, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(type, name));
+        } catch (Exception e) {
+            LOG.debug("Could not unregister metrics for " + type + " " + name + ".", e);
+        }
+    }
+
+    /**
+     * Qualify the name of a metric with the name of the hosted plugin it
+     * belongs to, so that plugins hosted in the same JVM do not replace each
+     * other's MBeans.
+     *
+     * @param props the properties of the plugin.
+     * @param name the name of the instance, e.g. "default".
+     * @return NAME if a single plugin is hosted, otherwise SERVER.NAME.
+     */
+    public static String scopedName(Properties props, String name) {
+        String server = props.getProperty(ServerProperties.SERVER_NAME);
+        return server == null ? name : server + "." + name;
+    }
+
+    private static ObjectName objectName(String type, String name) throws Exception {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * private to prevent explicit object creation
+     */
+    private Metrics() { super(); }
+}
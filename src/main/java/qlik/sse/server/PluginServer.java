@@ -15,6 +15,9 @@ package qlik.sse.server;
 
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.helper.HelpScreenException;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -23,14 +26,22 @@ import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.internal.UnrecognizedArgumentException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qlik.sse.ConnectorGrpc;
+import qlik.sse.plugin.CallContext;
 import qlik.sse.plugin.Plugin;
+import qlik.sse.plugin.executor.ExecutorRegistry;
+import qlik.sse.plugin.executor.VirtualThreads;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
 import static net.sourceforge.argparse4j.impl.Arguments.store;
 
@@ -46,8 +57,11 @@ public class PluginServer {
 
     private static final Logger LOG = LoggerFactory.getLogger(PluginServer.class);
     private static Properties properties;
+    private static final ThreadLocal<Properties> SCOPED = new ThreadLocal<>();
     private final Server server;
     private final int port;
+    private final HealthService health = new HealthService();
+    private final WarmUp warmUp;
 
     /**
      * Generates an instance of PluginServer.
@@ -65,25 +79,38 @@ public class PluginServer {
         pemDir = props.getProperty(ServerProperties.PEM_DIR);
 
         // instantiate an instance of the plugin class specified in the properties file.
+        // the plugin and its functions read their configuration from getProperties(), which
+        // answers with props while they are created.
         className = props.getProperty(ServerProperties.PLUGIN);
         try {
           //noinspection unchecked
           clazz = (Class<Plugin>) Class.forName(className);
-          plugin = clazz.newInstance();
+          plugin = withProperties(props, clazz::newInstance);
         } catch(Exception e) {
           LOG.error("Could not instantiate plugin.", e);
           throw new RuntimeException(e);
         }
 
+        // with warm-up, calls to the plugin are rejected until its functions have been warmed up.
+        ServerServiceDefinition service = plugin.getServiceDefinition();
+        if (Boolean.parseBoolean(props.getProperty(ServerProperties.WARMUP, ServerProperties.WARMUP_DEFAULT))) {
+            warmUp = new WarmUp(service, plugin, health, props);
+            Metrics.register("WarmUp", Metrics.scopedName(props, "default"), warmUp);
+            service = ServerInterceptors.intercept(service, warmUp.gate());
+        } else {
+            warmUp = null;
+        }
+
         if(!pemDir.isEmpty()) {
             /*
              * PEM directory has been specified, so instantiate the server using the PEM files
              * to establish a secure connection.
              */
             try {
-                server = ServerBuilder.forPort(port)
+                server = configureExecutor(ServerBuilder.forPort(port), props)
                         .useTransportSecurity(new File(pemDir, "sse_server_cert.pem"), new File(pemDir, "sse_server_key.pk8"))
-                        .addService(plugin)
+                        .addService(service)
+                        .addService(health)
                         .intercept(new PluginServerInterceptor(plugin))
                         .build();
             } catch (Exception e) {
@@ -96,15 +123,35 @@ public class PluginServer {
              * No PEM directory was specified, so instantiate the server without
              * configuring transport security.
              */
-            server = ServerBuilder.forPort(port)
-                    .addService(plugin)
+            server = configureExecutor(ServerBuilder.forPort(port), props)
+                    .addService(service)
+                    .addService(health)
                     .intercept(new PluginServerInterceptor(plugin))
                     .build();
         }
     }
 
+    /**
+     * Set the executor that gRPC runs calls on. By default gRPC uses its own
+     * cached thread pool; with qlik.sse.threads=virtual every call gets a
+     * virtual thread of its own.
+     *
+     * @param builder the server builder.
+     * @param props the application properties.
+     * @return the server builder.
+     */
+    private static ServerBuilder<?> configureExecutor(ServerBuilder<?> builder, Properties props) {
+        if (ExecutorRegistry.useVirtualThreads(props)) {
+            LOG.info("Running gRPC calls on virtual threads.");
+            builder.executor(VirtualThreads.newThreadPerTaskExecutor("grpc"));
+        }
+        return builder;
+    }
+
     /**
      * Bind and start the server. After this call returns, clients may begin connecting to the listening sockets.
+     * With warm-up, the server reports NOT_SERVING through the gRPC health service, and rejects calls to the
+     * plugin, until its functions have been warmed up.
      *
      * @throws IOException if unable to bind
      */
@@ -112,6 +159,12 @@ public class PluginServer {
 
         server.start();
         LOG.info("Server started, listening on " + port + ".");
+        if (warmUp != null) {
+            warmUp.start();
+        } else {
+            health.setStatus(HealthService.SERVER, ServingStatus.SERVING);
+            health.setStatus(ConnectorGrpc.SERVICE_NAME, ServingStatus.SERVING);
+        }
         Runtime.getRuntime().addShutdownHook(new Thread(PluginServer.this::stop));
     }
 
@@ -122,6 +175,11 @@ public class PluginServer {
      * prexisting calls to finish before returning.
      */
     public void stop() {
+        health.setStatus(HealthService.SERVER, ServingStatus.NOT_SERVING);
+        health.setStatus(ConnectorGrpc.SERVICE_NAME, ServingStatus.NOT_SERVING);
+        if (warmUp != null) {
+            warmUp.stop();
+        }
         if (server != null) {
             server.shutdown();
         }
@@ -273,19 +331,88 @@ public class PluginServer {
      * Return the properties that have been set for this application. This allows the
      * contents of the properties file to be used elsewhere in the application.
      *
+     * When several plugins are hosted, the properties of the plugin being
+     * created, or of the plugin whose call is being processed on this thread,
+     * are returned instead.
+     *
      * @return an instance of java.util.Properties.
      */
-   public static Properties getProperties() { return properties; }
+   public static Properties getProperties() {
+       CallContext context = CallContext.current();
+       if (context != null && context.getProperties() != null) {
+           return context.getProperties();
+       }
+       Properties scoped = SCOPED.get();
+       return scoped != null ? scoped : properties;
+   }
 
+    /**
+     * Run an action with getProperties() answering with the given properties
+     * on the calling thread, e.g. to create a plugin, or capabilities loaded
+     * later, with the configuration of the plugin they belong to.
+     *
+     * @param props the properties.
+     * @param action the action.
+     * @param <T> the type of the result.
+     * @return the result of the action.
+     * @throws Exception if the action throws.
+     */
+    public static <T> T withProperties(Properties props, Callable<T> action) throws Exception {
+        Properties previous = SCOPED.get();
+        SCOPED.set(props);
+        try {
+            return action.call();
+        } finally {
+            if (previous == null) {
+                SCOPED.remove();
+            } else {
+                SCOPED.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Create the servers for the plugins listed in qlik.sse.servers, each
+     * configured by its own properties, or a single server if none are listed.
+     *
+     * @param props the application properties.
+     * @return the servers.
+     */
+    static List<PluginServer> createServers(Properties props) {
+        List<PluginServer> servers = new ArrayList<>();
+        Map<Integer, String> ports = new HashMap<>();
+        for (String name : props.getProperty(ServerProperties.SERVERS, ServerProperties.SERVERS_DEFAULT).split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            Properties serverProps = ServerProperties.forServer(props, name);
+            String other = ports.put(Integer.parseInt(serverProps.getProperty(ServerProperties.PORT)), name);
+            if (other != null) {
+                throw new IllegalArgumentException("Plugins " + other + " and " + name + " are both configured to use port "
+                        + serverProps.getProperty(ServerProperties.PORT) + ".");
+            }
+            LOG.info("Hosting plugin " + name + " with capabilities " + serverProps.getProperty(ServerProperties.CAPABILITIES)
+                    + " on port " + serverProps.getProperty(ServerProperties.PORT) + ".");
+            servers.add(new PluginServer(serverProps));
+        }
+        if (servers.isEmpty()) {
+            servers.add(new PluginServer(props));
+        }
+        return servers;
+    }
 
     public static void main(String[] args) throws Exception {
         ArgumentParser parser = argParser();
         properties = loadProperties(parser, args);
 
-        PluginServer pluginServer = new PluginServer(getProperties());
-        pluginServer.start();
-        pluginServer.blockUntilShutdown();
-
+        List<PluginServer> pluginServers = createServers(getProperties());
+        for (PluginServer pluginServer : pluginServers) {
+            pluginServer.start();
+        }
+        for (PluginServer pluginServer : pluginServers) {
+            pluginServer.blockUntilShutdown();
+        }
     }
 }
 
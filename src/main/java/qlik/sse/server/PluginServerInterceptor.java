@@ -21,6 +21,7 @@ import io.grpc.ServerInterceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qlik.sse.ServerSideExtension.FunctionRequestHeader;
+import qlik.sse.ServerSideExtension.TableDescription;
 import qlik.sse.plugin.Plugin;
 
 import java.util.Arrays;
@@ -44,6 +45,8 @@ import static io.grpc.Metadata.BINARY_BYTE_MARSHALLER;  // simple metadata marsh
 public class PluginServerInterceptor implements ServerInterceptor {
 
     private static final Logger LOG = LoggerFactory.getLogger(PluginServerInterceptor.class);
+    private static final Metadata.Key<byte[]> TABLE_DESCRIPTION_KEY =
+            Metadata.Key.of("qlik-tabledescription-bin", BINARY_BYTE_MARSHALLER);
 
     private final Plugin plugin;
 
@@ -103,6 +106,11 @@ public class PluginServerInterceptor implements ServerInterceptor {
                             LOG.debug("cache ON: removing qlik-cache from response header");
                             responseHeaders.remove(Metadata.Key.of("qlik-cache", ASCII_STRING_MARSHALLER), "no-store");
                         }
+                        TableDescription table = plugin.getTableDescription(requestHeader.getFunctionId());
+                        if (table != null) {
+                            LOG.debug("Setting qlik-tabledescription-bin for table " + table.getName());
+                            responseHeaders.put(TABLE_DESCRIPTION_KEY, table.toByteArray());
+                        }
                         logHeader(responseHeaders, "response header after");
                     } else {
                         LOG.info("Qlik Response Header was Null.");
@@ -57,6 +57,160 @@ public class ServerProperties {
      */
     public static final String CAPABILITIES_CLASS_DEFAULT = "capabilities.not.set.FunctionList";
 
+    /**
+     * The names of the plugins to host in this JVM, comma separated, e.g.
+     * "sample, secsse". Each listens on a port of its own and is configured
+     * by the properties that start with qlik.sse.server.NAME. (see
+     * SERVER_PROPERTIES), which take precedence over the rest. If empty, a
+     * single plugin is hosted, configured by the rest.
+     */
+    public static final String SERVERS = "qlik.sse.servers";
+    /**
+     * A single plugin is hosted by default.
+     */
+    public static final String SERVERS_DEFAULT = "";
+
+    /**
+     * The prefix of the properties of a hosted plugin: qlik.sse.server.NAME.X
+     * sets qlik.sse.X for the plugin NAME only, e.g.
+     * qlik.sse.server.secsse.port or qlik.sse.server.secsse.executor.default.threads.
+     */
+    public static final String SERVER_PROPERTIES = "qlik.sse.server.%s.";
+
+    /**
+     * The name of the hosted plugin a set of properties belongs to. Set by
+     * forServer(); it qualifies the names of the plugin's metrics.
+     */
+    public static final String SERVER_NAME = "qlik.sse.server.name";
+
+    /**
+     * The most bytes that the staged data of a plugin's calls (e.g. the
+     * whole-dataset and string aggregation buffers) may hold on the heap at
+     * once. Once it is reached, buffers spill to disk early. 0 for no limit.
+     */
+    public static final String MEMORY_BUDGET = "qlik.sse.memory.budget";
+    /**
+     * There is no limit by default.
+     */
+    public static final String MEMORY_BUDGET_DEFAULT = "0";
+
+    /**
+     * A directory of plugin jars that is watched while the server runs. Each
+     * jar names a PluginCapabilities class in the Sse-Capabilities attribute
+     * of its manifest; its functions are added to those of the configured
+     * capabilities, replacing any with the same id, and are replaced in turn
+     * when the jar changes. Empty to load no jars.
+     */
+    public static final String PLUGIN_DIR = "qlik.sse.plugin.dir";
+    /**
+     * No plugin jars are loaded by default.
+     */
+    public static final String PLUGIN_DIR_DEFAULT = "";
+
+    /**
+     * How long, in milliseconds, a plugin jar must stay unchanged before it
+     * is loaded, so that a jar is not loaded while it is still being copied.
+     * The class loaders of replaced jars are also released this often, once
+     * their streams have ended.
+     */
+    public static final String PLUGIN_DIR_INTERVAL = "qlik.sse.plugin.dir.interval";
+    /**
+     * Two seconds by default.
+     */
+    public static final String PLUGIN_DIR_INTERVAL_DEFAULT = "2000";
+
+    /**
+     * When the functions of a plugin are created:
+     * lazy: each when it is first called;
+     * background: in parallel on background threads while the server
+     * starts and serves calls, or when first called if that is sooner;
+     * eager: in parallel before the server starts.
+     * Only functions declared with SseFunction can be created late.
+     */
+    public static final String FUNCTION_INIT = "qlik.sse.function.init";
+    /**
+     * Functions are created in the background by default.
+     */
+    public static final String FUNCTION_INIT_DEFAULT = "background";
+    /**
+     * Create each function when it is first called.
+     */
+    public static final String FUNCTION_INIT_LAZY = "lazy";
+    /**
+     * Create every function before the server starts.
+     */
+    public static final String FUNCTION_INIT_EAGER = "eager";
+
+    /**
+     * The number of threads that create functions in parallel. 0 for the
+     * number of processors.
+     */
+    public static final String FUNCTION_INIT_THREADS = "qlik.sse.function.init.threads";
+    /**
+     * One thread per processor by default.
+     */
+    public static final String FUNCTION_INIT_THREADS_DEFAULT = "0";
+
+    /**
+     * Whether the server warms up before it accepts calls: every function is
+     * called with synthetic rows until its throughput settles, and the
+     * server reports NOT_SERVING through the gRPC health service until then.
+     */
+    public static final String WARMUP = "qlik.sse.warmup";
+    /**
+     * The server accepts calls as soon as it starts by default.
+     */
+    public static final String WARMUP_DEFAULT = "false";
+
+    /**
+     * The number of rows in each batch a function is called with while
+     * warming up.
+     */
+    public static final String WARMUP_ROWS = "qlik.sse.warmup.rows";
+    /**
+     * 500 rows per batch by default.
+     */
+    public static final String WARMUP_ROWS_DEFAULT = "500";
+
+    /**
+     * The number of batches in each call made while warming up.
+     */
+    public static final String WARMUP_BATCHES = "qlik.sse.warmup.batches";
+    /**
+     * 4 batches per call by default.
+     */
+    public static final String WARMUP_BATCHES_DEFAULT = "4";
+
+    /**
+     * The most time, in milliseconds, the server spends warming up before it
+     * accepts calls whether or not every function has settled.
+     */
+    public static final String WARMUP_MILLIS = "qlik.sse.warmup.millis";
+    /**
+     * One minute by default.
+     */
+    public static final String WARMUP_MILLIS_DEFAULT = "60000";
+
+    /**
+     * How much the throughput of a function may change between rounds, as a
+     * fraction, for it to count as settled.
+     */
+    public static final String WARMUP_TOLERANCE = "qlik.sse.warmup.tolerance";
+    /**
+     * 10% by default.
+     */
+    public static final String WARMUP_TOLERANCE_DEFAULT = "0.1";
+
+    /**
+     * A comma-separated list of the ids of functions not to call while
+     * warming up, e.g. because they have side effects.
+     */
+    public static final String WARMUP_EXCLUDE = "qlik.sse.warmup.exclude";
+    /**
+     * Every function is warmed up by default.
+     */
+    public static final String WARMUP_EXCLUDE_DEFAULT = "";
+
     /**
      * The location of an external properties file.
      */
@@ -91,6 +245,352 @@ public class ServerProperties {
      */
     public static final String AES_SALT_DEFAULT = "MWYwNzdmNjUy";
 
+    /**
+     * Watch the properties file and rotate the AES key when the key, salt
+     * or nonce in it changes.
+     */
+    public static final String AES_WATCH = "qlik.sse.plugin.aes.watch";
+    /**
+     * The file is not watched by default.
+     */
+    public static final String AES_WATCH_DEFAULT = "false";
+
+    /**
+     * The number of threads of a named function executor. The "default"
+     * executor is used by functions that have not been assigned one, and its
+     * settings apply to any executor that has not been configured.
+     */
+    public static final String EXECUTOR_THREADS = "qlik.sse.executor.%s.threads";
+    /**
+     * The default number of threads: one per available processor.
+     */
+    public static final String EXECUTOR_THREADS_DEFAULT = String.valueOf(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of batches that may wait for a thread of a named function
+     * executor before further batches are rejected.
+     */
+    public static final String EXECUTOR_QUEUE = "qlik.sse.executor.%s.queue";
+    /**
+     * The default queue limit.
+     */
+    public static final String EXECUTOR_QUEUE_DEFAULT = "256";
+
+    /**
+     * Whether small calls to the functions of a named executor may be
+     * processed inline, on the gRPC thread that receives them, outside the
+     * executor's limits. Unlike the other executor settings, this one is not
+     * taken from the "default" executor.
+     */
+    public static final String EXECUTOR_INLINE = "qlik.sse.executor.%s.inline";
+    /**
+     * Only the "default" executor allows inline calls by default.
+     */
+    public static final String EXECUTOR_INLINE_DEFAULT = "true";
+
+    /**
+     * The name of the executor that a function runs on, by function name like
+     * every per-function setting. Overrides the executor assigned in the
+     * PluginCapabilities.
+     */
+    public static final String FUNCTION_EXECUTOR = "qlik.sse.function.%s.executor";
+
+    /**
+     * Calls whose cardinality (as sent by Qlik) is at most this many rows
+     * are processed inline, on the gRPC thread that receives them, rather
+     * than on an executor. 0 sends every call to an executor.
+     */
+    public static final String INLINE_MAX_ROWS = "qlik.sse.inline.maxrows";
+    /**
+     * Calls of up to 1000 rows are processed inline by default.
+     */
+    public static final String INLINE_MAX_ROWS_DEFAULT = "1000";
+
+    /**
+     * How many batches of a call processed on an executor may be received
+     * ahead of the batch being processed.
+     */
+    public static final String READ_AHEAD = "qlik.sse.parallel.readahead";
+    /**
+     * One batch is received while the previous one is processed by default.
+     */
+    public static final String READ_AHEAD_DEFAULT = "1";
+
+    /**
+     * Calls processed on an executor whose cardinality (as sent by Qlik) is
+     * at most this many rows are interactive: their batches are taken ahead
+     * of those of bulk calls. Calls of unknown cardinality are bulk.
+     */
+    public static final String PRIORITY_INTERACTIVE_MAX_ROWS = "qlik.sse.priority.interactive.maxrows";
+    /**
+     * Calls of up to 100000 rows are interactive by default.
+     */
+    public static final String PRIORITY_INTERACTIVE_MAX_ROWS_DEFAULT = "100000";
+
+    /**
+     * How many batches of interactive calls an executor may take ahead of a
+     * waiting batch of a bulk call, before it takes the bulk one.
+     */
+    public static final String PRIORITY_INTERACTIVE_BURST = "qlik.sse.priority.interactive.burst";
+    /**
+     * Four interactive batches for each bulk one by default.
+     */
+    public static final String PRIORITY_INTERACTIVE_BURST_DEFAULT = "4";
+
+    /**
+     * A regular expression for the user ids (as sent by Qlik, e.g.
+     * "UserDirectory=INTERNAL; UserId=sa_scheduler") whose calls are always
+     * bulk, whatever their cardinality.
+     */
+    public static final String PRIORITY_BULK_USERS = "qlik.sse.priority.bulk.users";
+    /**
+     * No user's calls are bulk by default.
+     */
+    public static final String PRIORITY_BULK_USERS_DEFAULT = "";
+
+    /**
+     * A regular expression for the app ids whose calls are always bulk,
+     * whatever their cardinality.
+     */
+    public static final String PRIORITY_BULK_APPS = "qlik.sse.priority.bulk.apps";
+    /**
+     * No app's calls are bulk by default.
+     */
+    public static final String PRIORITY_BULK_APPS_DEFAULT = "";
+
+    /**
+     * The priority, interactive or bulk, of every call to the function with
+     * the given name, which takes precedence over the other rules.
+     */
+    public static final String FUNCTION_PRIORITY = "qlik.sse.function.%s.priority";
+
+    /**
+     * The kind of threads used to run calls: "platform" or "virtual". Virtual
+     * threads require Java 21 and a jar built with the jdk21 profile; if they
+     * are not available, platform threads are used.
+     */
+    public static final String THREAD_TYPE = "qlik.sse.threads";
+    /**
+     * Use virtual threads.
+     */
+    public static final String THREAD_TYPE_VIRTUAL = "virtual";
+    /**
+     * Platform threads are used by default.
+     */
+    public static final String THREAD_TYPE_DEFAULT = "platform";
+
+    /**
+     * Whether ExecuteFunction requests are received with the columnar
+     * marshaller, which decodes batches straight into columns for functions
+     * built on the Columnar base classes instead of parsing them into
+     * BundledRows first.
+     */
+    public static final String COLUMNAR_MARSHALLER = "qlik.sse.marshaller.columnar";
+    /**
+     * The standard protobuf marshaller is used by default.
+     */
+    public static final String COLUMNAR_MARSHALLER_DEFAULT = "false";
+
+    /**
+     * The directory that functions spill large intermediate results to.
+     * Empty for the system temporary directory.
+     */
+    public static final String SPILL_DIR = "qlik.sse.spill.dir";
+    /**
+     * The system temporary directory is used by default.
+     */
+    public static final String SPILL_DIR_DEFAULT = "";
+
+    /**
+     * The separator that StringAggregation puts between values.
+     */
+    public static final String STRING_AGGREGATION_SEPARATOR = "qlik.sse.plugin.stringaggregation.separator";
+    /**
+     * Values are concatenated without a separator by default.
+     */
+    public static final String STRING_AGGREGATION_SEPARATOR_DEFAULT = "";
+
+    /**
+     * The largest result StringAggregation returns, in UTF-8 bytes. The
+     * result is sent as a single message, so this should stay below the
+     * maximum message size the Qlik engine accepts.
+     */
+    public static final String STRING_AGGREGATION_MAX_BYTES = "qlik.sse.plugin.stringaggregation.maxbytes";
+    /**
+     * The default limit, just under gRPC's default 4 MB message size limit.
+     */
+    public static final String STRING_AGGREGATION_MAX_BYTES_DEFAULT = "4000000";
+
+    /**
+     * How large a StringAggregation result may grow on the heap before it
+     * is spilled to a memory-mapped temporary file, in bytes.
+     */
+    public static final String STRING_AGGREGATION_SPILL_BYTES = "qlik.sse.plugin.stringaggregation.spillbytes";
+    /**
+     * Results larger than 1 MB are spilled by default.
+     */
+    public static final String STRING_AGGREGATION_SPILL_BYTES_DEFAULT = "1048576";
+
+    /**
+     * What StringAggregation does when the result would exceed maxbytes:
+     * "truncate" returns the result cut at the limit and ending with "...",
+     * "fail" ends the call with RESOURCE_EXHAUSTED.
+     */
+    public static final String STRING_AGGREGATION_OVERFLOW = "qlik.sse.plugin.stringaggregation.overflow";
+    /**
+     * Truncate the result.
+     */
+    public static final String STRING_AGGREGATION_OVERFLOW_TRUNCATE = "truncate";
+    /**
+     * End the call with an error.
+     */
+    public static final String STRING_AGGREGATION_OVERFLOW_FAIL = "fail";
+    /**
+     * Results are truncated by default.
+     */
+    public static final String STRING_AGGREGATION_OVERFLOW_DEFAULT = STRING_AGGREGATION_OVERFLOW_TRUNCATE;
+
+    /**
+     * How many bytes of each column a whole-dataset tensor function stages
+     * on the heap before spilling to a memory-mapped temporary file.
+     */
+    public static final String DATASET_SPILL_BYTES = "qlik.sse.dataset.spillbytes";
+    /**
+     * Columns larger than 1 MB are spilled by default.
+     */
+    public static final String DATASET_SPILL_BYTES_DEFAULT = "1048576";
+
+    /**
+     * The number of rows in each batch of results that a generator function
+     * (including a whole-dataset tensor function) sends back.
+     */
+    public static final String GENERATOR_BATCH_ROWS = "qlik.sse.generator.batchrows";
+    /**
+     * Results are sent in batches of 5000 rows by default.
+     */
+    public static final String GENERATOR_BATCH_ROWS_DEFAULT = "5000";
+
+    /**
+     * How many batches of a stream an asynchronous function (see
+     * AsyncScalarFunction) may have in progress at once.
+     */
+    public static final String ASYNC_PENDING = "qlik.sse.async.pending";
+    /**
+     * Up to 8 batches by default.
+     */
+    public static final String ASYNC_PENDING_DEFAULT = "8";
+
+    /**
+     * The most time, in milliseconds, that a function may spend on one
+     * batch before the call is ended with DEADLINE_EXCEEDED. 0 for no limit.
+     * Also limits each batch of a script evaluation.
+     */
+    public static final String TIMEOUT_BATCH = "qlik.sse.timeout.batch";
+    /**
+     * Batches have no time limit by default.
+     */
+    public static final String TIMEOUT_BATCH_DEFAULT = "0";
+
+    /**
+     * The most time, in milliseconds, that a call to a function may take
+     * from start to end before it is ended with DEADLINE_EXCEEDED. 0 for no
+     * limit. A deadline set by the client applies as well.
+     */
+    public static final String TIMEOUT_STREAM = "qlik.sse.timeout.stream";
+    /**
+     * Calls have no time limit by default.
+     */
+    public static final String TIMEOUT_STREAM_DEFAULT = "0";
+
+    /**
+     * The batch timeout of the function with the given name, which takes
+     * precedence over the one set by the function and over qlik.sse.timeout.batch.
+     */
+    public static final String FUNCTION_TIMEOUT_BATCH = "qlik.sse.function.%s.timeout.batch";
+
+    /**
+     * The stream timeout of the function with the given name, which takes
+     * precedence over the one set by the function and over qlik.sse.timeout.stream.
+     */
+    public static final String FUNCTION_TIMEOUT_STREAM = "qlik.sse.function.%s.timeout.stream";
+
+    /**
+     * The most calls to the plugin's functions that may be in progress at
+     * once. Calls beyond it wait in the admission queue. 0 for no limit.
+     */
+    public static final String ADMISSION_LIMIT = "qlik.sse.admission.limit";
+    /**
+     * There is no overall limit by default.
+     */
+    public static final String ADMISSION_LIMIT_DEFAULT = "0";
+
+    /**
+     * The most calls that may wait to be admitted. A call that arrives while
+     * the queue is full is ended with RESOURCE_EXHAUSTED.
+     */
+    public static final String ADMISSION_QUEUE = "qlik.sse.admission.queue";
+    /**
+     * Up to 64 calls may wait by default.
+     */
+    public static final String ADMISSION_QUEUE_DEFAULT = "64";
+
+    /**
+     * How the limits on calls in progress adapt to the latency of the calls:
+     * fixed, aimd or gradient. The configured limits are the maximums.
+     */
+    public static final String ADMISSION_ALGORITHM = "qlik.sse.admission.algorithm";
+    /**
+     * The limits follow the latency gradient by default.
+     */
+    public static final String ADMISSION_ALGORITHM_DEFAULT = "gradient";
+
+    /**
+     * The most calls to the function with the given name that may be in
+     * progress at once, within qlik.sse.admission.limit. Not set for no limit.
+     */
+    public static final String FUNCTION_ADMISSION_LIMIT = "qlik.sse.function.%s.limit";
+
+    /**
+     * What calls are shared fairly between: "app" (each app id), "user"
+     * (each user id) or "app+user" (each user of each app).
+     */
+    public static final String FAIRSHARE_KEY = "qlik.sse.fairshare.key";
+    /**
+     * Calls are shared between apps by default.
+     */
+    public static final String FAIRSHARE_KEY_DEFAULT = "app";
+
+    /**
+     * The most calls for any one app that may be in progress at once. 0 for no limit.
+     */
+    public static final String ADMISSION_APP_LIMIT = "qlik.sse.admission.app.limit";
+    /**
+     * There is no limit per app by default.
+     */
+    public static final String ADMISSION_APP_LIMIT_DEFAULT = "0";
+
+    /**
+     * The most calls for the app with the given id that may be in progress
+     * at once, which takes precedence over qlik.sse.admission.app.limit.
+     */
+    public static final String APP_LIMIT = "qlik.sse.app.%s.limit";
+
+    /**
+     * The share of the plugin that the app with the given id gets, relative
+     * to other apps, when calls wait to be admitted or batches wait for a
+     * thread. 1 if not set.
+     */
+    public static final String APP_WEIGHT = "qlik.sse.app.%s.weight";
+
+    /**
+     * Whether the CPU time and heap allocations of each batch are measured
+     * and charged to its function, app and user.
+     */
+    public static final String ACCOUNTING = "qlik.sse.accounting";
+    /**
+     * Costs are accounted for by default.
+     */
+    public static final String ACCOUNTING_DEFAULT = "true";
 
     /**
      * Get the default properties.
@@ -106,10 +606,70 @@ public class ServerProperties {
         props.setProperty(AES_NONCE, AES_NONCE_DEFAULT);
         props.setProperty(AES_KEY, AES_KEY_DEFAULT);
         props.setProperty(AES_SALT, AES_SALT_DEFAULT);
+        props.setProperty(AES_WATCH, AES_WATCH_DEFAULT);
+        props.setProperty(THREAD_TYPE, THREAD_TYPE_DEFAULT);
+        props.setProperty(COLUMNAR_MARSHALLER, COLUMNAR_MARSHALLER_DEFAULT);
+        props.setProperty(SPILL_DIR, SPILL_DIR_DEFAULT);
+        props.setProperty(STRING_AGGREGATION_SEPARATOR, STRING_AGGREGATION_SEPARATOR_DEFAULT);
+        props.setProperty(STRING_AGGREGATION_MAX_BYTES, STRING_AGGREGATION_MAX_BYTES_DEFAULT);
+        props.setProperty(STRING_AGGREGATION_SPILL_BYTES, STRING_AGGREGATION_SPILL_BYTES_DEFAULT);
+        props.setProperty(STRING_AGGREGATION_OVERFLOW, STRING_AGGREGATION_OVERFLOW_DEFAULT);
+        props.setProperty(DATASET_SPILL_BYTES, DATASET_SPILL_BYTES_DEFAULT);
+        props.setProperty(GENERATOR_BATCH_ROWS, GENERATOR_BATCH_ROWS_DEFAULT);
+        props.setProperty(ASYNC_PENDING, ASYNC_PENDING_DEFAULT);
+        props.setProperty(TIMEOUT_BATCH, TIMEOUT_BATCH_DEFAULT);
+        props.setProperty(TIMEOUT_STREAM, TIMEOUT_STREAM_DEFAULT);
+        props.setProperty(ADMISSION_LIMIT, ADMISSION_LIMIT_DEFAULT);
+        props.setProperty(ADMISSION_QUEUE, ADMISSION_QUEUE_DEFAULT);
+        props.setProperty(ADMISSION_ALGORITHM, ADMISSION_ALGORITHM_DEFAULT);
+        props.setProperty(ADMISSION_APP_LIMIT, ADMISSION_APP_LIMIT_DEFAULT);
+        props.setProperty(FAIRSHARE_KEY, FAIRSHARE_KEY_DEFAULT);
+        props.setProperty(ACCOUNTING, ACCOUNTING_DEFAULT);
+        props.setProperty(String.format(EXECUTOR_THREADS, "default"), EXECUTOR_THREADS_DEFAULT);
+        props.setProperty(String.format(EXECUTOR_QUEUE, "default"), EXECUTOR_QUEUE_DEFAULT);
+        props.setProperty(String.format(EXECUTOR_INLINE, "default"), EXECUTOR_INLINE_DEFAULT);
+        props.setProperty(INLINE_MAX_ROWS, INLINE_MAX_ROWS_DEFAULT);
+        props.setProperty(READ_AHEAD, READ_AHEAD_DEFAULT);
+        props.setProperty(PRIORITY_INTERACTIVE_MAX_ROWS, PRIORITY_INTERACTIVE_MAX_ROWS_DEFAULT);
+        props.setProperty(PRIORITY_INTERACTIVE_BURST, PRIORITY_INTERACTIVE_BURST_DEFAULT);
+        props.setProperty(PRIORITY_BULK_USERS, PRIORITY_BULK_USERS_DEFAULT);
+        props.setProperty(PRIORITY_BULK_APPS, PRIORITY_BULK_APPS_DEFAULT);
+        props.setProperty(SERVERS, SERVERS_DEFAULT);
+        props.setProperty(MEMORY_BUDGET, MEMORY_BUDGET_DEFAULT);
+        props.setProperty(PLUGIN_DIR, PLUGIN_DIR_DEFAULT);
+        props.setProperty(PLUGIN_DIR_INTERVAL, PLUGIN_DIR_INTERVAL_DEFAULT);
+        props.setProperty(FUNCTION_INIT, FUNCTION_INIT_DEFAULT);
+        props.setProperty(FUNCTION_INIT_THREADS, FUNCTION_INIT_THREADS_DEFAULT);
+        props.setProperty(WARMUP, WARMUP_DEFAULT);
+        props.setProperty(WARMUP_ROWS, WARMUP_ROWS_DEFAULT);
+        props.setProperty(WARMUP_BATCHES, WARMUP_BATCHES_DEFAULT);
+        props.setProperty(WARMUP_MILLIS, WARMUP_MILLIS_DEFAULT);
+        props.setProperty(WARMUP_TOLERANCE, WARMUP_TOLERANCE_DEFAULT);
+        props.setProperty(WARMUP_EXCLUDE, WARMUP_EXCLUDE_DEFAULT);
 
         return props;
     }
 
+    /**
+     * Get the properties of a hosted plugin: those of the application,
+     * overridden by any set for the plugin with SERVER_PROPERTIES.
+     *
+     * @param props the application properties.
+     * @param name the name of the plugin, as listed in SERVERS.
+     * @return the properties of the plugin.
+     */
+    public static Properties forServer(Properties props, String name) {
+        String prefix = String.format(SERVER_PROPERTIES, name);
+        Properties server = new Properties(props);
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                server.setProperty("qlik.sse." + key.substring(prefix.length()), props.getProperty(key));
+            }
+        }
+        server.setProperty(SERVER_NAME, name);
+        return server;
+    }
+
     /**
      * private to prevent explicit object creation
      */
@@ -0,0 +1,382 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.server;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlik.sse.ConnectorGrpc;
+import qlik.sse.ServerSideExtension.BundledRows;
+import qlik.sse.ServerSideExtension.Capabilities;
+import qlik.sse.ServerSideExtension.CommonRequestHeader;
+import qlik.sse.ServerSideExtension.Dual;
+import qlik.sse.ServerSideExtension.Empty;
+import qlik.sse.ServerSideExtension.FunctionDefinition;
+import qlik.sse.ServerSideExtension.FunctionRequestHeader;
+import qlik.sse.ServerSideExtension.Parameter;
+import qlik.sse.ServerSideExtension.Row;
+import qlik.sse.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.grpc.Metadata.BINARY_BYTE_MARSHALLER;
+
+/**
+ * Warms up the JIT before a server accepts calls from Qlik.
+ *
+ * Right after a restart the plugin runs interpreted, or in code compiled
+ * without profile, and the first calls from Qlik are slow. When
+ * qlik.sse.warmup is set, the server rejects calls to the Connector with
+ * UNAVAILABLE and reports NOT_SERVING through the HealthService while every
+ * function of the plugin is called with synthetic rows built from the types
+ * of its parameters. The calls go through an in-process server with the same
+ * service definition and interceptor as the real one, so that the dispatch
+ * path, the marshalling and the functions are all compiled by the time Qlik
+ * calls. A function is warm once its throughput has changed by no more than
+ * qlik.sse.warmup.tolerance over two rounds; when all are warm, or the time
+ * allowed has passed, the server reports SERVING and lets calls through.
+ *
+ * A function that fails on synthetic rows (e.g. one that decrypts its
+ * input) is left out of the warm-up, and can be left out up front with
+ * qlik.sse.warmup.exclude. Warm-up calls are made for the app "warmup".
+ */
+public class WarmUp implements WarmUpMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(WarmUp.class);
+    private static final Metadata.Key<byte[]> FUNCTION_HEADER_KEY =
+            Metadata.Key.of("qlik-functionrequestheader-bin", BINARY_BYTE_MARSHALLER);
+    private static final Metadata.Key<byte[]> COMMON_HEADER_KEY =
+            Metadata.Key.of("qlik-commonrequestheader-bin", BINARY_BYTE_MARSHALLER);
+    private static final String APP_ID = "warmup";
+    private static final int SETTLED_ROUNDS = 2;
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private final ServerServiceDefinition service;
+    private final Plugin plugin;
+    private final HealthService health;
+    private final int rows;
+    private final int batches;
+    private final long maxNanos;
+    private final double tolerance;
+    private final Set<Integer> excluded = new HashSet<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private volatile int functions;
+    private volatile int settledFunctions;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean ready;
+    private Thread thread;
+
+    /**
+     * Creates the warm-up of a server.
+     *
+     * @param service the service definition of the plugin, as registered with the server.
+     * @param plugin the plugin, for the interceptor.
+     * @param health the health service to report readiness through.
+     * @param props the properties of the plugin.
+     */
+    public WarmUp(ServerServiceDefinition service, Plugin plugin, HealthService health, Properties props) {
+        this.service = service;
+        this.plugin = plugin;
+        this.health = health;
+        this.rows = Math.max(1, Integer.parseInt(props.getProperty(ServerProperties.WARMUP_ROWS,
+                ServerProperties.WARMUP_ROWS_DEFAULT)));
+        this.batches = Math.max(1, Integer.parseInt(props.getProperty(ServerProperties.WARMUP_BATCHES,
+                ServerProperties.WARMUP_BATCHES_DEFAULT)));
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(props.getProperty(ServerProperties.WARMUP_MILLIS,
+                ServerProperties.WARMUP_MILLIS_DEFAULT)));
+        this.tolerance = Double.parseDouble(props.getProperty(ServerProperties.WARMUP_TOLERANCE,
+                ServerProperties.WARMUP_TOLERANCE_DEFAULT));
+        for (String id : props.getProperty(ServerProperties.WARMUP_EXCLUDE, ServerProperties.WARMUP_EXCLUDE_DEFAULT).split(",")) {
+            if (!id.trim().isEmpty()) {
+                excluded.add(Integer.parseInt(id.trim()));
+            }
+        }
+    }
+
+    /**
+     * Get the interceptor that rejects calls with UNAVAILABLE until the
+     * warm-up has finished. It is applied to the Connector service only, so
+     * that the health service answers throughout.
+     *
+     * @return the interceptor.
+     */
+    public ServerInterceptor gate() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                if (ready) {
+                    return next.startCall(call, headers);
+                }
+                call.close(Status.UNAVAILABLE.withDescription("The server is warming up."), new Metadata());
+                return new ServerCall.Listener<ReqT>() {};
+            }
+        };
+    }
+
+    /**
+     * Start warming up on a background thread.
+     */
+    public synchronized void start() {
+        health.setStatus(HealthService.SERVER, ServingStatus.NOT_SERVING);
+        health.setStatus(ConnectorGrpc.SERVICE_NAME, ServingStatus.NOT_SERVING);
+        thread = new Thread(this::run, "sse-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop warming up, e.g. because the server is shutting down. The server
+     * does not become ready.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        startNanos = System.nanoTime();
+        long deadline = startNanos + maxNanos;
+        String name = "sse-warmup-" + COUNT.incrementAndGet();
+        Server server = null;
+        ManagedChannel channel = null;
+        try {
+            server = InProcessServerBuilder.forName(name)
+                    .addService(service)
+                    .intercept(new PluginServerInterceptor(plugin))
+                    .build()
+                    .start();
+            channel = InProcessChannelBuilder.forName(name).build();
+            Capabilities capabilities = ConnectorGrpc.newBlockingStub(channel)
+                    .withDeadlineAfter(maxNanos, TimeUnit.NANOSECONDS)
+                    .getCapabilities(Empty.getDefaultInstance());
+
+            List<Target> targets = new ArrayList<>();
+            for (FunctionDefinition definition : capabilities.getFunctionsList()) {
+                if (!excluded.contains(definition.getFunctionId())) {
+                    targets.add(new Target(definition));
+                }
+            }
+            functions = targets.size();
+            LOG.info("Warming up " + functions + " functions.");
+
+            while (!targets.isEmpty() && System.nanoTime() < deadline) {
+                for (Iterator<Target> it = targets.iterator(); it.hasNext(); ) {
+                    Target target = it.next();
+                    try {
+                        if (target.round(channel, deadline)) {
+                            settledFunctions++;
+                            it.remove();
+                            LOG.debug("Function " + target.definition.getName() + " is warm at "
+                                    + Math.round(target.previous) + " rows/s after " + target.rounds + " rounds.");
+                        }
+                    } catch (StatusRuntimeException e) {
+                        if (e.getStatus().getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                            break;
+                        }
+                        failedCalls.incrementAndGet();
+                        it.remove();
+                        LOG.warn("Function " + target.definition.getName() + " failed on synthetic rows and is not warmed up: "
+                                + e.getStatus());
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            if (!targets.isEmpty()) {
+                LOG.info(targets.size() + " functions had not settled when the warm-up ran out of time.");
+            }
+        } catch (InterruptedException e) {
+            LOG.info("Warm-up stopped.");
+            return;
+        } catch (Exception e) {
+            LOG.warn("Could not warm up the server; accepting calls without it.", e);
+        } finally {
+            if (channel != null) {
+                channel.shutdownNow();
+            }
+            if (server != null) {
+                server.shutdownNow();
+            }
+        }
+        endNanos = System.nanoTime();
+        ready = true;
+        health.setStatus(HealthService.SERVER, ServingStatus.SERVING);
+        health.setStatus(ConnectorGrpc.SERVICE_NAME, ServingStatus.SERVING);
+        LOG.info("Warmed up in " + getElapsedMillis() + " ms with " + calls.get() + " calls; accepting calls.");
+    }
+
+    /**
+     * A function being warmed up, with the rows it is called with.
+     */
+    private final class Target {
+        private final FunctionDefinition definition;
+        private final List<BundledRows> bulk = new ArrayList<>();
+        private final List<BundledRows> single = new ArrayList<>();
+        private double previous;
+        private int stable;
+        private int rounds;
+
+        Target(FunctionDefinition definition) {
+            this.definition = definition;
+            for (int batch = 0; batch < batches; batch++) {
+                bulk.add(rows(batch * rows, rows));
+            }
+            single.add(rows(0, 1));
+        }
+
+        /**
+         * Call the function once with a single row, so that the path taken
+         * for small calls is warmed as well, and once with every batch.
+         *
+         * @return true if the throughput of the function has settled.
+         */
+        boolean round(ManagedChannel channel, long deadline) throws InterruptedException {
+            call(channel, single, deadline);
+            long start = System.nanoTime();
+            call(channel, bulk, deadline);
+            double rate = (double) rows * batches * TimeUnit.SECONDS.toNanos(1) / Math.max(1, System.nanoTime() - start);
+            rounds++;
+            if (previous > 0 && Math.abs(rate - previous) <= tolerance * previous) {
+                stable++;
+            } else {
+                stable = 0;
+            }
+            previous = rate;
+            return stable >= SETTLED_ROUNDS;
+        }
+
+        private void call(ManagedChannel channel, List<BundledRows> request, long deadline) throws InterruptedException {
+            long cardinality = 0;
+            for (BundledRows rows : request) {
+                cardinality += rows.getRowsCount();
+            }
+            Metadata headers = new Metadata();
+            headers.put(FUNCTION_HEADER_KEY, FunctionRequestHeader.newBuilder()
+                    .setFunctionId(definition.getFunctionId()).build().toByteArray());
+            headers.put(COMMON_HEADER_KEY, CommonRequestHeader.newBuilder()
+                    .setAppId(APP_ID).setCardinality(cardinality).build().toByteArray());
+            ConnectorGrpc.ConnectorStub stub = MetadataUtils.attachHeaders(ConnectorGrpc.newStub(channel), headers)
+                    .withDeadlineAfter(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            StreamObserver<BundledRows> requests = stub.executeFunction(new StreamObserver<BundledRows>() {
+                @Override
+                public void onNext(BundledRows value) { }
+
+                @Override
+                public void onError(Throwable t) {
+                    error.set(t);
+                    done.countDown();
+                }
+
+                @Override
+                public void onCompleted() {
+                    done.countDown();
+                }
+            });
+            for (BundledRows rows : request) {
+                requests.onNext(rows);
+            }
+            requests.onCompleted();
+            calls.incrementAndGet();
+            done.await();
+            if (error.get() != null) {
+                throw Status.fromThrowable(error.get()).asRuntimeException();
+            }
+        }
+
+        /**
+         * Build a batch of synthetic rows that match the parameters of the
+         * function: small positive numbers for numeric parameters, and
+         * strings that repeat every hundred rows for string parameters.
+         */
+        private BundledRows rows(int first, int count) {
+            BundledRows.Builder builder = BundledRows.newBuilder();
+            for (int row = first; row < first + count; row++) {
+                Row.Builder values = Row.newBuilder();
+                for (int param = 0; param < definition.getParamsCount(); param++) {
+                    Parameter parameter = definition.getParams(param);
+                    Dual.Builder dual = Dual.newBuilder();
+                    switch (parameter.getDataType()) {
+                        case STRING:
+                            dual.setStrData("warmup-" + row % 100);
+                            break;
+                        case NUMERIC:
+                            dual.setNumData((row + param) % 10 + 1);
+                            break;
+                        default:
+                            dual.setStrData("warmup-" + row % 100).setNumData((row + param) % 10 + 1);
+                            break;
+                    }
+                    values.addDuals(dual);
+                }
+                builder.addRows(values);
+            }
+            return builder.build();
+        }
+    }
+
+    @Override
+    public boolean isReady() { return ready; }
+
+    @Override
+    public long getElapsedMillis() {
+        long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = ready ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - start);
+    }
+
+    @Override
+    public long getCalls() { return calls.get(); }
+
+    @Override
+    public long getFailedCalls() { return failedCalls.get(); }
+
+    @Override
+    public int getFunctions() { return functions; }
+
+    @Override
+    public int getSettledFunctions() { return settledFunctions; }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.server;
+
+/**
+ * Metrics of the warm-up of a server, registered as
+ * qlik.sse:type=WarmUp,name=default.
+ */
+public interface WarmUpMXBean {
+    /**
+     * @return true once the server has finished warming up and accepts calls.
+     */
+    boolean isReady();
+
+    /**
+     * @return the time spent warming up so far, or in total once ready, in milliseconds.
+     */
+    long getElapsedMillis();
+
+    /**
+     * @return the number of warm-up calls made.
+     */
+    long getCalls();
+
+    /**
+     * @return the number of warm-up calls that failed.
+     */
+    long getFailedCalls();
+
+    /**
+     * @return the number of functions being warmed up.
+     */
+    int getFunctions();
+
+    /**
+     * @return the number of functions whose throughput has settled.
+     */
+    int getSettledFunctions();
+}
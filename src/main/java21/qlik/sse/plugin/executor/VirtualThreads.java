@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qlik.sse.plugin.executor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads.
+ *
+ * This is the Java 21 version of the class. It is compiled by the jdk21
+ * profile into META-INF/versions/21 of a multi-release jar and replaces the
+ * Java 8 version when the jar runs on Java 21 or later.
+ */
+public final class VirtualThreads {
+
+    /**
+     * Determine whether virtual threads can be used.
+     * @return true.
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Create a factory for virtual threads.
+     * @param prefix the prefix for the names of the threads.
+     * @return a ThreadFactory that creates virtual threads.
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        return Thread.ofVirtual().name(prefix + "-", 1).factory();
+    }
+
+    /**
+     * Create an executor that runs each task on a new virtual thread.
+     * @param prefix the prefix for the names of the threads.
+     * @return the executor.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        return Executors.newThreadPerTaskExecutor(newThreadFactory(prefix));
+    }
+
+    /**
+     * private to prevent explicit object creation
+     */
+    private VirtualThreads() { super(); }
+}